@@ -0,0 +1,146 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Concurrency limit adjusted with additive increase / multiplicative
+ * decrease.
+ * <p>
+ * Every call that completes in time grows the limit by {@code 1/limit}, so
+ * about one slot per round of calls. A call that fails with an overload
+ * fault, or takes longer than {@code tolerance} times the smoothed latency,
+ * halves it, at most once per smoothed latency so that a burst of failures
+ * from the same round only counts once. Latencies are smoothed per method,
+ * since a cheap call and a large retrieval cannot be compared.
+ */
+public class AdaptiveLimiter {
+
+    public enum Outcome {
+        SUCCESS,
+        OVERLOAD,
+        /**
+         * Completed without telling anything about the load, e.g. a fatal fault.
+         */
+        IGNORE
+    }
+
+    private static final double LATENCY_ALPHA = 0.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double tolerance;
+
+    private double limit;
+    private int inFlight;
+    private final Map<String, double[]> smoothedLatencies = new HashMap<String, double[]>();
+    private long lastDecreaseNanos;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 0.5, 2.0);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit,
+            double backoffRatio, double tolerance) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("invalid limits");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Waits for a free slot.
+     *
+     * @return false if none became free before the timeout
+     */
+    public synchronized boolean acquire(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (inFlight >= getLimit()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Frees the slot of a call and adjusts the limit from its outcome.
+     */
+    public void release(long latencyNanos, Outcome outcome) {
+        release("", latencyNanos, outcome);
+    }
+
+    /**
+     * Frees the slot of a call of the method, comparing its latency with
+     * the smoothed latency of that method only.
+     */
+    public synchronized void release(String method, long latencyNanos, Outcome outcome) {
+        inFlight--;
+        double[] smoothed = smoothedLatencies.get(method);
+        if (outcome == Outcome.SUCCESS) {
+            if (smoothed != null && latencyNanos > smoothed[0] * tolerance) {
+                decrease(smoothed[0]);
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            if (smoothed == null) {
+                smoothedLatencies.put(method, new double[]{latencyNanos});
+            } else {
+                smoothed[0] += LATENCY_ALPHA * (latencyNanos - smoothed[0]);
+            }
+        } else if (outcome == Outcome.OVERLOAD) {
+            decrease(smoothed == null ? 0 : smoothed[0]);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public long getSmoothedLatencyNanos() {
+        return getSmoothedLatencyNanos("");
+    }
+
+    /**
+     * Smoothed latency of the method, -1 before its first success.
+     */
+    public synchronized long getSmoothedLatencyNanos(String method) {
+        double[] smoothed = smoothedLatencies.get(method);
+        return smoothed == null ? -1 : (long) smoothed[0];
+    }
+
+    private void decrease(double latencyNanos) {
+        long now = System.nanoTime();
+        if (lastDecreaseNanos != 0 && now - lastDecreaseNanos < latencyNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+}
@@ -0,0 +1,743 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.xml.soap.SOAPFault;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UserSession;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.VimService;
+
+/**
+ * Thread-safe {@link Connection} which logs in lazily on the first
+ * {@link #connect()} and keeps the {@link ServiceContent} for the life of
+ * the connection.
+ * <p>
+ * The port handed out by {@link #getVimPort()} logs in again and retries
+ * the call once when the server answers NotAuthenticated, so an expired
+ * session is renewed without the caller noticing. Calls on the port are
+ * serialized, go through the {@link EndpointGovernor} of the endpoint, and
+ * each one updates the {@link SessionState} and the round trip time of the
+ * session.
+ * <p>
+ * A connection created by {@link #cloneConnection()} has no password: it
+ * logs in with a clone ticket of its parent connection instead.
+ * <p>
+ * With a {@link SessionStore}, the first login tries the session stored by
+ * a previous process before sending the password, and a new session is
+ * stored for the next one. {@link #detach()} leaves such a session open.
+ */
+public class BasicConnection implements Connection {
+    private static final Logger logger =
+            LoggerFactory.getLogger(BasicConnection.class);
+
+    public static final String SERVICE_INSTANCE = "ServiceInstance";
+
+    private String url;
+    private String username;
+    private String password;
+    private TransportConfig transportConfig = TransportConfig.getDefault();
+    private BasicConnection parent;
+    private SessionStore sessionStore = SessionStore.getDefault();
+    private boolean storeClaimed;
+    private boolean resumeTried;
+    // set when the connection runs over a given port, see the constructor
+    private VimPortType givenPort;
+
+    private VimPortType rawPort;
+    private VimPortType vimPort;
+    private ServiceContent serviceContent;
+    private volatile UserSession userSession;
+    private volatile String sessionCookie;
+    private int loginCount;
+
+    private final ReentrantLock callLock = new ReentrantLock();
+    private volatile SessionState state = SessionState.DISCONNECTED;
+    private volatile long loginTime;
+    private volatile long lastSuccessTime;
+    private volatile long lastRoundTripNanos = -1;
+
+    public BasicConnection() {
+    }
+
+    public BasicConnection(String url, String username, String password) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Connection which logs in on the given port rather than on one created
+     * by {@link VimServiceBootstrap}, and uses it again after a disconnect.
+     * It has no {@link SessionStore}.
+     */
+    public BasicConnection(String url, String username, String password, VimPortType port) {
+        this(url, username, password);
+        this.givenPort = port;
+        this.sessionStore = null;
+    }
+
+    @Override
+    public synchronized String getUrl() {
+        return url;
+    }
+
+    @Override
+    public synchronized void setUrl(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public String getHost() {
+        return getURL().getHost();
+    }
+
+    @Override
+    public Integer getPort() {
+        URL u = getURL();
+        return u.getPort() == -1 ? u.getDefaultPort() : u.getPort();
+    }
+
+    @Override
+    public synchronized String getUsername() {
+        return username;
+    }
+
+    @Override
+    public synchronized void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public synchronized String getPassword() {
+        return password;
+    }
+
+    @Override
+    public synchronized void setPassword(String password) {
+        this.password = password;
+    }
+
+    public synchronized TransportConfig getTransportConfig() {
+        return transportConfig;
+    }
+
+    /**
+     * Sets the transport used for the port created on the next login.
+     */
+    public synchronized void setTransportConfig(TransportConfig transportConfig) {
+        this.transportConfig = transportConfig;
+    }
+
+    @Override
+    public VimService getVimService() {
+        return VimServiceBootstrap.getService();
+    }
+
+    @Override
+    public synchronized VimPortType getVimPort() {
+        connect();
+        return vimPort;
+    }
+
+    @Override
+    public synchronized ServiceContent getServiceContent() {
+        connect();
+        return serviceContent;
+    }
+
+    @Override
+    public UserSession getUserSession() {
+        return userSession;
+    }
+
+    @Override
+    public String getServiceInstanceName() {
+        return SERVICE_INSTANCE;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public synchronized Map getHeaders() {
+        if (rawPort == null) {
+            return Collections.emptyMap();
+        }
+        Object headers = ((BindingProvider) rawPort).getResponseContext()
+                .get(MessageContext.HTTP_RESPONSE_HEADERS);
+        return headers instanceof Map ? (Map) headers : Collections.emptyMap();
+    }
+
+    /**
+     * The vmware_soap_session cookie of the current login, or null.
+     */
+    public String getSessionCookie() {
+        return sessionCookie;
+    }
+
+    /**
+     * Creates another port on the current session. Its calls go through the
+     * {@link EndpointGovernor} of the endpoint like those of the main port.
+     * The port carries the session cookie but no reconnect logic: callers on
+     * it must call {@link #reconnect()} and {@link #attachSession(VimPortType)}
+     * again when it fails with NotAuthenticated.
+     */
+    public VimPortType newSessionPort() {
+        connect();
+        VimPortType port = governed(VimServiceBootstrap.newPort(getUrl(), getTransportConfig()));
+        attachSession(port);
+        return port;
+    }
+
+    /**
+     * Points a port created by {@link #newSessionPort()} at the current session.
+     */
+    public void attachSession(VimPortType port) {
+        String cookie = sessionCookie;
+        if (cookie == null) {
+            throw new ConnectionException(new IllegalStateException("no session cookie for " + url));
+        }
+        setCookie(port, cookie);
+        ((BindingProvider) port).getRequestContext().put(BindingProvider.SESSION_MAINTAIN_PROPERTY, false);
+    }
+
+    private static void setCookie(VimPortType port, String cookie) {
+        Map<String, Object> ctxt = ((BindingProvider) port).getRequestContext();
+        Map<String, List<String>> headers = TransportConfig.requestHeaders(ctxt);
+        if (cookie == null) {
+            headers.remove("Cookie");
+        } else {
+            headers.put("Cookie", Collections.singletonList(cookie));
+        }
+        ctxt.put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+    }
+
+    /**
+     * Acquires a one-time ticket which lets another port join a new session
+     * with the identity of this one, see {@link #cloneConnection()}.
+     */
+    public String acquireCloneTicket() {
+        VimPortType port = getVimPort();
+        try {
+            return port.acquireCloneTicket(getServiceContent().getSessionManager());
+        } catch (RuntimeFaultFaultMsg e) {
+            throw new ConnectionException(e);
+        }
+    }
+
+    /**
+     * Creates a connection on a new session cloned from this one. The clone
+     * has its own port, so it can be used concurrently with this connection,
+     * and costs an acquireCloneTicket and a cloneSession call instead of a
+     * password login. When its session expires, the clone logs in again
+     * with a fresh ticket of this connection.
+     */
+    public BasicConnection cloneConnection() {
+        BasicConnection clone = new BasicConnection(getUrl(), getUsername(), null);
+        clone.parent = this;
+        clone.setTransportConfig(getTransportConfig());
+        clone.setSessionStore(null);
+        clone.connect();
+        return clone;
+    }
+
+    public synchronized SessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    /**
+     * Sets the store used on the next login, null to not store the session.
+     */
+    public synchronized void setSessionStore(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * Whether the session is kept in a {@link SessionStore} for the next process.
+     */
+    public synchronized boolean isStored() {
+        return storeClaimed && isConnected();
+    }
+
+    /**
+     * The connection this one was cloned from, or null.
+     */
+    public BasicConnection getParent() {
+        return parent;
+    }
+
+    @Override
+    public URL getURL() {
+        try {
+            return new URL(getUrl());
+        } catch (MalformedURLException e) {
+            throw new ConnectionException(e);
+        }
+    }
+
+    @Override
+    public ManagedObjectReference getServiceInstanceReference() {
+        ManagedObjectReference serviceInstance = new ManagedObjectReference();
+        serviceInstance.setType(SERVICE_INSTANCE);
+        serviceInstance.setValue(SERVICE_INSTANCE);
+        return serviceInstance;
+    }
+
+    /**
+     * Logs in unless already connected. Cheap to call repeatedly.
+     */
+    @Override
+    public synchronized Connection connect() {
+        if (!isConnected()) {
+            login();
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return userSession != null;
+    }
+
+    public SessionState getState() {
+        return state;
+    }
+
+    /**
+     * Milliseconds since the current session was logged in, -1 when not connected.
+     */
+    public long getSessionAgeMillis() {
+        return isConnected() ? System.currentTimeMillis() - loginTime : -1;
+    }
+
+    /**
+     * Time in milliseconds of the last call that reached the server successfully.
+     */
+    public long getLastSuccessTime() {
+        return lastSuccessTime;
+    }
+
+    /**
+     * Round trip of the last successful call in nanoseconds, -1 before the first one.
+     */
+    public long getLastRoundTripNanos() {
+        return lastRoundTripNanos;
+    }
+
+    /**
+     * Checks the session with a currentTime call unless the port is busy, in
+     * which case the session is in use and known to be alive. An expired
+     * session is logged in again right away.
+     *
+     * @return false if the endpoint could not be reached
+     */
+    public boolean ping() {
+        VimPortType port;
+        synchronized (this) {
+            port = rawPort;
+        }
+        if (port == null || !isConnected()) {
+            return false;
+        }
+        if (!callLock.tryLock()) {
+            return true;
+        }
+        try {
+            long start = System.nanoTime();
+            try {
+                port.currentTime(getServiceInstanceReference());
+                succeeded(start);
+                return true;
+            } catch (Exception e) {
+                failed(e);
+                if (state == SessionState.UNREACHABLE) {
+                    logger.warn("keepalive to {} failed: {}", url, e.getMessage());
+                    return false;
+                }
+                if (state != SessionState.EXPIRED) {
+                    return true;
+                }
+            }
+            logger.info("session to {} expired, logging in again", url);
+            reconnect();
+            return true;
+        } catch (ConnectionException e) {
+            state = SessionState.UNREACHABLE;
+            return false;
+        } finally {
+            callLock.unlock();
+        }
+    }
+
+    /**
+     * Logs in again on the same port, replacing the current session.
+     */
+    public synchronized Connection reconnect() {
+        userSession = null;
+        login();
+        return this;
+    }
+
+    /**
+     * Number of logins done by this connection, including the transparent
+     * ones after a session expired.
+     */
+    public synchronized int getLoginCount() {
+        return loginCount;
+    }
+
+    @Override
+    public synchronized Connection disconnect() {
+        if (isConnected()) {
+            try {
+                rawPort.logout(serviceContent.getSessionManager());
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                logger.debug("logout from {} failed: {}", url, e.getMessage());
+            } finally {
+                if (storeClaimed) {
+                    sessionStore.delete(url, username);
+                }
+                clear();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Forgets the session without logging it out, so that the next process
+     * can resume it from the {@link SessionStore}. Logs out a session which
+     * is not stored.
+     */
+    public synchronized Connection detach() {
+        if (!isStored()) {
+            return disconnect();
+        }
+        logger.debug("leaving the stored session to {} open", url);
+        clear();
+        return this;
+    }
+
+    private void clear() {
+        if (storeClaimed) {
+            sessionStore.unclaim(url, username);
+            storeClaimed = false;
+        }
+        userSession = null;
+        sessionCookie = null;
+        serviceContent = null;
+        rawPort = null;
+        vimPort = null;
+        resumeTried = false;
+        state = SessionState.DISCONNECTED;
+    }
+
+    private void login() {
+        if (url == null) {
+            throw new ConnectionException(new IllegalStateException("url is not set"));
+        }
+        try {
+            if (rawPort == null && givenPort != null) {
+                rawPort = givenPort;
+                vimPort = reconnecting(rawPort);
+            } else if (rawPort == null) {
+                // Disable security check for development only
+                // Need to change this part of code for production env
+                DisableSecurity.trustEveryone();
+
+                rawPort = VimServiceBootstrap.newPort(url, transportConfig);
+                vimPort = reconnecting(rawPort);
+            }
+            if (sessionStore != null && parent == null && !resumeTried) {
+                resumeTried = true;
+                storeClaimed = sessionStore.claim(url, username);
+                if (storeClaimed && resume()) {
+                    loggedIn();
+                    return;
+                }
+            }
+            if (serviceContent == null) {
+                serviceContent = parent != null ? parent.getServiceContent()
+                        : rawPort.retrieveServiceContent(getServiceInstanceReference());
+            }
+            // a resumed session left its cookie on the port
+            setCookie(rawPort, null);
+            if (parent != null) {
+                // the ticket must be redeemed on a port without a session cookie
+                userSession = rawPort.cloneSession(serviceContent.getSessionManager(),
+                        parent.acquireCloneTicket());
+            } else {
+                userSession = rawPort.login(serviceContent.getSessionManager(),
+                        username, password, null);
+            }
+            sessionCookie = readSessionCookie(rawPort);
+            if (storeClaimed && sessionCookie != null) {
+                sessionStore.save(url, username, password, sessionCookie, serviceContent);
+            }
+            loggedIn();
+        } catch (Exception e) {
+            state = isNotAuthenticated(e) ? SessionState.EXPIRED : SessionState.UNREACHABLE;
+            throw new ConnectionException(e);
+        }
+    }
+
+    private void loggedIn() {
+        loginCount++;
+        loginTime = System.currentTimeMillis();
+        lastSuccessTime = loginTime;
+        state = SessionState.ALIVE;
+    }
+
+    /**
+     * Puts the stored session on the port and checks that the server still
+     * knows it. The stored entry is dropped when it does not, or when it was
+     * logged in with another password.
+     */
+    private boolean resume() {
+        SessionStore.StoredSession stored = sessionStore.load(url, username, password);
+        if (stored == null) {
+            sessionStore.delete(url, username);
+            return false;
+        }
+        setCookie(rawPort, stored.getCookie());
+        try {
+            UserSession session = currentSession(rawPort, stored.getServiceContent());
+            if (session != null) {
+                serviceContent = stored.getServiceContent();
+                userSession = session;
+                sessionCookie = stored.getCookie();
+                logger.info("resumed the stored session to {}", url);
+                return true;
+            }
+        } catch (Exception e) {
+            logger.debug("stored session to {} is not usable: {}", url, e.getMessage());
+        }
+        // the password login must not send the dead cookie along
+        setCookie(rawPort, null);
+        sessionStore.delete(url, username);
+        return false;
+    }
+
+    private static UserSession currentSession(VimPortType port, ServiceContent content)
+            throws Exception {
+        PropertySpec propertySpec = new PropertySpec();
+        propertySpec.setType(content.getSessionManager().getType());
+        propertySpec.getPathSet().add("currentSession");
+        ObjectSpec objectSpec = new ObjectSpec();
+        objectSpec.setObj(content.getSessionManager());
+        objectSpec.setSkip(false);
+        PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+        filterSpec.getPropSet().add(propertySpec);
+        filterSpec.getObjectSet().add(objectSpec);
+
+        RetrieveResult result = port.retrievePropertiesEx(content.getPropertyCollector(),
+                Collections.singletonList(filterSpec), new RetrieveOptions());
+        if (result == null) {
+            return null;
+        }
+        for (ObjectContent object : result.getObjects()) {
+            for (DynamicProperty property : object.getPropSet()) {
+                if (property.getVal() instanceof UserSession) {
+                    return (UserSession) property.getVal();
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String readSessionCookie(VimPortType port) {
+        Object headers = ((BindingProvider) port).getResponseContext()
+                .get(MessageContext.HTTP_RESPONSE_HEADERS);
+        if (!(headers instanceof Map)) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> entry
+                : ((Map<String, List<String>>) headers).entrySet()) {
+            if (!"Set-Cookie".equalsIgnoreCase(entry.getKey()) || entry.getValue() == null) {
+                continue;
+            }
+            for (String cookie : entry.getValue()) {
+                if (cookie.startsWith("vmware_soap_session")) {
+                    // keep the name=value pair, drop the attributes
+                    int end = cookie.indexOf(';');
+                    return end < 0 ? cookie : cookie.substring(0, end);
+                }
+            }
+        }
+        return null;
+    }
+
+    private VimPortType reconnecting(final VimPortType target) {
+        return (VimPortType) Proxy.newProxyInstance(
+                VimPortType.class.getClassLoader(),
+                new Class<?>[]{VimPortType.class, BindingProvider.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() != VimPortType.class) {
+                            return invokeTarget(target, method, args);
+                        }
+                        callLock.lock();
+                        try {
+                            try {
+                                return call(target, method, args);
+                            } catch (Throwable t) {
+                                if (!isRetryable(method) || !isNotAuthenticated(t)) {
+                                    throw t;
+                                }
+                            }
+                            logger.info("session to {} expired, logging in again", url);
+                            reconnect();
+                            return call(target, method, args);
+                        } finally {
+                            callLock.unlock();
+                        }
+                    }
+                });
+    }
+
+    private VimPortType governed(final VimPortType target) {
+        return (VimPortType) Proxy.newProxyInstance(
+                VimPortType.class.getClassLoader(),
+                new Class<?>[]{VimPortType.class, BindingProvider.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() != VimPortType.class) {
+                            return invokeTarget(target, method, args);
+                        }
+                        return call(target, method, args);
+                    }
+                });
+    }
+
+    private Object call(final VimPortType target, final Method method, final Object[] args)
+            throws Throwable {
+        return getGovernor().execute(method.getName(), new EndpointGovernor.Call<Object>() {
+            @Override
+            public Object call() throws Throwable {
+                long start = System.nanoTime();
+                try {
+                    Object result = invokeTarget(target, method, args);
+                    succeeded(start);
+                    return result;
+                } catch (Throwable t) {
+                    failed(t);
+                    throw t;
+                }
+            }
+        });
+    }
+
+    /**
+     * The governor shared by every connection to this endpoint.
+     */
+    public EndpointGovernor getGovernor() {
+        return EndpointGovernor.forEndpoint(getHost());
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void succeeded(long startNanos) {
+        lastRoundTripNanos = System.nanoTime() - startNanos;
+        lastSuccessTime = System.currentTimeMillis();
+        state = SessionState.ALIVE;
+    }
+
+    private void failed(Throwable t) {
+        if (isNotAuthenticated(t)) {
+            state = SessionState.EXPIRED;
+        } else if (t instanceof WebServiceException && !(t instanceof SOAPFaultException)) {
+            state = SessionState.UNREACHABLE;
+        } else {
+            // a fault answered by the server still proves the session is alive
+            lastSuccessTime = System.currentTimeMillis();
+        }
+    }
+
+    private static boolean isRetryable(Method method) {
+        String name = method.getName();
+        return !name.startsWith("login") && !"logout".equals(name)
+                && !"retrieveServiceContent".equals(name)
+                && !"cloneSession".equals(name);
+    }
+
+    /**
+     * Tells whether a failure was caused by an expired or missing session.
+     */
+    public static boolean isNotAuthenticated(Throwable t) {
+        while (t != null) {
+            if (t instanceof RuntimeFaultFaultMsg
+                    && ((RuntimeFaultFaultMsg) t).getFaultInfo() instanceof NotAuthenticated) {
+                return true;
+            }
+            if (t instanceof SOAPFaultException) {
+                SOAPFault fault = ((SOAPFaultException) t).getFault();
+                if (fault != null && fault.getDetail() != null) {
+                    Iterator<?> it = fault.getDetail().getDetailEntries();
+                    while (it.hasNext()) {
+                        Object entry = it.next();
+                        if (entry instanceof Node && ((Node) entry).getLocalName() != null
+                                && ((Node) entry).getLocalName().startsWith("NotAuthenticated")) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            t = t.getCause();
+        }
+        return false;
+    }
+
+    public static class ConnectionException extends RuntimeException {
+        public ConnectionException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+/**
+ * Stops calls to an endpoint which is clearly down.
+ * <p>
+ * After {@code failureThreshold} consecutive retryable failures the circuit
+ * opens and calls are refused for {@code openMillis}. Then a single probe
+ * call is let through: its success closes the circuit, its failure opens
+ * it again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public enum Permission {
+        DENIED,
+        ALLOWED,
+        /** the single call let through while half open */
+        PROBE
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Tells whether a call may go through now. In the half-open state only
+     * one caller at a time gets true.
+     */
+    public boolean allowRequest() {
+        return acquirePermission() != Permission.DENIED;
+    }
+
+    /**
+     * Like {@link #allowRequest()}, telling the probe apart. The caller
+     * which gets {@link Permission#PROBE} must record its outcome, or call
+     * {@link #releaseProbe()} if the call was not made.
+     */
+    public synchronized Permission acquirePermission() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.CLOSED) {
+            return Permission.ALLOWED;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return Permission.PROBE;
+        }
+        return Permission.DENIED;
+    }
+
+    /**
+     * Lets another caller probe, the probe call having not been made.
+     */
+    public synchronized void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        probing = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            probing = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
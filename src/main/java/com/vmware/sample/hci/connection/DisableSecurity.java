@@ -27,8 +27,15 @@ import javax.net.ssl.SSLSession;
  */
 public class DisableSecurity {
 
-    public static void trustEveryone()
+    // one context for the whole process, so that its client session cache
+    // lets repeated handshakes to the same endpoint resume the TLS session
+    private static javax.net.ssl.SSLContext sslContext;
+
+    public static synchronized void trustEveryone()
             throws NoSuchAlgorithmException, KeyManagementException {
+        if (sslContext != null) {
+            return;
+        }
         // Declare a host name verifier that will automatically enable
         // the connection. The host name verifier is invoked during
         // the SSL handshake.
@@ -56,6 +63,14 @@ public class DisableSecurity {
         javax.net.ssl.HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
         // Set the default host name verifier to enable the connection.
         HttpsURLConnection.setDefaultHostnameVerifier(verifier);
+        sslContext = sc;
+    }
+
+    /**
+     * The context installed by {@link #trustEveryone()}, or null if it has not been called.
+     */
+    public static synchronized javax.net.ssl.SSLContext getSSLContext() {
+        return sslContext;
     }
 
     /*
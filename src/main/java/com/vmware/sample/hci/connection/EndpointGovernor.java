@@ -0,0 +1,192 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Backpressure in front of one vCenter or ESXi endpoint, shared by every
+ * connection to it.
+ * <p>
+ * Calls wait for a slot of an {@link AdaptiveLimiter}, are refused while the
+ * {@link CircuitBreaker} is open, and their failures are sorted by
+ * {@link FaultClassifier}. Only retryable failures of read-only calls are
+ * retried, with exponential backoff and jitter; a task creating call is
+ * never sent twice since the first one may have reached the server.
+ */
+public class EndpointGovernor {
+    private static final Logger logger =
+            LoggerFactory.getLogger(EndpointGovernor.class);
+
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+    public static final int DEFAULT_MAX_LIMIT = 32;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000L;
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+    public static final long BASE_BACKOFF_MILLIS = 500L;
+    public static final long MAX_BACKOFF_MILLIS = 10 * 1000L;
+
+    private static final String[] READ_ONLY_PREFIXES = {
+            "retrieve", "continueRetrieve", "find", "query", "current", "waitForUpdates",
+            "checkForUpdates", "fetch", "browse"
+    };
+    private static final String[] LONG_POLL_PREFIXES = {"waitForUpdates", "checkForUpdates"};
+
+    private static final Map<String, EndpointGovernor> governors = new HashMap<String, EndpointGovernor>();
+
+    /**
+     * A call made under the governor.
+     */
+    public interface Call<T> {
+        T call() throws Throwable;
+    }
+
+    public static class EndpointUnavailableException extends RuntimeException {
+        public EndpointUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    private final String endpoint;
+    private final AdaptiveLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final int maxRetries;
+    private final long acquireTimeoutMillis;
+
+    public EndpointGovernor(String endpoint, AdaptiveLimiter limiter, CircuitBreaker breaker,
+            int maxRetries, long acquireTimeoutMillis) {
+        this.endpoint = endpoint;
+        this.limiter = limiter;
+        this.breaker = breaker;
+        this.maxRetries = maxRetries;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    /**
+     * Returns the governor shared by every connection to the endpoint.
+     */
+    public static synchronized EndpointGovernor forEndpoint(String endpoint) {
+        String key = endpoint.toLowerCase();
+        EndpointGovernor governor = governors.get(key);
+        if (governor == null) {
+            governor = new EndpointGovernor(key,
+                    new AdaptiveLimiter(DEFAULT_INITIAL_LIMIT, 1, DEFAULT_MAX_LIMIT),
+                    new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS),
+                    DEFAULT_MAX_RETRIES, DEFAULT_ACQUIRE_TIMEOUT_MILLIS);
+            governors.put(key, governor);
+        }
+        return governor;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public static boolean isReadOnly(String method) {
+        return startsWithAny(method, READ_ONLY_PREFIXES);
+    }
+
+    /**
+     * Long polls are not limited: their latency says nothing about the load
+     * and holding a slot for minutes would starve the other calls.
+     */
+    public static boolean isLongPoll(String method) {
+        return startsWithAny(method, LONG_POLL_PREFIXES);
+    }
+
+    /**
+     * Delay before the given retry, doubling from the base with full jitter.
+     */
+    public static long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    public <T> T execute(String method, Call<T> call) throws Throwable {
+        boolean limited = !isLongPoll(method);
+        boolean retry = isReadOnly(method);
+        for (int attempt = 0; ; attempt++) {
+            CircuitBreaker.Permission permission = breaker.acquirePermission();
+            if (permission == CircuitBreaker.Permission.DENIED) {
+                throw new EndpointUnavailableException(String.format(
+                        "%s is unavailable, circuit is open", endpoint));
+            }
+            boolean acquired = false;
+            try {
+                acquired = !limited || limiter.acquire(acquireTimeoutMillis);
+            } finally {
+                // a probe which was never sent must not hold the circuit half open
+                if (!acquired && permission == CircuitBreaker.Permission.PROBE) {
+                    breaker.releaseProbe();
+                }
+            }
+            if (!acquired) {
+                throw new EndpointUnavailableException(String.format(
+                        "timed out waiting for a free slot to %s", endpoint));
+            }
+            long start = System.nanoTime();
+            try {
+                T result = call.call();
+                if (limited) {
+                    limiter.release(method, System.nanoTime() - start, AdaptiveLimiter.Outcome.SUCCESS);
+                }
+                breaker.recordSuccess();
+                return result;
+            } catch (Throwable t) {
+                FaultClassifier.FaultClass faultClass = FaultClassifier.classify(t);
+                boolean retryable = faultClass == FaultClassifier.FaultClass.RETRYABLE;
+                if (limited) {
+                    limiter.release(method, System.nanoTime() - start, retryable
+                            ? AdaptiveLimiter.Outcome.OVERLOAD : AdaptiveLimiter.Outcome.IGNORE);
+                }
+                if (retryable) {
+                    breaker.recordFailure();
+                } else {
+                    // the endpoint answered, so it is up
+                    breaker.recordSuccess();
+                }
+                if (!retryable || !retry || attempt >= maxRetries) {
+                    throw t;
+                }
+                long delay = backoffMillis(attempt);
+                logger.warn("{} on {} failed ({}), retry {} in {} ms", method, endpoint,
+                        t.getMessage(), attempt + 1, delay);
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private static boolean startsWithAny(String method, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (method.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
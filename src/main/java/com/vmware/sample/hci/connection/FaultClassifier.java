@@ -0,0 +1,119 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.soap.SOAPFault;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.w3c.dom.Node;
+
+import com.vmware.vim25.HostCommunication;
+import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.SystemError;
+
+/**
+ * Sorts the failures of vim25 calls into the ones worth retrying and the
+ * ones which will fail the same way again.
+ */
+public final class FaultClassifier {
+
+    public enum FaultClass {
+        /**
+         * Transport failures and faults vpxd raises when it is overloaded.
+         */
+        RETRYABLE,
+        /**
+         * The session expired; a login fixes it.
+         */
+        SESSION,
+        /**
+         * Anything else: bad arguments, missing objects, permissions, ...
+         */
+        FATAL
+    }
+
+    private static final Pattern HTTP_STATUS = Pattern.compile("status code (\\d{3})");
+    private static final String[] RETRYABLE_FAULTS = {"SystemError", "HostCommunication", "RuntimeFault"};
+
+    private FaultClassifier() {
+    }
+
+    public static boolean isRetryable(Throwable t) {
+        return classify(t) == FaultClass.RETRYABLE;
+    }
+
+    public static FaultClass classify(Throwable t) {
+        if (BasicConnection.isNotAuthenticated(t)) {
+            return FaultClass.SESSION;
+        }
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RuntimeFaultFaultMsg) {
+                RuntimeFault fault = ((RuntimeFaultFaultMsg) cause).getFaultInfo();
+                return fault instanceof SystemError || fault instanceof HostCommunication
+                        || (fault != null && fault.getClass() == RuntimeFault.class)
+                        ? FaultClass.RETRYABLE : FaultClass.FATAL;
+            }
+            if (cause instanceof SOAPFaultException) {
+                return isRetryableDetail(((SOAPFaultException) cause).getFault())
+                        ? FaultClass.RETRYABLE : FaultClass.FATAL;
+            }
+            if (cause instanceof IOException) {
+                return FaultClass.RETRYABLE;
+            }
+            if (cause instanceof WebServiceException && isRetryableStatus(cause.getMessage())) {
+                return FaultClass.RETRYABLE;
+            }
+        }
+        return FaultClass.FATAL;
+    }
+
+    private static boolean isRetryableDetail(SOAPFault fault) {
+        if (fault == null || fault.getDetail() == null) {
+            return false;
+        }
+        Iterator<?> it = fault.getDetail().getDetailEntries();
+        while (it.hasNext()) {
+            Object entry = it.next();
+            if (!(entry instanceof Node) || ((Node) entry).getLocalName() == null) {
+                continue;
+            }
+            String name = ((Node) entry).getLocalName();
+            for (String retryable : RETRYABLE_FAULTS) {
+                // detail entries are named like SystemErrorFault
+                if (name.equals(retryable) || name.equals(retryable + "Fault")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isRetryableStatus(String message) {
+        if (message == null) {
+            return false;
+        }
+        Matcher matcher = HTTP_STATUS.matcher(message);
+        if (!matcher.find()) {
+            return false;
+        }
+        int status = Integer.parseInt(matcher.group(1));
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+/**
+ * Liveness of a session as last observed on the wire.
+ */
+public enum SessionState {
+    /**
+     * Not logged in, or logged out.
+     */
+    DISCONNECTED,
+    /**
+     * The last call on the session succeeded.
+     */
+    ALIVE,
+    /**
+     * The server answered NotAuthenticated; a login is needed.
+     */
+    EXPIRED,
+    /**
+     * The last call failed before reaching the server.
+     */
+    UNREACHABLE
+}
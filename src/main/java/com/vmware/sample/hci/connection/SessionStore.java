@@ -0,0 +1,323 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.vim25.ServiceContent;
+
+/**
+ * Local store of logged in sessions, so that a short-lived process can
+ * resume the session of the previous one instead of logging in again.
+ * <p>
+ * Each endpoint and user has one file holding the vmware_soap_session
+ * cookie and the {@link ServiceContent} of the session, along with a salted
+ * SHA-256 digest of the password it was logged in with: a session is only
+ * handed back to a caller with the same password. The cookie is a
+ * credential: the directory and the files are only readable by their owner,
+ * and a file readable by anybody else is ignored. The store is opt-in,
+ * enabled with the {@value #DIRECTORY_PROPERTY} system property or
+ * {@link #setDefault(SessionStore)}.
+ * <p>
+ * Within one process, only the first connection to an endpoint and user
+ * claims the stored session; other connections log in on their own.
+ */
+public class SessionStore {
+    private static final Logger logger =
+            LoggerFactory.getLogger(SessionStore.class);
+
+    /**
+     * System property naming the directory of the default store.
+     */
+    public static final String DIRECTORY_PROPERTY = "hci.session.store";
+
+    private static final QName SERVICE_CONTENT_NAME = new QName("urn:vim25", "ServiceContent");
+    private static final Set<PosixFilePermission> OWNER_ONLY =
+            PosixFilePermissions.fromString("rw-------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+            PosixFilePermissions.fromString("rwx------");
+
+    private static SessionStore defaultStore;
+    private static boolean defaultLoaded;
+    private static JAXBContext jaxbContext;
+    private static final SecureRandom random = new SecureRandom();
+
+    private final File directory;
+    private final Set<String> claimed = new HashSet<String>();
+
+    /**
+     * A session read back from the store.
+     */
+    public static class StoredSession {
+        private final String cookie;
+        private final ServiceContent serviceContent;
+        private final long savedTime;
+
+        StoredSession(String cookie, ServiceContent serviceContent, long savedTime) {
+            this.cookie = cookie;
+            this.serviceContent = serviceContent;
+            this.savedTime = savedTime;
+        }
+
+        public String getCookie() {
+            return cookie;
+        }
+
+        public ServiceContent getServiceContent() {
+            return serviceContent;
+        }
+
+        public long getSavedTime() {
+            return savedTime;
+        }
+    }
+
+    public SessionStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The store used by new connections, or null when sessions are not stored.
+     */
+    public static synchronized SessionStore getDefault() {
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            String path = System.getProperty(DIRECTORY_PROPERTY);
+            if (path != null && !path.trim().isEmpty()) {
+                defaultStore = new SessionStore(new File(path.trim()));
+            }
+        }
+        return defaultStore;
+    }
+
+    public static synchronized void setDefault(SessionStore store) {
+        defaultLoaded = true;
+        defaultStore = store;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Claims the entry of the endpoint and user for one connection of this
+     * process.
+     *
+     * @return false if another connection already holds it
+     */
+    public synchronized boolean claim(String url, String username) {
+        return claimed.add(key(url, username));
+    }
+
+    public synchronized void unclaim(String url, String username) {
+        claimed.remove(key(url, username));
+    }
+
+    /**
+     * Reads the stored session, or returns null when there is none usable or
+     * when it was not logged in with {@code password}.
+     */
+    public StoredSession load(String url, String username, String password) {
+        File file = file(url, username);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            if (isShared(file.toPath())) {
+                logger.warn("ignoring {}, it is readable by other users", file);
+                return null;
+            }
+            Properties props = new Properties();
+            InputStream in = Files.newInputStream(file.toPath());
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            String cookie = props.getProperty("cookie");
+            String xml = props.getProperty("serviceContent");
+            if (!url.equals(props.getProperty("url")) || !username.equals(props.getProperty("user"))
+                    || cookie == null || xml == null) {
+                return null;
+            }
+            String salt = props.getProperty("salt");
+            String credential = props.getProperty("credential");
+            if (salt == null || credential == null || !MessageDigest.isEqual(
+                    Base64.getDecoder().decode(credential),
+                    digest(Base64.getDecoder().decode(salt), password))) {
+                logger.debug("stored session {} was logged in with another password", file);
+                return null;
+            }
+            ServiceContent serviceContent = context().createUnmarshaller()
+                    .unmarshal(new StreamSource(new StringReader(xml)), ServiceContent.class)
+                    .getValue();
+            long savedTime = Long.parseLong(props.getProperty("savedTime", "0"));
+            return new StoredSession(cookie, serviceContent, savedTime);
+        } catch (IOException | JAXBException | RuntimeException e) {
+            logger.warn("could not read stored session {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the session, replacing the previous one atomically.
+     */
+    public void save(String url, String username, String password, String cookie,
+                     ServiceContent serviceContent) {
+        File file = file(url, username);
+        try {
+            StringWriter xml = new StringWriter();
+            Marshaller marshaller = context().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            marshaller.marshal(new JAXBElement<ServiceContent>(SERVICE_CONTENT_NAME,
+                    ServiceContent.class, serviceContent), xml);
+
+            Properties props = new Properties();
+            props.setProperty("url", url);
+            props.setProperty("user", username);
+            props.setProperty("cookie", cookie);
+            byte[] salt = new byte[16];
+            random.nextBytes(salt);
+            props.setProperty("salt", Base64.getEncoder().encodeToString(salt));
+            props.setProperty("credential",
+                    Base64.getEncoder().encodeToString(digest(salt, password)));
+            props.setProperty("savedTime", String.valueOf(System.currentTimeMillis()));
+            props.setProperty("serviceContent", xml.toString());
+
+            Path dir = createDirectory();
+            // temp files are created readable by the owner only
+            Path tmp = Files.createTempFile(dir, file.getName(), ".tmp");
+            try {
+                OutputStream out = Files.newOutputStream(tmp);
+                try {
+                    props.store(out, "vSphere session, do not share");
+                } finally {
+                    out.close();
+                }
+                restrict(tmp, OWNER_ONLY);
+                try {
+                    Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | JAXBException | RuntimeException e) {
+            logger.warn("could not store session to {}: {}", url, e.getMessage());
+        }
+    }
+
+    public void delete(String url, String username) {
+        try {
+            Files.deleteIfExists(file(url, username).toPath());
+        } catch (IOException e) {
+            logger.warn("could not delete stored session to {}: {}", url, e.getMessage());
+        }
+    }
+
+    File file(String url, String username) {
+        return file(url, username, ".session");
+    }
+
+    /**
+     * File of the store for other state kept with the session of the
+     * endpoint and user, such as an inventory snapshot.
+     */
+    public File file(String url, String username, String extension) {
+        return new File(directory, key(url, username).replaceAll("[^A-Za-z0-9._@-]", "_") + extension);
+    }
+
+    private static String key(String url, String username) {
+        return username + "@" + url.replaceFirst("^https?://", "").toLowerCase();
+    }
+
+    private static byte[] digest(byte[] salt, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            return digest.digest((password == null ? "" : password).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private Path createDirectory() throws IOException {
+        Path dir = directory.toPath();
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir);
+            restrict(dir, OWNER_ONLY_DIRECTORY);
+        }
+        return dir;
+    }
+
+    private static void restrict(Path path, Set<PosixFilePermission> permissions) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, permissions);
+        } catch (UnsupportedOperationException e) {
+            File file = path.toFile();
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+    }
+
+    private static boolean isShared(Path path) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+            return permissions.contains(PosixFilePermission.GROUP_READ)
+                    || permissions.contains(PosixFilePermission.OTHERS_READ);
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static synchronized JAXBContext context() throws JAXBException {
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(ServiceContent.class);
+        }
+        return jaxbContext;
+    }
+}
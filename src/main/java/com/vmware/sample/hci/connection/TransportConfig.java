@@ -0,0 +1,239 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.Handler;
+import javax.xml.ws.handler.MessageContext;
+
+import com.vmware.sample.hci.connection.metrics.SoapMetrics;
+import com.vmware.sample.hci.connection.metrics.SoapMetricsHandler;
+
+/**
+ * HTTP transport settings applied to every vim25 port.
+ * <p>
+ * The JAX-WS runtime sends SOAP over {@code HttpURLConnection}, whose
+ * keep-alive cache holds idle connections per endpoint; {@link #apply()}
+ * sizes it through the {@code http.keepAlive} and {@code http.maxConnections}
+ * properties. Responses are negotiated as gzip, which the runtime inflates
+ * transparently. The port uses the process-wide SSL context of
+ * {@link DisableSecurity}, so its client session cache resumes TLS sessions
+ * instead of doing a full handshake on every new connection. Unless turned
+ * off, a {@link SoapMetricsHandler} records every call of the port.
+ */
+public class TransportConfig {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 8;
+    public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 256;
+    public static final int DEFAULT_TLS_SESSION_TIMEOUT_SEC = 24 * 60 * 60;
+
+    // the JDK bundled runtime and the standalone one read different keys
+    private static final String[] SSL_SOCKET_FACTORY_PROPERTIES = {
+            "com.sun.xml.internal.ws.transport.https.client.SSLSocketFactory",
+            "com.sun.xml.ws.transport.https.client.SSLSocketFactory"
+    };
+    private static final String[] CONNECT_TIMEOUT_PROPERTIES = {
+            "com.sun.xml.internal.ws.connect.timeout", "com.sun.xml.ws.connect.timeout"
+    };
+    private static final String[] REQUEST_TIMEOUT_PROPERTIES = {
+            "com.sun.xml.internal.ws.request.timeout", "com.sun.xml.ws.request.timeout"
+    };
+
+    private static TransportConfig defaultConfig = new TransportConfig();
+    private static boolean applied;
+
+    private boolean keepAlive = true;
+    private int maxConnectionsPerEndpoint = DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+    private boolean gzip = true;
+    private int tlsSessionCacheSize = DEFAULT_TLS_SESSION_CACHE_SIZE;
+    private int tlsSessionTimeoutSec = DEFAULT_TLS_SESSION_TIMEOUT_SEC;
+    private int connectTimeoutMs;
+    private int requestTimeoutMs;
+    private boolean instrumented = true;
+    // serializes every message a second time, so only on request
+    private boolean measureMessageSize;
+
+    public static synchronized TransportConfig getDefault() {
+        return defaultConfig;
+    }
+
+    /**
+     * Replaces the configuration used by new ports. The JVM wide keep-alive
+     * settings are only taken from the first configuration applied.
+     */
+    public static synchronized void setDefault(TransportConfig config) {
+        defaultConfig = config;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public TransportConfig setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public int getMaxConnectionsPerEndpoint() {
+        return maxConnectionsPerEndpoint;
+    }
+
+    public TransportConfig setMaxConnectionsPerEndpoint(int maxConnectionsPerEndpoint) {
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+        return this;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public TransportConfig setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public TransportConfig setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        return this;
+    }
+
+    public int getTlsSessionTimeoutSec() {
+        return tlsSessionTimeoutSec;
+    }
+
+    public TransportConfig setTlsSessionTimeoutSec(int tlsSessionTimeoutSec) {
+        this.tlsSessionTimeoutSec = tlsSessionTimeoutSec;
+        return this;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public TransportConfig setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        return this;
+    }
+
+    public int getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public TransportConfig setRequestTimeoutMs(int requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+        return this;
+    }
+
+    public boolean isInstrumented() {
+        return instrumented;
+    }
+
+    /**
+     * Whether ports record their calls in {@link SoapMetrics}.
+     */
+    public TransportConfig setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+        return this;
+    }
+
+    public boolean isMeasureMessageSize() {
+        return measureMessageSize;
+    }
+
+    /**
+     * Whether the metrics also record the size of every request and
+     * response. Off by default: measuring serializes each message again.
+     */
+    public TransportConfig setMeasureMessageSize(boolean measureMessageSize) {
+        this.measureMessageSize = measureMessageSize;
+        return this;
+    }
+
+    /**
+     * Applies the JVM wide part of the configuration, once. Must run before
+     * the first HTTP connection is opened to take effect.
+     */
+    public void apply() {
+        synchronized (TransportConfig.class) {
+            if (applied) {
+                return;
+            }
+            applied = true;
+        }
+        if (System.getProperty("http.keepAlive") == null) {
+            System.setProperty("http.keepAlive", String.valueOf(keepAlive));
+        }
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerEndpoint));
+        }
+    }
+
+    /**
+     * Applies the per-port part of the configuration.
+     */
+    public void applyTo(BindingProvider port) {
+        apply();
+        Map<String, Object> ctxt = port.getRequestContext();
+        if (gzip) {
+            Map<String, List<String>> headers = requestHeaders(ctxt);
+            List<String> encoding = new ArrayList<String>();
+            encoding.add("gzip");
+            headers.put("Accept-Encoding", encoding);
+            ctxt.put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+        }
+        SSLContext sslContext = DisableSecurity.getSSLContext();
+        if (sslContext != null) {
+            SSLSessionContext sessions = sslContext.getClientSessionContext();
+            sessions.setSessionCacheSize(tlsSessionCacheSize);
+            sessions.setSessionTimeout(tlsSessionTimeoutSec);
+            for (String key : SSL_SOCKET_FACTORY_PROPERTIES) {
+                ctxt.put(key, sslContext.getSocketFactory());
+            }
+        }
+        if (connectTimeoutMs > 0) {
+            for (String key : CONNECT_TIMEOUT_PROPERTIES) {
+                ctxt.put(key, connectTimeoutMs);
+            }
+        }
+        if (requestTimeoutMs > 0) {
+            for (String key : REQUEST_TIMEOUT_PROPERTIES) {
+                ctxt.put(key, requestTimeoutMs);
+            }
+        }
+        if (instrumented) {
+            @SuppressWarnings("rawtypes")
+            List<Handler> chain = port.getBinding().getHandlerChain();
+            chain.add(new SoapMetricsHandler(SoapMetrics.getDefault(), measureMessageSize));
+            port.getBinding().setHandlerChain(chain);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, List<String>> requestHeaders(Map<String, Object> ctxt) {
+        Object headers = ctxt.get(MessageContext.HTTP_REQUEST_HEADERS);
+        if (headers instanceof Map) {
+            return new HashMap<String, List<String>>((Map<String, List<String>>) headers);
+        }
+        return new HashMap<String, List<String>>();
+    }
+}
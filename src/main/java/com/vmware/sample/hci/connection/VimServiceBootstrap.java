@@ -0,0 +1,115 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection;
+
+import java.net.URL;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.VimService;
+
+/**
+ * Process-wide cache of the vim25 {@link VimService}.
+ * <p>
+ * Building a VimService parses the WSDL and the JAX-WS model, which takes
+ * far longer than the login itself. The service is built once from the
+ * WSDL bundled with the SDK and every connection only asks it for a new
+ * port. Ports are not thread safe, so each connection still gets its own.
+ */
+public final class VimServiceBootstrap {
+    private static final Logger logger =
+            LoggerFactory.getLogger(VimServiceBootstrap.class);
+
+    private static final QName SERVICE_NAME = new QName("urn:vim25Service", "VimService");
+    private static final String[] WSDL_RESOURCES = {
+            "vimService.wsdl", "com/vmware/vim25/vimService.wsdl", "wsdl/vim25/vimService.wsdl"
+    };
+
+    private static volatile VimService service;
+    private static volatile long bootstrapNanos;
+
+    private VimServiceBootstrap() {
+    }
+
+    /**
+     * Returns the shared service, building it on first use.
+     */
+    public static VimService getService() {
+        VimService result = service;
+        if (result == null) {
+            synchronized (VimServiceBootstrap.class) {
+                result = service;
+                if (result == null) {
+                    long start = System.nanoTime();
+                    result = createService();
+                    bootstrapNanos = System.nanoTime() - start;
+                    logger.debug("VimService bootstrapped in {} ms", bootstrapNanos / 1000000);
+                    service = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new port on the shared service.
+     */
+    public static VimPortType newPort() {
+        return getService().getVimPort();
+    }
+
+    /**
+     * Creates a new port bound to the given endpoint and keeping the session
+     * cookie, with the default transport configuration.
+     */
+    public static VimPortType newPort(String url) {
+        return newPort(url, TransportConfig.getDefault());
+    }
+
+    public static VimPortType newPort(String url, TransportConfig transportConfig) {
+        VimPortType vimPort = newPort();
+        Map<String, Object> ctxt = ((BindingProvider) vimPort).getRequestContext();
+        ctxt.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, url);
+        ctxt.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
+        if (transportConfig != null) {
+            transportConfig.applyTo((BindingProvider) vimPort);
+        }
+        return vimPort;
+    }
+
+    /**
+     * Time spent building the shared service, 0 before the first use.
+     */
+    public static long getBootstrapNanos() {
+        return bootstrapNanos;
+    }
+
+    private static VimService createService() {
+        ClassLoader loader = VimService.class.getClassLoader();
+        for (String resource : WSDL_RESOURCES) {
+            URL wsdl = loader.getResource(resource);
+            if (wsdl != null) {
+                logger.debug("loading vim25 WSDL from {}", wsdl);
+                return new VimService(wsdl, SERVICE_NAME);
+            }
+        }
+        // fall back on the location compiled into the generated service
+        return new VimService();
+    }
+}
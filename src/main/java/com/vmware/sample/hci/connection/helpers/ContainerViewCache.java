@@ -0,0 +1,192 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.connection.helpers;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+
+/**
+ * ContainerViews of one session, reused across lookups.
+ * <p>
+ * A view is created once per container, type and recursion flag and then
+ * kept; since the server keeps its content up to date, later lookups only
+ * pay for the retrieve. At most {@code maxViews} views are kept, the least
+ * recently used one is destroyed to make room. Views die with their session:
+ * after a new login the cache starts over, and {@link #clear()} forgets the
+ * views of a session which has been logged out.
+ */
+public class ContainerViewCache {
+    private static final Logger logger =
+            LoggerFactory.getLogger(ContainerViewCache.class);
+
+    public static final int DEFAULT_MAX_VIEWS = 32;
+
+    private final BasicConnection connection;
+    private final int maxViews;
+    private final Map<ViewKey, ManagedObjectReference> views =
+            new LinkedHashMap<ViewKey, ManagedObjectReference>(16, 0.75f, true);
+    private int loginCount = -1;
+    private long hits;
+    private long misses;
+
+    public ContainerViewCache(BasicConnection connection) {
+        this(connection, DEFAULT_MAX_VIEWS);
+    }
+
+    public ContainerViewCache(BasicConnection connection, int maxViews) {
+        if (maxViews < 1) {
+            throw new IllegalArgumentException("maxViews must be positive");
+        }
+        this.connection = connection;
+        this.maxViews = maxViews;
+    }
+
+    /**
+     * Returns the view of the objects of a type under a container, creating
+     * it on first use.
+     */
+    public synchronized ManagedObjectReference get(ManagedObjectReference container,
+            String moRefType, boolean recursive) throws RuntimeFaultFaultMsg {
+        int currentLogin = connection.getLoginCount();
+        if (currentLogin != loginCount) {
+            // the views of the previous session are gone with it
+            views.clear();
+            loginCount = currentLogin;
+        }
+        ViewKey key = new ViewKey(container, moRefType, recursive);
+        ManagedObjectReference view = views.get(key);
+        if (view != null) {
+            hits++;
+            return view;
+        }
+        misses++;
+        view = connection.getVimPort().createContainerView(
+                connection.getServiceContent().getViewManager(), container,
+                Arrays.asList(moRefType), recursive);
+        views.put(key, view);
+        if (views.size() > maxViews) {
+            Iterator<ManagedObjectReference> eldest = views.values().iterator();
+            destroy(eldest.next());
+            eldest.remove();
+        }
+        // a login during createContainerView made the view part of the new session
+        loginCount = connection.getLoginCount();
+        return view;
+    }
+
+    /**
+     * Forgets a view the server no longer knows, so that the next
+     * {@link #get} creates it again.
+     */
+    public synchronized void invalidate(ManagedObjectReference container, String moRefType,
+            boolean recursive) {
+        views.remove(new ViewKey(container, moRefType, recursive));
+    }
+
+    /**
+     * Destroys every view on the server. Used when the session stays open.
+     */
+    public synchronized void destroyAll() {
+        if (connection.getLoginCount() == loginCount) {
+            for (ManagedObjectReference view : views.values()) {
+                destroy(view);
+            }
+        }
+        views.clear();
+    }
+
+    /**
+     * Forgets every view without calling the server, after a logout.
+     */
+    public synchronized void clear() {
+        views.clear();
+    }
+
+    /**
+     * Number of views currently alive on the server for this cache.
+     */
+    public synchronized int size() {
+        return views.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Tells whether a failure was caused by a view unknown to the server,
+     * as after a transparent re-login.
+     */
+    public static boolean isStaleView(RuntimeFaultFaultMsg e) {
+        return e.getFaultInfo() instanceof ManagedObjectNotFound;
+    }
+
+    private void destroy(ManagedObjectReference view) {
+        try {
+            connection.getVimPort().destroyView(view);
+        } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+            logger.debug("could not destroy view {}: {}", view.getValue(), e.getMessage());
+        }
+    }
+
+    private static final class ViewKey {
+        private final String container;
+        private final String moRefType;
+        private final boolean recursive;
+
+        private ViewKey(ManagedObjectReference container, String moRefType, boolean recursive) {
+            this.container = container.getType() + ":" + container.getValue();
+            this.moRefType = moRefType;
+            this.recursive = recursive;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ViewKey)) {
+                return false;
+            }
+            ViewKey other = (ViewKey) o;
+            return recursive == other.recursive && container.equals(other.container)
+                    && moRefType.equals(other.moRefType);
+        }
+
+        @Override
+        public int hashCode() {
+            return (container.hashCode() * 31 + moRefType.hashCode()) * 31 + (recursive ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return moRefType + (recursive ? " under " : " in ") + container;
+        }
+    }
+}
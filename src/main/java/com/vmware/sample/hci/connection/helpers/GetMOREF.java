@@ -18,35 +18,46 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+import com.vmware.sample.hci.connection.BasicConnection.ConnectionException;
 import com.vmware.sample.hci.connection.helpers.builders.ObjectSpecBuilder;
 import com.vmware.sample.hci.connection.helpers.builders.PropertyFilterSpecBuilder;
 import com.vmware.sample.hci.connection.helpers.builders.PropertySpecBuilder;
-import com.vmware.sample.hci.connection.helpers.builders.SelectionSpecBuilder;
-import com.vmware.sample.hci.connection.helpers.builders.TraversalSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.SpecTemplates;
+import com.vmware.sample.hci.connection.helpers.projection.Projection;
 import com.vmware.vim25.DynamicProperty;
 import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.ObjectContent;
-import com.vmware.vim25.ObjectSpec;
 import com.vmware.vim25.PropertyFilterSpec;
-import com.vmware.vim25.PropertySpec;
 import com.vmware.vim25.RetrieveOptions;
 import com.vmware.vim25.RetrieveResult;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
-import com.vmware.vim25.SelectionSpec;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.TraversalSpec;
 import com.vmware.vim25.VimPortType;
 
 public class GetMOREF {
+    public static final int DEFAULT_PAGE_SIZE = 1000;
 
     VimPortType vimPort;
     ServiceContent serviceContent;
+    ContainerViewCache viewCache;
 
     public GetMOREF(VimPortType vimPort, ServiceContent serviceContent) {
+        this(vimPort, serviceContent, null);
+    }
+
+    /**
+     * @param viewCache views of the session to reuse, or null to create a
+     *                  new view on every lookup
+     */
+    public GetMOREF(VimPortType vimPort, ServiceContent serviceContent, ContainerViewCache viewCache) {
         this.vimPort = vimPort;
         this.serviceContent = serviceContent;
+        this.viewCache = viewCache;
     }
 
     public static String populate(final RetrieveResult result, final Map<String, ManagedObjectReference> targetMor) {
@@ -102,7 +113,29 @@ public class GetMOREF {
             final String... moRefProperties
     ) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
         PropertyFilterSpec[] propertyFilterSpecs = propertyFilterSpecs(container, moRefType, moRefProperties);
-        return containerViewByType(container, moRefType, moRefProperties, retrieveOptions, propertyFilterSpecs);
+        try {
+            return containerViewByType(container, moRefType, moRefProperties, retrieveOptions, propertyFilterSpecs);
+        } catch (RuntimeFaultFaultMsg e) {
+            if (!isStaleView(e)) {
+                throw e;
+            }
+            viewCache.invalidate(container, moRefType, true);
+            propertyFilterSpecs = propertyFilterSpecs(container, moRefType, moRefProperties);
+            return containerViewByType(container, moRefType, moRefProperties, retrieveOptions, propertyFilterSpecs);
+        }
+    }
+
+    private boolean isStaleView(RuntimeFaultFaultMsg e) {
+        return viewCache != null && ContainerViewCache.isStaleView(e);
+    }
+
+    private ManagedObjectReference containerView(ManagedObjectReference container, String moRefType)
+            throws RuntimeFaultFaultMsg {
+        if (viewCache != null) {
+            return viewCache.get(container, moRefType, true);
+        }
+        return vimPort.createContainerView(serviceContent.getViewManager(), container,
+                Arrays.asList(moRefType), true);
     }
 
     public PropertyFilterSpec[] propertyFilterSpecs(
@@ -110,31 +143,11 @@ public class GetMOREF {
             String moRefType,
             String... moRefProperties
     ) throws RuntimeFaultFaultMsg {
-        ManagedObjectReference viewManager = serviceContent.getViewManager();
-        ManagedObjectReference containerView =
-                vimPort.createContainerView(viewManager, container,
-                        Arrays.asList(moRefType), true);
+        ManagedObjectReference containerView = containerView(container, moRefType);
 
         return new PropertyFilterSpec[]{
-                new PropertyFilterSpecBuilder()
-                        .propSet(
-                                new PropertySpecBuilder()
-                                        .all(Boolean.FALSE)
-                                        .type(moRefType)
-                                        .pathSet(moRefProperties)
-                        )
-                        .objectSet(
-                        new ObjectSpecBuilder()
-                                .obj(containerView)
-                                .skip(Boolean.TRUE)
-                                .selectSet(
-                                        new TraversalSpecBuilder()
-                                                .name("view")
-                                                .path("view")
-                                                .skip(false)
-                                                .type("ContainerView")
-                                )
-                )
+                SpecTemplates.get(moRefType, SpecTemplates.Traversal.CONTAINER_VIEW, moRefProperties)
+                        .bind(containerView)
         };
     }
 
@@ -153,6 +166,84 @@ public class GetMOREF {
         );
     }
 
+    /**
+     * Walks the objects of a type under a container a page at a time.
+     * <p>
+     * The first page is asked for here, the others as the iterator gets to
+     * them; close it when stopping early so the server can drop the rest.
+     *
+     * @param pageSize        at most this many objects per page
+     * @param moRefProperties properties to include
+     */
+    public ObjectContentIterator iterateContainerByType(
+            final ManagedObjectReference container,
+            final String moRefType,
+            final int pageSize,
+            final String... moRefProperties
+    ) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        RetrieveOptions options = new RetrieveOptions();
+        options.setMaxObjects(pageSize);
+        return iterate(containerViewByType(container, moRefType, options, moRefProperties));
+    }
+
+    /**
+     * Stream over {@link #iterateContainerByType}; use it in a try-with-resources
+     * block, closing the stream cancels what has not been read.
+     */
+    public Stream<ObjectContent> streamContainerByType(
+            final ManagedObjectReference container,
+            final String moRefType,
+            final int pageSize,
+            final String... moRefProperties
+    ) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        return iterateContainerByType(container, moRefType, pageSize, moRefProperties).stream();
+    }
+
+    /**
+     * Sends the specs and walks the result a page at a time.
+     */
+    public ObjectContentIterator iterate(final List<PropertyFilterSpec> propertyFilterSpecs,
+                                         final int pageSize)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        RetrieveOptions options = new RetrieveOptions();
+        options.setMaxObjects(pageSize);
+        return iterate(vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(),
+                propertyFilterSpecs, options));
+    }
+
+    /**
+     * Walks a result whose first page has already been received.
+     */
+    public ObjectContentIterator iterate(final RetrieveResult first) {
+        return new ObjectContentIterator(vimPort, serviceContent.getPropertyCollector(), first);
+    }
+
+    /**
+     * Retrieves the objects of a type shard by shard, concurrently on the
+     * worker sessions; this session only lists the shards.
+     *
+     * @param workers one helper per worker session, see {@link ShardedCrawler}
+     * @return Map of MOREF and Map of name value pair of properties requested
+     */
+    public Map<ManagedObjectReference, Map<String, Object>> crawlByType(
+            final List<GetMOREF> workers,
+            final ShardedCrawler.Shard by,
+            final String moRefType,
+            final String... moRefProperties) {
+        return new ShardedCrawler(this, workers).crawl(by, moRefType, moRefProperties);
+    }
+
+    // follow-up pages fail inside the iterator, give callers the fault they declare
+    private static RuntimeFaultFaultMsg unwrap(ConnectionException e) throws InvalidPropertyFaultMsg {
+        if (e.getCause() instanceof InvalidPropertyFaultMsg) {
+            throw (InvalidPropertyFaultMsg) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeFaultFaultMsg) {
+            return (RuntimeFaultFaultMsg) e.getCause();
+        }
+        throw e;
+    }
+
     /**
      * Returns all the MOREFs of the specified type that are present under the
      * folder
@@ -168,46 +259,19 @@ public class GetMOREF {
     public Map<String, ManagedObjectReference> inFolderByType(
             final ManagedObjectReference folder, final String moRefType, final RetrieveOptions retrieveOptions
     ) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
-        final PropertyFilterSpec[] propertyFilterSpecs = propertyFilterSpecs(folder, moRefType, "name");
-
-        // reuse this property collector again later to scroll through results
-        final ManagedObjectReference propertyCollector = serviceContent.getPropertyCollector();
-
-        RetrieveResult results = vimPort.retrievePropertiesEx(
-                propertyCollector,
-                Arrays.asList(propertyFilterSpecs),
-                retrieveOptions);
-
-        final Map<String, ManagedObjectReference> targetMor =
-                new HashMap<>();
-        while (results != null && !results.getObjects().isEmpty()) {
-            resultsTotargetMorMap(results, targetMor);
-            final String token = results.getToken();
-            // if we have a token, we can scroll through additional results, else there's nothing to do.
-            results =
-                    (token != null) ?
-                            vimPort.continueRetrievePropertiesEx(propertyCollector, token) : null;
-        }
-
-        return targetMor;
+        RetrieveResult results = containerViewByType(folder, moRefType, retrieveOptions, "name");
+        return toMap(results);
     }
 
-    private void resultsTotargetMorMap(RetrieveResult results, Map<String, ManagedObjectReference> targetMor) {
-        List<ObjectContent> oCont = (results != null) ? results.getObjects() : null;
-
-        if (oCont != null) {
-            for (ObjectContent oc : oCont) {
-                ManagedObjectReference mr = oc.getObj();
-                String entityNm = null;
-                List<DynamicProperty> dps = oc.getPropSet();
-                if (dps != null) {
-                    for (DynamicProperty dp : dps) {
-                        entityNm = (String) dp.getVal();
-                    }
-                }
-                targetMor.put(entityNm, mr);
+    private static void putByName(ObjectContent oc, Map<String, ManagedObjectReference> targetMor) {
+        String entityNm = null;
+        List<DynamicProperty> dps = oc.getPropSet();
+        if (dps != null) {
+            for (DynamicProperty dp : dps) {
+                entityNm = (String) dp.getVal();
             }
         }
+        targetMor.put(entityNm, oc.getObj());
     }
 
     /**
@@ -228,12 +292,14 @@ public class GetMOREF {
             ManagedObjectReference container, String moRefType,
             String[] moRefProperties, RetrieveOptions retrieveOptions) throws InvalidPropertyFaultMsg,
             RuntimeFaultFaultMsg {
-        List<ObjectContent> oCont = containerViewByType(container, moRefType, retrieveOptions, moRefProperties).getObjects();
+        RetrieveResult result = containerViewByType(container, moRefType, retrieveOptions, moRefProperties);
 
         Map<ManagedObjectReference, Map<String, Object>> targetMor = new HashMap();
 
-        if (oCont != null) {
-            for (ObjectContent oc : oCont) {
+        ObjectContentIterator objects = iterate(result);
+        try {
+            while (objects.hasNext()) {
+                ObjectContent oc = objects.next();
                 Map<String, Object> propMap = new HashMap<>();
                 List<DynamicProperty> dps = oc.getPropSet();
                 if (dps != null) {
@@ -243,6 +309,8 @@ public class GetMOREF {
                 }
                 targetMor.put(oc.getObj(), propMap);
             }
+        } catch (ConnectionException e) {
+            throw unwrap(e);
         }
         return targetMor;
     }
@@ -269,14 +337,13 @@ public class GetMOREF {
 
     public Map<String, ManagedObjectReference> toMap(RetrieveResult result) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         final Map<String, ManagedObjectReference> targetMor = new HashMap<>();
-        String token = populate(result, targetMor);
-
-        while (token != null && !token.isEmpty()) {
-            // fetch results based on new token
-            result = vimPort.continueRetrievePropertiesEx(
-                    serviceContent.getPropertyCollector(), token);
-
-            token = populate(result, targetMor);
+        ObjectContentIterator objects = iterate(result);
+        try {
+            while (objects.hasNext()) {
+                putByName(objects.next(), targetMor);
+            }
+        } catch (ConnectionException e) {
+            throw unwrap(e);
         }
 
         return targetMor;
@@ -296,52 +363,28 @@ public class GetMOREF {
     ) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
 
 
-        ManagedObjectReference retVal = null;
-        ManagedObjectReference rootFolder = serviceContent.getRootFolder();
-        TraversalSpec tSpec = getVMTraversalSpec();
-        // Create Property Spec
-        PropertySpec propertySpec = new PropertySpecBuilder()
-                .all(Boolean.FALSE)
-                .pathSet("name")
-                .type("VirtualMachine");
-
-        // Now create Object Spec
-        ObjectSpec objectSpec = new ObjectSpecBuilder()
-                .obj(rootFolder)
-                .skip(Boolean.TRUE)
-                .selectSet(tSpec);
-
-        // Create PropertyFilterSpec using the PropertySpec and ObjectPec
-        // created above.
-        PropertyFilterSpec propertyFilterSpec = new PropertyFilterSpecBuilder()
-                .propSet(propertySpec)
-                .objectSet(objectSpec);
-
-        List<PropertyFilterSpec> listpfs =
-                new ArrayList<>(1);
-        listpfs.add(propertyFilterSpec);
+        List<PropertyFilterSpec> listpfs = SpecTemplates
+                .get("VirtualMachine", SpecTemplates.Traversal.VM_INVENTORY, "name")
+                .bindAsList(serviceContent.getRootFolder());
 
         RetrieveOptions options = new RetrieveOptions();
-        List<ObjectContent> listobcont =
-                vimPort.retrievePropertiesEx(propCollectorRef, listpfs, options).getObjects();
-
-        if (listobcont != null) {
-            for (ObjectContent oc : listobcont) {
-                ManagedObjectReference mr = oc.getObj();
-                String vmnm = null;
-                List<DynamicProperty> dps = oc.getPropSet();
-                if (dps != null) {
-                    for (DynamicProperty dp : dps) {
-                        vmnm = (String) dp.getVal();
-                    }
-                }
-                if (vmnm != null && vmnm.equals(vmName)) {
-                    retVal = mr;
-                    break;
+        options.setMaxObjects(DEFAULT_PAGE_SIZE);
+        ObjectContentIterator objects = new ObjectContentIterator(vimPort, propCollectorRef,
+                vimPort.retrievePropertiesEx(propCollectorRef, listpfs, options));
+        // stop at the first match, the pages after it are never sent
+        try (Stream<ObjectContent> stream = objects.stream()) {
+            ObjectContent match = stream.filter(new Predicate<ObjectContent>() {
+                @Override
+                public boolean test(ObjectContent oc) {
+                    List<DynamicProperty> dps = oc.getPropSet();
+                    return dps != null && !dps.isEmpty()
+                            && vmName.equals(dps.get(dps.size() - 1).getVal());
                 }
-            }
+            }).findFirst().orElse(null);
+            return match == null ? null : match.getObj();
+        } catch (ConnectionException e) {
+            throw unwrap(e);
         }
-        return retVal;
     }
 
     /**
@@ -349,51 +392,7 @@ public class GetMOREF {
      * object.
      */
     public TraversalSpec getVMTraversalSpec() {
-        // Create a traversal spec that starts from the 'root' objects
-        // and traverses the inventory tree to get to the VirtualMachines.
-        // Build the traversal specs bottoms up
-
-        //Traversal to get to the VM in a VApp
-        TraversalSpec vAppToVM = new TraversalSpecBuilder()
-                .name("vAppToVM")
-                .type("VirtualApp")
-                .path("vm");
-
-        //Traversal spec for VApp to VApp
-        TraversalSpec vAppToVApp = new TraversalSpecBuilder()
-                .name("vAppToVApp")
-                .type("VirtualApp")
-                .path("resourcePool")
-                .selectSet(
-                        //SelectionSpec for both VApp to VApp and VApp to VM
-                        new SelectionSpecBuilder().name("vAppToVApp"),
-                        new SelectionSpecBuilder().name("vAppToVM")
-                );
-
-
-        //This SelectionSpec is used for recursion for Folder recursion
-        SelectionSpec visitFolders = new SelectionSpecBuilder().name("VisitFolders");
-
-        // Traversal to get to the vmFolder from DataCenter
-        TraversalSpec dataCenterToVMFolder = new TraversalSpecBuilder()
-                .name("DataCenterToVMFolder")
-                .type("Datacenter")
-                .path("vmFolder")
-                .skip(false)
-                .selectSet(visitFolders);
-
-        // TraversalSpec to get to the DataCenter from rootFolder
-        return new TraversalSpecBuilder()
-                .name("VisitFolders")
-                .type("Folder")
-                .path("childEntity")
-                .skip(false)
-                .selectSet(
-                        visitFolders,
-                        dataCenterToVMFolder,
-                        vAppToVM,
-                        vAppToVApp
-                );
+        return SpecTemplates.vmTraversalSpec();
     }
 
     /**
@@ -411,28 +410,15 @@ public class GetMOREF {
 
         final HashMap<String, Object> retVal = new HashMap<>();
 
-        // Create PropertyFilterSpec using the PropertySpec and ObjectPec
-        PropertyFilterSpec[] propertyFilterSpecs = {
-                new PropertyFilterSpecBuilder()
-                        .propSet(
-                                // Create Property Spec
-                                new PropertySpecBuilder()
-                                        .all(Boolean.FALSE)
-                                        .type(entityMor.getType())
-                                        .pathSet(props)
-                        )
-                        .objectSet(
-                        // Now create Object Spec
-                        new ObjectSpecBuilder().obj(entityMor)
-                )
-        };
-
-        List<ObjectContent> oCont =
+        // null when the entity is gone
+        RetrieveResult result =
                 vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(),
-                        Arrays.asList(propertyFilterSpecs), new RetrieveOptions()).getObjects();
+                        SpecTemplates.get(entityMor.getType(), SpecTemplates.Traversal.NONE, props)
+                                .bindAsList(entityMor),
+                        new RetrieveOptions());
 
-        if (oCont != null) {
-            for (ObjectContent oc : oCont) {
+        if (result != null) {
+            for (ObjectContent oc : result.getObjects()) {
                 List<DynamicProperty> dps = oc.getPropSet();
                 for (DynamicProperty dp : dps) {
                     retVal.put(dp.getName(), dp.getVal());
@@ -442,6 +428,48 @@ public class GetMOREF {
         return retVal;
     }
 
+    /**
+     * Reads the properties of a projection interface from one entity.
+     *
+     * @param entityMor  {@link ManagedObjectReference} of the entity
+     * @param projection interface whose getters carry a {@link com.vmware.sample.hci.connection.helpers.projection.PropertyPath}
+     * @return the projection, with null values if the entity was not returned
+     */
+    public <T> T entityProps(ManagedObjectReference entityMor, Class<T> projection)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        Projection<T> compiled = Projection.of(projection);
+        RetrieveResult result = vimPort.retrievePropertiesEx(
+                serviceContent.getPropertyCollector(),
+                SpecTemplates.get(entityMor.getType(), SpecTemplates.Traversal.NONE, compiled.getPaths())
+                        .bindAsList(entityMor),
+                new RetrieveOptions());
+        if (result != null && !result.getObjects().isEmpty()) {
+            return compiled.project(result.getObjects().get(0));
+        }
+        return compiled.project(entityMor, null);
+    }
+
+    /**
+     * Reads the properties of a projection interface from every object of
+     * a type under the container, a page at a time.
+     */
+    public <T> List<T> inContainerByType(ManagedObjectReference container, String moRefType,
+                                         Class<T> projection)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        Projection<T> compiled = Projection.of(projection);
+        List<T> projected = new ArrayList<>();
+        ObjectContentIterator objects = iterateContainerByType(container, moRefType,
+                DEFAULT_PAGE_SIZE, compiled.getPaths());
+        try {
+            while (objects.hasNext()) {
+                projected.add(compiled.project(objects.next()));
+            }
+        } catch (ConnectionException e) {
+            throw unwrap(e);
+        }
+        return projected;
+    }
+
     /**
      * Method to retrieve properties of list of {@link ManagedObjectReference}
      *
@@ -485,29 +513,27 @@ public class GetMOREF {
                 new ArrayList<>();
         propertyFilterSpecs.add(propertyFilterSpec);
 
+        RetrieveOptions options = new RetrieveOptions();
+        options.setMaxObjects(DEFAULT_PAGE_SIZE);
         RetrieveResult result =
                 vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(),
-                        propertyFilterSpecs, new RetrieveOptions());
-
-        List<ObjectContent> listobjcontent = new ArrayList<>();
-        String token = populate(result, listobjcontent);
-        while (token != null && !token.isEmpty()) {
-            result =
-                    vimPort.continueRetrievePropertiesEx(
-                            serviceContent.getPropertyCollector(), token);
-
-            token = populate(result, listobjcontent);
-        }
+                        propertyFilterSpecs, options);
 
-        for (ObjectContent oc : listobjcontent) {
-            List<DynamicProperty> dps = oc.getPropSet();
-            Map<String, Object> propMap = new HashMap<>();
-            if (dps != null) {
-                for (DynamicProperty dp : dps) {
-                    propMap.put(dp.getName(), dp.getVal());
+        ObjectContentIterator objects = iterate(result);
+        try {
+            while (objects.hasNext()) {
+                ObjectContent oc = objects.next();
+                List<DynamicProperty> dps = oc.getPropSet();
+                Map<String, Object> propMap = new HashMap<>();
+                if (dps != null) {
+                    for (DynamicProperty dp : dps) {
+                        propMap.put(dp.getName(), dp.getVal());
+                    }
                 }
+                retVal.put(oc.getObj(), propMap);
             }
-            retVal.put(oc.getObj(), propMap);
+        } catch (ConnectionException e) {
+            throw unwrap(e);
         }
         return retVal;
     }
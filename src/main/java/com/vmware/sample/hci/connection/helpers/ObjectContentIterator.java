@@ -0,0 +1,161 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.connection.helpers;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.BasicConnection.ConnectionException;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Walks the result of a {@code RetrievePropertiesEx} one page at a time.
+ * <p>
+ * Only the current page is held; the next one is asked for with
+ * {@code ContinueRetrievePropertiesEx} once the current one has been
+ * consumed, so memory is bounded by the page size rather than by the
+ * inventory. The objects of the pages fetched here are released as they
+ * are read; the first page belongs to the caller and is left as it is.
+ * Closing the iterator before the end cancels the rest of the
+ * result on the server. Faults of the follow-up calls are thrown as
+ * {@link ConnectionException}.
+ */
+public class ObjectContentIterator implements Iterator<ObjectContent>, Closeable {
+    private static final Logger logger =
+            LoggerFactory.getLogger(ObjectContentIterator.class);
+
+    private final VimPortType vimPort;
+    private final ManagedObjectReference propertyCollector;
+    private List<ObjectContent> page;
+    private int position;
+    private String token;
+    private int pages;
+    // the page was fetched here, so its objects can be released once read
+    private boolean ownPage;
+
+    /**
+     * @param first the result of the {@code RetrievePropertiesEx} call, may be null
+     */
+    public ObjectContentIterator(VimPortType vimPort, ManagedObjectReference propertyCollector,
+                                 RetrieveResult first) {
+        this.vimPort = vimPort;
+        this.propertyCollector = propertyCollector;
+        accept(first);
+    }
+
+    private void accept(RetrieveResult result) {
+        if (result == null) {
+            page = Collections.emptyList();
+            token = null;
+        } else {
+            page = result.getObjects();
+            token = result.getToken();
+            pages++;
+        }
+        position = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= page.size()) {
+            if (token == null || token.isEmpty()) {
+                return false;
+            }
+            String current = token;
+            // let go of the consumed page before the next one arrives
+            page = Collections.emptyList();
+            token = null;
+            try {
+                accept(vimPort.continueRetrievePropertiesEx(propertyCollector, current));
+                ownPage = true;
+            } catch (InvalidPropertyFaultMsg e) {
+                throw new ConnectionException(e);
+            } catch (RuntimeFaultFaultMsg e) {
+                throw new ConnectionException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ObjectContent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ObjectContent content = page.get(position);
+        if (ownPage) {
+            page.set(position, null);
+        }
+        position++;
+        return content;
+    }
+
+    /**
+     * Number of pages received so far.
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * Cancels the part of the result which has not been read yet.
+     */
+    @Override
+    public void close() {
+        page = Collections.emptyList();
+        position = 0;
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        String current = token;
+        token = null;
+        try {
+            vimPort.cancelRetrievePropertiesEx(propertyCollector, current);
+            logger.debug("cancelled the rest of a result after {} pages", pages);
+        } catch (Exception e) {
+            // the server drops the result with the session anyway
+            logger.debug("could not cancel a retrieve result", e);
+        }
+    }
+
+    /**
+     * Views the remaining objects as a stream; closing the stream closes this iterator.
+     */
+    public Stream<ObjectContent> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        close();
+                    }
+                });
+    }
+}
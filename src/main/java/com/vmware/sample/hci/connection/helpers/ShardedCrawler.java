@@ -0,0 +1,267 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.connection.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.BasicConnection.ConnectionException;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Retrieves the objects of a type from several containers concurrently.
+ * <p>
+ * The inventory is cut into shards, one per datacenter or per compute
+ * resource, which a fork/join pool splits down to single shards. Each shard
+ * is read page by page through a ContainerView on one of the worker
+ * sessions; a port is not thread-safe, so a worker serves one shard at a
+ * time and is handed back for the next. The pages of the shards are merged
+ * into one map as the tasks join. The lead session only lists the shards.
+ */
+public class ShardedCrawler {
+    private static final Logger logger =
+            LoggerFactory.getLogger(ShardedCrawler.class);
+
+    /**
+     * Containers the inventory is cut along.
+     */
+    public enum Shard {
+        /**
+         * Every object lives in exactly one datacenter.
+         */
+        DATACENTER("Datacenter"),
+        /**
+         * Clusters and standalone hosts. Holds hosts, resource pools and the
+         * VMs in them, but not VM templates, folders or networks.
+         */
+        COMPUTE_RESOURCE("ComputeResource");
+
+        private final String type;
+
+        Shard(String type) {
+            this.type = type;
+        }
+
+        public String getType() {
+            return type;
+        }
+    }
+
+    private final GetMOREF lead;
+    private final BlockingQueue<GetMOREF> workers;
+    private final int parallelism;
+    private int pageSize = GetMOREF.DEFAULT_PAGE_SIZE;
+
+    /**
+     * @param lead    session which lists the shards
+     * @param workers one helper per session, each on its own port
+     */
+    public ShardedCrawler(GetMOREF lead, List<GetMOREF> workers) {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("at least one worker is needed");
+        }
+        this.lead = lead;
+        this.parallelism = workers.size();
+        this.workers = new ArrayBlockingQueue<GetMOREF>(parallelism, false, workers);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public ShardedCrawler setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Lists the containers to crawl, under the root folder.
+     */
+    public List<ManagedObjectReference> shards(Shard by) {
+        List<ManagedObjectReference> shards = new ArrayList<ManagedObjectReference>();
+        try {
+            ObjectContentIterator objects = lead.iterateContainerByType(
+                    lead.serviceContent.getRootFolder(), by.getType(), pageSize, "name");
+            while (objects.hasNext()) {
+                shards.add(objects.next().getObj());
+            }
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConnectionException(e);
+        }
+        return shards;
+    }
+
+    /**
+     * Crawls the inventory cut along {@code by}.
+     */
+    public Map<ManagedObjectReference, Map<String, Object>> crawl(
+            Shard by, String moRefType, String... moRefProperties) {
+        return crawl(shards(by), moRefType, moRefProperties);
+    }
+
+    /**
+     * Retrieves the objects of a type under each container and merges them.
+     * An object found under two containers is kept once.
+     */
+    public Map<ManagedObjectReference, Map<String, Object>> crawl(
+            List<ManagedObjectReference> shards, String moRefType, String... moRefProperties) {
+        if (shards.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Map<String, Entry> merged = pool.invoke(
+                    new ShardTask(shards, 0, shards.size(), moRefType, moRefProperties));
+            Map<ManagedObjectReference, Map<String, Object>> result =
+                    new HashMap<ManagedObjectReference, Map<String, Object>>(merged.size() * 4 / 3 + 1);
+            for (Entry entry : merged.values()) {
+                result.put(entry.mor, entry.properties);
+            }
+            logger.debug("crawled {} {} objects in {} shards on {} sessions in {} ms",
+                    result.size(), moRefType, shards.size(), parallelism,
+                    (System.nanoTime() - start) / 1000000);
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Map<String, Entry> crawlShard(ManagedObjectReference shard, String moRefType,
+                                          String[] moRefProperties) {
+        GetMOREF worker = takeWorker();
+        Map<String, Entry> found = new HashMap<String, Entry>();
+        try {
+            ObjectContentIterator objects = worker.iterateContainerByType(
+                    shard, moRefType, pageSize, moRefProperties);
+            try {
+                while (objects.hasNext()) {
+                    ObjectContent oc = objects.next();
+                    Map<String, Object> props = new HashMap<String, Object>();
+                    if (oc.getPropSet() != null) {
+                        for (DynamicProperty dp : oc.getPropSet()) {
+                            props.put(dp.getName(), dp.getVal());
+                        }
+                    }
+                    found.put(key(oc.getObj()), new Entry(oc.getObj(), props));
+                }
+            } finally {
+                objects.close();
+            }
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConnectionException(e);
+        } finally {
+            workers.add(worker);
+        }
+        logger.debug("shard {} holds {} {} objects", shard.getValue(), found.size(), moRefType);
+        return found;
+    }
+
+    // blocks without starving the pool, which may add a thread meanwhile
+    private GetMOREF takeWorker() {
+        final GetMOREF[] taken = new GetMOREF[1];
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (taken[0] == null) {
+                        taken[0] = workers.take();
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    if (taken[0] == null) {
+                        taken[0] = workers.poll();
+                    }
+                    return taken[0] != null;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        }
+        return taken[0];
+    }
+
+    private static String key(ManagedObjectReference mor) {
+        return mor.getType() + ":" + mor.getValue();
+    }
+
+    private static final class Entry {
+        private final ManagedObjectReference mor;
+        private final Map<String, Object> properties;
+
+        private Entry(ManagedObjectReference mor, Map<String, Object> properties) {
+            this.mor = mor;
+            this.properties = properties;
+        }
+    }
+
+    private final class ShardTask extends RecursiveTask<Map<String, Entry>> {
+        private final List<ManagedObjectReference> shards;
+        private final int from;
+        private final int to;
+        private final String moRefType;
+        private final String[] moRefProperties;
+
+        private ShardTask(List<ManagedObjectReference> shards, int from, int to,
+                          String moRefType, String[] moRefProperties) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+            this.moRefType = moRefType;
+            this.moRefProperties = moRefProperties;
+        }
+
+        @Override
+        protected Map<String, Entry> compute() {
+            if (to - from == 1) {
+                return crawlShard(shards.get(from), moRefType, moRefProperties);
+            }
+            int middle = (from + to) >>> 1;
+            ShardTask left = new ShardTask(shards, from, middle, moRefType, moRefProperties);
+            ShardTask right = new ShardTask(shards, middle, to, moRefType, moRefProperties);
+            left.fork();
+            Map<String, Entry> merged = right.compute();
+            Map<String, Entry> other = left.join();
+            // fold the smaller map into the larger one
+            if (other.size() > merged.size()) {
+                Map<String, Entry> swap = merged;
+                merged = other;
+                other = swap;
+            }
+            merged.putAll(other);
+            return merged;
+        }
+    }
+}
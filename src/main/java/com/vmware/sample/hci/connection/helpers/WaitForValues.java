@@ -61,8 +61,9 @@ public class WaitForValues extends BaseHelper {
         ServiceContent serviceContent;
 
         try {
-            vimPort = connection.connect().getVimPort();
-            serviceContent = connection.connect().getServiceContent();
+            Connection connected = connection.connect();
+            vimPort = connected.getVimPort();
+            serviceContent = connected.getServiceContent();
         } catch (Throwable cause) {
             throw new BaseHelper.HelperException(cause);
         }
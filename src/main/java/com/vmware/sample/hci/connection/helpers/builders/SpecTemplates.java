@@ -0,0 +1,249 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.connection.helpers.builders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+
+/**
+ * Registry of pre-built filter specs.
+ * <p>
+ * A {@link Template} holds the property spec and traversal of a lookup,
+ * built once and shared, keyed by type, paths and traversal. Binding it to
+ * a root object only allocates the ObjectSpec and the PropertyFilterSpec
+ * around it. The lists of a bound spec are its own, so a caller may append
+ * to them, but the PropertySpec and SelectionSpec objects in them are
+ * shared by every binding of the template and must not be changed.
+ */
+public final class SpecTemplates {
+    // beyond this many templates the lookups are built on every call
+    private static final int MAX_TEMPLATES = 256;
+
+    private static final ConcurrentMap<Key, Template> templates =
+            new ConcurrentHashMap<Key, Template>();
+
+    /**
+     * Ways to get from the root object to the objects whose properties are read.
+     */
+    public enum Traversal {
+        /**
+         * The properties of the root object itself.
+         */
+        NONE,
+        /**
+         * The objects of a ContainerView.
+         */
+        CONTAINER_VIEW,
+        /**
+         * The virtual machines under a folder, through datacenters and vApps.
+         */
+        VM_INVENTORY;
+
+        private List<SelectionSpec> selectSet;
+
+        private synchronized List<SelectionSpec> selectSet() {
+            if (selectSet == null) {
+                switch (this) {
+                    case CONTAINER_VIEW:
+                        selectSet = Collections.<SelectionSpec>singletonList(new TraversalSpecBuilder()
+                                .name("view")
+                                .path("view")
+                                .skip(false)
+                                .type("ContainerView"));
+                        break;
+                    case VM_INVENTORY:
+                        selectSet = Collections.<SelectionSpec>singletonList(vmTraversalSpec());
+                        break;
+                    default:
+                        selectSet = Collections.emptyList();
+                }
+            }
+            return selectSet;
+        }
+    }
+
+    private SpecTemplates() {
+    }
+
+    /**
+     * The template reading {@code paths} of objects of {@code type}.
+     */
+    public static Template get(String type, Traversal traversal, String... paths) {
+        Key key = new Key(type, traversal, paths);
+        Template template = templates.get(key);
+        if (template == null) {
+            template = new Template(type, traversal, paths);
+            if (templates.size() < MAX_TEMPLATES) {
+                // the caller keeps its array, the key gets its own
+                Template raced = templates.putIfAbsent(
+                        new Key(type, traversal, paths.clone()), template);
+                if (raced != null) {
+                    template = raced;
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Number of templates held.
+     */
+    public static int size() {
+        return templates.size();
+    }
+
+    /**
+     * Builds the traversal from a folder down to the virtual machines.
+     *
+     * @return TraversalSpec specification to get to the VirtualMachine managed
+     * object.
+     */
+    public static TraversalSpec vmTraversalSpec() {
+        // Create a traversal spec that starts from the 'root' objects
+        // and traverses the inventory tree to get to the VirtualMachines.
+        // Build the traversal specs bottoms up
+
+        //Traversal to get to the VM in a VApp
+        TraversalSpec vAppToVM = new TraversalSpecBuilder()
+                .name("vAppToVM")
+                .type("VirtualApp")
+                .path("vm");
+
+        //Traversal spec for VApp to VApp
+        TraversalSpec vAppToVApp = new TraversalSpecBuilder()
+                .name("vAppToVApp")
+                .type("VirtualApp")
+                .path("resourcePool")
+                .selectSet(
+                        //SelectionSpec for both VApp to VApp and VApp to VM
+                        new SelectionSpecBuilder().name("vAppToVApp"),
+                        new SelectionSpecBuilder().name("vAppToVM")
+                );
+
+
+        //This SelectionSpec is used for recursion for Folder recursion
+        SelectionSpec visitFolders = new SelectionSpecBuilder().name("VisitFolders");
+
+        // Traversal to get to the vmFolder from DataCenter
+        TraversalSpec dataCenterToVMFolder = new TraversalSpecBuilder()
+                .name("DataCenterToVMFolder")
+                .type("Datacenter")
+                .path("vmFolder")
+                .skip(false)
+                .selectSet(visitFolders);
+
+        // TraversalSpec to get to the DataCenter from rootFolder
+        return new TraversalSpecBuilder()
+                .name("VisitFolders")
+                .type("Folder")
+                .path("childEntity")
+                .skip(false)
+                .selectSet(
+                        visitFolders,
+                        dataCenterToVMFolder,
+                        vAppToVM,
+                        vAppToVApp
+                );
+    }
+
+    /**
+     * A filter spec with everything but its root object built in advance.
+     */
+    public static final class Template {
+        private final Traversal traversal;
+        private final List<PropertySpec> propSet;
+
+        private Template(String type, Traversal traversal, String[] paths) {
+            this.traversal = traversal;
+            this.propSet = Collections.<PropertySpec>singletonList(new PropertySpecBuilder()
+                    .all(Boolean.FALSE)
+                    .type(type)
+                    .pathSet(paths));
+        }
+
+        /**
+         * A filter spec on {@code root} whose propSet, objectSet and
+         * selectSet are new lists over the shared specs.
+         */
+        public PropertyFilterSpec bind(ManagedObjectReference root) {
+            return new BoundFilterSpec(new ArrayList<PropertySpec>(propSet),
+                    new BoundObjectSpec(root, traversal != Traversal.NONE,
+                            new ArrayList<SelectionSpec>(traversal.selectSet())));
+        }
+
+        public List<PropertyFilterSpec> bindAsList(ManagedObjectReference root) {
+            List<PropertyFilterSpec> specs = new ArrayList<PropertyFilterSpec>(1);
+            specs.add(bind(root));
+            return specs;
+        }
+    }
+
+    private static final class BoundObjectSpec extends ObjectSpec {
+        private BoundObjectSpec(ManagedObjectReference root, boolean skip,
+                                List<SelectionSpec> selectSet) {
+            this.obj = root;
+            this.skip = skip;
+            this.selectSet = selectSet;
+        }
+    }
+
+    private static final class BoundFilterSpec extends PropertyFilterSpec {
+        private BoundFilterSpec(List<PropertySpec> propSet, ObjectSpec objectSpec) {
+            this.propSet = propSet;
+            this.objectSet = new ArrayList<ObjectSpec>(1);
+            this.objectSet.add(objectSpec);
+        }
+    }
+
+    private static final class Key {
+        private final String type;
+        private final Traversal traversal;
+        private final String[] paths;
+        private final int hash;
+
+        private Key(String type, Traversal traversal, String[] paths) {
+            this.type = type;
+            this.traversal = traversal;
+            this.paths = paths;
+            this.hash = 31 * (31 * type.hashCode() + traversal.hashCode()) + Arrays.hashCode(paths);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && type.equals(other.type) && traversal == other.traversal
+                    && Arrays.equals(paths, other.paths);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.connection.helpers.projection;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.w3c.dom.Element;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * A projection interface compiled against the property paths of its getters.
+ * <p>
+ * Each getter of the interface carries a {@link PropertyPath}; the paths are
+ * what a retrieval of the projection asks for. Compiling gives every path a
+ * slot, so an object is filled by walking its {@code DynamicProperty} list
+ * once into an array, without a map per object. Values are converted once on
+ * the way in: enums which arrive as DOM elements become the enum constant,
+ * {@code ArrayOf...} wrappers become the list or array the getter declares.
+ * A getter whose property was not returned gives null, or the default of a
+ * primitive. Projections are compiled once per interface and cached. An
+ * interface with a default method is rejected when it is compiled.
+ *
+ * @param <T> the projection interface
+ */
+public final class Projection<T> {
+    private static final ConcurrentMap<Class<?>, Projection<?>> compiled =
+            new ConcurrentHashMap<Class<?>, Projection<?>>();
+    private static final ConcurrentMap<Class<?>, Method> arrayGetters =
+            new ConcurrentHashMap<Class<?>, Method>();
+    private static final Method GET_MOR;
+
+    static {
+        try {
+            GET_MOR = Projected.class.getMethod("getMor");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Class<T> type;
+    private final String[] paths;
+    private final Map<String, Integer> slotsByPath;
+    private final Map<Method, Integer> slotsByMethod;
+    private final Class<?>[] valueTypes;
+    private final Object[] defaults;
+    private final Method[] enumParsers;
+    private final Constructor<?> constructor;
+
+    private Projection(Class<T> type) {
+        if (!type.isInterface()) {
+            throw new IllegalArgumentException(type.getName() + " is not an interface");
+        }
+        this.type = type;
+        List<String> pathList = new ArrayList<String>();
+        List<Class<?>> returnTypes = new ArrayList<Class<?>>();
+        slotsByPath = new HashMap<String, Integer>();
+        slotsByMethod = new HashMap<Method, Integer>();
+        for (Method method : type.getMethods()) {
+            if (method.equals(GET_MOR) || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            if (method.isDefault()) {
+                // a proxy can not call the body of a default method on Java 8
+                throw new IllegalArgumentException(type.getName() + "." + method.getName()
+                        + " is a default method, which a projection can not implement");
+            }
+            PropertyPath path = method.getAnnotation(PropertyPath.class);
+            if (path == null || method.getParameterTypes().length != 0) {
+                throw new IllegalArgumentException(type.getName() + "." + method.getName()
+                        + " must be a getter with a @PropertyPath");
+            }
+            Integer slot = slotsByPath.get(path.value());
+            if (slot == null) {
+                slot = pathList.size();
+                pathList.add(path.value());
+                returnTypes.add(method.getReturnType());
+                slotsByPath.put(path.value(), slot);
+            } else if (!returnTypes.get(slot).equals(method.getReturnType())) {
+                throw new IllegalArgumentException(path.value() + " is read as two types in "
+                        + type.getName());
+            }
+            slotsByMethod.put(method, slot);
+        }
+        if (pathList.isEmpty()) {
+            throw new IllegalArgumentException(type.getName() + " has no @PropertyPath getter");
+        }
+        paths = pathList.toArray(new String[pathList.size()]);
+        valueTypes = new Class<?>[paths.length];
+        defaults = new Object[paths.length];
+        enumParsers = new Method[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            Class<?> returnType = returnTypes.get(i);
+            valueTypes[i] = boxed(returnType);
+            if (returnType.isPrimitive()) {
+                defaults[i] = Array.get(Array.newInstance(returnType, 1), 0);
+            }
+            if (returnType.isEnum()) {
+                enumParsers[i] = fromValue(returnType);
+            }
+        }
+        try {
+            constructor = Proxy.getProxyClass(type.getClassLoader(), type)
+                    .getConstructor(InvocationHandler.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The compiled projection of an interface.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Projection<T> of(Class<T> type) {
+        Projection<?> projection = compiled.get(type);
+        if (projection == null) {
+            projection = new Projection<T>(type);
+            Projection<?> raced = compiled.putIfAbsent(type, projection);
+            if (raced != null) {
+                projection = raced;
+            }
+        }
+        return (Projection<T>) projection;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Property paths to retrieve for this projection.
+     */
+    public String[] getPaths() {
+        return paths.clone();
+    }
+
+    public T project(ObjectContent content) {
+        return project(content.getObj(), content.getPropSet());
+    }
+
+    public T project(ManagedObjectReference mor, List<DynamicProperty> properties) {
+        Object[] values = new Object[paths.length];
+        if (properties != null) {
+            for (DynamicProperty property : properties) {
+                Integer slot = slotsByPath.get(property.getName());
+                if (slot != null) {
+                    values[slot] = convert(slot, property.getVal());
+                }
+            }
+        }
+        try {
+            return type.cast(constructor.newInstance(new Values(mor, values)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object convert(int slot, Object value) {
+        if (value == null) {
+            return null;
+        }
+        Class<?> valueType = valueTypes[slot];
+        if (value instanceof Element) {
+            value = ((Element) value).getTextContent();
+        }
+        if (valueType.isEnum() && value instanceof String) {
+            return parseEnum(slot, (String) value);
+        }
+        if (!valueType.isInstance(value) && (valueType == List.class || valueType.isArray())) {
+            value = unwrapArray(value);
+            if (valueType.isArray() && value instanceof List) {
+                List<?> list = (List<?>) value;
+                Object array = Array.newInstance(valueType.getComponentType(), list.size());
+                for (int i = 0; i < list.size(); i++) {
+                    Array.set(array, i, list.get(i));
+                }
+                value = array;
+            }
+        }
+        if (!valueType.isInstance(value)) {
+            throw new ClassCastException(paths[slot] + " is a " + value.getClass().getName()
+                    + ", not a " + valueType.getName());
+        }
+        return value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object parseEnum(int slot, String text) {
+        try {
+            if (enumParsers[slot] != null) {
+                return enumParsers[slot].invoke(null, text);
+            }
+            return Enum.valueOf((Class) valueTypes[slot], text);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IllegalStateException(paths[slot] + " has no constant " + text, e);
+        }
+    }
+
+    // the ArrayOf... types of vim25 hold a single list
+    private static Object unwrapArray(Object value) {
+        Class<?> wrapper = value.getClass();
+        Method getter = arrayGetters.get(wrapper);
+        if (getter == null) {
+            if (!wrapper.getSimpleName().startsWith("ArrayOf")) {
+                return value;
+            }
+            for (Method method : wrapper.getMethods()) {
+                if (method.getParameterTypes().length == 0 && method.getName().startsWith("get")
+                        && List.class.isAssignableFrom(method.getReturnType())) {
+                    getter = method;
+                    break;
+                }
+            }
+            if (getter == null) {
+                return value;
+            }
+            arrayGetters.putIfAbsent(wrapper, getter);
+        }
+        try {
+            return getter.invoke(value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // vim25 enums map their XML values with fromValue
+    private static Method fromValue(Class<?> enumType) {
+        try {
+            return enumType.getMethod("fromValue", String.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == char.class) {
+            return Character.class;
+        }
+        return Void.class;
+    }
+
+    private final class Values implements InvocationHandler {
+        private final ManagedObjectReference mor;
+        private final Object[] values;
+
+        private Values(ManagedObjectReference mor, Object[] values) {
+            this.mor = mor;
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Integer slot = slotsByMethod.get(method);
+            if (slot != null) {
+                Object value = values[slot];
+                return value == null ? defaults[slot] : value;
+            }
+            if (method.equals(GET_MOR)) {
+                return mor;
+            }
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                StringBuilder sb = new StringBuilder(type.getSimpleName()).append('[');
+                sb.append(mor == null ? null : mor.getValue());
+                for (int i = 0; i < paths.length; i++) {
+                    sb.append(", ").append(paths[i]).append('=').append(values[i]);
+                }
+                return sb.append(']').toString();
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/*
+ * Contains typed projections of managed object properties.
+ *
+ */
+package com.vmware.sample.hci.connection.helpers.projection;
@@ -0,0 +1,111 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable view of the statistics of one method on one endpoint. Latencies
+ * are in milliseconds.
+ */
+public class CallSnapshot {
+    private final String method;
+    private final String endpoint;
+    private final long count;
+    private final long faults;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    @ConstructorProperties({"method", "endpoint", "count", "faults", "requestBytes", "responseBytes",
+            "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis"})
+    public CallSnapshot(String method, String endpoint, long count, long faults, long requestBytes,
+            long responseBytes, double meanMillis, double p50Millis, double p90Millis,
+            double p99Millis, double maxMillis) {
+        this.method = method;
+        this.endpoint = endpoint;
+        this.count = count;
+        this.faults = faults;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p90Millis = p90Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getFaults() {
+        return faults;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP90Millis() {
+        return p90Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * Total time spent in this call, the figure to sort by when looking for
+     * where time goes.
+     */
+    public double getTotalMillis() {
+        return meanMillis * count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-36s %-16s n=%-6d faults=%-4d total=%.0fms p50=%.1fms p90=%.1fms "
+                        + "p99=%.1fms max=%.1fms out=%dB in=%dB", method, endpoint, count, faults,
+                getTotalMillis(), p50Millis, p90Millis, p99Millis, maxMillis, requestBytes, responseBytes);
+    }
+}
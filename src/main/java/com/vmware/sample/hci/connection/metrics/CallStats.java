@@ -0,0 +1,68 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running statistics of one vim25 method on one endpoint.
+ */
+public class CallStats {
+    private final String method;
+    private final String endpoint;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong faults = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+
+    CallStats(String method, String endpoint) {
+        this.method = method;
+        this.endpoint = endpoint;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    void record(long latencyNanos, long requestSize, long responseSize, boolean fault) {
+        latency.recordNanos(latencyNanos);
+        if (requestSize > 0) {
+            requestBytes.addAndGet(requestSize);
+        }
+        if (responseSize > 0) {
+            responseBytes.addAndGet(responseSize);
+        }
+        if (fault) {
+            faults.incrementAndGet();
+        }
+    }
+
+    public CallSnapshot snapshot() {
+        return new CallSnapshot(method, endpoint, latency.getCount(), faults.get(),
+                requestBytes.get(), responseBytes.get(), latency.getMeanMicros() / 1000.0,
+                latency.getPercentileMicros(50) / 1000.0, latency.getPercentileMicros(90) / 1000.0,
+                latency.getPercentileMicros(99) / 1000.0, latency.getMaxMicros() / 1000.0);
+    }
+
+    void reset() {
+        latency.reset();
+        faults.set(0);
+        requestBytes.set(0);
+        responseBytes.set(0);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the {@link CallStats} recorded by {@link SoapMetricsHandler},
+ * keyed by method and endpoint.
+ */
+public class SoapMetrics implements SoapMetricsMXBean {
+    private static final Logger logger =
+            LoggerFactory.getLogger(SoapMetrics.class);
+
+    public static final String OBJECT_NAME = "com.vmware.sample.hci:type=SoapMetrics";
+
+    private static SoapMetrics defaultMetrics;
+
+    // handlers record on the thread which made the call
+    private static final ThreadLocal<long[]> threadCalls = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final ConcurrentMap<String, CallStats> stats = new ConcurrentHashMap<String, CallStats>();
+
+    /**
+     * Returns the process-wide registry, registering it with the platform
+     * MBean server on first use.
+     */
+    public static synchronized SoapMetrics getDefault() {
+        if (defaultMetrics == null) {
+            defaultMetrics = new SoapMetrics();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(defaultMetrics, name);
+                }
+            } catch (JMException e) {
+                logger.warn("could not register {}: {}", OBJECT_NAME, e.getMessage());
+            }
+        }
+        return defaultMetrics;
+    }
+
+    public void record(String method, String endpoint, long latencyNanos,
+            long requestBytes, long responseBytes, boolean fault) {
+        String key = method + "@" + endpoint;
+        CallStats callStats = stats.get(key);
+        if (callStats == null) {
+            CallStats created = new CallStats(method, endpoint);
+            callStats = stats.putIfAbsent(key, created);
+            if (callStats == null) {
+                callStats = created;
+            }
+        }
+        callStats.record(latencyNanos, requestBytes, responseBytes, fault);
+        threadCalls.get()[0]++;
+    }
+
+    /**
+     * Number of calls the calling thread made so far, in any registry.
+     * The difference of two readings counts the calls made in between.
+     */
+    public static long getThreadCallCount() {
+        return threadCalls.get()[0];
+    }
+
+    /**
+     * Statistics of one method on one endpoint, or null if it was never called.
+     */
+    public CallSnapshot get(String method, String endpoint) {
+        CallStats callStats = stats.get(method + "@" + endpoint);
+        return callStats == null ? null : callStats.snapshot();
+    }
+
+    /**
+     * Total number of calls of one method on every endpoint.
+     */
+    public long getCount(String method) {
+        long count = 0;
+        for (CallStats callStats : stats.values()) {
+            if (callStats.getMethod().equals(method)) {
+                count += callStats.snapshot().getCount();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<CallSnapshot> getCalls() {
+        List<CallSnapshot> snapshot = new ArrayList<CallSnapshot>();
+        for (CallStats callStats : stats.values()) {
+            snapshot.add(callStats.snapshot());
+        }
+        Collections.sort(snapshot, new Comparator<CallSnapshot>() {
+            @Override
+            public int compare(CallSnapshot a, CallSnapshot b) {
+                return Double.compare(b.getTotalMillis(), a.getTotalMillis());
+            }
+        });
+        return snapshot;
+    }
+
+    @Override
+    public long getTotalCalls() {
+        long total = 0;
+        for (CallSnapshot call : getCalls()) {
+            total += call.getCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTotalFaults() {
+        long total = 0;
+        for (CallSnapshot call : getCalls()) {
+            total += call.getFaults();
+        }
+        return total;
+    }
+
+    @Override
+    public void reset() {
+        for (CallStats callStats : stats.values()) {
+            callStats.reset();
+        }
+    }
+
+    /**
+     * Logs one line per method and endpoint, the most expensive first.
+     */
+    public void log() {
+        for (CallSnapshot call : getCalls()) {
+            logger.info("{}", call);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.soap.SOAPBody;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPHandler;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+
+import org.w3c.dom.Node;
+
+/**
+ * Client side handler timing every SOAP call of a port and feeding
+ * {@link SoapMetrics}.
+ * <p>
+ * The method is the WSDL operation of the call, as set by JAX-WS, and only
+ * when it is missing the local name of the first element of the request
+ * body, which for vim25 is the operation name; the SOAP message itself is
+ * not touched unless needed. Calls on a port are synchronous, so
+ * the request and its response or fault are matched through the calling
+ * thread. Byte sizes are those of the XML before any compression; measuring
+ * them serializes each message a second time, so they are only recorded
+ * when asked for.
+ */
+public class SoapMetricsHandler implements SOAPHandler<SOAPMessageContext> {
+
+    private static final ThreadLocal<InFlight> inFlight = new ThreadLocal<InFlight>();
+
+    private final SoapMetrics metrics;
+    private final boolean measureBytes;
+
+    public SoapMetricsHandler(SoapMetrics metrics, boolean measureBytes) {
+        this.metrics = metrics;
+        this.measureBytes = measureBytes;
+    }
+
+    @Override
+    public boolean handleMessage(SOAPMessageContext context) {
+        if (Boolean.TRUE.equals(context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY))) {
+            InFlight call = new InFlight();
+            call.method = operation(context);
+            call.endpoint = endpoint(context);
+            call.requestBytes = size(context);
+            call.start = System.nanoTime();
+            inFlight.set(call);
+        } else {
+            complete(context, false);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean handleFault(SOAPMessageContext context) {
+        complete(context, true);
+        return true;
+    }
+
+    @Override
+    public void close(MessageContext context) {
+        // a transport failure gets neither a response nor a fault
+        InFlight call = inFlight.get();
+        if (call != null) {
+            inFlight.remove();
+            metrics.record(call.method, call.endpoint, System.nanoTime() - call.start,
+                    call.requestBytes, 0, true);
+        }
+    }
+
+    @Override
+    public Set<QName> getHeaders() {
+        return Collections.emptySet();
+    }
+
+    private void complete(SOAPMessageContext context, boolean fault) {
+        InFlight call = inFlight.get();
+        if (call == null) {
+            return;
+        }
+        inFlight.remove();
+        long latency = System.nanoTime() - call.start;
+        metrics.record(call.method, call.endpoint, latency, call.requestBytes,
+                size(context), fault);
+    }
+
+    private long size(SOAPMessageContext context) {
+        if (!measureBytes) {
+            return 0;
+        }
+        SOAPMessage message = context.getMessage();
+        if (message == null) {
+            return 0;
+        }
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            message.writeTo(out);
+        } catch (SOAPException | IOException e) {
+            return 0;
+        }
+        return out.count;
+    }
+
+    private static String operation(SOAPMessageContext context) {
+        Object operation = context.get(MessageContext.WSDL_OPERATION);
+        if (operation instanceof QName) {
+            return ((QName) operation).getLocalPart();
+        }
+        // parses the message, only done when JAX-WS did not name the operation
+        try {
+            SOAPBody body = context.getMessage().getSOAPBody();
+            Iterator<?> it = body.getChildElements();
+            while (it.hasNext()) {
+                Object child = it.next();
+                if (child instanceof Node && ((Node) child).getNodeType() == Node.ELEMENT_NODE) {
+                    return ((Node) child).getLocalName();
+                }
+            }
+        } catch (SOAPException e) {
+            return "unknown";
+        }
+        return "unknown";
+    }
+
+    private static String endpoint(SOAPMessageContext context) {
+        Object address = context.get(BindingProvider.ENDPOINT_ADDRESS_PROPERTY);
+        if (address == null) {
+            return "unknown";
+        }
+        try {
+            return new URL(address.toString()).getHost();
+        } catch (IOException e) {
+            return address.toString();
+        }
+    }
+
+    private static final class InFlight {
+        private String method;
+        private String endpoint;
+        private long requestBytes;
+        private long start;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
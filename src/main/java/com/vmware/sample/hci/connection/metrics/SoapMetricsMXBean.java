@@ -0,0 +1,34 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.connection.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link SoapMetrics}, registered as
+ * {@value SoapMetrics#OBJECT_NAME}.
+ */
+public interface SoapMetricsMXBean {
+
+    /**
+     * Statistics per method and endpoint, the most expensive first.
+     */
+    List<CallSnapshot> getCalls();
+
+    long getTotalCalls();
+
+    long getTotalFaults();
+
+    void reset();
+}
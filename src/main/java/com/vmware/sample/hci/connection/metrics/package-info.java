@@ -0,0 +1,4 @@
+/*
+ * Per method and endpoint statistics of the SOAP calls made to vCenter and ESXi.
+ */
+package com.vmware.sample.hci.connection.metrics;
@@ -0,0 +1,241 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.vim25.DVSConfigSpec;
+import com.vmware.vim25.HostConnectSpec;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.VirtualMachineConfigSpec;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Asynchronous facade over the session of a {@link VsphereClient}.
+ * <p>
+ * The vim25 bindings have no JAX-WS async methods, so calls run on a
+ * dedicated executor. Each executor thread owns one extra port on the same
+ * session, which lets as many calls as there are threads be in flight at
+ * once without a thread per request on the caller's side. The facade
+ * does not own the client; {@link #close()} only stops the executor.
+ */
+public class AsyncVsphereClient {
+    private static final Logger logger =
+            LoggerFactory.getLogger(AsyncVsphereClient.class);
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * A call made on one of the ports of the facade.
+     */
+    public interface PortCall<T> {
+        T call(VimPortType port) throws Exception;
+    }
+
+    private final VsphereClient client;
+    private final BasicConnection connection;
+    private final ServiceContent serviceContent;
+    private final BlockingQueue<VimPortType> ports;
+    private final ExecutorService executor;
+
+    public AsyncVsphereClient(VsphereClient client) {
+        this(client, DEFAULT_PARALLELISM);
+    }
+
+    public AsyncVsphereClient(VsphereClient client, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.client = client;
+        this.connection = client.getConnection();
+        this.serviceContent = client.getServiceContent();
+        this.ports = new ArrayBlockingQueue<VimPortType>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            ports.add(connection.newSessionPort());
+        }
+        this.executor = newExecutor(parallelism, client.getIpAddress());
+    }
+
+    /**
+     * Facade over the given ports of one session, one call in flight per
+     * port. The ports must not be used by anybody else. An expired session
+     * is not renewed.
+     */
+    public AsyncVsphereClient(List<VimPortType> ports, ServiceContent serviceContent, String name) {
+        if (ports.isEmpty()) {
+            throw new IllegalArgumentException("at least one port is needed");
+        }
+        this.client = null;
+        this.connection = null;
+        this.serviceContent = serviceContent;
+        this.ports = new ArrayBlockingQueue<VimPortType>(ports.size(), false, ports);
+        this.executor = newExecutor(ports.size(), name);
+    }
+
+    private static ExecutorService newExecutor(int parallelism, String name) {
+        final String prefix = "vsphere-async-" + name + "-";
+        return Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * The client whose session the facade uses, null when built over ports.
+     */
+    public VsphereClient getClient() {
+        return client;
+    }
+
+    /**
+     * Runs a call on a free port of the session. When the session expired,
+     * it is logged in again and the call is retried once.
+     */
+    public <T> CompletableFuture<T> submit(final PortCall<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    return;
+                }
+                VimPortType port = ports.poll();
+                try {
+                    future.complete(invoke(port, call));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    ports.offer(port);
+                }
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<RetrieveResult> retrievePropertiesEx(
+            final List<PropertyFilterSpec> specSet, final RetrieveOptions options) {
+        final ManagedObjectReference propertyCollector = serviceContent.getPropertyCollector();
+        return submit(new PortCall<RetrieveResult>() {
+            @Override
+            public RetrieveResult call(VimPortType port) throws Exception {
+                return port.retrievePropertiesEx(propertyCollector, specSet, options);
+            }
+        });
+    }
+
+    public CompletableFuture<RetrieveResult> continueRetrievePropertiesEx(final String token) {
+        final ManagedObjectReference propertyCollector = serviceContent.getPropertyCollector();
+        return submit(new PortCall<RetrieveResult>() {
+            @Override
+            public RetrieveResult call(VimPortType port) throws Exception {
+                return port.continueRetrievePropertiesEx(propertyCollector, token);
+            }
+        });
+    }
+
+    /**
+     * Waits for updates on a property collector. Holds one of the ports
+     * for the whole wait, so use a bounded {@link WaitOptions#setMaxWaitSeconds}.
+     */
+    public CompletableFuture<UpdateSet> waitForUpdatesEx(final ManagedObjectReference propertyCollector,
+            final String version, final WaitOptions options) {
+        return submit(new PortCall<UpdateSet>() {
+            @Override
+            public UpdateSet call(VimPortType port) throws Exception {
+                return port.waitForUpdatesEx(propertyCollector, version, options);
+            }
+        });
+    }
+
+    public CompletableFuture<ManagedObjectReference> reconfigureDvsTask(
+            final ManagedObjectReference dvs, final DVSConfigSpec spec) {
+        return submit(new PortCall<ManagedObjectReference>() {
+            @Override
+            public ManagedObjectReference call(VimPortType port) throws Exception {
+                return port.reconfigureDvsTask(dvs, spec);
+            }
+        });
+    }
+
+    public CompletableFuture<ManagedObjectReference> addHostTask(final ManagedObjectReference cluster,
+            final HostConnectSpec spec, final boolean asConnected,
+            final ManagedObjectReference resourcePool, final String license) {
+        return submit(new PortCall<ManagedObjectReference>() {
+            @Override
+            public ManagedObjectReference call(VimPortType port) throws Exception {
+                return port.addHostTask(cluster, spec, asConnected, resourcePool, license);
+            }
+        });
+    }
+
+    public CompletableFuture<ManagedObjectReference> reconfigVMTask(
+            final ManagedObjectReference vm, final VirtualMachineConfigSpec spec) {
+        return submit(new PortCall<ManagedObjectReference>() {
+            @Override
+            public ManagedObjectReference call(VimPortType port) throws Exception {
+                return port.reconfigVMTask(vm, spec);
+            }
+        });
+    }
+
+    /**
+     * Stops the executor. Calls already submitted still run.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    private <T> T invoke(VimPortType port, PortCall<T> call) throws Exception {
+        int loginCount = connection == null ? 0 : connection.getLoginCount();
+        try {
+            return call.call(port);
+        } catch (Exception e) {
+            if (connection == null || !VsphereClient.isNotAuthenticated(e)) {
+                throw e;
+            }
+        }
+        synchronized (connection) {
+            // another port may already have renewed the session
+            if (connection.getLoginCount() == loginCount) {
+                logger.info("session to {} expired, logging in again", client.getIpAddress());
+                connection.reconnect();
+            }
+        }
+        connection.attachSession(port);
+        return call.call(port);
+    }
+}
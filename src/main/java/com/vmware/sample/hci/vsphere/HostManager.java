@@ -15,12 +15,13 @@ package com.vmware.sample.hci.vsphere;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.vmware.sample.hci.connection.helpers.projection.Projected;
+import com.vmware.sample.hci.connection.helpers.projection.PropertyPath;
 import com.vmware.sample.hci.vsphere.exception.HciServerException;
 import com.vmware.sample.hci.vsphere.exception.VerificationFailedException;
 import com.vmware.sample.hci.vsphere.hwconfig.HardwareConfiguration;
@@ -29,6 +30,8 @@ import com.vmware.sample.hci.vsphere.hwconfig.NetworkAdapterConfiguration;
 import com.vmware.sample.hci.vsphere.hwconfig.ProcessorConfiguration;
 import com.vmware.sample.hci.vsphere.hwconfig.StorageConfiguration;
 import com.vmware.sample.hci.vsphere.operation.Task;
+import com.vmware.sample.hci.vsphere.session.SessionPool;
+import com.vmware.sample.hci.vsphere.utils.VsphereConstants;
 import com.vmware.sample.hci.vsphere.utils.VsphereUtil;
 import com.vmware.vim25.AlreadyExistsFaultMsg;
 import com.vmware.vim25.HostAccountSpec;
@@ -46,7 +49,6 @@ import com.vmware.vim25.HostNetworkPolicy;
 import com.vmware.vim25.HostNtpConfig;
 import com.vmware.vim25.HostPciDevice;
 import com.vmware.vim25.HostPortGroupSpec;
-import com.vmware.vim25.HostRuntimeInfo;
 import com.vmware.vim25.HostScsiDisk;
 import com.vmware.vim25.HostService;
 import com.vmware.vim25.HostServiceInfo;
@@ -62,6 +64,7 @@ import com.vmware.vim25.NotFoundFaultMsg;
 import com.vmware.vim25.PhysicalNic;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ScsiLun;
+import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.TaskInfo;
 import com.vmware.vim25.UserNotFoundFaultMsg;
 
@@ -69,11 +72,16 @@ import com.vmware.vim25.UserNotFoundFaultMsg;
 public class HostManager extends VsphereInventory {
     private static final Logger logger = LoggerFactory.getLogger(HostManager.class);
 
+    // the identity of the host on a direct ESXi connection
+    private static final String HOST_AGENT_API = "HostAgent";
+    private static final String HOST_AGENT_HOST = "ha-host";
+
     private HostInfo hostInfo;
     private ManagedObjectReference hostMor;
+    private int hostMorLoginCount = -1;
 
     public HostManager(HostInfo hostInfo) {
-        super(new VsphereClient(hostInfo));
+        super(SessionPool.getDefault().borrow(hostInfo));
         this.hostInfo = hostInfo;
     }
 
@@ -86,18 +94,39 @@ public class HostManager extends VsphereInventory {
         return hostInfo;
     }
 
-    public ManagedObjectReference getHostMor() throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
-        Map<String, ManagedObjectReference> hostMap = getMOREFs.inFolderByType(vsphereClient.getServiceContent().getRootFolder(), "HostSystem");
-        String keyStr = "";
-        for (Iterator<String> it = hostMap.keySet().iterator(); it.hasNext(); ) {
-            keyStr = it.next();
-            logger.debug("Host Mor key {}", keyStr);
-            break;
+    /**
+     * The host this manager configures, resolved once per login: an ESXi
+     * endpoint is its own {@code ha-host}, through vCenter the host is found
+     * by IP address or DNS name with the SearchIndex.
+     */
+    public synchronized ManagedObjectReference getHostMor() throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        int loginCount = vsphereClient.getConnection().getLoginCount();
+        if (hostMor != null && hostMorLoginCount == loginCount) {
+            return hostMor;
+        }
+        hostMor = null;
+        ServiceContent serviceContent = vsphereClient.getServiceContent();
+        if (HOST_AGENT_API.equals(serviceContent.getAbout().getApiType())) {
+            ManagedObjectReference self = new ManagedObjectReference();
+            self.setType(VsphereConstants.HOST_MOR_TYPE);
+            self.setValue(HOST_AGENT_HOST);
+            hostMor = self;
+        } else {
+            ManagedObjectReference searchIndex = serviceContent.getSearchIndex();
+            if (StringUtils.isNotEmpty(hostInfo.getIpAddress())) {
+                hostMor = vsphereClient.getVimPort().findByIp(searchIndex, null,
+                        hostInfo.getIpAddress(), false);
+            }
+            if (hostMor == null && StringUtils.isNotEmpty(hostInfo.getHostName())) {
+                hostMor = vsphereClient.getVimPort().findByDnsName(searchIndex, null,
+                        hostInfo.getHostName(), false);
+            }
         }
-        this.hostMor = hostMap.get(keyStr);
-        if (this.hostMor == null) {
+        if (hostMor == null) {
             throw new VerificationFailedException(String.format("Host %s is unaccessible", hostInfo.getIpAddress()));
         }
+        hostMorLoginCount = loginCount;
+        logger.debug("host {} is {}", hostInfo.getIpAddress(), hostMor.getValue());
         return hostMor;
     }
 
@@ -127,21 +156,28 @@ public class HostManager extends VsphereInventory {
         return hostConfigInfo;
     }
 
+    /**
+     * Name, connection state and product version of the host, read in one
+     * call without the rest of its config.
+     */
+    public HostSummary getHostSummary() throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        return getMOREFs.entityProps(getHostMor(), HostSummary.class);
+    }
+
     public String getHostVersion() throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        HostConfigInfo hostConfigInfo = getHostConfigInfo();
-        if (hostConfigInfo == null) {
+        String version = getHostSummary().getVersion();
+        if (version == null) {
             throw new IllegalArgumentException("HostConfigInfo is null");
         }
-        return hostConfigInfo.getProduct().getVersion();
+        return version;
     }
 
     public HostSystemConnectionState getHostConnectionState() throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        HostRuntimeInfo connectionState = (HostRuntimeInfo) getMOREFs
-                .entityProps(getHostMor(), new String[]{"runtime"}).get("runtime");
+        HostSystemConnectionState connectionState = getHostSummary().getConnectionState();
         if (connectionState == null) {
             throw new IllegalArgumentException("HostRuntimeInfo is null");
         }
-        return connectionState.getConnectionState();
+        return connectionState;
     }
 
     public HostDnsConfig getHostDnsConfig(ManagedObjectReference nwSystem) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
@@ -350,6 +386,8 @@ public class HostManager extends VsphereInventory {
         try {
             vsphereClient.getVimPort().updateUser(accountManager, account);
             logger.info("Update user password successfully");
+            // pooled sessions must not log in again with the old password
+            SessionPool.getDefault().retireUser(vsphereClient.getIpAddress(), userName);
         } catch (UserNotFoundFaultMsg e) {
             logger.error("User {} not found", userName);
             throw new IllegalArgumentException(String.format("User %s not found", userName));
@@ -692,4 +730,18 @@ public class HostManager extends VsphereInventory {
             throw new HciServerException("Failed to exit maintenance mode on " + this.hostInfo.getIpAddress());
         }
     }
+
+    /**
+     * The host properties checked before it is configured.
+     */
+    public interface HostSummary extends Projected {
+        @PropertyPath("name")
+        String getName();
+
+        @PropertyPath("runtime.connectionState")
+        HostSystemConnectionState getConnectionState();
+
+        @PropertyPath("config.product.version")
+        String getVersion();
+    }
 }
@@ -23,6 +23,7 @@ import com.vmware.sample.hci.connection.helpers.GetMOREF;
 import com.vmware.sample.hci.vsphere.exception.HciClientException;
 import com.vmware.sample.hci.vsphere.operation.Cluster;
 import com.vmware.sample.hci.vsphere.operation.Datacenter;
+import com.vmware.sample.hci.vsphere.session.SessionPool;
 import com.vmware.sample.hci.vsphere.utils.VsphereUtil;
 import com.vmware.vim25.DuplicateNameFaultMsg;
 import com.vmware.vim25.HostConnectFaultFaultMsg;
@@ -41,7 +42,7 @@ public class VcManager extends VsphereInventory {
     private final VcInfo vcInfo;
 
     public VcManager(VcInfo vcInfo) {
-        super(new VsphereClient(vcInfo));
+        super(SessionPool.getDefault().borrow(vcInfo));
         this.vcInfo = vcInfo;
     }
 
@@ -150,8 +151,7 @@ public class VcManager extends VsphereInventory {
     private void assignLicense(String entityId, String licenseKey)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg, LicenseEntityNotFoundFaultMsg {
 
-        GetMOREF getMOREFs = new GetMOREF(this.vsphereClient.getVimPort(),
-                this.vsphereClient.getServiceContent());
+        GetMOREF getMOREFs = this.vsphereClient.getMOREFs();
         ManagedObjectReference licenseMgrMor = this.vsphereClient
                 .getServiceContent().getLicenseManager();
         ManagedObjectReference LicenseAssignmentManager = (ManagedObjectReference) getMOREFs.
@@ -13,17 +13,23 @@
 
 package com.vmware.sample.hci.vsphere;
 
-import java.util.Date;
 import java.util.Map;
-import javax.xml.ws.BindingProvider;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.vmware.sample.hci.connection.DisableSecurity;
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.sample.hci.connection.SessionState;
+import com.vmware.sample.hci.connection.TransportConfig;
+import com.vmware.sample.hci.connection.helpers.ContainerViewCache;
+import com.vmware.sample.hci.connection.helpers.GetMOREF;
+import com.vmware.sample.hci.connection.helpers.ShardedCrawler;
 import com.vmware.sample.hci.vsphere.exception.HciServerException;
+import com.vmware.sample.hci.vsphere.inventory.InventoryIndex;
+import com.vmware.sample.hci.vsphere.operation.TaskTracker;
+import com.vmware.sample.hci.vsphere.session.SessionGroup;
+import com.vmware.sample.hci.vsphere.session.SessionPool;
 import com.vmware.vim25.ManagedObjectReference;
-import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.UserSession;
 import com.vmware.vim25.VimPortType;
@@ -33,34 +39,74 @@ public class VsphereClient {
     private static final Logger logger =
             LoggerFactory.getLogger(VsphereClient.class);
 
-    private VimService service;
-    private VimPortType vimPort;
-    private ServiceContent serviceContent;
-    private UserSession userSession;
+    private final String ipAddress;
+    private final String userName;
+    private final BasicConnection connection;
+    private final VsphereClient parent;
+    private final ContainerViewCache viewCache;
+
+    private SessionPool pool;
+    private InventoryIndex inventoryIndex;
+    private TaskTracker taskTracker;
 
     public VsphereClient(String ipAddress, String userName, String password) {
-        String url = String.format("https://%s/sdk/vimService/", ipAddress);
+        this(ipAddress, userName, password, TransportConfig.getDefault());
+    }
 
-        this.service = new VimService();
-        this.vimPort = service.getVimPort();
+    public VsphereClient(String ipAddress, String userName, String password,
+                         TransportConfig transportConfig) {
+        this.ipAddress = ipAddress;
+        this.userName = userName;
+        this.parent = null;
+        this.connection = new BasicConnection(sdkUrl(ipAddress), userName, password);
+        this.connection.setTransportConfig(transportConfig);
+        this.viewCache = new ContainerViewCache(connection);
+        login();
+    }
 
-        Map<String, Object> ctxt =
-                ((BindingProvider) vimPort).getRequestContext();
-        ctxt.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, url);
-        ctxt.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
+    /**
+     * Client over a connection set up by the caller, for example one running
+     * over a given port. Logs in right away like the other constructors.
+     */
+    public VsphereClient(String ipAddress, String userName, BasicConnection connection) {
+        this.ipAddress = ipAddress;
+        this.userName = userName;
+        this.parent = null;
+        this.connection = connection;
+        this.viewCache = new ContainerViewCache(connection);
+        login();
+    }
 
-        ManagedObjectReference serviceInstance = new ManagedObjectReference();
-        serviceInstance.setType("ServiceInstance");
-        serviceInstance.setValue("ServiceInstance");
+    private VsphereClient(VsphereClient parent, BasicConnection connection) {
+        this.ipAddress = parent.ipAddress;
+        this.userName = parent.userName;
+        this.parent = parent;
+        this.connection = connection;
+        this.viewCache = new ContainerViewCache(connection);
+    }
 
-        try {
-            // Disable security check for development only
-            // Need to change this part of code for production env
-            DisableSecurity.trustEveryone();
+    public VsphereClient(HostInfo esxInfo) {
+        this(esxInfo.ipAddress, esxInfo.userName, esxInfo.password);
+    }
 
-            serviceContent = vimPort.retrieveServiceContent(serviceInstance);
-            userSession = vimPort.login(serviceContent.getSessionManager(),
-                    userName, password, null);
+    public VsphereClient(VcInfo vcInfo) {
+        this(vcInfo.getIpAddress(), vcInfo.getUserName(), vcInfo.getPassword());
+    }
+
+    /**
+     * URL of the vim25 endpoint of a vCenter or host.
+     */
+    public static String sdkUrl(String ipAddress) {
+        return String.format("https://%s/sdk/vimService/", ipAddress);
+    }
+
+    /**
+     * Logs in to the endpoint, reusing the existing port when there is one so
+     * that an expired session can be renewed in place.
+     */
+    public void login() {
+        try {
+            connection.reconnect();
         } catch (Exception e) {
             logger.error("could not setup vsphere connection to {}", ipAddress);
             logger.error("connection error", e);
@@ -68,53 +114,251 @@ public class VsphereClient {
         }
     }
 
-    public VsphereClient(HostInfo esxInfo) {
-        this(esxInfo.ipAddress, esxInfo.userName, esxInfo.password);
+    /**
+     * Acquires a one-time ticket for {@code cloneSession} on another port.
+     */
+    public String acquireCloneTicket() {
+        try {
+            return connection.acquireCloneTicket();
+        } catch (RuntimeException e) {
+            logger.error("could not acquire a clone ticket from {}", ipAddress);
+            throw new HciServerException("clone ticket error", e);
+        }
     }
 
-    public VsphereClient(VcInfo vcInfo) {
-        this(vcInfo.getIpAddress(), vcInfo.getUserName(), vcInfo.getPassword());
+    /**
+     * Opens another session with the identity of this one, without sending
+     * the password again. The clone has its own port, so it can be used by
+     * another thread; it is not pooled and is ended by {@link #logout()}.
+     */
+    public VsphereClient cloneSession() {
+        try {
+            return new VsphereClient(this, connection.cloneConnection());
+        } catch (RuntimeException e) {
+            logger.error("could not clone the session to {}", ipAddress);
+            throw new HciServerException("clone session error", e);
+        }
+    }
+
+    /**
+     * The session this one was cloned from, or null.
+     */
+    public VsphereClient getParent() {
+        return parent;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Connection shared with the helpers in {@code connection.helpers}.
+     */
+    public BasicConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * ContainerViews of this session, reused by {@link #getMOREFs()}.
+     */
+    public ContainerViewCache getViewCache() {
+        return viewCache;
+    }
+
+    /**
+     * Number of ContainerViews this session holds on the server.
+     */
+    public int getViewCount() {
+        return viewCache.size();
+    }
+
+    /**
+     * Lookup helper on this session which reuses its ContainerViews.
+     */
+    public GetMOREF getMOREFs() {
+        return new GetMOREF(getVimPort(), getServiceContent(), viewCache);
+    }
+
+    /**
+     * Live index of the vCenter inventory on this session, loaded on first use.
+     */
+    public synchronized InventoryIndex getInventoryIndex() {
+        if (inventoryIndex == null) {
+            inventoryIndex = new InventoryIndex(this);
+        }
+        return inventoryIndex;
+    }
+
+    /**
+     * Tracker following the tasks of this session, started on first use.
+     */
+    public synchronized TaskTracker getTaskTracker() {
+        if (taskTracker == null) {
+            taskTracker = new TaskTracker(this);
+        }
+        return taskTracker;
+    }
+
+    /**
+     * Retrieves the objects of a type with {@code sessions} cloned sessions
+     * crawling shards of the inventory side by side. The clones are taken
+     * from the pool of this session, or the default pool when it is not
+     * pooled, and logged out before returning.
+     */
+    public Map<ManagedObjectReference, Map<String, Object>> crawlInventory(
+            int sessions, ShardedCrawler.Shard by, String moRefType, String... moRefProperties) {
+        SessionPool owner = pool;
+        SessionGroup group = (owner != null ? owner : SessionPool.getDefault()).cloneSessions(this, sessions);
+        try {
+            return getMOREFs().crawlByType(group.getMOREFs(), by, moRefType, moRefProperties);
+        } finally {
+            group.close();
+        }
     }
 
     public VimService getService() {
-        return service;
+        return connection.getVimService();
     }
 
     public VimPortType getVimPort() {
-        return vimPort;
+        return connection.getVimPort();
     }
 
     public ServiceContent getServiceContent() {
-        return serviceContent;
+        return connection.getServiceContent();
     }
 
     public UserSession getUserSession() {
-        return userSession;
+        return connection.getUserSession();
+    }
+
+    public ManagedObjectReference getServiceInstanceReference() {
+        return connection.getServiceInstanceReference();
+    }
+
+    /**
+     * Time in milliseconds this session was last known to be used.
+     */
+    public long getLastUsedTime() {
+        return connection.getLastSuccessTime();
+    }
+
+    public SessionState getState() {
+        return connection.getState();
+    }
+
+    /**
+     * Milliseconds since this session was logged in, -1 when not connected.
+     */
+    public long getSessionAgeMillis() {
+        return connection.getSessionAgeMillis();
+    }
+
+    /**
+     * Round trip of the last successful call in milliseconds, -1 before the first one.
+     */
+    public double getLastRoundTripMillis() {
+        long nanos = connection.getLastRoundTripNanos();
+        return nanos < 0 ? -1 : nanos / 1e6;
+    }
+
+    /**
+     * Checks the session with a cheap call, logging in again if it expired.
+     *
+     * @return false if the endpoint could not be reached
+     */
+    public boolean ping() {
+        return connection.ping();
+    }
+
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    public void setPool(SessionPool pool) {
+        this.pool = pool;
     }
 
     public boolean isConnected() {
-        if (userSession == null) {
-            return false;
+        return connection.isConnected() && connection.getState() == SessionState.ALIVE;
+    }
+
+    /**
+     * Hands a pooled session back to its pool, or logs out a session which
+     * was created directly.
+     */
+    public VsphereClient disconnect() {
+        if (pool != null) {
+            pool.release(this);
+        } else {
+            logout();
         }
-        long startTime = userSession.getLastActiveTime().toGregorianCalendar()
-                .getTime().getTime();
+        return this;
+    }
 
-        return new Date().getTime() < startTime + 30 * 60 * 1000;
+    /**
+     * Logs out of the endpoint regardless of whether the session is pooled.
+     */
+    public VsphereClient logout() {
+        // the server destroys the views and collectors of the session with it
+        viewCache.clear();
+        clearInventoryIndex(false);
+        closeTaskTracker();
+        connection.disconnect();
+        return this;
     }
 
-    public VsphereClient disconnect() {
-        if (this.isConnected()) {
-            try {
-                vimPort.logout(serviceContent.getSessionManager());
-            } catch (RuntimeFaultFaultMsg e) {
-                e.printStackTrace();
-            } finally {
-                service = null;
-                vimPort = null;
-                serviceContent = null;
-                userSession = null;
-            }
+    /**
+     * Leaves a session kept in a {@link com.vmware.sample.hci.connection.SessionStore}
+     * open for the next process, or logs out any other session.
+     */
+    public VsphereClient detach() {
+        if (connection.isStored()) {
+            viewCache.destroyAll();
+        } else {
+            viewCache.clear();
         }
+        clearInventoryIndex(connection.isStored());
+        closeTaskTracker();
+        connection.detach();
         return this;
     }
+
+    private void clearInventoryIndex(boolean keep) {
+        InventoryIndex index;
+        synchronized (this) {
+            index = inventoryIndex;
+        }
+        if (index == null) {
+            return;
+        }
+        if (keep) {
+            // saved for the next process resuming the session
+            index.detach();
+        } else {
+            index.clear();
+        }
+    }
+
+    private void closeTaskTracker() {
+        TaskTracker tracker;
+        synchronized (this) {
+            tracker = taskTracker;
+            taskTracker = null;
+        }
+        if (tracker != null) {
+            tracker.close();
+        }
+    }
+
+    /**
+     * Tells whether a failure was caused by an expired or missing session.
+     */
+    public static boolean isNotAuthenticated(Throwable t) {
+        return BasicConnection.isNotAuthenticated(t);
+    }
 }
@@ -21,7 +21,7 @@ public abstract class VsphereInventory {
 
     VsphereInventory(VsphereClient hostClient) {
         this.vsphereClient = hostClient;
-        getMOREFs = new GetMOREF(hostClient.getVimPort(), hostClient.getServiceContent());
+        getMOREFs = hostClient.getMOREFs();
     }
 
     public VsphereClient getVsphereClient() {
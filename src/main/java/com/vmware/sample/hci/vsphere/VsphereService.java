@@ -14,7 +14,9 @@
 package com.vmware.sample.hci.vsphere;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -24,11 +26,13 @@ import com.vmware.sample.hci.vsphere.exception.HciClientException;
 import com.vmware.sample.hci.vsphere.exception.HciServerException;
 import com.vmware.sample.hci.vsphere.exception.TaskFailedException;
 import com.vmware.sample.hci.vsphere.hwconfig.HardwareConfiguration;
+import com.vmware.sample.hci.vsphere.journal.OperationJournal;
 import com.vmware.sample.hci.vsphere.operation.Cluster;
 import com.vmware.sample.hci.vsphere.operation.HostNetwork;
 import com.vmware.sample.hci.vsphere.operation.VirtualDistributedSwitch;
-import com.vmware.sample.hci.vsphere.utils.ConfigProgress;
+import com.vmware.sample.hci.vsphere.session.SessionPool;
 import com.vmware.sample.hci.vsphere.utils.ProgressCallback;
+import com.vmware.sample.hci.vsphere.utils.ProgressModel;
 import com.vmware.sample.hci.vsphere.utils.VsphereConstants;
 import com.vmware.sample.hci.vsphere.utils.VsphereUtil;
 import com.vmware.sample.hci.vsphere.vcinstall.VcInstaller;
@@ -54,11 +58,38 @@ public class VsphereService {
     private static final Logger logger =
             LoggerFactory.getLogger(VsphereService.class);
 
+    // steps of the progress model, named for their history
+    private static final String STEP_CREATE_INVENTORY = "vc.createInventory";
+    private static final String STEP_FIND_INVENTORY = "vc.findInventory";
+    private static final String STEP_ENABLE_VSAN = "vc.enableVsan";
+    private static final String STEP_DISABLE_HA = "vc.disableHa";
+    private static final String STEP_ADD_HOST = "vc.addHost";
+    private static final String STEP_ENABLE_HA = "vc.enableHa";
+
+    // steps of the operation journal
+    private static final String JOURNAL_DATACENTER = "datacenter";
+    private static final String JOURNAL_CLUSTER = "cluster";
+    private static final String JOURNAL_VDS = "vds";
+    private static final String JOURNAL_PORTGROUP = "portgroup";
+    private static final String JOURNAL_VSAN = "vsan";
+    private static final String JOURNAL_DISABLE_HA = "ha.disable";
+    private static final String JOURNAL_ENABLE_HA = "ha.enable";
+    private static final String JOURNAL_HOST_ADD = "host.add";
+    private static final String JOURNAL_HOST_VDS = "host.vds";
+    private static final String JOURNAL_HOST_MIGRATE_VMS = "host.migrateVms";
+    private static final String JOURNAL_HOST_MIGRATE_VNIC = "host.migrateVnic";
+    private static final String JOURNAL_HOST_VMOTION_NIC = "host.vmotionNic";
+    private static final String JOURNAL_HOST_VSAN_NIC = "host.vsanNic";
+
     public static void verifyHost(HostInfo[] hostInfoList) {
         // verify all hosts in hostinfo list
         for (HostInfo hostInfo : hostInfoList) {
-            VerifyHost verifyHost = new VerifyHost(new HostManager(hostInfo));
-            verifyHost.verify();
+            HostManager hostManager = new HostManager(hostInfo);
+            try {
+                new VerifyHost(hostManager).verify();
+            } finally {
+                hostManager.disconnect();
+            }
         }
     }
 
@@ -227,87 +258,112 @@ public class VsphereService {
      */
     public static List<String> initializeVcenter(InputVcConfiguration vcConfig,
                                                  InputHostConfiguration[] hostConfigs, int start, int end, ProgressCallback pc) {
-        ConfigProgress.setProgress(start, pc);
-        int share = (end - start) / (3 + hostConfigs.length);
-        logger.debug("Start is {}, end is {}, Share is {}", start, end, share);
+        ProgressModel progress = new ProgressModel(start, end, pc)
+                .plan(STEP_CREATE_INVENTORY, STEP_ENABLE_VSAN)
+                .plan(hostSteps(hostConfigs))
+                .plan(STEP_ENABLE_HA);
+        logger.debug("Start is {}, end is {}", start, end);
         //check input
         checkAddHostsInput(vcConfig, hostConfigs);
 
+        OperationJournal journal = OperationJournal.getDefault();
+        journal.beginRun("initializeVcenter");
         VcManager vcManager = null;
         ManagedObjectReference dcMor = null;
         ManagedObjectReference clusterMor = null;
         ManagedObjectReference vdsMor = null;
         ManagedObjectReference[] pgMors = new ManagedObjectReference[InputPortgroupConfiguration.PORTGROUP_NUM];
         try {
-            // create DataCenter
-            logger.info("__Start creating datacenter");
-            vcManager = new VcManager(vcConfig.getVcInfo());
-            dcMor = vcManager.createDatacenter(vcConfig.getDataCenterName());
-            logger.info("__Datacenter created");
-            // create cluster
-            logger.info("__Start creating cluster");
-            clusterMor = vcManager.createCluster(dcMor, vcConfig.getClusterName());
-            logger.info("__Cluster created");
-            logger.info("__Creating dvs");
-            // create vds
-            vdsMor = VirtualDistributedSwitch
-                    .createVds(vcManager.getVsphereClient(), dcMor, vcConfig.getVdsName());
-            logger.info("__Creating dvs completed");
-            // create portgroup
-            logger.info("__Creating portgroup");
-            pgMors[0] = VirtualDistributedSwitch.createDVPortGroup(
-                    vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                            .getMgmtPortgroupName(), null);
-            pgMors[1] = VirtualDistributedSwitch.createDVPortGroup(
-                    vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                            .getvMotionPortgroupName(), vcConfig.getPortGroupInfo().getvMotionVlanTrunk());
-            pgMors[2] = VirtualDistributedSwitch.createDVPortGroup(
-                    vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                            .getvSanPortgroupName(), vcConfig.getPortGroupInfo().getvSanVlanTrunk());
-            pgMors[3] = VirtualDistributedSwitch.createDVPortGroup(
-                    vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                            .getVmPortgroupName(), vcConfig.getPortGroupInfo().getVmVlanTrunk());
-
-            logger.info("__Creating portgroup completed");
-        } catch (IllegalArgumentException e) {
-            logger.error(e.getMessage(), e);
-            throw new HciClientException(e.getMessage(), e);
-        } catch (TaskFailedException e) {
-            logger.error("Falied to performe {} on {} with error code {}. {} ",
-                    e.getTaskName(), e.getTargetName(), e.getErrorCode(),
-                    e.getMessage());
-            throw new HciServerException(e.getMessage(), e);
-        } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg
-                | DuplicateNameFaultMsg | DvsFaultFaultMsg
-                | DvsNotAuthorizedFaultMsg | InvalidNameFaultMsg
-                | NotFoundFaultMsg e) {
-            logger.error(e.getMessage(), e);
-            throw new HciServerException(e.getMessage(), e);
-        }
-        ConfigProgress.increaseProgressBy(share, pc);
-        Cluster myCluster = new Cluster(vcManager.getVsphereClient());
-        // enabled vSan first. Otherwise node0 could not be added
-        try {
-            myCluster.enableVsan(clusterMor);
-            myCluster.waitForVsanUpdateTaskInCluster(clusterMor);
-        } catch (Exception e) {
-            logger.error("Error when enabling Vsan", e);
-            throw new HciServerException(e.getMessage(), e);
-        }
-        ConfigProgress.increaseProgressBy(share, pc);
-        List<String> errorHostList =
-                addHostToVc(vcManager, dcMor, clusterMor, vdsMor, pgMors, hostConfigs, share, pc);
-        logger.info("Re-enable HA on cluster");
-        try {
-            myCluster.setDRS(clusterMor, true);
-            myCluster.setDAS(clusterMor, true);
-            myCluster.waitForVsanUpdateTaskInCluster(clusterMor);
-        } catch (Exception e) {
-            logger.error("Error when enabling DRS and DAS", e);
-            throw new HciServerException(e.getMessage(), e);
+            progress.begin(STEP_CREATE_INVENTORY);
+            try {
+                // create DataCenter
+                logger.info("__Start creating datacenter");
+                journal.begin(JOURNAL_DATACENTER, vcConfig.getDataCenterName());
+                vcManager = new VcManager(vcConfig.getVcInfo());
+                dcMor = vcManager.createDatacenter(vcConfig.getDataCenterName());
+                logger.info("__Datacenter created");
+                // create cluster
+                logger.info("__Start creating cluster");
+                journal.begin(JOURNAL_CLUSTER, vcConfig.getClusterName());
+                clusterMor = vcManager.createCluster(dcMor, vcConfig.getClusterName());
+                logger.info("__Cluster created");
+                logger.info("__Creating dvs");
+                journal.begin(JOURNAL_VDS, vcConfig.getVdsName());
+                // create vds
+                vdsMor = VirtualDistributedSwitch
+                        .createVds(vcManager.getVsphereClient(), dcMor, vcConfig.getVdsName());
+                logger.info("__Creating dvs completed");
+                // create portgroup
+                logger.info("__Creating portgroup");
+                journal.begin(JOURNAL_PORTGROUP, vcConfig.getVdsName());
+                pgMors[0] = VirtualDistributedSwitch.createDVPortGroup(
+                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                .getMgmtPortgroupName(), null);
+                pgMors[1] = VirtualDistributedSwitch.createDVPortGroup(
+                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                .getvMotionPortgroupName(), vcConfig.getPortGroupInfo().getvMotionVlanTrunk());
+                pgMors[2] = VirtualDistributedSwitch.createDVPortGroup(
+                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                .getvSanPortgroupName(), vcConfig.getPortGroupInfo().getvSanVlanTrunk());
+                pgMors[3] = VirtualDistributedSwitch.createDVPortGroup(
+                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                .getVmPortgroupName(), vcConfig.getPortGroupInfo().getVmVlanTrunk());
+
+                journal.end();
+                logger.info("__Creating portgroup completed");
+            } catch (IllegalArgumentException e) {
+                logger.error(e.getMessage(), e);
+                throw new HciClientException(e.getMessage(), e);
+            } catch (TaskFailedException e) {
+                logger.error("Falied to performe {} on {} with error code {}. {} ",
+                        e.getTaskName(), e.getTargetName(), e.getErrorCode(),
+                        e.getMessage());
+                throw new HciServerException(e.getMessage(), e);
+            } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg
+                    | DuplicateNameFaultMsg | DvsFaultFaultMsg
+                    | DvsNotAuthorizedFaultMsg | InvalidNameFaultMsg
+                    | NotFoundFaultMsg e) {
+                logger.error(e.getMessage(), e);
+                throw new HciServerException(e.getMessage(), e);
+            }
+            progress.end();
+            progress.begin(STEP_ENABLE_VSAN);
+            Cluster myCluster = new Cluster(vcManager.getVsphereClient());
+            // enabled vSan first. Otherwise node0 could not be added
+            journal.begin(JOURNAL_VSAN, vcConfig.getClusterName());
+            try {
+                myCluster.enableVsan(clusterMor);
+                myCluster.waitForVsanUpdateTaskInCluster(clusterMor);
+                journal.end();
+            } catch (Exception e) {
+                logger.error("Error when enabling Vsan", e);
+                throw new HciServerException(e.getMessage(), e);
+            }
+            progress.end();
+            List<String> errorHostList =
+                    addHostToVc(vcManager, dcMor, clusterMor, vdsMor, pgMors, hostConfigs, progress);
+            logger.info("Re-enable HA on cluster");
+            progress.begin(STEP_ENABLE_HA);
+            journal.begin(JOURNAL_ENABLE_HA, vcConfig.getClusterName());
+            try {
+                myCluster.setDRS(clusterMor, true);
+                myCluster.setDAS(clusterMor, true);
+                myCluster.waitForVsanUpdateTaskInCluster(clusterMor);
+                journal.end();
+            } catch (Exception e) {
+                logger.error("Error when enabling DRS and DAS", e);
+                throw new HciServerException(e.getMessage(), e);
+            }
+            progress.end();
+            progress.finish();
+            return errorHostList;
+        } finally {
+            progress.close();
+            journal.endRun();
+            if (vcManager != null) {
+                vcManager.disconnect();
+            }
         }
-        ConfigProgress.setProgress(end, pc);
-        return errorHostList;
     }
 
     public static void initializeCluster() {
@@ -334,6 +390,8 @@ public class VsphereService {
         } catch (RuntimeFaultFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            hostManager.disconnect();
         }
     }
 
@@ -355,6 +413,8 @@ public class VsphereService {
         } catch (RuntimeFaultFaultMsg | InvalidStateFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            hostManager.disconnect();
         }
     }
 
@@ -374,6 +434,8 @@ public class VsphereService {
         } catch (InvalidStateFaultMsg | RuntimeFaultFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            hostManager.disconnect();
         }
     }
 
@@ -393,6 +455,8 @@ public class VsphereService {
         } catch (InvalidStateFaultMsg | RuntimeFaultFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            hostManager.disconnect();
         }
     }
 
@@ -418,6 +482,8 @@ public class VsphereService {
                 | InvalidPropertyFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            hostManager.disconnect();
         }
     }
 
@@ -432,6 +498,8 @@ public class VsphereService {
         } catch (RuntimeException | RuntimeFaultFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -449,6 +517,8 @@ public class VsphereService {
                 | InvalidPropertyFaultMsg | HostConfigFaultFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            hostManager.disconnect();
         }
     }
 
@@ -487,7 +557,11 @@ public class VsphereService {
                         | InvalidPropertyFaultMsg e) {
                     logger.error(e.getMessage(), e);
                     throw new HciServerException(e.getMessage(), e);
+                } finally {
+                    hostManager.disconnect();
                 }
+            } else {
+                hostManager.disconnect();
             }
         }
     }
@@ -520,11 +594,13 @@ public class VsphereService {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
         } finally {
+            // the host resets its sessions while restoring, never reuse this one
+            SessionPool.getDefault().invalidate(hostManager.getVsphereClient());
             if (!isSSHRunning) {
                 // disable SSH service if necessary
+                HostManager newHostManager = null;
                 try {
                     int retry = 0;
-                    HostManager newHostManager = null;
                     while (retry < VsphereConstants.MAX_RETRY) {
                         logger.info(
                                 "Wait for host restoring and reconnect to host.-- {}",
@@ -553,6 +629,10 @@ public class VsphereService {
                         | InvalidPropertyFaultMsg e) {
                     logger.error(e.getMessage(), e);
                     throw new HciServerException(e.getMessage(), e);
+                } finally {
+                    if (newHostManager != null) {
+                        newHostManager.disconnect();
+                    }
                 }
             }
         }
@@ -579,20 +659,34 @@ public class VsphereService {
         }
         VcManager vcManager = new VcManager(vcInfo);
         List<String> errorHostList = new ArrayList<>();
-        for (InputHostConfiguration hostCfg : hostConfigs) {
+        try {
+            List<String> hostNames = new ArrayList<>();
+            for (InputHostConfiguration hostCfg : hostConfigs) {
+                hostNames.add(hostCfg.getCustomizedHostInfo().getHostName());
+            }
+            Map<String, ManagedObjectReference> hostMors;
             try {
-                ManagedObjectReference hostMor =
-                        VsphereUtil.getHostMor(vcManager.getVsphereClient(),
-                                hostCfg.getCustomizedHostInfo().getHostName());
-                if (null != hostMor) {
-                    VsphereUtil.deleteObject(vcManager.getVsphereClient(), hostMor);
-                } else {
-                    logger.info("{} is not in the inventory", hostCfg.getCustomizedHostInfo().getHostName());
+                hostMors = VsphereUtil.getHostMors(vcManager.getVsphereClient(), hostNames);
+            } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg e) {
+                logger.error("Failed to look up hosts {}", hostNames, e);
+                return hostNames;
+            }
+            for (InputHostConfiguration hostCfg : hostConfigs) {
+                try {
+                    ManagedObjectReference hostMor =
+                            hostMors.get(hostCfg.getCustomizedHostInfo().getHostName());
+                    if (null != hostMor) {
+                        VsphereUtil.deleteObject(vcManager.getVsphereClient(), hostMor);
+                    } else {
+                        logger.info("{} is not in the inventory", hostCfg.getCustomizedHostInfo().getHostName());
+                    }
+                } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg
+                        | VimFaultFaultMsg e) {
+                    errorHostList.add(hostCfg.getCustomizedHostInfo().getHostName());
                 }
-            } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg
-                    | VimFaultFaultMsg e) {
-                errorHostList.add(hostCfg.getCustomizedHostInfo().getHostName());
             }
+        } finally {
+            vcManager.disconnect();
         }
         if (errorHostList.size() > 0) {
             logger.error(
@@ -630,6 +724,12 @@ public class VsphereService {
         }
     }
 
+    private static String[] hostSteps(InputHostConfiguration[] hostConfigs) {
+        String[] steps = new String[hostConfigs == null ? 0 : hostConfigs.length];
+        Arrays.fill(steps, STEP_ADD_HOST);
+        return steps;
+    }
+
     /**
      * Add hosts to existing datacenter/cluster/distributed switch, port group
      *
@@ -644,126 +744,159 @@ public class VsphereService {
                                         InputHostConfiguration[] hostConfigs, int start, int end,
                                         ProgressCallback pc) {
         //check input
-        ConfigProgress.setProgress(start, pc);
-        int share = ((end - start) / (3 + hostConfigs.length));
-        logger.debug("Start is {}, end is {}, share is {}", start, end, share);
+        ProgressModel progress = new ProgressModel(start, end, pc)
+                .plan(STEP_FIND_INVENTORY, STEP_DISABLE_HA)
+                .plan(hostSteps(hostConfigs))
+                .plan(STEP_ENABLE_HA);
+        logger.debug("Start is {}, end is {}", start, end);
 
         checkAddHostsInput(vcConfig, hostConfigs);
 
+        OperationJournal journal = OperationJournal.getDefault();
+        journal.beginRun("addHosts");
         VcManager vcManager = null;
         ManagedObjectReference dcMor = null;
         ManagedObjectReference clusterMor = null;
         ManagedObjectReference vdsMor = null;
         ManagedObjectReference[] pgMors = new ManagedObjectReference[InputPortgroupConfiguration.PORTGROUP_NUM];
         try {
-            vcManager = new VcManager(vcConfig.getVcInfo());
-            //Get datacenter mor
-            dcMor = VsphereUtil.getDatacenterMor(vcManager.getVsphereClient(), vcConfig.getDataCenterName());
-            if (null == dcMor) {
-                dcMor = vcManager.createDatacenter(vcConfig.getDataCenterName());
-            }
-            //Get cluster mor
-            clusterMor = VsphereUtil.getClusterMor(vcManager.getVsphereClient(), dcMor, vcConfig.getClusterName());
-            if (null == clusterMor) {
-                clusterMor = vcManager.createCluster(dcMor, vcConfig.getClusterName());
-            }
-            //Get vds mor
-            vdsMor = VsphereUtil.getVdsMor(vcManager.getVsphereClient(), vcConfig.getVdsName());
-            if (null == vdsMor) {
-                vdsMor = VirtualDistributedSwitch
-                        .createVds(vcManager.getVsphereClient(), dcMor, vcConfig.getVdsName());
-            }
+            progress.begin(STEP_FIND_INVENTORY);
+            try {
+                vcManager = new VcManager(vcConfig.getVcInfo());
+                //Get datacenter mor
+                journal.begin(JOURNAL_DATACENTER, vcConfig.getDataCenterName());
+                dcMor = VsphereUtil.getDatacenterMor(vcManager.getVsphereClient(), vcConfig.getDataCenterName());
+                if (null == dcMor) {
+                    dcMor = vcManager.createDatacenter(vcConfig.getDataCenterName());
+                }
+                //Get cluster mor
+                journal.begin(JOURNAL_CLUSTER, vcConfig.getClusterName());
+                clusterMor = VsphereUtil.getClusterMor(vcManager.getVsphereClient(), dcMor, vcConfig.getClusterName());
+                if (null == clusterMor) {
+                    clusterMor = vcManager.createCluster(dcMor, vcConfig.getClusterName());
+                }
+                //Get vds mor
+                journal.begin(JOURNAL_VDS, vcConfig.getVdsName());
+                vdsMor = VsphereUtil.getVdsMor(vcManager.getVsphereClient(), vcConfig.getVdsName());
+                if (null == vdsMor) {
+                    vdsMor = VirtualDistributedSwitch
+                            .createVds(vcManager.getVsphereClient(), dcMor, vcConfig.getVdsName());
+                }
 
-            pgMors[0] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
-                    vcConfig.getPortGroupInfo().getMgmtPortgroupName());
-            if (null == pgMors[0]) {
-                pgMors[0] = VirtualDistributedSwitch.createDVPortGroup(
-                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                                .getMgmtPortgroupName(), null);
+                journal.begin(JOURNAL_PORTGROUP, vcConfig.getVdsName());
+                pgMors[0] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
+                        vcConfig.getPortGroupInfo().getMgmtPortgroupName());
+                if (null == pgMors[0]) {
+                    pgMors[0] = VirtualDistributedSwitch.createDVPortGroup(
+                            vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                    .getMgmtPortgroupName(), null);
+                }
+                pgMors[1] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
+                        vcConfig.getPortGroupInfo().getvMotionPortgroupName());
+                if (null == pgMors[1]) {
+                    pgMors[1] = VirtualDistributedSwitch.createDVPortGroup(
+                            vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                    .getvMotionPortgroupName(), vcConfig.getPortGroupInfo().getvMotionVlanTrunk());
+                }
+
+                pgMors[2] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
+                        vcConfig.getPortGroupInfo().getvSanPortgroupName());
+                if (null == pgMors[2]) {
+                    pgMors[2] = VirtualDistributedSwitch.createDVPortGroup(
+                            vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                    .getvSanPortgroupName(), vcConfig.getPortGroupInfo().getvSanVlanTrunk());
+                }
+
+                pgMors[3] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
+                        vcConfig.getPortGroupInfo().getVmPortgroupName());
+                if (null == pgMors[3]) {
+                    pgMors[3] = VirtualDistributedSwitch.createDVPortGroup(
+                            vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
+                                    .getVmPortgroupName(), vcConfig.getPortGroupInfo().getVmVlanTrunk());
+                }
+                journal.end();
+            } catch (IllegalArgumentException e) {
+                logger.error(e.getMessage(), e);
+                throw new HciClientException(e.getMessage(), e);
+            } catch (TaskFailedException e) {
+                logger.error("Falied to performe {} on {} with error code {}. {} ",
+                        e.getTaskName(), e.getTargetName(), e.getErrorCode(),
+                        e.getMessage());
+                throw new HciServerException(e.getMessage(), e);
+            } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg
+                    | DuplicateNameFaultMsg | DvsFaultFaultMsg
+                    | DvsNotAuthorizedFaultMsg | InvalidNameFaultMsg
+                    | NotFoundFaultMsg e) {
+                logger.error(e.getMessage(), e);
+                throw new HciServerException(e.getMessage(), e);
             }
-            pgMors[1] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
-                    vcConfig.getPortGroupInfo().getvMotionPortgroupName());
-            if (null == pgMors[1]) {
-                pgMors[1] = VirtualDistributedSwitch.createDVPortGroup(
-                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                                .getvMotionPortgroupName(), vcConfig.getPortGroupInfo().getvMotionVlanTrunk());
+            if ((null == hostConfigs) || (hostConfigs.length == 0)) {
+                logger.info("No ESXi hosts information provided. Quiting");
+                return new ArrayList<String>();
             }
-
-            pgMors[2] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
-                    vcConfig.getPortGroupInfo().getvSanPortgroupName());
-            if (null == pgMors[2]) {
-                pgMors[2] = VirtualDistributedSwitch.createDVPortGroup(
-                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                                .getvSanPortgroupName(), vcConfig.getPortGroupInfo().getvSanVlanTrunk());
+            progress.end();
+            //Disable HA first
+            logger.info("Disable HA on cluster to avoid alert when adding new hosts");
+            progress.begin(STEP_DISABLE_HA);
+            journal.begin(JOURNAL_DISABLE_HA, vcConfig.getClusterName());
+            Cluster myCluster = new Cluster(vcManager.getVsphereClient());
+            try {
+                myCluster.setDAS(clusterMor, false);
+                journal.end();
+            } catch (Exception e) {
+                logger.error("Error when enabling DAS", e);
+                throw new HciServerException(e.getMessage(), e);
             }
-
-            pgMors[3] = VsphereUtil.getPorggroupMor(vcManager.getVsphereClient(), dcMor,
-                    vcConfig.getPortGroupInfo().getVmPortgroupName());
-            if (null == pgMors[3]) {
-                pgMors[3] = VirtualDistributedSwitch.createDVPortGroup(
-                        vcManager.getVsphereClient(), vdsMor, vcConfig.getPortGroupInfo()
-                                .getVmPortgroupName(), vcConfig.getPortGroupInfo().getVmVlanTrunk());
+            progress.end();
+            List<String> errorHostList = addHostToVc(vcManager, dcMor, clusterMor, vdsMor,
+                    pgMors, hostConfigs, progress);
+            // enabled vSan, HA and DR..
+            logger.info("Re-enable HA on cluster");
+            progress.begin(STEP_ENABLE_HA);
+            journal.begin(JOURNAL_ENABLE_HA, vcConfig.getClusterName());
+            try {
+                myCluster.setDAS(clusterMor, true);
+                myCluster.waitForVsanUpdateTaskInCluster(clusterMor);
+                journal.end();
+            } catch (Exception e) {
+                logger.error("Error when enabling DAS", e);
+                throw new HciServerException(e.getMessage(), e);
+            }
+            progress.end();
+            progress.finish();
+            return errorHostList;
+        } finally {
+            progress.close();
+            journal.endRun();
+            if (vcManager != null) {
+                vcManager.disconnect();
             }
-
-        } catch (IllegalArgumentException e) {
-            logger.error(e.getMessage(), e);
-            throw new HciClientException(e.getMessage(), e);
-        } catch (TaskFailedException e) {
-            logger.error("Falied to performe {} on {} with error code {}. {} ",
-                    e.getTaskName(), e.getTargetName(), e.getErrorCode(),
-                    e.getMessage());
-            throw new HciServerException(e.getMessage(), e);
-        } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg
-                | DuplicateNameFaultMsg | DvsFaultFaultMsg
-                | DvsNotAuthorizedFaultMsg | InvalidNameFaultMsg
-                | NotFoundFaultMsg e) {
-            logger.error(e.getMessage(), e);
-            throw new HciServerException(e.getMessage(), e);
-        }
-        if ((null == hostConfigs) || (hostConfigs.length == 0)) {
-            logger.info("No ESXi hosts information provided. Quiting");
-            return new ArrayList<String>();
-        }
-        ConfigProgress.increaseProgressBy(share, pc);
-        //Disable HA first
-        logger.info("Disable HA on cluster to avoid alert when adding new hosts");
-        Cluster myCluster = new Cluster(vcManager.getVsphereClient());
-        try {
-            myCluster.setDAS(clusterMor, false);
-        } catch (Exception e) {
-            logger.error("Error when enabling DAS", e);
-            throw new HciServerException(e.getMessage(), e);
-        }
-        ConfigProgress.increaseProgressBy(share, pc);
-        List<String> errorHostList = addHostToVc(vcManager, dcMor, clusterMor, vdsMor,
-                pgMors, hostConfigs, share, pc);
-        // enabled vSan, HA and DR..
-        logger.info("Re-enable HA on cluster");
-        try {
-            myCluster.setDAS(clusterMor, true);
-            myCluster.waitForVsanUpdateTaskInCluster(clusterMor);
-        } catch (Exception e) {
-            logger.error("Error when enabling DAS", e);
-            throw new HciServerException(e.getMessage(), e);
         }
-        ConfigProgress.setProgress(end, pc);
-        return errorHostList;
     }
 
     private static List<String> addHostToVc(
             VcManager vcManager, ManagedObjectReference dcMor,
             ManagedObjectReference clusterMor, ManagedObjectReference vdsMor,
             ManagedObjectReference[] pgMors, InputHostConfiguration[] hostConfigs,
-            int share, ProgressCallback pc
+            ProgressModel progress
     ) {
 
         List<String> errorHostList = new ArrayList<String>();
+        OperationJournal journal = OperationJournal.getDefault();
         logger.info(
                 "__Adding hosts to dvs, migrating VMs, Migrating vNics, Adding vNics");
         for (InputHostConfiguration hostConfig : hostConfigs) {
+            // a failed host is not recorded, the next step takes over
+            progress.begin(STEP_ADD_HOST);
+            String hostIp = hostConfig.getCustomizedHostInfo().getIpAddress();
+            journal.begin(JOURNAL_HOST_ADD, hostIp);
             try {
                 HostManager hostMgr = new HostManager(hostConfig.getCustomizedHostInfo());
-                hostMgr.exitMaintenanceMode();
+                try {
+                    hostMgr.exitMaintenanceMode();
+                } finally {
+                    hostMgr.disconnect();
+                }
                 logger.info("__Adding {} to cluster",
                         hostConfig.getCustomizedHostInfo().getIpAddress());
                 ManagedObjectReference hostMor = vcManager
@@ -772,6 +905,7 @@ public class VsphereService {
                         hostConfig.getCustomizedHostInfo().getIpAddress());
 
                 logger.info("__Adding {} to vds", hostConfig.getCustomizedHostInfo().getIpAddress());
+                journal.begin(JOURNAL_HOST_VDS, hostIp);
                 VirtualDistributedSwitch.addHostToVds(vcManager.getVsphereClient(),
                         dcMor, hostMor, vdsMor, pgMors[0]);
                 logger.info("__Adding {} to vds completed",
@@ -779,21 +913,24 @@ public class VsphereService {
                 HostNetwork hostnwk = new HostNetwork(vcManager.getVsphereClient(),
                         hostMor, vdsMor, pgMors);
                 ManagedObjectReference[] vmmor = hostnwk.getVM();
-                int vmlen = vmmor.length;
-                for (int j = 0; j < vmlen; j++) {
-                    logger.info("__Migrating vm {}", vmmor[j].getValue());
-                    hostnwk.migrateVmToVds(vmmor[j]);
-                    logger.info("__Migrating vm {} complete",
-                            vmmor[j].getValue());
+                if (vmmor != null && vmmor.length > 0) {
+                    logger.info("__Migrating {} vms on {}", vmmor.length,
+                            hostConfig.getCustomizedHostInfo().getIpAddress());
+                    journal.begin(JOURNAL_HOST_MIGRATE_VMS, hostIp);
+                    hostnwk.migrateVmsToVds(vmmor);
+                    logger.info("__Migrating {} vms on {} complete", vmmor.length,
+                            hostConfig.getCustomizedHostInfo().getIpAddress());
                 }
                 logger.info("__Migrating vNic on {}",
                         hostConfig.getCustomizedHostInfo().getIpAddress());
+                journal.begin(JOURNAL_HOST_MIGRATE_VNIC, hostIp);
                 hostnwk.migrateVmkNicToVds();
                 logger.info("__Migrating vNic on {} completed",
                         hostConfig.getCustomizedHostInfo().getIpAddress());
 
                 logger.info("__Adding vMotion vNic on {}",
                         hostConfig.getCustomizedHostInfo().getIpAddress());
+                journal.begin(JOURNAL_HOST_VMOTION_NIC, hostIp);
 
                 hostnwk.addVirtualNIC(hostConfig.isvMotionDHCP(),
                         hostConfig.getvMotionIp(), hostConfig.getvMotionNetmask(),
@@ -803,18 +940,22 @@ public class VsphereService {
 
                 logger.info("__Adding vSan vNic on {}",
                         hostConfig.getCustomizedHostInfo().getIpAddress());
+                journal.begin(JOURNAL_HOST_VSAN_NIC, hostIp);
 
                 hostnwk.addVirtualNIC(hostConfig.isvSanDHCP(),
                         hostConfig.getvSanIp(), hostConfig.getvSanNetmask(),
                         HostVirtualNicManagerNicType.VSAN);
+                journal.end();
                 logger.info("__Adding vSan vNic on {} completed",
                         hostConfig.getCustomizedHostInfo().getIpAddress());
-                ConfigProgress.increaseProgressBy(share, pc);
+                progress.end();
             } catch (IllegalArgumentException e) {
+                journal.fail(e);
                 errorHostList.add(hostConfig.getCustomizedHostInfo().getIpAddress());
                 logger.error(e.getMessage(), e);
                 throw new HciClientException(e.getMessage(), e);
             } catch (Exception e) {
+                journal.fail(e);
                 errorHostList.add(hostConfig.getCustomizedHostInfo().getIpAddress());
                 if (e instanceof TaskFailedException) {
                     TaskFailedException ex = (TaskFailedException) e;
@@ -878,6 +1019,8 @@ public class VsphereService {
 
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -898,6 +1041,8 @@ public class VsphereService {
         } catch (RuntimeFaultFaultMsg e) {
             logger.error(e.getMessage(), e);
             throw new HciServerException(e.getMessage(), e);
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -921,6 +1066,8 @@ public class VsphereService {
 
             logger.error(e.getMessage(), e);
             throw new HciClientException(e.getMessage(), e);
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -943,6 +1090,8 @@ public class VsphereService {
 
             logger.error(e.getMessage(), e);
             throw new HciClientException(e.getMessage(), e);
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -970,6 +1119,8 @@ public class VsphereService {
 
             logger.error(e.getMessage(), e);
             throw new HciClientException(e.getMessage(), e);
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -995,6 +1146,8 @@ public class VsphereService {
 
             logger.error(e.getMessage(), e);
             throw new HciClientException(e.getMessage(), e);
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -1024,6 +1177,8 @@ public class VsphereService {
             logger.error(e.getMessage(), e);
             throw new HciServerException("Error occurs when assgining license "
                     + license + " to host " + hostInfo.getHostName());
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -1052,6 +1207,8 @@ public class VsphereService {
             logger.error(e.getMessage(), e);
             throw new HciServerException("Error occurs when removing assigned license "
                     + " from host " + hostInfo.getHostName());
+        } finally {
+            vcManager.disconnect();
         }
     }
 
@@ -1079,12 +1236,18 @@ public class VsphereService {
                     + " Causion: Node 0 should be removed manually."
                     + " Please find more detail in logs");
 
+        } finally {
+            vcManager.disconnect();
         }
     }
 
     public static void hostExitMaintenanceMode(HostInfo hostInfo) {
         HostManager hostManager = new HostManager(hostInfo);
-        hostManager.exitMaintenanceMode();
+        try {
+            hostManager.exitMaintenanceMode();
+        } finally {
+            hostManager.disconnect();
+        }
     }
 
     /**
@@ -1094,6 +1257,10 @@ public class VsphereService {
      */
     public static HardwareConfiguration getHostHardwareConfiguration(HostInfo hostInfo) {
         HostManager hostManager = new HostManager(hostInfo);
-        return hostManager.getHardwareConfiguration();
+        try {
+            return hostManager.getHardwareConfiguration();
+        } finally {
+            hostManager.disconnect();
+        }
     }
 }
@@ -0,0 +1,713 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.vsphere.inventory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.SessionStore;
+import com.vmware.sample.hci.connection.helpers.ContainerViewCache;
+import com.vmware.sample.hci.connection.helpers.builders.ObjectSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertyFilterSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertySpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.TraversalSpecBuilder;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.sample.hci.vsphere.exception.HciServerException;
+import com.vmware.sample.hci.vsphere.utils.VsphereConstants;
+import com.vmware.vim25.ArrayOfHostVirtualNic;
+import com.vmware.vim25.HostIpConfig;
+import com.vmware.vim25.HostIpConfigIpV6Address;
+import com.vmware.vim25.HostVirtualNic;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.UserSession;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * In-memory index of the datacenters, clusters, hosts, distributed switches
+ * and portgroups of a vCenter, with the folders linking them.
+ * <p>
+ * The index is loaded by one retrieval through a dedicated PropertyCollector
+ * holding a single filter over a ContainerView of the whole inventory.
+ * Lookups are answered from name and MOR maps. Within
+ * {@link #getMaxStalenessMillis()} of the last catch-up they make no call
+ * to the server; after that, a lookup first catches up with a non-blocking
+ * {@code waitForUpdatesEx} from the last version, which returns nothing when
+ * the inventory did not change. A lookup answered from memory which finds
+ * nothing catches up once and looks again, so an object created meanwhile is
+ * found right away. The index starts over when the session is logged in
+ * again.
+ * <p>
+ * Hosts are also keyed by their name in lower case without a trailing dot,
+ * the addresses of their VMkernel NICs, their BIOS UUID and their MOR value,
+ * so {@link #findHost(String)} resolves any of them without another scan.
+ * <p>
+ * When the session is kept in a {@link SessionStore}, {@link #detach()}
+ * leaves the collector on the server and writes an {@link InventorySnapshot}
+ * next to the stored session. The next process resuming the session loads
+ * the snapshot and only asks the collector for the changes since then,
+ * falling back to a full load when the collector is gone or the version is
+ * no longer valid.
+ */
+public class InventoryIndex {
+    private static final Logger logger =
+            LoggerFactory.getLogger(InventoryIndex.class);
+
+    private static final String NAME = "name";
+    private static final String PARENT = "parent";
+    private static final String HOST_UUID = "hardware.systemInfo.uuid";
+    private static final String HOST_VNIC = "config.network.vnic";
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * System property overriding the default staleness bound, in milliseconds.
+     */
+    public static final String STALENESS_PROPERTY = "hci.inventory.staleness.millis";
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = 5000;
+
+    private static final String[] TYPES = {
+            VsphereConstants.DC_MOR_TYPE,
+            VsphereConstants.CLUSTER_COMPRES_MOR_TYPE,
+            VsphereConstants.HOST_MOR_TYPE,
+            VsphereConstants.DVS_MOR_TYPE,
+            VsphereConstants.DV_PORT_GROUP_MOR_TYPE,
+            VsphereConstants.FOLDER_MOR
+    };
+
+    private final VsphereClient client;
+    private volatile long maxStalenessMillis =
+            Long.getLong(STALENESS_PROPERTY, DEFAULT_MAX_STALENESS_MILLIS);
+    private File snapshotFile;
+
+    private final Map<String, Entity> byMor = new HashMap<String, Entity>();
+    private final Map<String, Map<String, List<Entity>>> byName =
+            new HashMap<String, Map<String, List<Entity>>>();
+    private final Map<String, Entity> hostsByKey = new HashMap<String, Entity>();
+
+    private ManagedObjectReference collector;
+    private ManagedObjectReference view;
+    private String version;
+    private int loginCount = -1;
+    private long lastSyncTime;
+    // the last sync answered from memory without calling the server
+    private boolean fromMemory;
+    private long updatesApplied;
+
+    public InventoryIndex(VsphereClient client) {
+        this.client = client;
+        SessionStore store = client.getConnection().getSessionStore();
+        // only the session which is stored can be resumed
+        if (store != null && client.getConnection().getParent() == null) {
+            snapshotFile = store.file(client.getConnection().getUrl(),
+                    client.getConnection().getUsername(), ".inventory");
+        }
+    }
+
+    public synchronized File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * File the index is saved to by {@link #detach()} and loaded from, by
+     * default next to the stored session. Null turns snapshots off.
+     */
+    public synchronized void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+
+    /**
+     * Lets lookups skip the catch-up call when the last one is more recent
+     * than the given time, {@value #DEFAULT_MAX_STALENESS_MILLIS} ms by
+     * default. 0 always catches up.
+     */
+    public void setMaxStalenessMillis(long maxStalenessMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    public synchronized ManagedObjectReference getDatacenter(String name)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        ManagedObjectReference mor = first(VsphereConstants.DC_MOR_TYPE, name, null);
+        return mor == null && catchUp() ? first(VsphereConstants.DC_MOR_TYPE, name, null) : mor;
+    }
+
+    public synchronized ManagedObjectReference getCluster(ManagedObjectReference datacenter, String name)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        ManagedObjectReference mor = first(VsphereConstants.CLUSTER_COMPRES_MOR_TYPE, name, datacenter);
+        return mor == null && catchUp()
+                ? first(VsphereConstants.CLUSTER_COMPRES_MOR_TYPE, name, datacenter) : mor;
+    }
+
+    public synchronized ManagedObjectReference getHost(String name)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        ManagedObjectReference mor = first(VsphereConstants.HOST_MOR_TYPE, name, null);
+        return mor == null && catchUp() ? first(VsphereConstants.HOST_MOR_TYPE, name, null) : mor;
+    }
+
+    /**
+     * Host by DNS name in any case, VMkernel IP address, BIOS UUID or MOR
+     * value, or null when no host has the key.
+     */
+    public synchronized ManagedObjectReference findHost(String key)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        Entity entity = hostsByKey.get(hostKey(key));
+        if (entity == null && catchUp()) {
+            entity = hostsByKey.get(hostKey(key));
+        }
+        return entity == null ? null : entity.mor;
+    }
+
+    /**
+     * Resolves several host keys after a single catch-up. Keys without a
+     * host are left out of the returned map, which keeps the order of the keys.
+     */
+    public synchronized Map<String, ManagedObjectReference> findHosts(Collection<String> keys)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        Map<String, ManagedObjectReference> hosts = hosts(keys);
+        return hosts.size() < keys.size() && catchUp() ? hosts(keys) : hosts;
+    }
+
+    private Map<String, ManagedObjectReference> hosts(Collection<String> keys) {
+        Map<String, ManagedObjectReference> hosts = new LinkedHashMap<String, ManagedObjectReference>();
+        for (String key : keys) {
+            Entity entity = hostsByKey.get(hostKey(key));
+            if (entity != null) {
+                hosts.put(key, entity.mor);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Hosts directly under the cluster. The members of a cluster are read
+     * right after hosts were added to it, so this always catches up.
+     */
+    public synchronized List<ManagedObjectReference> getHostsInCluster(ManagedObjectReference cluster)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        lastSyncTime = 0;
+        sync();
+        List<ManagedObjectReference> hosts = new ArrayList<ManagedObjectReference>();
+        Map<String, List<Entity>> names = byName.get(VsphereConstants.HOST_MOR_TYPE);
+        if (names == null) {
+            return hosts;
+        }
+        String clusterKey = key(cluster);
+        for (List<Entity> entities : names.values()) {
+            for (Entity entity : entities) {
+                ManagedObjectReference parent = entity.getParent();
+                if (parent != null && clusterKey.equals(key(parent))) {
+                    hosts.add(entity.mor);
+                }
+            }
+        }
+        return hosts;
+    }
+
+    public synchronized ManagedObjectReference getDvs(String name)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        ManagedObjectReference mor = first(VsphereConstants.DVS_MOR_TYPE, name, null);
+        return mor == null && catchUp() ? first(VsphereConstants.DVS_MOR_TYPE, name, null) : mor;
+    }
+
+    public synchronized ManagedObjectReference getPortgroup(ManagedObjectReference datacenter, String name)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        ManagedObjectReference mor = first(VsphereConstants.DV_PORT_GROUP_MOR_TYPE, name, datacenter);
+        return mor == null && catchUp()
+                ? first(VsphereConstants.DV_PORT_GROUP_MOR_TYPE, name, datacenter) : mor;
+    }
+
+    /**
+     * Indexed properties of an object, or null when it is not in the index.
+     */
+    public synchronized Map<String, Object> getProperties(ManagedObjectReference mor)
+            throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        sync();
+        Entity entity = byMor.get(key(mor));
+        if (entity == null && catchUp()) {
+            entity = byMor.get(key(mor));
+        }
+        return entity == null ? null : Collections.unmodifiableMap(entity.props);
+    }
+
+    /**
+     * Number of objects in the index.
+     */
+    public synchronized int size() {
+        return byMor.size();
+    }
+
+    /**
+     * Number of object updates applied since the index was loaded.
+     */
+    public synchronized long getUpdatesApplied() {
+        return updatesApplied;
+    }
+
+    /**
+     * Catches up with the server now, loading the index if needed.
+     */
+    public synchronized void refresh() throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        lastSyncTime = 0;
+        sync();
+    }
+
+    /**
+     * Destroys the collector and the view on the server and empties the index.
+     */
+    public synchronized void close() {
+        if (collector != null && loginCount == client.getConnection().getLoginCount()) {
+            destroy();
+        }
+        clear();
+    }
+
+    /**
+     * Saves the index to the snapshot file and empties it, leaving the
+     * collector and the view on the server for the next process resuming
+     * the session. Closes the index when there is nothing to save to.
+     */
+    public synchronized void detach() {
+        if (snapshotFile == null || collector == null
+                || loginCount != client.getConnection().getLoginCount()) {
+            close();
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            snapshot().write(snapshotFile);
+            logger.debug("inventory index of {} saved with {} objects in {} ms", client.getIpAddress(),
+                    byMor.size(), System.currentTimeMillis() - start);
+            clear();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("could not save the inventory index to {}: {}", snapshotFile, e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Empties the index without calling the server, after a logout.
+     */
+    public synchronized void clear() {
+        collector = null;
+        view = null;
+        version = null;
+        loginCount = -1;
+        byMor.clear();
+        byName.clear();
+        hostsByKey.clear();
+    }
+
+    private void sync() throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        boolean current = collector != null && loginCount == client.getConnection().getLoginCount();
+        fromMemory = current && System.currentTimeMillis() - lastSyncTime < maxStalenessMillis;
+        if (fromMemory) {
+            return;
+        }
+        if (current) {
+            try {
+                pull();
+                return;
+            } catch (InvalidCollectorVersionFaultMsg e) {
+                logger.info("inventory index of {} is out of date, loading it again",
+                        client.getIpAddress());
+                destroy();
+            } catch (RuntimeFaultFaultMsg e) {
+                if (!ContainerViewCache.isStaleView(e)) {
+                    throw e;
+                }
+                logger.info("inventory collector of {} is gone, loading it again",
+                        client.getIpAddress());
+            }
+        }
+        load();
+    }
+
+    /**
+     * Catches up after a lookup answered from memory found nothing.
+     *
+     * @return false when the lookup already saw the current inventory
+     */
+    private boolean catchUp() throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        if (!fromMemory) {
+            return false;
+        }
+        lastSyncTime = 0;
+        sync();
+        return true;
+    }
+
+    private void load() throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
+        clear();
+        long start = System.currentTimeMillis();
+        int logins = client.getConnection().getLoginCount();
+        if (restore()) {
+            loginCount = logins;
+            logger.debug("inventory index of {} restored with {} objects in {} ms", client.getIpAddress(),
+                    byMor.size(), System.currentTimeMillis() - start);
+            return;
+        }
+        VimPortType port = client.getVimPort();
+        ServiceContent serviceContent = client.getServiceContent();
+        loginCount = logins;
+
+        // a private collector keeps the filter away from other users of the session
+        collector = port.createPropertyCollector(serviceContent.getPropertyCollector());
+        view = port.createContainerView(serviceContent.getViewManager(),
+                serviceContent.getRootFolder(), Arrays.asList(TYPES), true);
+        port.createFilter(collector, filterSpec(view), true);
+        version = "";
+        try {
+            pull();
+        } catch (InvalidCollectorVersionFaultMsg e) {
+            throw new HciServerException("could not load the inventory of " + client.getIpAddress(), e);
+        }
+        logger.debug("inventory index of {} loaded with {} objects in {} ms", client.getIpAddress(),
+                byMor.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Loads the snapshot of this session, if any, and catches up from its
+     * version. The snapshot is deleted once read, since only one process
+     * may use its collector.
+     */
+    private boolean restore() throws RuntimeFaultFaultMsg {
+        if (snapshotFile == null || !snapshotFile.isFile()) {
+            return false;
+        }
+        InventorySnapshot snapshot;
+        try {
+            snapshot = InventorySnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            logger.info("ignoring the inventory snapshot {}: {}", snapshotFile, e.getMessage());
+            deleteSnapshot();
+            return false;
+        }
+        deleteSnapshot();
+        UserSession session = client.getUserSession();
+        if (session == null || !session.getKey().equals(snapshot.getSessionKey())) {
+            logger.debug("inventory snapshot {} belongs to another session", snapshotFile);
+            return false;
+        }
+        collector = snapshot.getCollector();
+        view = snapshot.getView();
+        version = snapshot.getVersion();
+        for (InventorySnapshot.Record record : snapshot.getRecords()) {
+            Entity entity = new Entity(record.getMor());
+            entity.props.putAll(record.getProps());
+            entity.addresses = record.getAddresses();
+            byMor.put(key(entity.mor), entity);
+            index(entity);
+        }
+        try {
+            pull();
+            return true;
+        } catch (InvalidCollectorVersionFaultMsg e) {
+            logger.info("inventory snapshot of {} is out of date, loading the index again",
+                    client.getIpAddress());
+            destroy();
+        } catch (RuntimeFaultFaultMsg e) {
+            if (!ContainerViewCache.isStaleView(e)) {
+                throw e;
+            }
+            logger.info("inventory collector of the snapshot of {} is gone, loading the index again",
+                    client.getIpAddress());
+        }
+        clear();
+        return false;
+    }
+
+    private InventorySnapshot snapshot() {
+        List<InventorySnapshot.Record> records = new ArrayList<InventorySnapshot.Record>(byMor.size());
+        for (Entity entity : byMor.values()) {
+            records.add(new InventorySnapshot.Record(entity.mor, entity.props, entity.addresses));
+        }
+        UserSession session = client.getUserSession();
+        return new InventorySnapshot(session == null ? null : session.getKey(), collector, view,
+                version, System.currentTimeMillis(), records);
+    }
+
+    private void deleteSnapshot() {
+        if (!snapshotFile.delete() && snapshotFile.exists()) {
+            logger.warn("could not delete the inventory snapshot {}", snapshotFile);
+        }
+    }
+
+    private void pull() throws RuntimeFaultFaultMsg, InvalidCollectorVersionFaultMsg {
+        WaitOptions options = new WaitOptions();
+        // return right away, with nothing when the inventory has not changed
+        options.setMaxWaitSeconds(0);
+        VimPortType port = client.getVimPort();
+        UpdateSet updates;
+        do {
+            updates = port.waitForUpdatesEx(collector, version, options);
+            if (updates == null) {
+                break;
+            }
+            version = updates.getVersion();
+            apply(updates);
+        } while (Boolean.TRUE.equals(updates.isTruncated()));
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    private void apply(UpdateSet updates) {
+        for (PropertyFilterUpdate filterUpdate : updates.getFilterSet()) {
+            for (ObjectUpdate update : filterUpdate.getObjectSet()) {
+                updatesApplied++;
+                String key = key(update.getObj());
+                Entity entity = byMor.get(key);
+                if (entity != null) {
+                    unindex(entity);
+                }
+                if (update.getKind() == ObjectUpdateKind.LEAVE) {
+                    byMor.remove(key);
+                    continue;
+                }
+                if (entity == null) {
+                    entity = new Entity(update.getObj());
+                    byMor.put(key, entity);
+                }
+                for (PropertyChange change : update.getChangeSet()) {
+                    if (change.getOp() == PropertyChangeOp.REMOVE
+                            || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE) {
+                        entity.props.remove(change.getName());
+                    } else {
+                        entity.props.put(change.getName(), change.getVal());
+                    }
+                    if (HOST_VNIC.equals(change.getName())) {
+                        entity.addresses = addresses(entity.props.get(HOST_VNIC));
+                    }
+                }
+                index(entity);
+            }
+        }
+    }
+
+    private void destroy() {
+        VimPortType port = client.getVimPort();
+        try {
+            port.destroyPropertyCollector(collector);
+        } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+            logger.debug("could not destroy the inventory collector: {}", e.getMessage());
+        }
+        try {
+            port.destroyView(view);
+        } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+            logger.debug("could not destroy the inventory view: {}", e.getMessage());
+        }
+    }
+
+    private ManagedObjectReference first(String type, String name, ManagedObjectReference datacenter) {
+        Map<String, List<Entity>> names = byName.get(type);
+        List<Entity> entities = names == null ? null : names.get(name);
+        if (entities == null) {
+            return null;
+        }
+        for (Entity entity : entities) {
+            if (datacenter == null || key(datacenter).equals(datacenterOf(entity))) {
+                return entity.mor;
+            }
+        }
+        return null;
+    }
+
+    private String datacenterOf(Entity entity) {
+        Entity current = entity;
+        for (int depth = 0; current != null && depth < MAX_DEPTH; depth++) {
+            if (VsphereConstants.DC_MOR_TYPE.equals(current.mor.getType())) {
+                return key(current.mor);
+            }
+            ManagedObjectReference parent = current.getParent();
+            current = parent == null ? null : byMor.get(key(parent));
+        }
+        return null;
+    }
+
+    private void index(Entity entity) {
+        if (VsphereConstants.HOST_MOR_TYPE.equals(entity.mor.getType())) {
+            entity.hostKeys = hostKeys(entity);
+            for (String key : entity.hostKeys) {
+                hostsByKey.put(key, entity);
+            }
+        }
+        String name = entity.getName();
+        if (name == null) {
+            return;
+        }
+        Map<String, List<Entity>> names = byName.get(entity.mor.getType());
+        if (names == null) {
+            names = new HashMap<String, List<Entity>>();
+            byName.put(entity.mor.getType(), names);
+        }
+        List<Entity> entities = names.get(name);
+        if (entities == null) {
+            entities = new ArrayList<Entity>(1);
+            names.put(name, entities);
+        }
+        entities.add(entity);
+    }
+
+    private void unindex(Entity entity) {
+        for (String key : entity.hostKeys) {
+            // another host may have taken over an address since
+            if (hostsByKey.get(key) == entity) {
+                hostsByKey.remove(key);
+            }
+        }
+        entity.hostKeys = Collections.emptyList();
+        Map<String, List<Entity>> names = byName.get(entity.mor.getType());
+        String name = entity.getName();
+        if (names == null || name == null) {
+            return;
+        }
+        List<Entity> entities = names.get(name);
+        if (entities != null) {
+            entities.remove(entity);
+            if (entities.isEmpty()) {
+                names.remove(name);
+            }
+        }
+    }
+
+    private static PropertyFilterSpec filterSpec(ManagedObjectReference view) {
+        PropertyFilterSpecBuilder spec = new PropertyFilterSpecBuilder()
+                .objectSet(
+                        new ObjectSpecBuilder()
+                                .obj(view)
+                                .skip(Boolean.TRUE)
+                                .selectSet(
+                                        new TraversalSpecBuilder()
+                                                .name("view")
+                                                .path("view")
+                                                .skip(false)
+                                                .type("ContainerView")
+                                )
+                );
+        for (String type : TYPES) {
+            PropertySpecBuilder propSpec = new PropertySpecBuilder()
+                    .all(Boolean.FALSE)
+                    .type(type)
+                    .pathSet(NAME, PARENT);
+            if (VsphereConstants.HOST_MOR_TYPE.equals(type)) {
+                propSpec.pathSet(HOST_UUID, HOST_VNIC);
+            }
+            spec.propSet(propSpec);
+        }
+        return spec;
+    }
+
+    private static List<String> hostKeys(Entity entity) {
+        List<String> keys = new ArrayList<String>();
+        keys.add(hostKey(entity.mor.getValue()));
+        String name = entity.getName();
+        if (name != null) {
+            keys.add(hostKey(name));
+        }
+        Object uuid = entity.props.get(HOST_UUID);
+        if (uuid instanceof String) {
+            keys.add(hostKey((String) uuid));
+        }
+        for (String address : entity.addresses) {
+            keys.add(hostKey(address));
+        }
+        return keys;
+    }
+
+    private static List<String> addresses(Object vnics) {
+        if (!(vnics instanceof ArrayOfHostVirtualNic)) {
+            return Collections.emptyList();
+        }
+        List<String> addresses = new ArrayList<String>();
+        for (HostVirtualNic vnic : ((ArrayOfHostVirtualNic) vnics).getHostVirtualNic()) {
+            HostIpConfig ip = vnic.getSpec() == null ? null : vnic.getSpec().getIp();
+            if (ip == null) {
+                continue;
+            }
+            if (ip.getIpAddress() != null && !ip.getIpAddress().isEmpty()) {
+                addresses.add(ip.getIpAddress());
+            }
+            if (ip.getIpV6Config() != null) {
+                for (HostIpConfigIpV6Address address : ip.getIpV6Config().getIpV6Address()) {
+                    addresses.add(address.getIpAddress());
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Normal form of a host key: trimmed, lower case, without the trailing
+     * dot of a fully qualified name.
+     */
+    public static String hostKey(String key) {
+        String normal = key.trim().toLowerCase(Locale.ROOT);
+        return normal.endsWith(".") ? normal.substring(0, normal.length() - 1) : normal;
+    }
+
+    private static String key(ManagedObjectReference mor) {
+        return mor.getType() + ":" + mor.getValue();
+    }
+
+    private static final class Entity {
+        private final ManagedObjectReference mor;
+        private final Map<String, Object> props = new HashMap<String, Object>();
+        private List<String> hostKeys = Collections.emptyList();
+        private List<String> addresses = Collections.emptyList();
+
+        private Entity(ManagedObjectReference mor) {
+            this.mor = mor;
+        }
+
+        private String getName() {
+            return (String) props.get(NAME);
+        }
+
+        private ManagedObjectReference getParent() {
+            return (ManagedObjectReference) props.get(PARENT);
+        }
+    }
+}
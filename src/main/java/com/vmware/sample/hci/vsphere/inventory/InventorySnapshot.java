@@ -0,0 +1,368 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.vsphere.inventory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * Binary image of an {@link InventoryIndex}: the objects with their MOR,
+ * scalar properties and VMkernel addresses, the PropertyCollector and
+ * ContainerView feeding the index and the version the index reached.
+ * <p>
+ * The file starts with a table of the MOR types, so that each reference
+ * costs one byte of type; strings are UTF-8 with a two byte length. It is
+ * written to a temporary file moved over the previous one, and read from a
+ * read-only memory mapping.
+ */
+public class InventorySnapshot {
+    private static final int MAGIC = 0x48434949;
+    private static final short FORMAT = 1;
+    private static final int NULL_STRING = 0xFFFF;
+
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_MOR = 2;
+    private static final byte TAG_BOOLEAN = 3;
+    private static final byte TAG_INTEGER = 4;
+    private static final byte TAG_LONG = 5;
+
+    private final String sessionKey;
+    private final ManagedObjectReference collector;
+    private final ManagedObjectReference view;
+    private final String version;
+    private final long savedTime;
+    private final List<Record> records;
+
+    /**
+     * One object of the index.
+     */
+    public static class Record {
+        private final ManagedObjectReference mor;
+        private final Map<String, Object> props;
+        private final List<String> addresses;
+
+        public Record(ManagedObjectReference mor, Map<String, Object> props, List<String> addresses) {
+            this.mor = mor;
+            this.props = props;
+            this.addresses = addresses;
+        }
+
+        public ManagedObjectReference getMor() {
+            return mor;
+        }
+
+        public Map<String, Object> getProps() {
+            return props;
+        }
+
+        public List<String> getAddresses() {
+            return addresses;
+        }
+    }
+
+    public InventorySnapshot(String sessionKey, ManagedObjectReference collector,
+                             ManagedObjectReference view, String version, long savedTime,
+                             List<Record> records) {
+        this.sessionKey = sessionKey;
+        this.collector = collector;
+        this.view = view;
+        this.version = version;
+        this.savedTime = savedTime;
+        this.records = records;
+    }
+
+    /**
+     * Key of the UserSession the collector and the view belong to.
+     */
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    public ManagedObjectReference getCollector() {
+        return collector;
+    }
+
+    public ManagedObjectReference getView() {
+        return view;
+    }
+
+    /**
+     * Version of the collector the records are up to date with.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public long getSavedTime() {
+        return savedTime;
+    }
+
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Writes the snapshot, replacing the file atomically. Properties which
+     * are not strings, references, booleans or integers are left out.
+     */
+    public void write(File file) throws IOException {
+        Map<String, Integer> types = new LinkedHashMap<String, Integer>();
+        type(types, collector);
+        type(types, view);
+        for (Record record : records) {
+            type(types, record.mor);
+            for (Object value : record.props.values()) {
+                if (value instanceof ManagedObjectReference) {
+                    type(types, (ManagedObjectReference) value);
+                }
+            }
+        }
+        if (types.size() >= 0xFF) {
+            throw new IOException("too many object types: " + types.size());
+        }
+
+        Path target = file.toPath().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp), 64 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT);
+                out.writeByte(types.size());
+                for (String type : types.keySet()) {
+                    writeString(out, type);
+                }
+                writeString(out, sessionKey);
+                writeMor(out, types, collector);
+                writeMor(out, types, view);
+                writeString(out, version);
+                out.writeLong(savedTime);
+                out.writeInt(records.size());
+                for (Record record : records) {
+                    writeMor(out, types, record.mor);
+                    List<Map.Entry<String, Object>> props = new ArrayList<Map.Entry<String, Object>>();
+                    for (Map.Entry<String, Object> prop : record.props.entrySet()) {
+                        if (tag(prop.getValue()) != 0) {
+                            props.add(prop);
+                        }
+                    }
+                    out.writeByte(props.size());
+                    for (Map.Entry<String, Object> prop : props) {
+                        writeString(out, prop.getKey());
+                        writeValue(out, types, prop.getValue());
+                    }
+                    out.writeShort(record.addresses.size());
+                    for (String address : record.addresses) {
+                        writeString(out, address);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads a snapshot through a memory mapping of the file.
+     *
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static InventorySnapshot read(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    static InventorySnapshot read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT) {
+                throw new IOException("not an inventory snapshot");
+            }
+            String[] types = new String[buffer.get() & 0xFF];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = readString(buffer);
+            }
+            String sessionKey = readString(buffer);
+            ManagedObjectReference collector = readMor(buffer, types);
+            ManagedObjectReference view = readMor(buffer, types);
+            String version = readString(buffer);
+            long savedTime = buffer.getLong();
+            int count = buffer.getInt();
+            if (count < 0) {
+                throw new IOException("corrupt inventory snapshot");
+            }
+            List<Record> records = new ArrayList<Record>(count);
+            for (int i = 0; i < count; i++) {
+                ManagedObjectReference mor = readMor(buffer, types);
+                int propCount = buffer.get() & 0xFF;
+                Map<String, Object> props = new HashMap<String, Object>(propCount * 2);
+                for (int p = 0; p < propCount; p++) {
+                    String name = readString(buffer);
+                    props.put(name, readValue(buffer, types));
+                }
+                int addressCount = buffer.getShort() & 0xFFFF;
+                List<String> addresses = addressCount == 0
+                        ? Collections.<String>emptyList() : new ArrayList<String>(addressCount);
+                for (int a = 0; a < addressCount; a++) {
+                    addresses.add(readString(buffer));
+                }
+                records.add(new Record(mor, props, addresses));
+            }
+            return new InventorySnapshot(sessionKey, collector, view, version, savedTime, records);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("truncated inventory snapshot", e);
+        }
+    }
+
+    private static void type(Map<String, Integer> types, ManagedObjectReference mor) {
+        if (mor != null && !types.containsKey(mor.getType())) {
+            types.put(mor.getType(), types.size());
+        }
+    }
+
+    private static byte tag(Object value) {
+        if (value instanceof String) {
+            return TAG_STRING;
+        } else if (value instanceof ManagedObjectReference) {
+            return TAG_MOR;
+        } else if (value instanceof Boolean) {
+            return TAG_BOOLEAN;
+        } else if (value instanceof Integer) {
+            return TAG_INTEGER;
+        } else if (value instanceof Long) {
+            return TAG_LONG;
+        }
+        return 0;
+    }
+
+    private static void writeValue(DataOutputStream out, Map<String, Integer> types, Object value)
+            throws IOException {
+        byte tag = tag(value);
+        out.writeByte(tag);
+        switch (tag) {
+            case TAG_STRING:
+                writeString(out, (String) value);
+                break;
+            case TAG_MOR:
+                writeMor(out, types, (ManagedObjectReference) value);
+                break;
+            case TAG_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case TAG_INTEGER:
+                out.writeInt((Integer) value);
+                break;
+            default:
+                out.writeLong((Long) value);
+                break;
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer, String[] types) throws IOException {
+        byte tag = buffer.get();
+        switch (tag) {
+            case TAG_STRING:
+                return readString(buffer);
+            case TAG_MOR:
+                return readMor(buffer, types);
+            case TAG_BOOLEAN:
+                return buffer.get() != 0;
+            case TAG_INTEGER:
+                return buffer.getInt();
+            case TAG_LONG:
+                return buffer.getLong();
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    private static void writeMor(DataOutputStream out, Map<String, Integer> types,
+                                 ManagedObjectReference mor) throws IOException {
+        if (mor == null) {
+            out.writeByte(0xFF);
+            return;
+        }
+        out.writeByte(types.get(mor.getType()));
+        writeString(out, mor.getValue());
+    }
+
+    private static ManagedObjectReference readMor(ByteBuffer buffer, String[] types) throws IOException {
+        int type = buffer.get() & 0xFF;
+        if (type == 0xFF) {
+            return null;
+        }
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(types[type]);
+        mor.setValue(readString(buffer));
+        return mor;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_STRING) {
+            throw new IOException("string of " + bytes.length + " bytes is too long");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,4 @@
+/*
+ * Contains the in-memory inventory index kept up to date from the property collector.
+ */
+package com.vmware.sample.hci.vsphere.inventory;
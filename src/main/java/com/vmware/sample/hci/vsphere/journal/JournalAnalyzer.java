@@ -0,0 +1,368 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere.journal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads an {@link OperationJournal} back and tells where the runs spent
+ * their time: the critical path of each run and the slowest steps across
+ * all runs.
+ * <p>
+ * Usage: {@code JournalAnalyzer <journal file> [top]}
+ */
+public class JournalAnalyzer {
+    public static final int DEFAULT_TOP = 10;
+
+    private final Map<String, List<Record>> runs = new LinkedHashMap<String, List<Record>>();
+
+    /**
+     * One line of the journal.
+     */
+    public static final class Record {
+        private final String run;
+        private final String step;
+        private final String target;
+        private final long start;
+        private final long end;
+        private final String tasks;
+        private final long soapCalls;
+        private final String outcome;
+
+        public Record(String run, String step, String target, long start, long end,
+                      String tasks, long soapCalls, String outcome) {
+            this.run = run;
+            this.step = step;
+            this.target = target;
+            this.start = start;
+            this.end = end;
+            this.tasks = tasks;
+            this.soapCalls = soapCalls;
+            this.outcome = outcome;
+        }
+
+        /**
+         * Parses a line, null for a comment or a malformed line.
+         */
+        public static Record parse(String line) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                return null;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 8) {
+                return null;
+            }
+            try {
+                return new Record(fields[0], fields[1], fields[2], Long.parseLong(fields[3]),
+                        Long.parseLong(fields[4]), fields[5], Long.parseLong(fields[6]), fields[7]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String getRun() {
+            return run;
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getDurationMillis() {
+            return end - start;
+        }
+
+        public String getTasks() {
+            return tasks;
+        }
+
+        public long getSoapCalls() {
+            return soapCalls;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        public boolean isSuccess() {
+            return OperationJournal.OK.equals(outcome);
+        }
+
+        public boolean isRun() {
+            return OperationJournal.RUN_STEP.equals(step);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-22s %-16s %8d ms %5d calls  %s  %s",
+                    step, target, getDurationMillis(), soapCalls, outcome, tasks);
+        }
+    }
+
+    /**
+     * Durations of one step across the runs.
+     */
+    public static final class StepStats {
+        private final String step;
+        private int count;
+        private int failures;
+        private long totalMillis;
+        private long maxMillis;
+        private long soapCalls;
+
+        private StepStats(String step) {
+            this.step = step;
+        }
+
+        private void add(Record record) {
+            count++;
+            if (!record.isSuccess()) {
+                failures++;
+            }
+            totalMillis += record.getDurationMillis();
+            maxMillis = Math.max(maxMillis, record.getDurationMillis());
+            soapCalls += record.getSoapCalls();
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : (double) totalMillis / count;
+        }
+
+        public double getMeanSoapCalls() {
+            return count == 0 ? 0 : (double) soapCalls / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-22s %5d runs %10d ms total %10.0f ms mean %8d ms max %7.1f calls %3d failed",
+                    step, count, totalMillis, getMeanMillis(), maxMillis, getMeanSoapCalls(), failures);
+        }
+    }
+
+    public static JournalAnalyzer read(File file) throws IOException {
+        JournalAnalyzer analyzer = new JournalAnalyzer();
+        BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record = Record.parse(line);
+                if (record != null) {
+                    analyzer.add(record);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return analyzer;
+    }
+
+    public void add(Record record) {
+        List<Record> records = runs.get(record.getRun());
+        if (records == null) {
+            records = new ArrayList<Record>();
+            runs.put(record.getRun(), records);
+        }
+        records.add(record);
+    }
+
+    public List<String> getRuns() {
+        return new ArrayList<String>(runs.keySet());
+    }
+
+    /**
+     * The run line of a run, null if the run did not end.
+     */
+    public Record getRun(String run) {
+        List<Record> records = runs.get(run);
+        if (records != null) {
+            for (Record record : records) {
+                if (record.isRun()) {
+                    return record;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The chain of steps which decided when the run ended, first step
+     * first: going back from the end of the run, the step which ended last,
+     * then the step which ended last before that one started, and so on.
+     * Steps of a run on one thread follow each other, so the path holds
+     * all of them; it matters once steps overlap.
+     */
+    public List<Record> criticalPath(String run) {
+        List<Record> steps = new ArrayList<Record>();
+        List<Record> records = runs.get(run);
+        if (records == null) {
+            return steps;
+        }
+        for (Record record : records) {
+            if (!record.isRun()) {
+                steps.add(record);
+            }
+        }
+        List<Record> path = new ArrayList<Record>();
+        long cursor = Long.MAX_VALUE;
+        while (true) {
+            Record last = null;
+            for (Record step : steps) {
+                if (step.getEnd() <= cursor && (last == null || step.getEnd() > last.getEnd()
+                        || (step.getEnd() == last.getEnd() && step.getStart() < last.getStart()))) {
+                    last = step;
+                }
+            }
+            if (last == null) {
+                break;
+            }
+            path.add(last);
+            steps.remove(last);
+            cursor = last.getStart();
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Steps by the time they took in all runs together, the most expensive first.
+     */
+    public List<StepStats> slowestSteps(int limit) {
+        Map<String, StepStats> byStep = new LinkedHashMap<String, StepStats>();
+        for (List<Record> records : runs.values()) {
+            for (Record record : records) {
+                if (record.isRun()) {
+                    continue;
+                }
+                StepStats stats = byStep.get(record.getStep());
+                if (stats == null) {
+                    stats = new StepStats(record.getStep());
+                    byStep.put(record.getStep(), stats);
+                }
+                stats.add(record);
+            }
+        }
+        List<StepStats> sorted = new ArrayList<StepStats>(byStep.values());
+        Collections.sort(sorted, new Comparator<StepStats>() {
+            @Override
+            public int compare(StepStats a, StepStats b) {
+                return Long.compare(b.getTotalMillis(), a.getTotalMillis());
+            }
+        });
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * Single steps by the time they took, the slowest first.
+     */
+    public List<Record> slowestRecords(int limit) {
+        List<Record> sorted = new ArrayList<Record>();
+        for (List<Record> records : runs.values()) {
+            for (Record record : records) {
+                if (!record.isRun()) {
+                    sorted.add(record);
+                }
+            }
+        }
+        Collections.sort(sorted, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                return Long.compare(b.getDurationMillis(), a.getDurationMillis());
+            }
+        });
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    public void print(PrintStream out, int top) {
+        for (String run : runs.keySet()) {
+            Record whole = getRun(run);
+            List<Record> path = criticalPath(run);
+            if (whole != null) {
+                out.printf("run %s %s: %d ms, %d calls, %s%n", run, whole.getTarget(),
+                        whole.getDurationMillis(), whole.getSoapCalls(), whole.getOutcome());
+            } else {
+                out.printf("run %s: did not end%n", run);
+            }
+            long cursor = whole != null ? whole.getStart() : path.isEmpty() ? 0 : path.get(0).getStart();
+            for (Record step : path) {
+                if (step.getStart() > cursor) {
+                    out.printf("  %-22s %-16s %8d ms%n", "(untracked)", "-", step.getStart() - cursor);
+                }
+                out.println("  " + step);
+                cursor = Math.max(cursor, step.getEnd());
+            }
+        }
+        out.println();
+        out.println("slowest steps across " + runs.size() + " runs:");
+        for (StepStats stats : slowestSteps(top)) {
+            out.println("  " + stats);
+        }
+        out.println();
+        out.println("slowest single steps:");
+        for (Record record : slowestRecords(top)) {
+            out.println("  " + record.getRun() + " " + record);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: JournalAnalyzer <journal file> [top]");
+            System.exit(1);
+        }
+        int top = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TOP;
+        read(new File(args[0])).print(System.out, top);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.metrics.SoapMetrics;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * Append-only journal of the steps of the configuration workflows.
+ * <p>
+ * A run is one call of a workflow. Each step of a run adds one line of tab
+ * separated fields when it ends: the run, the step, its target, the start
+ * and end time in epoch milliseconds, the tasks it waited for, the number
+ * of SOAP calls the thread made and the outcome. The run itself ends with
+ * a line of step {@value #RUN_STEP}. Steps are followed per thread:
+ * beginning a step ends the open one as successful, and
+ * {@code Task.monitorTask} notes its task in the open step.
+ * <p>
+ * Lines are buffered and written in batches, with one force of the file
+ * per batch instead of one per step; a batch is written once it holds
+ * {@code batchLines} lines, on the first line after {@code batchMillis},
+ * and when a run ends. The default journal is kept in the file named by
+ * the {@value #FILE_PROPERTY} system property and does nothing when it is
+ * not set. {@link JournalAnalyzer} reads it back.
+ */
+public class OperationJournal implements Closeable {
+    private static final Logger logger =
+            LoggerFactory.getLogger(OperationJournal.class);
+
+    /**
+     * System property naming the file of the default journal.
+     */
+    public static final String FILE_PROPERTY = "hci.journal";
+
+    public static final int DEFAULT_BATCH_LINES = 64;
+    public static final long DEFAULT_BATCH_MILLIS = 1000L;
+
+    public static final String RUN_STEP = "run";
+    public static final String OK = "OK";
+    public static final String FAILED = "FAILED";
+
+    static final String HEADER = "# run\tstep\ttarget\tstart\tend\ttasks\tsoapCalls\toutcome";
+
+    // a step waiting for many tasks lists the first ones and a count
+    private static final int MAX_TASKS_LISTED = 4;
+
+    private static final ThreadLocal<Run> CURRENT = new ThreadLocal<Run>();
+    private static final AtomicLong RUN_SEQUENCE = new AtomicLong();
+
+    private static OperationJournal defaultJournal;
+
+    private final File file;
+    private final int batchLines;
+    private final long batchMillis;
+    private final StringBuilder buffer = new StringBuilder();
+
+    private FileChannel channel;
+    private int pendingLines;
+    private long lastWriteTime = System.currentTimeMillis();
+    private boolean broken;
+
+    private static final class Run {
+        private final OperationJournal journal;
+        private final String id;
+        private final String workflow;
+        private final long start = System.currentTimeMillis();
+        private final long calls = SoapMetrics.getThreadCallCount();
+        private Entry open;
+        private String failedStep;
+
+        private Run(OperationJournal journal, String id, String workflow) {
+            this.journal = journal;
+            this.id = id;
+            this.workflow = workflow;
+        }
+    }
+
+    private static final class Entry {
+        private final String step;
+        private final String target;
+        private final long start = System.currentTimeMillis();
+        private final long calls = SoapMetrics.getThreadCallCount();
+        private final List<String> tasks = new ArrayList<String>();
+
+        private Entry(String step, String target) {
+            this.step = step;
+            this.target = target;
+        }
+    }
+
+    public OperationJournal(File file) {
+        this(file, DEFAULT_BATCH_LINES, DEFAULT_BATCH_MILLIS);
+    }
+
+    /**
+     * @param file null for a journal which writes nothing
+     */
+    public OperationJournal(File file, int batchLines, long batchMillis) {
+        this.file = file;
+        this.batchLines = batchLines;
+        this.batchMillis = batchMillis;
+    }
+
+    public static synchronized OperationJournal getDefault() {
+        if (defaultJournal == null) {
+            String path = System.getProperty(FILE_PROPERTY);
+            defaultJournal = new OperationJournal(path == null || path.trim().isEmpty()
+                    ? null : new File(path.trim()));
+        }
+        return defaultJournal;
+    }
+
+    public static synchronized void setDefault(OperationJournal journal) {
+        defaultJournal = journal;
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Starts a run of a workflow on the calling thread.
+     */
+    public void beginRun(String workflow) {
+        if (file == null) {
+            return;
+        }
+        String id = Long.toString(System.currentTimeMillis(), 36) + "-" + RUN_SEQUENCE.incrementAndGet();
+        CURRENT.set(new Run(this, id, workflow));
+    }
+
+    /**
+     * Begins a step of the run of the calling thread, ending the open step
+     * as successful.
+     */
+    public void begin(String step, String target) {
+        Run run = run();
+        if (run == null) {
+            return;
+        }
+        if (run.open != null) {
+            write(run, run.open, OK);
+        }
+        run.open = new Entry(step, target);
+    }
+
+    /**
+     * Ends the open step as successful.
+     */
+    public void end() {
+        Run run = run();
+        if (run == null || run.open == null) {
+            return;
+        }
+        write(run, run.open, OK);
+        run.open = null;
+    }
+
+    /**
+     * Ends the open step as failed with the error.
+     */
+    public void fail(Throwable t) {
+        Run run = run();
+        if (run == null || run.open == null) {
+            return;
+        }
+        run.failedStep = run.open.step;
+        write(run, run.open, FAILED + ":" + t.getClass().getSimpleName());
+        run.open = null;
+    }
+
+    /**
+     * Ends the run of the calling thread and writes the pending lines. A
+     * step still open was left by an exception and is ended as failed.
+     */
+    public void endRun() {
+        Run run = run();
+        if (run == null) {
+            return;
+        }
+        CURRENT.remove();
+        if (run.open != null) {
+            run.failedStep = run.open.step;
+            write(run, run.open, FAILED);
+        }
+        write(run.id, RUN_STEP, run.workflow, run.start, run.calls, null,
+                run.failedStep == null ? OK : FAILED + ":" + run.failedStep);
+        flush();
+    }
+
+    /**
+     * Notes a task in the open step of the calling thread, if any.
+     */
+    public static void noteTask(ManagedObjectReference task) {
+        Run run = CURRENT.get();
+        if (run != null && run.open != null && task != null) {
+            run.open.tasks.add(task.getValue());
+        }
+    }
+
+    /**
+     * Writes the buffered lines and forces them to the disk.
+     */
+    public synchronized void flush() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        buffer.setLength(0);
+        pendingLines = 0;
+        lastWriteTime = System.currentTimeMillis();
+        if (broken) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                open();
+            }
+            ByteBuffer data = ByteBuffer.wrap(bytes);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // the workflows do not depend on the journal
+            logger.warn("could not write the journal {}, disabling it: {}", file, e.getMessage());
+            broken = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("could not close the journal {}: {}", file, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    private Run run() {
+        Run run = CURRENT.get();
+        return run != null && run.journal == this ? run : null;
+    }
+
+    private void write(Run run, Entry entry, String outcome) {
+        write(run.id, entry.step, entry.target, entry.start, entry.calls, entry.tasks, outcome);
+    }
+
+    private void write(String run, String step, String target, long start, long calls,
+                       List<String> tasks, String outcome) {
+        long end = System.currentTimeMillis();
+        StringBuilder line = new StringBuilder(96);
+        line.append(run).append('\t')
+                .append(field(step)).append('\t')
+                .append(field(target)).append('\t')
+                .append(start).append('\t')
+                .append(end).append('\t')
+                .append(tasks(tasks)).append('\t')
+                .append(SoapMetrics.getThreadCallCount() - calls).append('\t')
+                .append(field(outcome)).append('\n');
+        synchronized (this) {
+            buffer.append(line);
+            pendingLines++;
+            if (pendingLines >= batchLines || end - lastWriteTime >= batchMillis) {
+                flush();
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            channel.write(ByteBuffer.wrap((HEADER + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static String tasks(List<String> tasks) {
+        if (tasks == null || tasks.isEmpty()) {
+            return "-";
+        }
+        StringBuilder value = new StringBuilder();
+        int listed = Math.min(tasks.size(), MAX_TASKS_LISTED);
+        for (int i = 0; i < listed; i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append(field(tasks.get(i)));
+        }
+        if (tasks.size() > listed) {
+            value.append(",+").append(tasks.size() - listed);
+        }
+        return value.toString();
+    }
+
+    static String field(String value) {
+        if (value == null || value.isEmpty()) {
+            return "-";
+        }
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,4 @@
+/*
+ * Contains the append-only journal of the workflow steps and its analyzer.
+ */
+package com.vmware.sample.hci.vsphere.journal;
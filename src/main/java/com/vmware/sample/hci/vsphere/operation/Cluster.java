@@ -13,8 +13,8 @@
 
 package com.vmware.sample.hci.vsphere.operation;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.Vector;
 import javax.xml.ws.soap.SOAPFaultException;
 
 import org.slf4j.Logger;
@@ -25,6 +25,7 @@ import com.vmware.sample.hci.vsphere.VsphereClient;
 import com.vmware.sample.hci.vsphere.exception.HciServerException;
 import com.vmware.sample.hci.vsphere.exception.TaskFailedException;
 import com.vmware.sample.hci.vsphere.exception.VerificationFailedException;
+import com.vmware.sample.hci.vsphere.utils.ProgressModel;
 import com.vmware.sample.hci.vsphere.utils.VsphereConstants;
 import com.vmware.sample.hci.vsphere.utils.VsphereUtil;
 import com.vmware.vim25.ClusterConfigSpec;
@@ -301,21 +302,12 @@ public class Cluster {
      */
     public boolean waitForVsanUpdateTaskInCluster(
             ManagedObjectReference clusterMor) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
-        boolean success = true;
         List<ManagedObjectReference> hostList = VsphereUtil.getHostMorsInCluster(this.connection, clusterMor);
-        if (hostList != null && hostList.size() == 0) {
-            success = false;
+        if (hostList == null || hostList.size() == 0) {
             logger.error("No hosts are specified to wait for vSan update task");
-        } else {
-            for (ManagedObjectReference host : hostList) {
-                if (!this.waitForVsanUpdateTask(host)) {
-                    success = false;
-                    logger.info("vSan update task failed for host {}",
-                            host.getValue());
-                }
-            }
+            return false;
         }
-        return success;
+        return waitForVsanUpdateTasks(hostList);
     }
 
     /**
@@ -326,57 +318,43 @@ public class Cluster {
      * otherwise
      */
     public boolean waitForVsanUpdateTask(ManagedObjectReference hostMor) {
-        boolean success = true;
-        PropertyCollector pc = new PropertyCollector(connection);
-        Task t = new Task(connection);
+        return waitForVsanUpdateTasks(Collections.singletonList(hostMor));
+    }
 
-        Vector<ManagedObjectReference> activeTaskList =
-                pc.getRecentActiveTask(hostMor);
-        String hostname = pc.getName(hostMor);
-        ManagedObjectReference vsanUpdateTask = null;
-
-        if (activeTaskList != null) {
-            for (int i = 0; i < activeTaskList.size(); i++) {
-                vsanUpdateTask = activeTaskList.get(i);
-                if (vsanUpdateTask != null) {
-                    logger.info(hostname + " Active task found = "
-                            + vsanUpdateTask.getValue());
-                    logger.info(hostname + " Active task type = "
-                            + vsanUpdateTask.getType());
-                    TaskInfo taskInfo = null;
-                    try {
-                        taskInfo = t.getTaskInfo(vsanUpdateTask);
-                    } catch (Exception ex) {
-                        /*
-                         * Ignoring this exception as it comes from obsolete
-                         * tasks intermittently
-                         */
-                        logger.error("Could not get TaskInfo "
-                                + vsanUpdateTask.getValue(), ex);
-                        continue;
-                    }
-                    if (taskInfo != null) {
-                        logger.info("Active task name = " + taskInfo.getName());
-                        logger.info("Active task description = "
-                                + taskInfo.getDescriptionId() + " State = "
-                                + taskInfo.getState());
-                        if ("host.VsanSystem.update".equalsIgnoreCase(
-                                taskInfo.getDescriptionId())) {
-                            try {
-                                success &= t.monitorTask(vsanUpdateTask);
-                            } catch (Exception e) {
-                                logger.error("monitor task error.", e);
-                                success = false;
-                            }
+    /**
+     * Wait for the vSAN update tasks of all hosts at once.
+     *
+     * @param hostList the hosts to wait for.
+     * @return boolean Returns true if vSan update succeeds on all hosts. false
+     * otherwise
+     */
+    public boolean waitForVsanUpdateTasks(List<ManagedObjectReference> hostList) {
+        boolean success = true;
+        VsanUpdateWaiter waiter = new VsanUpdateWaiter(connection, hostList);
+        try {
+            waiter.setListener(ProgressModel.currentStep());
+            for (VsanUpdateWaiter.HostResult result : waiter.waitForUpdates(0)) {
+                if (result.getTasks().isEmpty()) {
+                    logger.info("{} no active vSan update task found.", result.getHostName());
+                } else if (result.isSuccess()) {
+                    logger.info("{} vSan update tasks succeeded: {}", result.getHostName(),
+                            result.getTasks().size());
+                } else {
+                    success = false;
+                    logger.info("vSan update task failed for host {}", result.getHostName());
+                    for (TaskInfo taskInfo : result.getTasks()) {
+                        if (taskInfo != null && taskInfo.getError() != null) {
+                            logger.error("vSan update task {} error: {}", taskInfo.getKey(),
+                                    taskInfo.getError().getLocalizedMessage());
                         }
-                    } else {
-                        logger.info("There is no task information for task "
-                                + vsanUpdateTask.getValue());
                     }
                 }
             }
-        } else {
-            logger.info(hostname + " no active Task found.");
+        } catch (HciServerException e) {
+            logger.error("monitor task error.", e);
+            success = false;
+        } finally {
+            waiter.close();
         }
         return success;
     }
@@ -19,15 +19,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.vmware.sample.hci.connection.helpers.GetMOREF;
 import com.vmware.sample.hci.vsphere.VsphereClient;
 import com.vmware.sample.hci.vsphere.exception.HciServerException;
 import com.vmware.sample.hci.vsphere.exception.TaskFailedException;
+import com.vmware.sample.hci.vsphere.journal.OperationJournal;
+import com.vmware.sample.hci.vsphere.utils.ProgressModel;
 import com.vmware.sample.hci.vsphere.utils.VsphereConstants;
 import com.vmware.vim25.ArrayOfManagedObjectReference;
 import com.vmware.vim25.ConcurrentAccessFaultMsg;
@@ -36,7 +39,6 @@ import com.vmware.vim25.DistributedVirtualSwitchHostMemberPnicSpec;
 import com.vmware.vim25.DistributedVirtualSwitchPortConnection;
 import com.vmware.vim25.DuplicateNameFaultMsg;
 import com.vmware.vim25.FileFaultFaultMsg;
-import com.vmware.vim25.HostConfigInfo;
 import com.vmware.vim25.HostConfigManager;
 import com.vmware.vim25.HostIpConfig;
 import com.vmware.vim25.HostNetworkConfig;
@@ -88,6 +90,14 @@ public class HostNetwork {
     private ManagedObjectReference _dvVmotionPortgroupMor;
     private ManagedObjectReference _dvVsanPortgroupMor;
 
+    // read once per instance, the steps below only need them to stay put
+    // for the length of one operation
+    private HostConfigManager _configManager;
+    private String _switchUuid;
+    private final Map<String, String> _portgroupKeys = new HashMap<String, String>();
+    // 0 waits for the VM reconfigure tasks as long as they run
+    private long _migrationTimeoutMillis;
+
     public HostNetwork(VsphereClient vcConnection,
                        ManagedObjectReference hostMor, ManagedObjectReference dvsMor,
                        ManagedObjectReference[] dvpgMors) {
@@ -110,6 +120,19 @@ public class HostNetwork {
         _dvVsanPortgroupMor = null;
     }
 
+    public long getMigrationTimeoutMillis() {
+        return _migrationTimeoutMillis;
+    }
+
+    /**
+     * Time allowed for the reconfigure tasks of one {@link #migrateVmsToVds}
+     * call, 0 for no deadline. Tasks still running at the deadline are
+     * cancelled.
+     */
+    public void setMigrationTimeoutMillis(long migrationTimeoutMillis) {
+        _migrationTimeoutMillis = migrationTimeoutMillis;
+    }
+
     public static Object deepCopyObject(final Object actualObject)
             throws IOException, ClassNotFoundException {
         final ByteArrayOutputStream bas = new ByteArrayOutputStream();
@@ -126,7 +149,10 @@ public class HostNetwork {
         // generate the HostVirtualNicConfig
         // use DistributedVirtualSwitchPortConnection for vnic
         logger.info("creating the VirtualNicConfig...");
-        List<HostVirtualNicConfig> vnicConfigList = buildHostVirtualNicConfig();
+        PropertyBatch.Result before = prefetch(new PropertyBatch(_connection),
+                true, false, _dvMgmtPortgroupMor);
+        List<HostVirtualNicConfig> vnicConfigList =
+                buildHostVirtualNicConfig(getHostNetworkInfo(before));
 
         HostNetworkConfig updatedNwkConfig = new HostNetworkConfig();
         updatedNwkConfig.getVnic().clear();
@@ -149,12 +175,16 @@ public class HostNetwork {
         // find out all the pnics used by vss
         // add them into the vds pnic backing spec
         logger.info("creating the HostProxySwitchConfig...");
-        HostProxySwitchConfig dvsConfig = buildHostProxySwitchConfig();
+        PropertyBatch.Result after = prefetch(new PropertyBatch(_connection),
+                true, true);
+        HostNetworkInfo hostNwk = getHostNetworkInfo(after);
+        HostProxySwitchConfig dvsConfig =
+                buildHostProxySwitchConfig(hostNwk, getHostProxySwitchConfig(after));
 
         // generate the HostVirtualSwitchConfig
         // remove the pnics from vss spec.
         logger.info("creating the VirtualSwitchConfig...");
-        HostVirtualSwitchConfig vssConfig = buildHostVirtualSwitchConfig();
+        HostVirtualSwitchConfig vssConfig = buildHostVirtualSwitchConfig(hostNwk);
         updatedNwkConfig = new HostNetworkConfig();
         updatedNwkConfig.getProxySwitch().clear();
         updatedNwkConfig.getProxySwitch().add(dvsConfig);
@@ -185,75 +215,133 @@ public class HostNetwork {
             logger.debug("vmMor is null, skipping the migration");
             return false;
         }
-        VirtualMachineConfigSpec updatedDeltaConfigSpec = null;
-        VirtualMachineConfigSpec originalDeltaConfigSpec = null;
-
-        VirtualMachineConfigInfo vmConfigInfo = null;
-        List<VirtualDevice> vds = null;
-        VirtualEthernetCardDistributedVirtualPortBackingInfo backingInfo = null;
-        VirtualDeviceConfigSpec updatedDeviceConfigSpec = null;
-        VirtualDeviceConfigSpec originalDeviceConfigSpec = null;
-        List<VirtualDeviceConfigSpec> updatedDeviceChange = new ArrayList<VirtualDeviceConfigSpec>();
-        List<VirtualDeviceConfigSpec> originalDeviceChange = new ArrayList<VirtualDeviceConfigSpec>();
-
-        vmConfigInfo = getVMConfigInfo(vmMor);
-        updatedDeltaConfigSpec = new VirtualMachineConfigSpec();
-        originalDeltaConfigSpec = new VirtualMachineConfigSpec();
-        if (vmConfigInfo != null && vmConfigInfo.getHardware() != null) {
-            vds = vmConfigInfo.getHardware().getDevice();
-            for (VirtualDevice vd : vds) {
-                if (vd != null && vd instanceof VirtualEthernetCard) {
-                    logger.debug("found a virtual device as ethernet card: {}",
-                            vd);
-                    updatedDeviceConfigSpec = new VirtualDeviceConfigSpec();
-                    originalDeviceConfigSpec = new VirtualDeviceConfigSpec();
-                    originalDeviceConfigSpec.setOperation(
-                            VirtualDeviceConfigSpecOperation.EDIT);
-
-                    originalDeviceConfigSpec.setDevice(vd);
-
-                    originalDeviceChange.add(originalDeviceConfigSpec);
-                    backingInfo =
-                            new VirtualEthernetCardDistributedVirtualPortBackingInfo();
-                    DistributedVirtualSwitchPortConnection portConn =
-                            new DistributedVirtualSwitchPortConnection();
-                    portConn.setSwitchUuid(
-                            getHostProxySwitchConfig().getUuid());
-                    portConn.setPortgroupKey(VirtualDistributedSwitch
-                            .getPortGroupKey(_connection, _dvMgmtPortgroupMor));
-
-                    backingInfo.setPort(portConn);
-                    vd.setBacking(backingInfo);
-                    if (vd.getConnectable() != null) {
-                        vd.getConnectable().setStartConnected(true);
-                    }
-                    updatedDeviceConfigSpec.setOperation(
-                            VirtualDeviceConfigSpecOperation.EDIT);
-                    updatedDeviceConfigSpec.setDevice(vd);
-                    updatedDeviceChange.add(updatedDeviceConfigSpec);
-                }
+        migrateVmsToVds(new ManagedObjectReference[]{vmMor});
+        return true;
+    }
+
+    /**
+     * Moves the network adapters of the VMs to the management portgroup of
+     * the VDS. The reconfigure tasks of all VMs run side by side and are
+     * waited for together, for at most {@link #getMigrationTimeoutMillis()}.
+     * If a VM can not be reconfigured, the tasks already started for the
+     * others are waited for before the fault is thrown.
+     *
+     * @throws TaskFailedException for the first VM which could not be migrated,
+     *                             once all tasks ended
+     */
+    public void migrateVmsToVds(ManagedObjectReference[] vmMors)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg,
+            ConcurrentAccessFaultMsg, DuplicateNameFaultMsg, FileFaultFaultMsg,
+            InsufficientResourcesFaultFaultMsg, InvalidDatastoreFaultMsg,
+            InvalidNameFaultMsg, InvalidStateFaultMsg, TaskInProgressFaultMsg,
+            VmConfigFaultFaultMsg {
+        List<ManagedObjectReference> vms = new ArrayList<ManagedObjectReference>();
+        for (ManagedObjectReference vmMor : vmMors) {
+            if (vmMor != null) {
+                vms.add(vmMor);
             }
-            updatedDeltaConfigSpec.getDeviceChange().clear();
-            updatedDeltaConfigSpec.getDeviceChange().addAll(updatedDeviceChange);
         }
+        if (vms.isEmpty()) {
+            return;
+        }
+        // the VM configs, the switch uuid and the portgroup key in one call
+        PropertyBatch batch = new PropertyBatch(_connection);
+        for (ManagedObjectReference vmMor : vms) {
+            batch.add(vmMor, "config");
+        }
+        PropertyBatch.Result props = prefetch(batch, _switchUuid == null, false, _dvMgmtPortgroupMor);
+        String switchUuid = getSwitchUuid();
+        String portgroupKey = getPortGroupKey(_dvMgmtPortgroupMor);
+
         /*
-         * Reconfigure the virtual machine with the new settings
+         * Reconfigure the virtual machines with the new settings
          */
-        Task t = new Task(_connection);
-        ManagedObjectReference taskMor = _connection.getVimPort().reconfigVMTask(vmMor, updatedDeltaConfigSpec);
-        boolean taskSuccess = t.monitorTask(taskMor);
-        if (taskSuccess) {
-            return taskSuccess;
-        } else {
-            TaskInfo taskInfo = t.getTaskInfo(taskMor);
-            TaskFailedException tfe = new TaskFailedException(
-                    taskInfo.getError().getLocalizedMessage(),
+        List<ManagedObjectReference> tasks = new ArrayList<ManagedObjectReference>(vms.size());
+        boolean submitted = false;
+        try {
+            for (ManagedObjectReference vmMor : vms) {
+                VirtualMachineConfigInfo vmConfigInfo =
+                        props.get(vmMor, "config", VirtualMachineConfigInfo.class);
+                ManagedObjectReference task = _connection.getVimPort().reconfigVMTask(vmMor,
+                        buildVdsConfigSpec(vmConfigInfo, switchUuid, portgroupKey));
+                OperationJournal.noteTask(task);
+                tasks.add(task);
+            }
+            submitted = true;
+        } finally {
+            if (!submitted && !tasks.isEmpty()) {
+                // do not return while the VMs reconfigured so far are still changing
+                awaitQuietly(tasks);
+            }
+        }
+        List<TaskTracker.Result> results = _connection.getTaskTracker()
+                .waitAll(tasks, _migrationTimeoutMillis, false, ProgressModel.currentStep());
+        for (int i = 0; i < results.size(); i++) {
+            TaskTracker.Result result = results.get(i);
+            if (result.isSuccess()) {
+                continue;
+            }
+            String message;
+            if (result.getInfo() != null && result.getInfo().getError() != null) {
+                message = result.getInfo().getError().getLocalizedMessage();
+            } else if (result.getFailure() != null) {
+                message = result.getFailure().getMessage();
+            } else {
+                message = "task " + result.getOutcome();
+            }
+            throw new TaskFailedException(message,
                     VsphereConstants.MIGRATEVMTOVDS_TASK_FAILURE,
-                    taskInfo.getName(), vmMor.getValue());
-            throw tfe;
+                    result.getInfo() == null ? "reconfigVMTask" : result.getInfo().getName(),
+                    vms.get(i).getValue());
+        }
+    }
+
+    private void awaitQuietly(List<ManagedObjectReference> tasks) {
+        try {
+            for (TaskTracker.Result result : _connection.getTaskTracker()
+                    .waitAll(tasks, _migrationTimeoutMillis, false, ProgressModel.currentStep())) {
+                if (!result.isSuccess()) {
+                    logger.warn("task {} of an aborted VM migration ended with {}",
+                            result.getTask().getValue(), result.getOutcome());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("could not wait for the tasks of an aborted VM migration: {}", e.getMessage());
         }
     }
 
+    private static VirtualMachineConfigSpec buildVdsConfigSpec(VirtualMachineConfigInfo vmConfigInfo,
+                                                               String switchUuid, String portgroupKey) {
+        VirtualMachineConfigSpec updatedDeltaConfigSpec = new VirtualMachineConfigSpec();
+        if (vmConfigInfo == null || vmConfigInfo.getHardware() == null) {
+            return updatedDeltaConfigSpec;
+        }
+        for (VirtualDevice vd : vmConfigInfo.getHardware().getDevice()) {
+            if (vd != null && vd instanceof VirtualEthernetCard) {
+                logger.debug("found a virtual device as ethernet card: {}",
+                        vd);
+                VirtualEthernetCardDistributedVirtualPortBackingInfo backingInfo =
+                        new VirtualEthernetCardDistributedVirtualPortBackingInfo();
+                DistributedVirtualSwitchPortConnection portConn =
+                        new DistributedVirtualSwitchPortConnection();
+                portConn.setSwitchUuid(switchUuid);
+                portConn.setPortgroupKey(portgroupKey);
+
+                backingInfo.setPort(portConn);
+                vd.setBacking(backingInfo);
+                if (vd.getConnectable() != null) {
+                    vd.getConnectable().setStartConnected(true);
+                }
+                VirtualDeviceConfigSpec updatedDeviceConfigSpec = new VirtualDeviceConfigSpec();
+                updatedDeviceConfigSpec.setOperation(
+                        VirtualDeviceConfigSpecOperation.EDIT);
+                updatedDeviceConfigSpec.setDevice(vd);
+                updatedDeltaConfigSpec.getDeviceChange().add(updatedDeviceConfigSpec);
+            }
+        }
+        return updatedDeltaConfigSpec;
+    }
+
     public ManagedObjectReference[] getVM()
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         final PropertyCollector mPropCollector =
@@ -287,35 +375,119 @@ public class HostNetwork {
         return vmConfigInfo;
     }
 
+    private HostConfigManager getConfigManager()
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        if (_configManager == null) {
+            PropertyCollector pc = new PropertyCollector(_connection);
+            _configManager = (HostConfigManager) pc
+                    .getDynamicProperty(_hostMor, VsphereConstants.HOST_CONFIGMANAGER_PROPERTYNAME);
+        }
+        return _configManager;
+    }
+
     private ManagedObjectReference getNetworkSystem()
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        PropertyCollector pc = new PropertyCollector(_connection);
-        HostConfigManager cfgMgr = (HostConfigManager) pc
-                .getDynamicProperty(_hostMor, "configManager");
-        return cfgMgr.getNetworkSystem();
+        return getConfigManager().getNetworkSystem();
     }
 
-    private HostNetworkInfo getHostNetworkInfo() {
-        PropertyCollector pc = new PropertyCollector(_connection);
-        HostConfigInfo hostConfigInfo = null;
-        try {
-            hostConfigInfo =
-                    (HostConfigInfo) pc.getDynamicProperty(_hostMor, "config");
-            return hostConfigInfo.getNetwork();
-        } catch (Exception e) {
+    /**
+     * Adds what a step needs from the host to the batch and sends it.
+     * The config manager and the keys of the portgroups not seen yet ride
+     * along, the switch uuid is taken from whichever network view was read.
+     *
+     * @param hostNetwork   also read the network info of the host
+     * @param networkConfig also read the network config of its network system
+     */
+    private PropertyBatch.Result prefetch(PropertyBatch batch, boolean hostNetwork,
+                                          boolean networkConfig,
+                                          ManagedObjectReference... portgroups)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        ManagedObjectReference nwkMor = null;
+        if (networkConfig) {
+            nwkMor = getNetworkSystem();
+            batch.add(nwkMor, VsphereConstants.NWSYSTEM_NWCONFIG);
+        } else if (_configManager == null) {
+            batch.add(_hostMor, VsphereConstants.HOST_CONFIGMANAGER_PROPERTYNAME);
+        }
+        if (hostNetwork) {
+            batch.add(_hostMor, VsphereConstants.HOST_NETWORKINFO_PROPERTYNAME);
+        }
+        for (ManagedObjectReference pg : portgroups) {
+            if (pg != null && !_portgroupKeys.containsKey(pg.getValue())) {
+                batch.add(pg, VsphereConstants.PORTGROUP_KEY);
+            }
+        }
+        PropertyBatch.Result result = batch.retrieve();
 
-            throw new HciServerException("Could not get HostNetworkInfo", e);
+        if (_configManager == null) {
+            _configManager = result.get(_hostMor,
+                    VsphereConstants.HOST_CONFIGMANAGER_PROPERTYNAME, HostConfigManager.class);
+        }
+        for (ManagedObjectReference pg : portgroups) {
+            String key = pg == null ? null
+                    : result.get(pg, VsphereConstants.PORTGROUP_KEY, String.class);
+            if (key != null) {
+                logger.debug("portgroup {} has key {}", pg.getValue(), key);
+                _portgroupKeys.put(pg.getValue(), key);
+            }
         }
+        HostNetworkInfo info = result.get(_hostMor,
+                VsphereConstants.HOST_NETWORKINFO_PROPERTYNAME, HostNetworkInfo.class);
+        if (info != null && !info.getProxySwitch().isEmpty()) {
+            _switchUuid = info.getProxySwitch().get(0).getDvsUuid();
+        }
+        HostNetworkConfig config = nwkMor == null ? null
+                : result.get(nwkMor, VsphereConstants.NWSYSTEM_NWCONFIG, HostNetworkConfig.class);
+        if (config != null && !config.getProxySwitch().isEmpty()) {
+            _switchUuid = config.getProxySwitch().get(0).getUuid();
+        }
+        return result;
     }
 
-    private List<HostVirtualNicConfig> buildHostVirtualNicConfig()
+    private String getSwitchUuid()
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        if (_switchUuid == null) {
+            prefetch(new PropertyBatch(_connection), true, false);
+        }
+        if (_switchUuid == null) {
+            throw new HciServerException("Host " + _hostMor.getValue()
+                    + " is not a member of a distributed switch");
+        }
+        return _switchUuid;
+    }
+
+    private String getPortGroupKey(ManagedObjectReference pg)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        if (!_portgroupKeys.containsKey(pg.getValue())) {
+            prefetch(new PropertyBatch(_connection), false, false, pg);
+        }
+        return _portgroupKeys.get(pg.getValue());
+    }
+
+    private HostNetworkInfo getHostNetworkInfo(PropertyBatch.Result result) {
+        HostNetworkInfo info = result.get(_hostMor,
+                VsphereConstants.HOST_NETWORKINFO_PROPERTYNAME, HostNetworkInfo.class);
+        if (info == null) {
+            throw new HciServerException("Could not get HostNetworkInfo");
+        }
+        return info;
+    }
+
+    private HostProxySwitchConfig getHostProxySwitchConfig(PropertyBatch.Result result)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        HostNetworkConfig hostNetworkConfig = result.get(getNetworkSystem(),
+                VsphereConstants.NWSYSTEM_NWCONFIG, HostNetworkConfig.class);
+        // for now, we only have one dvs, need to enhance this in future.
+        return hostNetworkConfig.getProxySwitch().get(0);
+    }
+
+    private List<HostVirtualNicConfig> buildHostVirtualNicConfig(HostNetworkInfo hostNwk)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         DistributedVirtualSwitchPortConnection dvsPortConnection =
                 new DistributedVirtualSwitchPortConnection();
-        dvsPortConnection.setPortgroupKey(VirtualDistributedSwitch
-                .getPortGroupKey(_connection, _dvMgmtPortgroupMor));
+        dvsPortConnection.setPortgroupKey(getPortGroupKey(_dvMgmtPortgroupMor));
         dvsPortConnection.setPortKey(null);
-        dvsPortConnection.setSwitchUuid(getHostProxySwitchConfig().getUuid());
+        dvsPortConnection.setSwitchUuid(getSwitchUuid());
 
         HostVirtualNicSpec updatedVnicSpec = new HostVirtualNicSpec();
         updatedVnicSpec.setDistributedVirtualPort(dvsPortConnection);
@@ -324,7 +496,7 @@ public class HostNetwork {
         List<HostVirtualNicConfig> vNicConfigList =
                 new ArrayList<HostVirtualNicConfig>();
 
-        List<HostVirtualNic> vnicListOnVss = getHostNetworkInfo().getVnic();
+        List<HostVirtualNic> vnicListOnVss = hostNwk.getVnic();
 
         for (HostVirtualNic vnic : vnicListOnVss) {
             HostVirtualNicConfig vNicConfig = new HostVirtualNicConfig();
@@ -338,8 +510,8 @@ public class HostNetwork {
         return vNicConfigList;
     }
 
-    private HostVirtualSwitchConfig buildHostVirtualSwitchConfig() {
-        HostVirtualSwitch vSwitch = getHostNetworkInfo().getVswitch().get(0);
+    private HostVirtualSwitchConfig buildHostVirtualSwitchConfig(HostNetworkInfo hostNwk) {
+        HostVirtualSwitch vSwitch = hostNwk.getVswitch().get(0);
         vSwitch.getSpec().getPolicy().getNicTeaming().getNicOrder()
                 .getStandbyNic().clear();
         vSwitch.getSpec().getPolicy().getNicTeaming().getNicOrder()
@@ -355,14 +527,14 @@ public class HostNetwork {
         return hvs;
     }
 
-    private List<DistributedVirtualSwitchHostMemberPnicSpec> buildPnicSpec()
-            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+    private List<DistributedVirtualSwitchHostMemberPnicSpec> buildPnicSpec(
+            HostNetworkInfo hostNwk, HostProxySwitchConfig proxySwitch) {
         // pnic in VSS and in Idle
         // mapping to free uplinkPortKey
         List<DistributedVirtualSwitchHostMemberPnicSpec> specList;
         specList = new ArrayList<>();
-        List<String> vssPnicList = getPnicFromVSS();
-        List<String> uplinkPortList = getIdleVdsUplinkPortKey();
+        List<String> vssPnicList = getPnicFromVSS(hostNwk);
+        List<String> uplinkPortList = getIdleVdsUplinkPortKey(hostNwk, proxySwitch);
 
         int loopNum = uplinkPortList.size();
         if (vssPnicList.size() < uplinkPortList.size()) {
@@ -380,23 +552,14 @@ public class HostNetwork {
         return specList;
     }
 
-    private List<PhysicalNic> getAllPnic() {
-        HostNetworkInfo info = getHostNetworkInfo();
-        // the string likes this: key-vim.host.PhysicalNic-vmnic0
-        return info.getPnic();
-    }
-
-    private List<String> getPnicFromVSS() {
-        HostNetworkInfo info = getHostNetworkInfo();
+    private List<String> getPnicFromVSS(HostNetworkInfo info) {
         HostVirtualSwitch vss = info.getVswitch().get(0);
         return ((HostVirtualSwitchBondBridge) vss.getSpec().getBridge())
                 .getNicDevice();
     }
 
-    private List<String> getIdleVdsUplinkPortKey()
-            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        HostProxySwitchConfig nwk = getHostProxySwitchConfig();
-
+    private List<String> getIdleVdsUplinkPortKey(HostNetworkInfo hostNwk,
+                                                 HostProxySwitchConfig nwk) {
         DistributedVirtualSwitchHostMemberPnicBacking pnicBacking = null;
         pnicBacking = (DistributedVirtualSwitchHostMemberPnicBacking) nwk
                 .getSpec().getBacking();
@@ -404,8 +567,6 @@ public class HostNetwork {
         List<DistributedVirtualSwitchHostMemberPnicSpec> pnicSpecList;
         pnicSpecList = pnicBacking.getPnicSpec();
 
-        HostNetworkInfo hostNwk = getHostNetworkInfo();
-
         for (DistributedVirtualSwitchHostMemberPnicSpec pnic : pnicSpecList) {
             logger.debug("pnic {} is banding to uplinkport {}",
                     pnic.getPnicDevice(), pnic.getUplinkPortKey());
@@ -432,53 +593,32 @@ public class HostNetwork {
         return idlePortList;
     }
 
-    private HostProxySwitchConfig buildHostProxySwitchConfig()
-            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        HostProxySwitchConfig original = null;
-        HostProxySwitchConfig update = null;
-        original = getHostProxySwitchConfig();
-        update = original;
+    private HostProxySwitchConfig buildHostProxySwitchConfig(HostNetworkInfo hostNwk,
+                                                             HostProxySwitchConfig original) {
+        // work out the pnic specs before the backing below is extended
+        List<DistributedVirtualSwitchHostMemberPnicSpec> pnicSpecs =
+                buildPnicSpec(hostNwk, original);
+        HostProxySwitchConfig update = original;
         update.setChangeOperation("edit");
 
         // add the new pnic based to the current backing list.
         DistributedVirtualSwitchHostMemberPnicBacking pnicBacking
                 = (DistributedVirtualSwitchHostMemberPnicBacking) update.getSpec().getBacking();
 
-        pnicBacking.getPnicSpec().addAll(buildPnicSpec());
+        pnicBacking.getPnicSpec().addAll(pnicSpecs);
         update.getSpec().setBacking(pnicBacking);
         return update;
     }
 
-    private HostProxySwitchConfig getHostProxySwitchConfig()
-            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        ManagedObjectReference nwkMor = getNetworkSystem();
-
-        PropertyCollector pc = new PropertyCollector(_connection);
-        HostNetworkConfig hostNetworkConfig = (HostNetworkConfig) pc
-                .getDynamicProperty(nwkMor, "networkConfig");
-        // for now, we only have one dvs, need to enhance this in future.
-        return hostNetworkConfig.getProxySwitch().get(0);
-    }
-
     public List<String> getIdlePNic(VsphereClient vcConnection,
                                     ManagedObjectReference hostMor)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
 
-        GetMOREF getMOREFs = new GetMOREF(vcConnection.getVimPort(),
-                vcConnection.getServiceContent());
-
-        HostConfigManager configManager = (HostConfigManager) getMOREFs
-                .entityProps(hostMor,
-                        new String[]{
-                                VsphereConstants.HOST_CONFIGMANAGER_PROPERTYNAME})
-                .get(VsphereConstants.HOST_CONFIGMANAGER_PROPERTYNAME);
-        ManagedObjectReference networkMor = configManager.getNetworkSystem();
-        HostNetworkInfo networkInfo =
-                (HostNetworkInfo) getMOREFs
-                        .entityProps(networkMor,
-                                new String[]{
-                                        VsphereConstants.NWSYSTEM_NWINFO})
-                        .get(VsphereConstants.NWSYSTEM_NWINFO);
+        HostNetworkInfo networkInfo = new PropertyBatch(vcConnection)
+                .add(hostMor, VsphereConstants.HOST_NETWORKINFO_PROPERTYNAME)
+                .retrieve()
+                .get(hostMor, VsphereConstants.HOST_NETWORKINFO_PROPERTYNAME,
+                        HostNetworkInfo.class);
 
         // remove the pNics that are connected to standard vSwitch
         List<HostVirtualSwitch> vSwitchList = networkInfo.getVswitch();
@@ -550,24 +690,25 @@ public class HostNetwork {
 
         ManagedObjectReference nwSystem;
         try {
-            nwSystem = getNetworkSystem();
-            DistributedVirtualSwitchPortConnection dvsPortConnect =
-                    new DistributedVirtualSwitchPortConnection();
+            ManagedObjectReference portgroupMor;
             if (vnicType.equals(HostVirtualNicManagerNicType.VSAN)) {
                 logger.info("VSAN portgroup: {}", this._dvVsanPortgroupMor);
-                dvsPortConnect.setPortgroupKey(VirtualDistributedSwitch
-                        .getPortGroupKey(_connection, this._dvVsanPortgroupMor));
-
+                portgroupMor = this._dvVsanPortgroupMor;
             } else if (vnicType.equals(HostVirtualNicManagerNicType.VMOTION)) {
                 logger.info("vMOTION portgroup: {}", this._dvVmotionPortgroupMor);
-                dvsPortConnect.setPortgroupKey(VirtualDistributedSwitch
-                        .getPortGroupKey(_connection, this._dvVmotionPortgroupMor));
+                portgroupMor = this._dvVmotionPortgroupMor;
             } else {
                 logger.info("Mgmt portgroup: {}", this._dvMgmtPortgroupMor);
-                dvsPortConnect.setPortgroupKey(VirtualDistributedSwitch
-                        .getPortGroupKey(_connection, this._dvMgmtPortgroupMor));
+                portgroupMor = this._dvMgmtPortgroupMor;
             }
-            dvsPortConnect.setSwitchUuid(getHostProxySwitchConfig().getUuid());
+            // config manager, switch uuid and portgroup key in one call
+            prefetch(new PropertyBatch(_connection), _switchUuid == null, false,
+                    portgroupMor);
+            nwSystem = getNetworkSystem();
+            DistributedVirtualSwitchPortConnection dvsPortConnect =
+                    new DistributedVirtualSwitchPortConnection();
+            dvsPortConnect.setPortgroupKey(getPortGroupKey(portgroupMor));
+            dvsPortConnect.setSwitchUuid(getSwitchUuid());
             vNicSpec.setDistributedVirtualPort(dvsPortConnect);
             String vnicName = _connection.getVimPort().addVirtualNic(nwSystem,
                     "", vNicSpec);
@@ -586,8 +727,7 @@ public class HostNetwork {
 
         try {
             PropertyCollector pc = new PropertyCollector(_connection);
-            HostConfigManager cfgMgr = (HostConfigManager) pc
-                    .getDynamicProperty(_hostMor, "configManager");
+            HostConfigManager cfgMgr = getConfigManager();
             // Should use VsanSystem.update to modify vsan settings.
             ManagedObjectReference vSanSystemMor = cfgMgr.getVsanSystem();
             VsanHostConfigInfo oldConfig =
@@ -673,9 +813,7 @@ public class HostNetwork {
             return;
         } else {
             try {
-                PropertyCollector pc = new PropertyCollector(_connection);
-                HostConfigManager cfgMgr = (HostConfigManager) pc
-                        .getDynamicProperty(_hostMor, "configManager");
+                HostConfigManager cfgMgr = getConfigManager();
                 ManagedObjectReference vNicMgrMor =
                         cfgMgr.getVirtualNicManager();
                 _connection.getVimPort().selectVnicForNicType(vNicMgrMor,
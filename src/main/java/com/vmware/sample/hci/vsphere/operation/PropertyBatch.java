@@ -0,0 +1,221 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.vsphere.operation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.vmware.sample.hci.connection.helpers.GetMOREF;
+import com.vmware.sample.hci.connection.helpers.builders.ObjectSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertyFilterSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertySpecBuilder;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.MissingProperty;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+
+/**
+ * Fetches properties of several managed objects in one round trip.
+ * <p>
+ * Every {@link #add} names an object and the property paths wanted from it.
+ * {@link #retrieve()} turns the requests into one PropertyFilterSpec per
+ * distinct type and path set, sends them in a single
+ * {@code RetrievePropertiesEx} and follows its continuation tokens. Values
+ * are converted like {@link PropertyCollector#getDynamicProperty}, so callers
+ * can swap a chain of those calls for one batch.
+ */
+public class PropertyBatch {
+    private static final Logger logger = LoggerFactory.getLogger(PropertyBatch.class);
+
+    private final VsphereClient connection;
+    private final Map<String, ManagedObjectReference> objects =
+            new LinkedHashMap<String, ManagedObjectReference>();
+    private final Map<String, Set<String>> paths = new HashMap<String, Set<String>>();
+
+    public PropertyBatch(VsphereClient connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Asks for the given properties of an object. Adding the same object
+     * again extends its paths.
+     */
+    public PropertyBatch add(ManagedObjectReference mor, String... propertyPaths) {
+        if (mor == null) {
+            throw new IllegalArgumentException("Could not get properties of a null mor.");
+        }
+        String key = key(mor);
+        Set<String> set = paths.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<String>();
+            paths.put(key, set);
+            objects.put(key, mor);
+        }
+        Collections.addAll(set, propertyPaths);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return objects.isEmpty();
+    }
+
+    /**
+     * The filter specs {@link #retrieve()} sends. Objects of the same type
+     * asking for the same paths share one spec, so no object is sent a
+     * property it did not ask for.
+     */
+    public List<PropertyFilterSpec> filterSpecs() {
+        Map<String, PropertyFilterSpecBuilder> specs =
+                new LinkedHashMap<String, PropertyFilterSpecBuilder>();
+        for (Map.Entry<String, ManagedObjectReference> entry : objects.entrySet()) {
+            ManagedObjectReference mor = entry.getValue();
+            Set<String> pathSet = paths.get(entry.getKey());
+            String group = mor.getType() + pathSet;
+            PropertyFilterSpecBuilder spec = specs.get(group);
+            if (spec == null) {
+                spec = new PropertyFilterSpecBuilder()
+                        .propSet(new PropertySpecBuilder()
+                                .all(Boolean.FALSE)
+                                .type(mor.getType())
+                                .addToPathSet(pathSet));
+                specs.put(group, spec);
+            }
+            spec.objectSet(new ObjectSpecBuilder().obj(mor).skip(Boolean.FALSE));
+        }
+        return new ArrayList<PropertyFilterSpec>(specs.values());
+    }
+
+    /**
+     * Sends the batch in one call, plus one per further page of results.
+     */
+    public Result retrieve() throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        Result result = new Result();
+        if (isEmpty()) {
+            return result;
+        }
+        ManagedObjectReference propertyCollector =
+                connection.getServiceContent().getPropertyCollector();
+        List<ObjectContent> contents = new ArrayList<ObjectContent>();
+        RetrieveResult page = connection.getVimPort().retrievePropertiesEx(
+                propertyCollector, filterSpecs(), new RetrieveOptions());
+        String token = GetMOREF.populate(page, contents);
+        while (token != null && !token.isEmpty()) {
+            page = connection.getVimPort().continueRetrievePropertiesEx(propertyCollector, token);
+            token = GetMOREF.populate(page, contents);
+        }
+        for (ObjectContent content : contents) {
+            result.add(content);
+        }
+        logger.debug("retrieved {} objects in one batch", contents.size());
+        return result;
+    }
+
+    /**
+     * Converts a property value the way {@link PropertyCollector#getDynamicProperty} does.
+     */
+    public static Object normalize(Object value) {
+        if (value instanceof ArrayOfManagedObjectReference) {
+            List<ManagedObjectReference> mors =
+                    ((ArrayOfManagedObjectReference) value).getManagedObjectReference();
+            return mors.toArray(new ManagedObjectReference[mors.size()]);
+        }
+        // enums come back as a DOM element, return their text
+        if (value instanceof Element) {
+            return ((Element) value).getFirstChild().getTextContent();
+        }
+        return value;
+    }
+
+    private static String key(ManagedObjectReference mor) {
+        return mor.getType() + ":" + mor.getValue();
+    }
+
+    /**
+     * Property values of a batch, by object and path. Paths the server did
+     * not return, because they are unset or could not be read, are absent.
+     */
+    public static class Result {
+        private final Map<String, Map<String, Object>> values =
+                new HashMap<String, Map<String, Object>>();
+
+        public void add(ObjectContent content) {
+            String key = key(content.getObj());
+            Map<String, Object> props = values.get(key);
+            if (props == null) {
+                props = new HashMap<String, Object>();
+                values.put(key, props);
+            }
+            if (content.getPropSet() != null) {
+                for (DynamicProperty dp : content.getPropSet()) {
+                    props.put(dp.getName(), normalize(dp.getVal()));
+                }
+            }
+            if (content.getMissingSet() != null) {
+                for (MissingProperty missing : content.getMissingSet()) {
+                    logger.debug("{} of {} is missing: {}", missing.getPath(),
+                            content.getObj().getValue(),
+                            missing.getFault() == null ? null
+                                    : missing.getFault().getClass().getSimpleName());
+                }
+            }
+        }
+
+        public boolean contains(ManagedObjectReference mor) {
+            return values.containsKey(key(mor));
+        }
+
+        public Object get(ManagedObjectReference mor, String path) {
+            Map<String, Object> props = values.get(key(mor));
+            return props == null ? null : props.get(path);
+        }
+
+        public <T> T get(ManagedObjectReference mor, String path, Class<T> type) {
+            Object value = get(mor, path);
+            if (value != null && !type.isInstance(value)) {
+                throw new ClassCastException(path + " of " + mor.getValue() + " is a "
+                        + value.getClass().getName() + ", not a " + type.getName());
+            }
+            return type.cast(value);
+        }
+
+        /**
+         * All values returned for an object; empty when it was not returned.
+         */
+        public Map<String, Object> getProperties(ManagedObjectReference mor) {
+            Map<String, Object> props = values.get(key(mor));
+            if (props == null) {
+                return Collections.emptyMap();
+            }
+            return Collections.unmodifiableMap(props);
+        }
+    }
+}
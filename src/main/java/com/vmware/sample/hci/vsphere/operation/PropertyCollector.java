@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
 
+import com.vmware.sample.hci.connection.helpers.builders.SpecTemplates;
 import com.vmware.sample.hci.vsphere.VsphereClient;
 import com.vmware.vim25.ArrayOfManagedObjectReference;
 import com.vmware.vim25.DynamicProperty;
@@ -28,9 +29,7 @@ import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.MethodFault;
 import com.vmware.vim25.ObjectContent;
-import com.vmware.vim25.ObjectSpec;
 import com.vmware.vim25.PropertyFilterSpec;
-import com.vmware.vim25.PropertySpec;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.TaskInfo;
 import com.vmware.vim25.TaskInfoState;
@@ -80,19 +79,10 @@ public class PropertyCollector {
 
         Object propertyValue = null;
 
-        PropertySpec propSpec = new PropertySpec();
-        propSpec.setAll(Boolean.FALSE);
-        propSpec.getPathSet().add(propertyName);
-        propSpec.setType(mor.getType());
-
-        ObjectSpec objSpec = new ObjectSpec();
-        objSpec.setObj(mor);
-        objSpec.setSkip(Boolean.FALSE);
-
-        PropertyFilterSpec[] pfs = new PropertyFilterSpec[1];
-        pfs[0] = new PropertyFilterSpec();
-        pfs[0].getObjectSet().add(objSpec);
-        pfs[0].getPropSet().add(propSpec);
+        PropertyFilterSpec[] pfs = {
+                SpecTemplates.get(mor.getType(), SpecTemplates.Traversal.NONE, propertyName)
+                        .bind(mor)
+        };
 
         ObjectContent[] objContentArr =
                 retrieveProperties(vcConnection, propertyCollectorMor, pfs);
@@ -158,7 +148,7 @@ public class PropertyCollector {
 
         List<ObjectContent> ObjectContentList =
                 vcConnection.getVimPort().retrieveProperties(mor,
-                        new Vector<PropertyFilterSpec>(Arrays.asList(pfs)));
+                        Arrays.asList(pfs));
 
         ObjectContent[] properties =
                 ObjectContentList.toArray(new ObjectContent[]{});
@@ -186,31 +176,9 @@ public class PropertyCollector {
     public ManagedObjectReference createFilter(ManagedObjectReference mor,
                                                String propertyName)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        Vector<String> property = new Vector<String>();
-        property.add(propertyName);
-
-        PropertySpec[] propSpec = new PropertySpec[1];
-        propSpec[0] = new PropertySpec();
-
-        propSpec[0].setAll(Boolean.FALSE);
-
-        propSpec[0].getPathSet().clear();
-        propSpec[0].getPathSet().addAll(property);
-        propSpec[0].setType(mor.getType());
-
-        Vector<ObjectSpec> objSpecList = new Vector<ObjectSpec>();
-        ObjectSpec objSpec = new ObjectSpec();
-        objSpec.setObj(mor);
-        objSpec.setSkip(Boolean.FALSE);
-        objSpecList.add(objSpec);
-
-        PropertyFilterSpec pfs = new PropertyFilterSpec();
-        pfs.getObjectSet().clear();
-        pfs.getObjectSet().addAll(objSpecList);
-
-        pfs.getPropSet().clear();
-        pfs.getPropSet()
-                .addAll(new Vector<PropertySpec>(Arrays.asList(propSpec)));
+        PropertyFilterSpec pfs =
+                SpecTemplates.get(mor.getType(), SpecTemplates.Traversal.NONE, propertyName)
+                        .bind(mor);
 
         boolean partialUpdates = false;
         return connection.getVimPort().createFilter(this.propertyCollectorMor,
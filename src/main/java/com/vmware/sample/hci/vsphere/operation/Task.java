@@ -14,29 +14,24 @@
 package com.vmware.sample.hci.vsphere.operation;
 
 import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.sample.hci.vsphere.journal.OperationJournal;
+import com.vmware.sample.hci.vsphere.utils.ProgressModel;
 import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.LocalizableMessage;
 import com.vmware.vim25.LocalizedMethodFault;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.MethodFault;
-import com.vmware.vim25.ObjectUpdate;
-import com.vmware.vim25.PropertyChange;
-import com.vmware.vim25.PropertyFilterUpdate;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.TaskInfo;
 import com.vmware.vim25.TaskInfoState;
-import com.vmware.vim25.UpdateSet;
-import com.vmware.vim25.WaitOptions;
 
 public class Task {
-    public static final int MAX_WAITFORUPDATE_SEC = 3;
-    public static final int MAX_WAITFORUPDATES_ATTEMPT = 30;
     private static final Logger logger = LoggerFactory.getLogger(Task.class);
     private VsphereClient mConnection;
     private PropertyCollector mPropCollector;
@@ -62,16 +57,7 @@ public class Task {
             // print error info
             if (taskInfo != null && taskInfo.getError() != null
                     && taskInfo.getError().getFault() != null) {
-                logger.error("----Error details of the task {} ----",
-                        taskInfo.getName());
-                logger.error(taskInfo.getError().toString());
-                Iterator<LocalizableMessage> it = taskInfo.getError().getFault()
-                        .getFaultMessage().iterator();
-                while (it.hasNext()) {
-                    logger.error(it.toString());
-                    it.next();
-                }
-                logger.error("---- End of Error details ------------");
+                logError(taskInfo);
             } else if (taskInfo == null) {
                 logger.error("Unable to get any taskInfo for the taskMor.");
             }
@@ -97,243 +83,56 @@ public class Task {
     }
 
     /**
-     * Monitor Task by doing updates on task
+     * Monitor Task by following its updates on the task tracker of the session
      *
      * @param mor Task ManagedObjectReference object
      * @return boolean true, on successful task completion false, if task failed
+     * or could not be monitored
      * @throws RuntimeFaultFaultMsg
      * @throws InvalidPropertyFaultMsg
      * @throws MethodFault,            Exception
      */
     public boolean monitorTask(ManagedObjectReference mor)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        boolean taskSuccess = true;
-        String methodInfo = "";
-        String entityName = null;
-        WaitOptions options = null;
-
-        /*
-         * Check task is part of managedentity.recentTask property
-         */
-        TaskInfo taskInfo = this.getTaskInfo(mor);
-        if (taskInfo != null) {
-            methodInfo = methodInfo + taskInfo.getName() + " | ";
-            /*
-             * Print the managed entity to which the operation applies
-             */
-            ManagedObjectReference entity = taskInfo.getEntity();
-
-            if (entity != null) {
-                try {
-                    entityName = getName(entity);
-                } catch (Exception fExcep) {
-                    logger.warn(
-                            "Could not get entity name, entity may not exist {}",
-                            entity.getValue());
-                    entityName = entity.getValue();
-                }
-                if (entityName != null) {
-                    logger.info(
-                            "Task Operation: {} | task id: {} | task type: {}",
-                            taskInfo.getName(),
-                            taskInfo.getKey(),
-                            taskInfo.getDescriptionId());
-                    logger.info(
-                            "{} Task defined on ManagedEntity. type = {}, name ={}",
-                            methodInfo, entity.getType(),
-                            entityName);
-                }
-            }
-
-            /*
-             * Monitor task progress
-             */
-            ManagedObjectReference filter = null;
-            try {
-                filter = mPropCollector.createFilter(mor,
-                        PropertyCollector.TASK_INFO_PROPERTYNAME);
-                logger.info("Filter for monitor task: " + "Type = "
-                        + filter.getType() + "Value = " + filter.getValue());
-                String updatesVersion = "";
-                boolean updateCompleted = false;
-
-                UpdateSet updateSet = null;
-                List<PropertyFilterUpdate> filterUpdate = null;
-
-                int maxWaitForUpdateAttempts = MAX_WAITFORUPDATES_ATTEMPT;
-
-                logger.info("Monitoring task begin");
-                options = new WaitOptions();
-                options.setMaxWaitSeconds(MAX_WAITFORUPDATE_SEC);
-
-                int noUpdateCounter = 0;
-                do {
-                    for (int i = 1; i <= maxWaitForUpdateAttempts + 1; i++) {
-                        try {
-                            updateSet = mPropCollector
-                                    .waitForUpdatesEx(updatesVersion, options);
-                            break;
-                        } catch (Exception exception) {
-                            logger.error("WaitForUpdatesEx error: ", exception);
-                            logger.warn(
-                                    "{} Attempt to waitforudpates again. Current Attempt = {}",
-                                    methodInfo, i);
-                        }
-                    }
-                    if (updateSet == null) {
-                        noUpdateCounter++;
-                        if (noUpdateCounter == MAX_WAITFORUPDATES_ATTEMPT) {
-                            throw new RuntimeException(
-                                    "Operation Timed Out. No update happened for over: "
-                                            + ((options.getMaxWaitSeconds()
-                                            / 60000)
-                                            * MAX_WAITFORUPDATES_ATTEMPT)
-                                            + " Minutes.");
-                        } else {
-                            logger.info("No update happened");
-                        }
-                    } else {
-                        noUpdateCounter = 0;
-                        logger.info("Received the update from VC.");
-                        updatesVersion = updateSet.getVersion();
-                        filterUpdate = updateSet.getFilterSet();
-                        TaskInfoState taskState =
-                                handlePropertyUpdateList(filterUpdate, mor);
-                        if (taskState != null) {
-                            if (TaskInfoState.SUCCESS.equals(taskState)) {
-                                taskSuccess = true;
-                                updateCompleted = true;
-                            } else if (TaskInfoState.ERROR.equals(taskState)) {
-                                taskSuccess = false;
-                                updateCompleted = true;
-                            }
-                        }
-                    }
-                    waitBetweenUpdateCheck();
-
-                } while (!updateCompleted);
-
-            } finally {
-                if (filter != null) {
-                    mPropCollector.destroyPropertyFilter(filter);
-                }
-            }
-            logger.info("Monitoring task end");
-        } else {
-            logger.error(
-                    "Could not monitor task because taskInfo property was null");
-            taskSuccess = false;
-        }
-        return taskSuccess;
-    }
-
-    private void waitBetweenUpdateCheck() {
-        int taskUpdateInSec = 1;
+        logger.info("Monitoring task {} begin", mor.getValue());
+        OperationJournal.noteTask(mor);
+        TaskInfo taskInfo;
         try {
-            if (taskUpdateInSec > 0) {
-                Thread.sleep(taskUpdateInSec * 1000);
-            }
-        } catch (Exception e) {
-            logger.error("Exception when waiting for task: ", e);
+            // the step of the calling thread, if any, follows the task percentages
+            taskInfo = mConnection.getTaskTracker().track(mor, ProgressModel.currentStep()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while monitoring task {}", mor.getValue());
+            return false;
+        } catch (ExecutionException e) {
+            // the task could not be followed, reported as a failure like a missing taskInfo was
+            logger.error("Could not monitor task {}: ", mor.getValue(), e.getCause());
+            return false;
         }
-    }
-
-    private TaskInfoState handlePropertyUpdateList(
-            List<PropertyFilterUpdate> updateList, ManagedObjectReference mor) {
-
-        TaskInfoState taskstate = null;
-        for (PropertyFilterUpdate update : updateList) {
-
-            List<ObjectUpdate> objUpdateList = update.getObjectSet();
-
-            if (objUpdateList == null) {
-                logger.warn("Return value of getObjectSet() is null");
-            }
-            if (objUpdateList != null
-                    && objUpdateList.get(0).getObj() == null) {
-                logger.warn("FilterUpdate objectset.object is null");
-            }
-            if (objUpdateList != null && objUpdateList.get(0).getObj() != null
-                    && objUpdateList.get(0).getObj().getValue()
-                    .equals(mor.getValue())) {
-                taskstate = handleObjUpdateList(objUpdateList, mor);
-            }
-
-            if (taskstate != null)
-                return taskstate;
+        LocalizedMethodFault fault = taskInfo.getError();
+        logger.info("{} | task id: {} | entity: {} | State = {} | Error = {} | Result = {}",
+                taskInfo.getName(), taskInfo.getKey(), taskInfo.getEntityName(),
+                taskInfo.getState(), fault == null ? "null" : fault.getLocalizedMessage(),
+                taskInfo.getResult());
+        if (fault != null) {
+            logError(taskInfo);
         }
-
-        return null;
-    }
-
-    private TaskInfoState handleObjUpdateList(List<ObjectUpdate> objUpdateList,
-                                              ManagedObjectReference mor) {
-        List<PropertyChange> propertyChange =
-                objUpdateList.get(0).getChangeSet();
-        if (propertyChange != null) {
-            return handlePropertyChangeSet(propertyChange, mor);
-        }
-
-        logger.warn("filterUpdate[i].getObjectSet()[0].getChangeSet() is null");
-        return null;
+        logger.info("Monitoring task end");
+        return TaskInfoState.SUCCESS.equals(taskInfo.getState());
     }
 
-    private TaskInfoState handlePropertyChangeSet(
-            List<PropertyChange> propertyChangeList,
-            ManagedObjectReference mor) {
-        TaskInfoState prevState = null;
-        TaskInfoState currState = null;
-        int taskPerc = 0;
-        int prevTaskPerc = 0;
-        boolean printedPercDesc = false;
-        TaskInfo taskInfo = getTaskInfo(mor);
-
-        String methodInfo = "";
-        methodInfo = methodInfo + taskInfo.getName() + " | ";
-
-        for (PropertyChange change : propertyChangeList) {
-            if (!change.getName()
-                    .equals(PropertyCollector.TASK_INFO_PROPERTYNAME)) {
-                logger.warn("propertyChange.getName() == {}, it should be {}",
-                        change.getName(),
-                        PropertyCollector.TASK_INFO_PROPERTYNAME);
-            } else {
-                taskInfo = (TaskInfo) change.getVal();
-                currState = taskInfo.getState();
-                /*
-                 * Print Task Progress
-                 */
-                if (!TaskInfoState.QUEUED.equals(currState)
-                        && taskInfo.getProgress() != null) {
-                    taskPerc = taskInfo.getProgress();
-                    if (!printedPercDesc) {
-                        printedPercDesc = true;
-                        logger.info("{} INFO : Task Progress {}", methodInfo,
-                                taskPerc);
-                    }
-                }
-                /*
-                 * Print Task State
-                 */
-                if (currState != prevState) {
-                    prevState = currState;
-                    LocalizedMethodFault fault = taskInfo.getError();
-                    String errorMessage = "null";
-                    if (fault != null) {
-                        errorMessage = fault.getLocalizedMessage();
-                    }
-                    logger.info("{} State = {} | Error = {} | Result = {}",
-                            methodInfo, taskInfo.getState(),
-                            errorMessage, taskInfo.getResult());
-                }
-
-                if (TaskInfoState.SUCCESS.equals(taskInfo.getState())
-                        || (TaskInfoState.ERROR.equals(taskInfo.getState()))) {
-                    // task completed, return from here.
-                    return taskInfo.getState();
-                }
+    private static void logError(TaskInfo taskInfo) {
+        logger.error("----Error details of the task {} ----",
+                taskInfo.getName());
+        logger.error(taskInfo.getError().toString());
+        if (taskInfo.getError().getFault() != null) {
+            Iterator<LocalizableMessage> it = taskInfo.getError().getFault()
+                    .getFaultMessage().iterator();
+            while (it.hasNext()) {
+                logger.error(it.toString());
+                it.next();
             }
         }
-        return null;
+        logger.error("---- End of Error details ------------");
     }
 }
@@ -0,0 +1,868 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.vsphere.operation;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.sample.hci.connection.EndpointGovernor;
+import com.vmware.sample.hci.connection.FaultClassifier;
+import com.vmware.sample.hci.connection.helpers.ContainerViewCache;
+import com.vmware.sample.hci.connection.helpers.builders.ObjectSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertyFilterSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertySpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.TraversalSpecBuilder;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.sample.hci.vsphere.exception.HciServerException;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.InvalidStateFaultMsg;
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Follows every task of a session with one PropertyCollector filter.
+ * <p>
+ * The tracker owns a private collector with a single filter over a
+ * ListView; {@link #track(ManagedObjectReference)} adds the task to the view
+ * and returns a future completed with its final {@link TaskInfo} as soon as
+ * the state becomes SUCCESS or ERROR. One thread waits for the updates of
+ * all tasks with {@code waitForUpdatesEx} on a port of its own, so adding a
+ * task wakes the wait right away and the TaskInfo arrives with the update
+ * instead of being read again. Finished tasks leave the view. The thread
+ * parks while no task is tracked.
+ * <p>
+ * {@link #waitAll(List, long, boolean)} and {@link #waitAny(List, long)}
+ * wait for a batch of tasks at once, so that tasks submitted together cost
+ * the time of the slowest one rather than the sum of all.
+ */
+public class TaskTracker implements Closeable {
+    private static final Logger logger =
+            LoggerFactory.getLogger(TaskTracker.class);
+
+    public static final int MAX_WAIT_SEC = 30;
+    public static final int MAX_WAIT_ATTEMPTS = 30;
+
+    private static final String INFO = "info";
+    private static final String TASK_TYPE = "Task";
+
+    private final BasicConnection connection;
+    private final VimPortType port;
+    private final VimPortType waitPort;
+    private final ServiceContent serviceContent;
+    private final String name;
+    private final Map<String, Tracked> tracked = new HashMap<String, Tracked>();
+
+    private ManagedObjectReference collector;
+    private ManagedObjectReference view;
+    private String version;
+    private int loginCount;
+    private Thread thread;
+    private boolean closed;
+    private long updatesReceived;
+
+    /**
+     * How a task of a batch ended.
+     */
+    public static final class Result {
+        public enum Outcome {
+            SUCCESS,
+            ERROR,
+            /** still running at the deadline, cancelled */
+            TIMED_OUT,
+            /** still running when another task failed, cancelled */
+            CANCELLED,
+            /** could not be followed */
+            FAILED
+        }
+
+        private final ManagedObjectReference task;
+        private final Outcome outcome;
+        private final TaskInfo info;
+        private final Throwable failure;
+
+        private Result(ManagedObjectReference task, Outcome outcome, TaskInfo info, Throwable failure) {
+            this.task = task;
+            this.outcome = outcome;
+            this.info = info;
+            this.failure = failure;
+        }
+
+        public ManagedObjectReference getTask() {
+            return task;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Final TaskInfo, null unless the task ended with SUCCESS or ERROR.
+         */
+        public TaskInfo getInfo() {
+            return info;
+        }
+
+        /**
+         * Why the task could not be followed, for {@link Outcome#FAILED}.
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccess() {
+            return outcome == Outcome.SUCCESS;
+        }
+    }
+
+    /**
+     * Told about the progress of a task, on the thread of the tracker.
+     * Implementations must return quickly.
+     */
+    public interface Listener {
+        /**
+         * @param percent progress reported by the server, 100 once the task ended
+         */
+        void onProgress(ManagedObjectReference task, int percent);
+    }
+
+    private static final class Tracked {
+        private final ManagedObjectReference task;
+        private final CompletableFuture<TaskInfo> future = new CompletableFuture<TaskInfo>();
+        private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+        private TaskInfo info;
+        private int reported = -1;
+
+        private Tracked(ManagedObjectReference task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * Tracker of the session of the client, waiting on a port of its own
+     * and logging in again when the session expired.
+     */
+    public TaskTracker(VsphereClient client) {
+        this.connection = client.getConnection();
+        this.port = client.getVimPort();
+        this.waitPort = connection.newSessionPort();
+        this.serviceContent = client.getServiceContent();
+        this.name = client.getIpAddress();
+    }
+
+    /**
+     * Tracker over the given ports of one session. {@code waitPort} must
+     * not be used by anybody else.
+     */
+    public TaskTracker(VimPortType port, VimPortType waitPort, ServiceContent serviceContent, String name) {
+        this.connection = null;
+        this.port = port;
+        this.waitPort = waitPort;
+        this.serviceContent = serviceContent;
+        this.name = name;
+    }
+
+    /**
+     * Future of the final TaskInfo of the task. Tracking a task twice
+     * returns the same future; cancelling it stops tracking the task.
+     */
+    public CompletableFuture<TaskInfo> track(ManagedObjectReference task) {
+        return track(task, null);
+    }
+
+    /**
+     * Like {@link #track(ManagedObjectReference)}, also telling the listener
+     * about the progress of the task as the updates arrive.
+     * <p>
+     * No call is made to the server with the lock of the tracker held: the
+     * task is added to the view after the lock is released, or by the
+     * thread of the tracker when it sets the collector up.
+     */
+    public CompletableFuture<TaskInfo> track(ManagedObjectReference task, Listener listener) {
+        final Tracked entry;
+        ManagedObjectReference currentView;
+        synchronized (this) {
+            if (closed) {
+                throw new HciServerException("task tracker of " + name + " is closed");
+            }
+            Tracked existing = tracked.get(task.getValue());
+            if (existing != null) {
+                if (listener != null) {
+                    existing.listeners.add(listener);
+                }
+                return existing.future;
+            }
+            entry = new Tracked(task);
+            if (listener != null) {
+                entry.listeners.add(listener);
+            }
+            tracked.put(task.getValue(), entry);
+            currentView = collector == null || isStale() ? null : view;
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop();
+                    }
+                }, "task-tracker-" + name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notifyAll();
+        }
+        if (currentView != null) {
+            try {
+                port.modifyListView(currentView, Collections.singletonList(task),
+                        Collections.<ManagedObjectReference>emptyList());
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                if (e instanceof RuntimeFaultFaultMsg && ContainerViewCache.isStaleView((RuntimeFaultFaultMsg) e)) {
+                    // the task stays tracked, the loop adds it to the new view
+                    dropView(currentView);
+                } else {
+                    synchronized (this) {
+                        if (tracked.get(task.getValue()) == entry) {
+                            tracked.remove(task.getValue());
+                        }
+                    }
+                    entry.future.completeExceptionally(
+                            new HciServerException("could not track task " + task.getValue(), e));
+                    return entry.future;
+                }
+            }
+        }
+        entry.future.whenComplete(new BiConsumer<TaskInfo, Throwable>() {
+            @Override
+            public void accept(TaskInfo info, Throwable t) {
+                if (entry.future.isCancelled()) {
+                    untrack(entry);
+                }
+            }
+        });
+        return entry.future;
+    }
+
+    /**
+     * Waits for all tasks, at most until the deadline.
+     * <p>
+     * Tasks still running at the deadline, or when another one failed with
+     * {@code failFast}, are cancelled on the server and no longer tracked.
+     * Cancelling is best effort: a task which cannot be cancelled keeps
+     * running.
+     *
+     * @param timeoutMillis time allowed for the whole batch, 0 for no deadline
+     * @param failFast      stop at the first task ending with ERROR
+     * @return the result of each task, in the order of {@code tasks}
+     */
+    public List<Result> waitAll(List<ManagedObjectReference> tasks, long timeoutMillis, boolean failFast) {
+        return waitAll(tasks, timeoutMillis, failFast, null);
+    }
+
+    /**
+     * Like {@link #waitAll(List, long, boolean)}, also telling the listener
+     * about the progress of every task.
+     */
+    public List<Result> waitAll(List<ManagedObjectReference> tasks, long timeoutMillis, boolean failFast,
+                                Listener listener) {
+        long deadline = deadline(timeoutMillis);
+        final List<CompletableFuture<TaskInfo>> futures = new ArrayList<CompletableFuture<TaskInfo>>(tasks.size());
+        for (ManagedObjectReference task : tasks) {
+            futures.add(track(task, listener));
+        }
+        final boolean stopOnError = failFast;
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        if (futures.isEmpty()) {
+            done.complete(null);
+        }
+        for (CompletableFuture<TaskInfo> future : futures) {
+            future.whenComplete(new BiConsumer<TaskInfo, Throwable>() {
+                @Override
+                public void accept(TaskInfo info, Throwable t) {
+                    if (stopOnError && (t != null || TaskInfoState.ERROR.equals(info.getState()))) {
+                        done.complete(null);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        done.complete(null);
+                    }
+                }
+            });
+        }
+        boolean timedOut = !await(done, deadline);
+
+        List<Result> results = new ArrayList<Result>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            CompletableFuture<TaskInfo> future = futures.get(i);
+            if (future.isDone() && !future.isCancelled()) {
+                results.add(result(tasks.get(i), future));
+                continue;
+            }
+            ManagedObjectReference task = tasks.get(i);
+            logger.info("cancelling task {} of {}, {}", task.getValue(), name,
+                    timedOut ? "the deadline passed" : "another task failed");
+            future.cancel(false);
+            cancelTask(task);
+            results.add(new Result(task, timedOut ? Result.Outcome.TIMED_OUT : Result.Outcome.CANCELLED,
+                    null, null));
+        }
+        return results;
+    }
+
+    /**
+     * Waits until one of the tasks ends, at most until the deadline. The
+     * other tasks keep running and stay tracked.
+     *
+     * @param timeoutMillis time allowed, 0 for no deadline
+     * @return the first task to end, or null when none did before the deadline
+     */
+    public Result waitAny(List<ManagedObjectReference> tasks, long timeoutMillis) {
+        long deadline = deadline(timeoutMillis);
+        List<CompletableFuture<TaskInfo>> futures = new ArrayList<CompletableFuture<TaskInfo>>(tasks.size());
+        for (ManagedObjectReference task : tasks) {
+            futures.add(track(task));
+        }
+        if (futures.isEmpty()
+                || !await(CompletableFuture.anyOf(futures.toArray(new CompletableFuture<?>[0])), deadline)) {
+            return null;
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            if (futures.get(i).isDone()) {
+                return result(tasks.get(i), futures.get(i));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of tasks not finished yet.
+     */
+    public synchronized int size() {
+        return tracked.size();
+    }
+
+    /**
+     * Number of object updates received since the tracker was created.
+     */
+    public synchronized long getUpdatesReceived() {
+        return updatesReceived;
+    }
+
+    /**
+     * Stops the thread, destroys the collector and the view and fails the
+     * futures of the tasks still running.
+     */
+    @Override
+    public void close() {
+        List<Tracked> pending;
+        ManagedObjectReference oldCollector;
+        ManagedObjectReference oldView;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = new ArrayList<Tracked>(tracked.values());
+            tracked.clear();
+            oldCollector = isStale() ? null : collector;
+            oldView = view;
+            collector = null;
+            view = null;
+            notifyAll();
+        }
+        if (oldCollector != null) {
+            try {
+                port.cancelWaitForUpdates(oldCollector);
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                logger.debug("could not cancel the wait of {}: {}", name, e.getMessage());
+            }
+            destroy(oldCollector, oldView);
+        }
+        for (Tracked entry : pending) {
+            entry.future.completeExceptionally(
+                    new HciServerException("task tracker of " + name + " is closed"));
+        }
+    }
+
+    private static long deadline(long timeoutMillis) {
+        return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    /**
+     * @return false if the deadline passed first
+     */
+    private static boolean await(CompletableFuture<?> future, long deadline) {
+        try {
+            if (deadline == 0) {
+                future.get();
+            } else {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HciServerException("interrupted while waiting for tasks", e);
+        }
+    }
+
+    private static Result result(ManagedObjectReference task, CompletableFuture<TaskInfo> future) {
+        try {
+            TaskInfo info = future.get();
+            return new Result(task, TaskInfoState.SUCCESS.equals(info.getState())
+                    ? Result.Outcome.SUCCESS : Result.Outcome.ERROR, info, null);
+        } catch (ExecutionException e) {
+            return new Result(task, Result.Outcome.FAILED, null, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HciServerException("interrupted while waiting for tasks", e);
+        }
+    }
+
+    private void cancelTask(ManagedObjectReference task) {
+        try {
+            port.cancelTask(task);
+        } catch (InvalidStateFaultMsg | RuntimeFaultFaultMsg | RuntimeException e) {
+            logger.warn("could not cancel task {} of {}: {}", task.getValue(), name, e.getMessage());
+        }
+    }
+
+    private void loop() {
+        WaitOptions options = new WaitOptions();
+        options.setMaxWaitSeconds(MAX_WAIT_SEC);
+        int failures = 0;
+        while (true) {
+            ManagedObjectReference waitCollector;
+            String waitVersion;
+            List<ManagedObjectReference> viewTasks = null;
+            synchronized (this) {
+                while (!closed && tracked.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                if (collector == null || isStale()) {
+                    viewTasks = new ArrayList<ManagedObjectReference>(tracked.size());
+                    for (Tracked entry : tracked.values()) {
+                        viewTasks.add(entry.task);
+                    }
+                }
+                waitCollector = collector;
+                waitVersion = version;
+            }
+            if (viewTasks != null) {
+                setUp(viewTasks);
+                continue;
+            }
+
+            UpdateSet updates;
+            try {
+                updates = waitPort.waitForUpdatesEx(waitCollector, waitVersion, options);
+                failures = 0;
+            } catch (InvalidCollectorVersionFaultMsg e) {
+                synchronized (this) {
+                    version = "";
+                }
+                continue;
+            } catch (Exception e) {
+                if (!recover(e, ++failures)) {
+                    return;
+                }
+                continue;
+            }
+            if (updates == null) {
+                continue;
+            }
+
+            List<Tracked> finished = new ArrayList<Tracked>();
+            Map<Tracked, Integer> progressed = new LinkedHashMap<Tracked, Integer>();
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (waitCollector != collector) {
+                    continue;
+                }
+                version = updates.getVersion();
+                apply(updates, finished, progressed);
+            }
+            report(progressed);
+            finish(finished);
+        }
+    }
+
+    private void apply(UpdateSet updates, List<Tracked> finished, Map<Tracked, Integer> progressed) {
+        for (PropertyFilterUpdate filterUpdate : updates.getFilterSet()) {
+            for (ObjectUpdate update : filterUpdate.getObjectSet()) {
+                updatesReceived++;
+                Tracked entry = tracked.get(update.getObj().getValue());
+                if (entry == null) {
+                    continue;
+                }
+                if (update.getKind() == ObjectUpdateKind.LEAVE) {
+                    tracked.remove(entry.task.getValue());
+                    entry.future.completeExceptionally(new HciServerException(
+                            "task " + entry.task.getValue() + " is gone"));
+                    continue;
+                }
+                for (PropertyChange change : update.getChangeSet()) {
+                    entry.info = applyChange(entry.info, change);
+                }
+                if (entry.info == null) {
+                    continue;
+                }
+                boolean done = isDone(entry.info.getState());
+                Integer percent = done ? Integer.valueOf(100) : entry.info.getProgress();
+                if (percent != null && percent != entry.reported && !entry.listeners.isEmpty()) {
+                    entry.reported = percent;
+                    progressed.put(entry, percent);
+                }
+                if (done) {
+                    tracked.remove(entry.task.getValue());
+                    finished.add(entry);
+                }
+            }
+        }
+    }
+
+    private void report(Map<Tracked, Integer> progressed) {
+        for (Map.Entry<Tracked, Integer> progress : progressed.entrySet()) {
+            for (Listener listener : progress.getKey().listeners) {
+                try {
+                    listener.onProgress(progress.getKey().task, progress.getValue());
+                } catch (RuntimeException e) {
+                    logger.warn("task listener failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the finished tasks out of the view and completes their futures.
+     */
+    private void finish(List<Tracked> finished) {
+        if (finished.isEmpty()) {
+            return;
+        }
+        List<ManagedObjectReference> remove = new ArrayList<ManagedObjectReference>(finished.size());
+        for (Tracked entry : finished) {
+            remove.add(entry.task);
+        }
+        removeFromView(waitPort, remove);
+        for (Tracked entry : finished) {
+            entry.future.complete(entry.info);
+        }
+    }
+
+    private void untrack(Tracked entry) {
+        synchronized (this) {
+            if (tracked.get(entry.task.getValue()) != entry) {
+                return;
+            }
+            tracked.remove(entry.task.getValue());
+        }
+        removeFromView(port, Collections.singletonList(entry.task));
+    }
+
+    private void removeFromView(VimPortType viewPort, List<ManagedObjectReference> tasks) {
+        ManagedObjectReference currentView;
+        synchronized (this) {
+            currentView = view;
+        }
+        if (currentView == null) {
+            return;
+        }
+        try {
+            viewPort.modifyListView(currentView, Collections.<ManagedObjectReference>emptyList(), tasks);
+        } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+            logger.debug("could not remove {} tasks from the view of {}: {}",
+                    tasks.size(), name, e.getMessage());
+        }
+    }
+
+    /**
+     * Handles a failed wait.
+     *
+     * @return false when the tracker was closed meanwhile
+     */
+    private boolean recover(Exception e, int attempt) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+        }
+        if (connection != null && VsphereClient.isNotAuthenticated(e)) {
+            int logins;
+            synchronized (this) {
+                logins = loginCount;
+            }
+            synchronized (connection) {
+                // another port may already have renewed the session
+                if (connection.getLoginCount() == logins) {
+                    logger.info("session to {} expired, logging in again", name);
+                    connection.reconnect();
+                }
+            }
+            connection.attachSession(waitPort);
+            return true;
+        }
+        if (e instanceof RuntimeFaultFaultMsg && ContainerViewCache.isStaleView((RuntimeFaultFaultMsg) e)) {
+            logger.info("task collector of {} is gone, creating it again", name);
+            ManagedObjectReference oldView;
+            synchronized (this) {
+                oldView = view;
+                collector = null;
+                view = null;
+            }
+            destroy(null, oldView);
+            return true;
+        }
+        if (FaultClassifier.isRetryable(e) && attempt <= MAX_WAIT_ATTEMPTS) {
+            logger.warn("waiting for task updates of {} failed, attempt {}: {}", name, attempt, e.getMessage());
+            try {
+                Thread.sleep(EndpointGovernor.backoffMillis(attempt));
+            } catch (InterruptedException ie) {
+                return false;
+            }
+            return true;
+        }
+        logger.error("waiting for task updates of {} failed", name, e);
+        ManagedObjectReference oldCollector;
+        ManagedObjectReference oldView;
+        synchronized (this) {
+            oldCollector = isStale() ? null : collector;
+            oldView = view;
+            collector = null;
+            view = null;
+            failAll(e);
+        }
+        destroy(oldCollector, oldView);
+        return true;
+    }
+
+    /**
+     * Drops the collector of a view the server no longer knows, so that the
+     * loop creates both again with every tracked task. Destroying the
+     * collector ends the wait of the loop on it.
+     */
+    private void dropView(ManagedObjectReference staleView) {
+        ManagedObjectReference oldCollector;
+        synchronized (this) {
+            if (view != staleView || collector == null) {
+                return;
+            }
+            logger.info("task view of {} is gone, creating it again", name);
+            oldCollector = isStale() ? null : collector;
+            collector = null;
+            view = null;
+        }
+        destroy(oldCollector, null);
+    }
+
+    private void failAll(Exception e) {
+        for (Tracked entry : tracked.values()) {
+            entry.future.completeExceptionally(
+                    new HciServerException("could not monitor task " + entry.task.getValue(), e));
+        }
+        tracked.clear();
+    }
+
+    private boolean isStale() {
+        return connection != null && loginCount != connection.getLoginCount();
+    }
+
+    /**
+     * Creates the collector, the view of the tasks and the filter, without
+     * the lock, then puts them in place and brings the view in line with
+     * the tasks tracked or untracked meanwhile. The objects of an older
+     * session are gone with it.
+     */
+    private void setUp(List<ManagedObjectReference> tasks) {
+        int logins = connection == null ? 0 : connection.getLoginCount();
+        ManagedObjectReference newCollector = null;
+        ManagedObjectReference newView = null;
+        try {
+            newCollector = port.createPropertyCollector(serviceContent.getPropertyCollector());
+            newView = port.createListView(serviceContent.getViewManager(), tasks);
+            port.createFilter(newCollector, filterSpec(newView), true);
+        } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg | RuntimeException e) {
+            destroy(newCollector, newView);
+            Exception cause = e instanceof InvalidPropertyFaultMsg
+                    ? new HciServerException("could not create the task filter of " + name, e) : e;
+            synchronized (this) {
+                collector = null;
+                failAll(cause);
+            }
+            return;
+        }
+        List<ManagedObjectReference> added = new ArrayList<ManagedObjectReference>();
+        List<ManagedObjectReference> removed = new ArrayList<ManagedObjectReference>();
+        boolean installed = false;
+        synchronized (this) {
+            if (!closed) {
+                installed = true;
+                loginCount = logins;
+                collector = newCollector;
+                view = newView;
+                version = "";
+                Map<String, ManagedObjectReference> inView = new HashMap<String, ManagedObjectReference>();
+                for (ManagedObjectReference task : tasks) {
+                    inView.put(task.getValue(), task);
+                }
+                for (Tracked entry : tracked.values()) {
+                    if (inView.remove(entry.task.getValue()) == null) {
+                        added.add(entry.task);
+                    }
+                }
+                removed.addAll(inView.values());
+            }
+        }
+        if (!installed) {
+            destroy(newCollector, newView);
+            return;
+        }
+        logger.debug("task collector of {} created with {} tasks", name, tasks.size());
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        try {
+            port.modifyListView(newView, added, removed);
+        } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+            logger.warn("could not update the view of {}, creating it again: {}", name, e.getMessage());
+            boolean dropped = false;
+            synchronized (this) {
+                if (collector == newCollector) {
+                    collector = null;
+                    view = null;
+                    dropped = true;
+                }
+            }
+            if (dropped) {
+                destroy(newCollector, newView);
+            }
+        }
+    }
+
+    /**
+     * Destroys a collector and a view, each on its own so that a failure to
+     * destroy one does not leave the other behind.
+     */
+    private void destroy(ManagedObjectReference oldCollector, ManagedObjectReference oldView) {
+        if (oldCollector != null) {
+            try {
+                port.destroyPropertyCollector(oldCollector);
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                logger.debug("could not destroy the task collector of {}: {}", name, e.getMessage());
+            }
+        }
+        if (oldView != null) {
+            try {
+                port.destroyView(oldView);
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                logger.debug("could not destroy the task view of {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    private static PropertyFilterSpec filterSpec(ManagedObjectReference view) {
+        return new PropertyFilterSpecBuilder()
+                .propSet(new PropertySpecBuilder()
+                        .all(Boolean.FALSE)
+                        .type(TASK_TYPE)
+                        .pathSet(INFO))
+                .objectSet(new ObjectSpecBuilder()
+                        .obj(view)
+                        .skip(Boolean.TRUE)
+                        .selectSet(new TraversalSpecBuilder()
+                                .name("view")
+                                .path("view")
+                                .skip(false)
+                                .type("ListView")));
+    }
+
+    /**
+     * Applies a change of the info property, which the server may report
+     * for the whole TaskInfo or for one of its fields.
+     */
+    static TaskInfo applyChange(TaskInfo info, PropertyChange change) {
+        String path = change.getName();
+        boolean removed = change.getOp() == PropertyChangeOp.REMOVE
+                || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE;
+        Object val = removed ? null : change.getVal();
+        if (INFO.equals(path)) {
+            return (TaskInfo) val;
+        }
+        if (info == null || !path.startsWith(INFO + ".")) {
+            return info;
+        }
+        String field = path.substring(INFO.length() + 1);
+        if ("state".equals(field)) {
+            info.setState((TaskInfoState) val);
+        } else if ("progress".equals(field)) {
+            info.setProgress((Integer) val);
+        } else if ("error".equals(field)) {
+            info.setError((LocalizedMethodFault) val);
+        } else if ("result".equals(field)) {
+            info.setResult(val);
+        } else if ("completeTime".equals(field)) {
+            info.setCompleteTime((XMLGregorianCalendar) val);
+        } else if ("startTime".equals(field)) {
+            info.setStartTime((XMLGregorianCalendar) val);
+        } else if ("cancelled".equals(field)) {
+            info.setCancelled(Boolean.TRUE.equals(val));
+        }
+        return info;
+    }
+
+    static boolean isDone(TaskInfoState state) {
+        return TaskInfoState.SUCCESS.equals(state) || TaskInfoState.ERROR.equals(state);
+    }
+}
@@ -161,8 +161,13 @@ public class VirtualDistributedSwitch {
             InvalidStateFaultMsg, LimitExceededFaultMsg, NotFoundFaultMsg,
             ResourceInUseFaultMsg, ResourceNotAvailableFaultMsg {
 
+        // the config carries both the version and the uplink portgroups
+        DVSConfigInfo dvsConfig = getDVSConfig(vcConnection, dvsMor);
+        if (dvsConfig == null || dvsConfig.getUplinkPortgroup().isEmpty()) {
+            throw new HciServerException("Could not get the config of dvs " + dvsMor.getValue());
+        }
         DVSConfigSpec cs = new DVSConfigSpec();
-        cs.setConfigVersion(getConfigVersion(vcConnection, dvsMor));
+        cs.setConfigVersion(dvsConfig.getConfigVersion());
 
         DistributedVirtualSwitchHostMemberConfigSpec hostSpec =
                 new DistributedVirtualSwitchHostMemberConfigSpec();
@@ -176,8 +181,7 @@ public class VirtualDistributedSwitch {
         // select the available pNic and uplinks pair from the host.
 
         List<String> pNicForUplinks = hnw.getIdlePNic(vcConnection, hostMor);
-        ManagedObjectReference uplinkMor =
-                getUplinkPortgroups(vcConnection, dvsMor).get(0);
+        ManagedObjectReference uplinkMor = dvsConfig.getUplinkPortgroup().get(0);
         String uplinkPortgroupkey = uplinkMor.getValue();
         for (String pNicName : pNicForUplinks) {
             DistributedVirtualSwitchHostMemberPnicSpec hostPnicSpec =
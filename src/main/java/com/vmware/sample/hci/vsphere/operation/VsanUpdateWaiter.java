@@ -0,0 +1,494 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere.operation;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.sample.hci.connection.EndpointGovernor;
+import com.vmware.sample.hci.connection.FaultClassifier;
+import com.vmware.sample.hci.connection.helpers.ContainerViewCache;
+import com.vmware.sample.hci.connection.helpers.builders.ObjectSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertyFilterSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertySpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.TraversalSpecBuilder;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.sample.hci.vsphere.exception.HciServerException;
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Waits for the vSAN update tasks of many hosts at once, with one
+ * PropertyCollector filter.
+ * <p>
+ * The filter starts at a ListView of the hosts and follows
+ * {@code HostSystem.recentTask} to the tasks, so a single
+ * {@code waitForUpdatesEx} reports the name of every host, each task as it
+ * enters the recent tasks of a host and every change of its info. The wait
+ * ends once the initial state has arrived and no vSAN update task of any
+ * host is queued or running; tasks appearing meanwhile are waited for too.
+ * Nothing is read task by task.
+ */
+public class VsanUpdateWaiter implements Closeable {
+    private static final Logger logger =
+            LoggerFactory.getLogger(VsanUpdateWaiter.class);
+
+    public static final String VSAN_UPDATE_DESCRIPTION = "host.VsanSystem.update";
+
+    private static final String HOST_TYPE = "HostSystem";
+    private static final String TASK_TYPE = "Task";
+    private static final String NAME = "name";
+    private static final String RECENT_TASK = "recentTask";
+    private static final String INFO = "info";
+
+    private final BasicConnection connection;
+    private final VimPortType port;
+    private final VimPortType waitPort;
+    private final ServiceContent serviceContent;
+    private final String name;
+    private final Map<String, HostState> hosts = new LinkedHashMap<String, HostState>();
+    private final Map<String, TaskState> tasks = new LinkedHashMap<String, TaskState>();
+
+    private ManagedObjectReference collector;
+    private ManagedObjectReference view;
+    private String version;
+    private int loginCount;
+    private TaskTracker.Listener listener;
+
+    /**
+     * The vSAN update tasks of one host.
+     */
+    public static final class HostResult {
+        private final ManagedObjectReference host;
+        private final String hostName;
+        private final List<TaskInfo> tasks;
+        private final boolean finished;
+
+        private HostResult(ManagedObjectReference host, String hostName, List<TaskInfo> tasks, boolean finished) {
+            this.host = host;
+            this.hostName = hostName;
+            this.tasks = tasks;
+            this.finished = finished;
+        }
+
+        public ManagedObjectReference getHost() {
+            return host;
+        }
+
+        /**
+         * Name of the host, or the value of its reference if it was not reported.
+         */
+        public String getHostName() {
+            return hostName;
+        }
+
+        /**
+         * Last known info of the vSAN update tasks of the host, null for a
+         * task which left the recent tasks before its end was seen.
+         */
+        public List<TaskInfo> getTasks() {
+            return tasks;
+        }
+
+        /**
+         * False if a task was still running at the deadline.
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public boolean isSuccess() {
+            if (!finished) {
+                return false;
+            }
+            for (TaskInfo info : tasks) {
+                if (info == null || !TaskInfoState.SUCCESS.equals(info.getState())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class HostState {
+        private final ManagedObjectReference host;
+        private String name;
+
+        private HostState(ManagedObjectReference host) {
+            this.host = host;
+        }
+    }
+
+    private static final class TaskState {
+        private final ManagedObjectReference task;
+        private String host;
+        private TaskInfo info;
+        private boolean lost;
+        private int reported = -1;
+
+        private TaskState(ManagedObjectReference task) {
+            this.task = task;
+        }
+
+        private boolean isVsanUpdate() {
+            return info != null && VSAN_UPDATE_DESCRIPTION.equalsIgnoreCase(info.getDescriptionId());
+        }
+
+        private boolean isDone() {
+            return lost || (info != null && TaskTracker.isDone(info.getState()));
+        }
+    }
+
+    /**
+     * Waiter on the session of the client, waiting on a port of its own.
+     */
+    public VsanUpdateWaiter(VsphereClient client, List<ManagedObjectReference> hostMors) {
+        this.connection = client.getConnection();
+        this.port = client.getVimPort();
+        this.waitPort = connection.newSessionPort();
+        this.serviceContent = client.getServiceContent();
+        this.name = client.getIpAddress();
+        addHosts(hostMors);
+    }
+
+    /**
+     * Waiter over the given ports of one session. {@code waitPort} must
+     * not be used by anybody else.
+     */
+    public VsanUpdateWaiter(VimPortType port, VimPortType waitPort, ServiceContent serviceContent,
+                            String name, List<ManagedObjectReference> hostMors) {
+        this.connection = null;
+        this.port = port;
+        this.waitPort = waitPort;
+        this.serviceContent = serviceContent;
+        this.name = name;
+        addHosts(hostMors);
+    }
+
+    private void addHosts(List<ManagedObjectReference> hostMors) {
+        for (ManagedObjectReference host : hostMors) {
+            hosts.put(host.getValue(), new HostState(host));
+        }
+    }
+
+    /**
+     * Tells the listener about the progress of the vSAN update tasks.
+     */
+    public void setListener(TaskTracker.Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Waits until no vSAN update task of the hosts is queued or running.
+     *
+     * @param timeoutMillis 0 to wait without a deadline
+     * @return the result of each host, in the order of the hosts given
+     */
+    public List<HostResult> waitForUpdates(long timeoutMillis) {
+        long deadline = timeoutMillis > 0
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        WaitOptions options = new WaitOptions();
+        int failures = 0;
+        boolean initialized = false;
+        while (!initialized || isRunning()) {
+            int waitSec = TaskTracker.MAX_WAIT_SEC;
+            if (deadline != 0) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    logger.warn("vSAN update tasks on {} still running at the deadline", name);
+                    break;
+                }
+                waitSec = (int) Math.min(waitSec, Math.max(1, left / 1000));
+            }
+            options.setMaxWaitSeconds(waitSec);
+            UpdateSet updates;
+            try {
+                if (collector == null) {
+                    setUp();
+                }
+                updates = waitPort.waitForUpdatesEx(collector, version, options);
+                failures = 0;
+            } catch (InvalidCollectorVersionFaultMsg e) {
+                version = "";
+                initialized = false;
+                continue;
+            } catch (Exception e) {
+                recover(e, ++failures);
+                // a new collector reports the whole state again
+                initialized &= collector != null;
+                continue;
+            }
+            if (updates == null) {
+                continue;
+            }
+            version = updates.getVersion();
+            apply(updates);
+            if (!Boolean.TRUE.equals(updates.isTruncated())) {
+                initialized = true;
+            }
+        }
+        return results();
+    }
+
+    /**
+     * Destroys the collector and the view of the hosts.
+     */
+    @Override
+    public void close() {
+        destroy(collector, view);
+        collector = null;
+        view = null;
+    }
+
+    /**
+     * Destroys what exists of a collector and a view, each on its own so
+     * that a failure to destroy one does not leave the other behind.
+     */
+    private void destroy(ManagedObjectReference oldCollector, ManagedObjectReference oldView) {
+        if (oldCollector != null) {
+            try {
+                port.destroyPropertyCollector(oldCollector);
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                logger.debug("could not destroy the vSAN task collector of {}: {}", name, e.getMessage());
+            }
+        }
+        if (oldView != null) {
+            try {
+                port.destroyView(oldView);
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                logger.debug("could not destroy the host view of {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    private boolean isRunning() {
+        for (TaskState state : tasks.values()) {
+            if (state.isVsanUpdate() && !state.isDone()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<HostResult> results() {
+        Map<String, List<TaskInfo>> byHost = new LinkedHashMap<String, List<TaskInfo>>();
+        Map<String, Boolean> finished = new LinkedHashMap<String, Boolean>();
+        for (TaskState state : tasks.values()) {
+            if (!state.isVsanUpdate() || state.host == null) {
+                continue;
+            }
+            List<TaskInfo> infos = byHost.get(state.host);
+            if (infos == null) {
+                infos = new ArrayList<TaskInfo>();
+                byHost.put(state.host, infos);
+            }
+            infos.add(state.lost ? null : state.info);
+            if (!state.isDone()) {
+                finished.put(state.host, Boolean.FALSE);
+            }
+        }
+        List<HostResult> results = new ArrayList<HostResult>(hosts.size());
+        for (HostState host : hosts.values()) {
+            List<TaskInfo> infos = byHost.get(host.host.getValue());
+            results.add(new HostResult(host.host, host.name == null ? host.host.getValue() : host.name,
+                    infos == null ? Collections.<TaskInfo>emptyList() : infos,
+                    !finished.containsKey(host.host.getValue())));
+        }
+        return results;
+    }
+
+    private void apply(UpdateSet updates) {
+        for (PropertyFilterUpdate filterUpdate : updates.getFilterSet()) {
+            for (ObjectUpdate update : filterUpdate.getObjectSet()) {
+                ManagedObjectReference mor = update.getObj();
+                if (HOST_TYPE.equals(mor.getType())) {
+                    applyHost(update);
+                } else if (TASK_TYPE.equals(mor.getType())) {
+                    applyTask(update);
+                }
+            }
+        }
+    }
+
+    private void applyHost(ObjectUpdate update) {
+        HostState host = hosts.get(update.getObj().getValue());
+        if (host == null) {
+            return;
+        }
+        for (PropertyChange change : update.getChangeSet()) {
+            boolean removed = change.getOp() == PropertyChangeOp.REMOVE
+                    || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE;
+            if (NAME.equals(change.getName())) {
+                host.name = removed ? null : (String) change.getVal();
+            } else if (RECENT_TASK.equals(change.getName()) && !removed
+                    && change.getVal() instanceof ArrayOfManagedObjectReference) {
+                for (ManagedObjectReference task
+                        : ((ArrayOfManagedObjectReference) change.getVal()).getManagedObjectReference()) {
+                    task(task).host = host.host.getValue();
+                }
+            }
+        }
+    }
+
+    private void applyTask(ObjectUpdate update) {
+        TaskState state = task(update.getObj());
+        if (update.getKind() == ObjectUpdateKind.LEAVE) {
+            // gone from the recent tasks of its host before its end was seen
+            if (state.isVsanUpdate() && !state.isDone()) {
+                logger.warn("vSAN update task {} on {} is no longer reported", state.task.getValue(), name);
+                state.lost = true;
+            }
+            return;
+        }
+        for (PropertyChange change : update.getChangeSet()) {
+            state.info = TaskTracker.applyChange(state.info, change);
+        }
+        if (listener == null || !state.isVsanUpdate()) {
+            return;
+        }
+        Integer percent = state.isDone() ? Integer.valueOf(100) : state.info.getProgress();
+        if (percent != null && percent != state.reported) {
+            state.reported = percent;
+            try {
+                listener.onProgress(state.task, percent);
+            } catch (RuntimeException e) {
+                logger.warn("task listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private TaskState task(ManagedObjectReference task) {
+        TaskState state = tasks.get(task.getValue());
+        if (state == null) {
+            state = new TaskState(task);
+            tasks.put(task.getValue(), state);
+        }
+        return state;
+    }
+
+    private void recover(Exception e, int attempt) {
+        if (connection != null && VsphereClient.isNotAuthenticated(e)) {
+            synchronized (connection) {
+                // another port may already have renewed the session
+                if (connection.getLoginCount() == loginCount) {
+                    logger.info("session to {} expired, logging in again", name);
+                    connection.reconnect();
+                }
+            }
+            connection.attachSession(waitPort);
+            // the collector and the view were gone with the session
+            collector = null;
+            view = null;
+            return;
+        }
+        if (e instanceof RuntimeFaultFaultMsg && ContainerViewCache.isStaleView((RuntimeFaultFaultMsg) e)) {
+            logger.info("vSAN task collector of {} is gone, creating it again", name);
+            // whichever of the two still exists would otherwise be left behind
+            close();
+            return;
+        }
+        if (FaultClassifier.isRetryable(e) && attempt <= TaskTracker.MAX_WAIT_ATTEMPTS) {
+            logger.warn("waiting for vSAN update tasks of {} failed, attempt {}: {}", name, attempt, e.getMessage());
+            try {
+                Thread.sleep(EndpointGovernor.backoffMillis(attempt));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new HciServerException("interrupted while waiting for vSAN update tasks", ie);
+            }
+            return;
+        }
+        throw new HciServerException("could not wait for vSAN update tasks of " + name, e);
+    }
+
+    /**
+     * Creates the collector, the view of the hosts and the filter.
+     */
+    private void setUp() throws RuntimeFaultFaultMsg {
+        // left over from a failed wait
+        close();
+        loginCount = connection == null ? 0 : connection.getLoginCount();
+        List<ManagedObjectReference> hostMors = new ArrayList<ManagedObjectReference>(hosts.size());
+        for (HostState host : hosts.values()) {
+            hostMors.add(host.host);
+        }
+        // only set once complete, so that a failure sets everything up again
+        ManagedObjectReference newCollector = null;
+        ManagedObjectReference newView = null;
+        try {
+            newCollector = port.createPropertyCollector(serviceContent.getPropertyCollector());
+            newView = port.createListView(serviceContent.getViewManager(), hostMors);
+            port.createFilter(newCollector, filterSpec(newView), true);
+        } catch (InvalidPropertyFaultMsg e) {
+            destroy(newCollector, newView);
+            throw new HciServerException("could not create the vSAN task filter of " + name, e);
+        } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+            destroy(newCollector, newView);
+            throw e;
+        }
+        collector = newCollector;
+        view = newView;
+        version = "";
+        logger.debug("vSAN task collector of {} created with {} hosts", name, hostMors.size());
+    }
+
+    private static PropertyFilterSpec filterSpec(ManagedObjectReference view) {
+        return new PropertyFilterSpecBuilder()
+                .propSet(
+                        new PropertySpecBuilder()
+                                .all(Boolean.FALSE)
+                                .type(HOST_TYPE)
+                                .pathSet(NAME, RECENT_TASK),
+                        new PropertySpecBuilder()
+                                .all(Boolean.FALSE)
+                                .type(TASK_TYPE)
+                                .pathSet(INFO))
+                .objectSet(new ObjectSpecBuilder()
+                        .obj(view)
+                        .skip(Boolean.TRUE)
+                        .selectSet(new TraversalSpecBuilder()
+                                .name("view")
+                                .path("view")
+                                .skip(false)
+                                .type("ListView")
+                                .selectSet(new TraversalSpecBuilder()
+                                        .name("recentTask")
+                                        .path(RECENT_TASK)
+                                        .skip(false)
+                                        .type(HOST_TYPE))));
+    }
+}
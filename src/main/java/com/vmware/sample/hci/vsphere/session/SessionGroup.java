@@ -0,0 +1,92 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.vsphere.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.vmware.sample.hci.connection.helpers.GetMOREF;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+
+/**
+ * Worker sessions cloned from one logged in session by
+ * {@link SessionPool#cloneSessions(VsphereClient, int)}.
+ * <p>
+ * Each session has its own port, so each one can be given to a different
+ * thread. The sessions are kept alive with the pooled ones and logged out
+ * together by {@link #close()}. The parent session should stay borrowed
+ * while the group is in use: an expired clone is logged in again with a
+ * new clone ticket of its parent.
+ */
+public class SessionGroup {
+    private final SessionPool pool;
+    private final VsphereClient parent;
+    private final List<VsphereClient> sessions;
+    private boolean closed;
+
+    SessionGroup(SessionPool pool, VsphereClient parent, List<VsphereClient> sessions) {
+        this.pool = pool;
+        this.parent = parent;
+        this.sessions = Collections.unmodifiableList(sessions);
+    }
+
+    public VsphereClient getParent() {
+        return parent;
+    }
+
+    public List<VsphereClient> getSessions() {
+        return sessions;
+    }
+
+    public VsphereClient get(int index) {
+        return sessions.get(index);
+    }
+
+    /**
+     * One lookup helper per session of the group, in order.
+     */
+    public List<GetMOREF> getMOREFs() {
+        List<GetMOREF> helpers = new ArrayList<GetMOREF>(sessions.size());
+        for (VsphereClient client : sessions) {
+            helpers.add(client.getMOREFs());
+        }
+        return helpers;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Logs out every session of the group. Safe to call more than once.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        pool.removeGroup(this);
+        for (VsphereClient client : sessions) {
+            client.logout();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.vsphere.VsphereClient;
+
+/**
+ * Background service which keeps the sessions of a {@link SessionPool}
+ * alive. Every interval each session that has been quiet for at least one
+ * interval is pinged with currentTime, which refreshes its liveness state
+ * and round trip time. An expired session is logged in again here, so the
+ * caller never pays for the re-login in the middle of a workflow.
+ */
+public class SessionKeepAlive {
+    private static final Logger logger =
+            LoggerFactory.getLogger(SessionKeepAlive.class);
+
+    /**
+     * System property overriding the default interval, in seconds.
+     */
+    public static final String INTERVAL_PROPERTY = "hci.session.keepalive.seconds";
+    public static final long DEFAULT_INTERVAL_SEC = 5 * 60;
+
+    private final SessionPool pool;
+    private final long intervalMs;
+    private final ScheduledExecutorService scheduler;
+
+    public SessionKeepAlive(SessionPool pool) {
+        this(pool, Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_SEC), TimeUnit.SECONDS);
+    }
+
+    public SessionKeepAlive(SessionPool pool, long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("keepalive interval must be positive");
+        }
+        this.pool = pool;
+        this.intervalMs = unit.toMillis(interval);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "vsphere-session-keepalive");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public SessionKeepAlive start() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pingQuietSessions();
+                } catch (RuntimeException e) {
+                    logger.warn("keepalive round failed", e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public long getIntervalMillis() {
+        return intervalMs;
+    }
+
+    /**
+     * Pings the sessions which have not been used during the last interval.
+     *
+     * @return number of sessions pinged
+     */
+    public int pingQuietSessions() {
+        long now = System.currentTimeMillis();
+        int pinged = 0;
+        for (VsphereClient client : pool.getSessions()) {
+            if (now - client.getLastUsedTime() < intervalMs) {
+                continue;
+            }
+            boolean reachable = client.ping();
+            pinged++;
+            logger.debug("keepalive {}@{}: {} rtt {} ms", client.getUserName(),
+                    client.getIpAddress(), reachable ? client.getState() : "unreachable",
+                    client.getLastRoundTripMillis());
+        }
+        return pinged;
+    }
+
+    /**
+     * Metrics of every session of the pool.
+     */
+    public List<SessionStatus> getStatus() {
+        List<SessionStatus> status = new ArrayList<SessionStatus>();
+        for (VsphereClient client : pool.getSessions()) {
+            status.add(new SessionStatus(client));
+        }
+        return status;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere.session;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Identifies the sessions which can be shared: the same endpoint logged in
+ * by the same user with the same password. The password is only kept as a
+ * salted hash, the salt being random for each process.
+ */
+public final class SessionKey {
+    private static final byte[] SALT = salt();
+
+    private final String endpoint;
+    private final String userName;
+    private final byte[] credential;
+
+    /**
+     * Key without a credential, which only names the endpoint and user.
+     */
+    public SessionKey(String endpoint, String userName) {
+        this(endpoint, userName, null);
+    }
+
+    public SessionKey(String endpoint, String userName, String password) {
+        if (endpoint == null || endpoint.length() == 0) {
+            throw new IllegalArgumentException("Endpoint is empty");
+        }
+        this.endpoint = endpoint.trim().toLowerCase();
+        this.userName = userName == null ? "" : userName;
+        this.credential = password == null ? new byte[0] : hash(password);
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Tells whether both keys are of the same user on the same endpoint,
+     * whatever their passwords.
+     */
+    public boolean isSameUser(SessionKey other) {
+        return endpoint.equals(other.endpoint) && userName.equals(other.userName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SessionKey)) {
+            return false;
+        }
+        SessionKey other = (SessionKey) o;
+        return isSameUser(other) && MessageDigest.isEqual(credential, other.credential);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * endpoint.hashCode() + userName.hashCode()) + Arrays.hashCode(credential);
+    }
+
+    @Override
+    public String toString() {
+        return userName + "@" + endpoint;
+    }
+
+    private static byte[] salt() {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    private static byte[] hash(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(SALT);
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
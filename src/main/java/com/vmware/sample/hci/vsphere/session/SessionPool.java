@@ -0,0 +1,507 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere.session;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.SessionStore;
+import com.vmware.sample.hci.vsphere.HostInfo;
+import com.vmware.sample.hci.vsphere.VcInfo;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.sample.hci.vsphere.exception.HciServerException;
+
+/**
+ * Pool of logged in {@link VsphereClient} sessions keyed by endpoint, user
+ * and password, so that a session is only handed to a caller who knows the
+ * password it was logged in with.
+ * <p>
+ * A session is borrowed with {@link #borrow(String, String, String)} and
+ * handed back with {@link #release(VsphereClient)} (or
+ * {@link VsphereClient#disconnect()} on a pooled client). Idle sessions are
+ * revalidated before reuse, logged in again on NotAuthenticated, and logged
+ * out once they stay idle longer than the idle timeout.
+ * <p>
+ * Extra sessions for worker threads are cloned from a borrowed one with
+ * {@link #cloneSessions(VsphereClient, int)} rather than logged in with the
+ * password; they live outside the per-key cap until their
+ * {@link SessionGroup} is closed.
+ */
+public class SessionPool {
+    private static final Logger logger =
+            LoggerFactory.getLogger(SessionPool.class);
+
+    public static final int DEFAULT_MAX_SESSIONS_PER_KEY = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 10 * 60 * 1000L;
+    public static final long DEFAULT_VALIDATE_AFTER_MS = 60 * 1000L;
+    public static final long DEFAULT_BORROW_TIMEOUT_MS = 5 * 60 * 1000L;
+
+    private static SessionPool defaultPool;
+
+    private final int maxSessionsPerKey;
+    private final long idleTimeoutMs;
+    private final long validateAfterMs;
+    private final long borrowTimeoutMs;
+
+    private final Map<SessionKey, Slot> slots = new HashMap<SessionKey, Slot>();
+    private final Map<VsphereClient, SessionKey> borrowed =
+            new IdentityHashMap<VsphereClient, SessionKey>();
+    // borrowed when the password of their user changed, logged out on release
+    private final Set<VsphereClient> retired =
+            Collections.newSetFromMap(new IdentityHashMap<VsphereClient, Boolean>());
+    private final List<SessionGroup> groups = new ArrayList<SessionGroup>();
+    private final ScheduledExecutorService evictor;
+    private volatile SessionKeepAlive keepAlive;
+    private boolean closed;
+
+    public SessionPool() {
+        this(DEFAULT_MAX_SESSIONS_PER_KEY, DEFAULT_IDLE_TIMEOUT_MS,
+                DEFAULT_VALIDATE_AFTER_MS, DEFAULT_BORROW_TIMEOUT_MS);
+    }
+
+    public SessionPool(int maxSessionsPerKey, long idleTimeoutMs,
+            long validateAfterMs, long borrowTimeoutMs) {
+        if (maxSessionsPerKey < 1) {
+            throw new IllegalArgumentException("maxSessionsPerKey must be positive");
+        }
+        this.maxSessionsPerKey = maxSessionsPerKey;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validateAfterMs = validateAfterMs;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "vsphere-session-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(1000L, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the process-wide pool used by the inventory managers. Its
+     * sessions are kept alive in the background and the idle ones are
+     * logged out when the JVM exits.
+     */
+    public static synchronized SessionPool getDefault() {
+        if (defaultPool == null) {
+            final SessionPool pool = new SessionPool();
+            pool.setKeepAlive(new SessionKeepAlive(pool).start());
+            Runtime.getRuntime().addShutdownHook(new Thread("vsphere-session-pool-shutdown") {
+                @Override
+                public void run() {
+                    pool.close();
+                }
+            });
+            defaultPool = pool;
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Attaches the keepalive service, which is stopped when the pool is closed.
+     */
+    public void setKeepAlive(SessionKeepAlive keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public SessionKeepAlive getKeepAlive() {
+        return keepAlive;
+    }
+
+    public VsphereClient borrow(HostInfo hostInfo) {
+        return borrow(hostInfo.getIpAddress(), hostInfo.getUserName(), hostInfo.getPassword());
+    }
+
+    public VsphereClient borrow(VcInfo vcInfo) {
+        return borrow(vcInfo.getIpAddress(), vcInfo.getUserName(), vcInfo.getPassword());
+    }
+
+    /**
+     * Borrows a logged in session for the endpoint and user. An idle session
+     * is reused when one is available, otherwise a new one is logged in as
+     * long as the per-key cap allows it; else the caller waits for a release.
+     */
+    public VsphereClient borrow(String ipAddress, String userName, String password) {
+        SessionKey key = new SessionKey(ipAddress, userName, password);
+        long deadline = System.currentTimeMillis() + borrowTimeoutMs;
+
+        while (true) {
+            VsphereClient idle = null;
+            synchronized (this) {
+                if (closed) {
+                    throw new HciServerException("session pool is closed");
+                }
+                Slot slot = slot(key);
+                while (slot.idle.isEmpty() && slot.total >= maxSessionsPerKey) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new HciServerException(String.format(
+                                "timed out waiting for a free session to %s", key));
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new HciServerException("interrupted waiting for a session", e);
+                    }
+                    if (closed) {
+                        throw new HciServerException("session pool is closed");
+                    }
+                }
+                if (!slot.idle.isEmpty()) {
+                    idle = slot.idle.pollFirst().client;
+                    borrowed.put(idle, key);
+                } else {
+                    slot.total++;
+                }
+            }
+
+            if (idle != null) {
+                if (validate(idle, key)) {
+                    return idle;
+                }
+                discard(idle, key);
+                continue;
+            }
+            return create(key, ipAddress, userName, password);
+        }
+    }
+
+    /**
+     * Hands a borrowed session back to the pool. Clients not borrowed from
+     * this pool are logged out.
+     */
+    public void release(VsphereClient client) {
+        if (client == null) {
+            return;
+        }
+        boolean logout = false;
+        synchronized (this) {
+            SessionKey key = borrowed.remove(client);
+            if (key == null) {
+                // a pooled client released twice is already idle or discarded
+                logout = !client.isPooled();
+            } else if (closed || retired.remove(client) || !client.isConnected()) {
+                slot(key).total--;
+                logout = true;
+                notifyAll();
+            } else {
+                slot(key).idle.addFirst(new IdleSession(client, System.currentTimeMillis()));
+                notifyAll();
+            }
+        }
+        if (logout) {
+            client.logout();
+        }
+    }
+
+    /**
+     * Clones {@code count} sessions from a logged in session, typically one
+     * per worker thread. Nothing is left open if one of the clones fails.
+     */
+    public SessionGroup cloneSessions(VsphereClient parent, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new HciServerException("session pool is closed");
+            }
+        }
+        List<VsphereClient> clones = new ArrayList<VsphereClient>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                clones.add(parent.cloneSession());
+            }
+        } catch (RuntimeException e) {
+            for (VsphereClient clone : clones) {
+                clone.logout();
+            }
+            throw e;
+        }
+        SessionGroup group = new SessionGroup(this, parent, clones);
+        boolean added;
+        synchronized (this) {
+            added = !closed;
+            if (added) {
+                groups.add(group);
+            }
+        }
+        if (!added) {
+            group.close();
+            throw new HciServerException("session pool is closed");
+        }
+        logger.debug("cloned {} sessions to {}", count, parent.getIpAddress());
+        return group;
+    }
+
+    synchronized void removeGroup(SessionGroup group) {
+        groups.remove(group);
+    }
+
+    /**
+     * Removes a borrowed session from the pool without reusing it.
+     */
+    public void invalidate(VsphereClient client) {
+        SessionKey key;
+        synchronized (this) {
+            key = borrowed.get(client);
+        }
+        if (key != null) {
+            discard(client, key);
+        }
+    }
+
+    /**
+     * Forgets the sessions of a user whose password changed: idle ones are
+     * logged out now and borrowed ones when they are released, so that no
+     * session logs in again with the old password. The session stored for
+     * the user by the default {@link SessionStore} is dropped as well.
+     */
+    public void retireUser(String ipAddress, String userName) {
+        SessionKey user = new SessionKey(ipAddress, userName);
+        List<VsphereClient> toLogout = new ArrayList<VsphereClient>();
+        synchronized (this) {
+            Iterator<Map.Entry<SessionKey, Slot>> it = slots.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<SessionKey, Slot> entry = it.next();
+                if (!entry.getKey().isSameUser(user)) {
+                    continue;
+                }
+                Slot slot = entry.getValue();
+                for (IdleSession idle : slot.idle) {
+                    toLogout.add(idle.client);
+                    slot.total--;
+                }
+                slot.idle.clear();
+                if (slot.total == 0) {
+                    it.remove();
+                }
+            }
+            for (Map.Entry<VsphereClient, SessionKey> entry : borrowed.entrySet()) {
+                if (entry.getKey().isPooled() && entry.getValue().isSameUser(user)) {
+                    retired.add(entry.getKey());
+                }
+            }
+            notifyAll();
+        }
+        for (VsphereClient client : toLogout) {
+            client.logout();
+        }
+        SessionStore store = SessionStore.getDefault();
+        if (store != null) {
+            store.delete(VsphereClient.sdkUrl(ipAddress), userName);
+        }
+        logger.info("retired {} idle sessions of {}", toLogout.size(), user);
+    }
+
+    /**
+     * Number of sessions (idle and borrowed) currently held for the key.
+     */
+    public synchronized int size(SessionKey key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.total;
+    }
+
+    public synchronized int idleCount(SessionKey key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.idle.size();
+    }
+
+    /**
+     * Logs out every idle session and every cloned group, and stops handing
+     * out new ones. Idle sessions kept in a session store are left open for
+     * the next process. Borrowed sessions are logged out as they are released.
+     */
+    public void close() {
+        List<VsphereClient> toLogout = new ArrayList<VsphereClient>();
+        List<SessionGroup> openGroups;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Slot slot : slots.values()) {
+                for (IdleSession idle : slot.idle) {
+                    toLogout.add(idle.client);
+                    slot.total--;
+                }
+                slot.idle.clear();
+            }
+            openGroups = new ArrayList<SessionGroup>(groups);
+            notifyAll();
+        }
+        evictor.shutdownNow();
+        if (keepAlive != null) {
+            keepAlive.stop();
+        }
+        for (VsphereClient client : toLogout) {
+            // a stored session is resumed by the next process
+            client.detach();
+        }
+        for (SessionGroup group : openGroups) {
+            group.close();
+        }
+    }
+
+    void evictIdle() {
+        List<VsphereClient> toLogout = new ArrayList<VsphereClient>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Slot slot : slots.values()) {
+                Iterator<IdleSession> it = slot.idle.iterator();
+                while (it.hasNext()) {
+                    IdleSession idle = it.next();
+                    if (now - idle.since > idleTimeoutMs) {
+                        it.remove();
+                        slot.total--;
+                        toLogout.add(idle.client);
+                    }
+                }
+            }
+            if (!toLogout.isEmpty()) {
+                notifyAll();
+            }
+        }
+        for (VsphereClient client : toLogout) {
+            logger.debug("evicting idle session to {}", client.getIpAddress());
+            client.logout();
+        }
+    }
+
+    private VsphereClient create(SessionKey key, String ipAddress,
+            String userName, String password) {
+        VsphereClient client;
+        try {
+            client = newClient(ipAddress, userName, password);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                slot(key).total--;
+                notifyAll();
+            }
+            throw e;
+        }
+        client.setPool(this);
+        synchronized (this) {
+            borrowed.put(client, key);
+        }
+        logger.debug("new pooled session to {}", key);
+        return client;
+    }
+
+    /**
+     * Logs in a new session for the pool.
+     */
+    protected VsphereClient newClient(String ipAddress, String userName, String password) {
+        return new VsphereClient(ipAddress, userName, password);
+    }
+
+    /**
+     * Checks a session which has been idle for a while before handing it out,
+     * logging it in again when the server reports NotAuthenticated.
+     */
+    private boolean validate(VsphereClient client, SessionKey key) {
+        if (client.isConnected()
+                && System.currentTimeMillis() - client.getLastUsedTime() < validateAfterMs) {
+            return true;
+        }
+        if (client.ping() && client.isConnected()) {
+            return true;
+        }
+        try {
+            logger.info("session to {} is {}, logging in again", key, client.getState());
+            client.login();
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("re-login to {} failed: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Snapshot of every session held by the pool, idle, borrowed or cloned.
+     */
+    public synchronized List<VsphereClient> getSessions() {
+        List<VsphereClient> sessions = new ArrayList<VsphereClient>(borrowed.keySet());
+        for (Slot slot : slots.values()) {
+            for (IdleSession idle : slot.idle) {
+                sessions.add(idle.client);
+            }
+        }
+        for (SessionGroup group : groups) {
+            sessions.addAll(group.getSessions());
+        }
+        return sessions;
+    }
+
+    private void discard(VsphereClient client, SessionKey key) {
+        synchronized (this) {
+            retired.remove(client);
+            if (borrowed.remove(client) != null) {
+                slot(key).total--;
+                notifyAll();
+            }
+        }
+        client.logout();
+    }
+
+    private Slot slot(SessionKey key) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(key, slot);
+        }
+        return slot;
+    }
+
+    private static final class Slot {
+        // most recently released first so that warm sessions are reused
+        private final Deque<IdleSession> idle = new ArrayDeque<IdleSession>();
+        private int total;
+    }
+
+    private static final class IdleSession {
+        private final VsphereClient client;
+        private final long since;
+
+        private IdleSession(VsphereClient client, long since) {
+            this.client = client;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.sample.hci.vsphere.session;
+
+import com.vmware.sample.hci.connection.SessionState;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+
+/**
+ * Point in time metrics of one pooled session.
+ */
+public class SessionStatus {
+    private final SessionKey key;
+    private final SessionState state;
+    private final long sessionAgeMillis;
+    private final long idleMillis;
+    private final double lastRoundTripMillis;
+    private final int viewCount;
+
+    SessionStatus(VsphereClient client) {
+        this.key = new SessionKey(client.getIpAddress(), client.getUserName());
+        this.state = client.getState();
+        this.sessionAgeMillis = client.getSessionAgeMillis();
+        this.idleMillis = System.currentTimeMillis() - client.getLastUsedTime();
+        this.lastRoundTripMillis = client.getLastRoundTripMillis();
+        this.viewCount = client.getViewCount();
+    }
+
+    public SessionKey getKey() {
+        return key;
+    }
+
+    public SessionState getState() {
+        return state;
+    }
+
+    public long getSessionAgeMillis() {
+        return sessionAgeMillis;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    public double getLastRoundTripMillis() {
+        return lastRoundTripMillis;
+    }
+
+    /**
+     * Number of ContainerViews the session holds on the server.
+     */
+    public int getViewCount() {
+        return viewCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s age=%ds idle=%ds rtt=%.1fms views=%d", key, state,
+                sessionAgeMillis / 1000, idleMillis / 1000, lastRoundTripMillis, viewCount);
+    }
+}
@@ -0,0 +1,4 @@
+/*
+ * Contains the pool of reusable vSphere sessions shared by the inventory managers and operations.
+ */
+package com.vmware.sample.hci.vsphere.session;
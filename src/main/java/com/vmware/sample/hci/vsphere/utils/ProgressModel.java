@@ -0,0 +1,379 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.vsphere.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.vsphere.operation.TaskTracker;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * Progress of a configuration made of planned steps, reported through a
+ * {@link ProgressCallback} between a start and an end value.
+ * <p>
+ * Each step weighs as much as it took on average in the previous runs,
+ * from {@link StepHistory}. Within the running step, progress follows the
+ * percentages of the vSphere tasks it runs: {@code Task.monitorTask} hands
+ * the step of the calling thread to the {@link TaskTracker}, which reports
+ * every progress update the server sends, so no call is made for it. The
+ * expected number of tasks of a step comes from the history as well.
+ * <p>
+ * Progress never goes back. {@link ConfigProgress} always holds the last
+ * value; the callback is called when a step begins or ends and otherwise
+ * at most once per {@link #getMinIntervalMillis()}. It is never called with
+ * the lock of the model held, and the progress of tasks is handed to a
+ * thread of its own, so a slow callback does not hold up the TaskTracker.
+ * {@link #close()} must be called once the run is over, whether it
+ * succeeded or not.
+ */
+public class ProgressModel {
+    private static final Logger logger =
+            LoggerFactory.getLogger(ProgressModel.class);
+
+    public static final long DEFAULT_STEP_MILLIS = 60 * 1000L;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 500L;
+
+    // a step only reaches its full weight when it ends
+    private static final double MAX_RUNNING_FRACTION = 0.95;
+
+    private static final ThreadLocal<Step> CURRENT = new ThreadLocal<Step>();
+    private static final ExecutorService CALLBACKS = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "progress-callback");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final int start;
+    private final int end;
+    private final ProgressCallback callback;
+    private final StepHistory history;
+    private final List<Step> steps = new ArrayList<Step>();
+    private final Object callbackLock = new Object();
+
+    private long minIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+    private double totalWeight;
+    private int next;
+    private Step current;
+    private int progress = -1;
+    private int reported = -1;
+    private long lastCallbackTime;
+    private boolean closed;
+    // guarded by callbackLock
+    private int delivered = -1;
+
+    /**
+     * A planned step. Set as the step of the thread which began it, until it ends.
+     */
+    public final class Step implements TaskTracker.Listener {
+        private final String name;
+        private final double weight;
+        private final double expectedTasks;
+        private final Map<String, Integer> running = new HashMap<String, Integer>();
+        private int tasksDone;
+        private double fraction;
+        private long startTime;
+        private boolean done;
+
+        private Step(String name, double weight, double expectedTasks) {
+            this.name = name;
+            this.weight = weight;
+            this.expectedTasks = expectedTasks;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Reports the progress of work of the step which is not a task, as a
+         * fraction between 0 and 1.
+         */
+        public void setFraction(double fraction) {
+            int value;
+            synchronized (ProgressModel.this) {
+                if (done || closed) {
+                    return;
+                }
+                this.fraction = Math.max(this.fraction, Math.min(1, fraction));
+                value = update(false);
+            }
+            deliver(value);
+        }
+
+        /**
+         * Called on the thread of the TaskTracker, which must not wait for
+         * the callback.
+         */
+        @Override
+        public void onProgress(ManagedObjectReference task, int percent) {
+            final int value;
+            synchronized (ProgressModel.this) {
+                if (done || closed) {
+                    return;
+                }
+                if (percent >= 100) {
+                    running.remove(task.getValue());
+                    tasksDone++;
+                } else {
+                    running.put(task.getValue(), percent);
+                }
+                value = update(false);
+            }
+            if (value >= 0) {
+                CALLBACKS.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(value);
+                    }
+                });
+            }
+        }
+
+        private ProgressModel getModel() {
+            return ProgressModel.this;
+        }
+
+        private double fraction() {
+            if (done) {
+                return 1;
+            }
+            double taskPercent = 0;
+            for (int percent : running.values()) {
+                taskPercent += percent;
+            }
+            double tasks = Math.max(expectedTasks, tasksDone + running.size());
+            double byTasks = tasks == 0 ? 0 : (tasksDone + taskPercent / 100) / tasks;
+            return Math.min(MAX_RUNNING_FRACTION, Math.max(fraction, byTasks));
+        }
+    }
+
+    public ProgressModel(int start, int end, ProgressCallback callback) {
+        this(start, end, callback, StepHistory.getDefault());
+    }
+
+    public ProgressModel(int start, int end, ProgressCallback callback, StepHistory history) {
+        this.start = start;
+        this.end = end;
+        this.callback = callback;
+        this.history = history;
+    }
+
+    /**
+     * The step begun by the calling thread and not ended yet, or null.
+     */
+    public static Step currentStep() {
+        return CURRENT.get();
+    }
+
+    public synchronized long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    public synchronized void setMinIntervalMillis(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Appends steps to the plan. A name may be planned more than once, for
+     * a step run per host for instance.
+     */
+    public synchronized ProgressModel plan(String... names) {
+        for (String name : names) {
+            Step step = new Step(name, history.getMillis(name, DEFAULT_STEP_MILLIS), history.getTasks(name));
+            steps.add(step);
+            totalWeight += step.weight;
+        }
+        return this;
+    }
+
+    /**
+     * Begins the next planned step of that name. The running step and the
+     * steps planned before this one are taken as done without being
+     * recorded in the history.
+     */
+    public Step begin(String name) {
+        Step step;
+        int value;
+        synchronized (this) {
+            step = start(name);
+            value = update(true);
+        }
+        deliver(value);
+        return step;
+    }
+
+    private Step start(String name) {
+        if (closed) {
+            throw new IllegalStateException("progress model is closed");
+        }
+        int index = next;
+        while (index < steps.size() && !steps.get(index).name.equals(name)) {
+            index++;
+        }
+        if (index == steps.size()) {
+            throw new IllegalArgumentException("step " + name + " is not planned");
+        }
+        for (int i = next; i < index; i++) {
+            steps.get(i).done = true;
+        }
+        if (current != null) {
+            current.done = true;
+        }
+        current = steps.get(index);
+        current.startTime = System.currentTimeMillis();
+        next = index + 1;
+        CURRENT.set(current);
+        return current;
+    }
+
+    /**
+     * Ends the running step and records how long it took.
+     */
+    public void end() {
+        int value;
+        synchronized (this) {
+            if (current == null) {
+                return;
+            }
+            Step step = current;
+            step.done = true;
+            current = null;
+            CURRENT.remove();
+            long millis = System.currentTimeMillis() - step.startTime;
+            history.record(step.name, millis, step.tasksDone);
+            logger.debug("step {} took {} ms and ran {} tasks", step.name, millis, step.tasksDone);
+            // also reports what the throttle held back during the step
+            value = update(true);
+        }
+        deliver(value);
+    }
+
+    /**
+     * Reports the end value and saves the history.
+     */
+    public void finish() {
+        int value;
+        synchronized (this) {
+            for (Step step : steps) {
+                step.done = true;
+            }
+            current = null;
+            CURRENT.remove();
+            next = steps.size();
+            value = update(true);
+        }
+        deliver(value);
+        history.save();
+    }
+
+    /**
+     * Ends the run, after {@link #finish()} or after a failure: the step of
+     * the calling thread is cleared, progress of tasks still running is
+     * ignored and the last value held back by the throttle is reported.
+     */
+    public void close() {
+        int value = -1;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = null;
+            if (callback != null && progress > reported) {
+                reported = progress;
+                value = progress;
+            }
+        }
+        Step step = CURRENT.get();
+        if (step != null && step.getModel() == this) {
+            CURRENT.remove();
+        }
+        deliver(value);
+    }
+
+    /**
+     * Current value between start and end.
+     */
+    public synchronized int getProgress() {
+        return Math.max(progress, start);
+    }
+
+    private int value() {
+        if (totalWeight == 0) {
+            return next == 0 ? start : end;
+        }
+        double weight = 0;
+        for (Step step : steps) {
+            weight += step.weight * step.fraction();
+        }
+        return start + (int) Math.floor((end - start) * weight / totalWeight);
+    }
+
+    /**
+     * Recomputes the progress.
+     *
+     * @return the value to hand to the callback, -1 for none
+     */
+    private int update(boolean force) {
+        int value = value();
+        if (value > progress) {
+            progress = value;
+            ConfigProgress.setProgress(progress);
+        }
+        if (callback == null || progress <= reported) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        if (force || now - lastCallbackTime >= minIntervalMillis) {
+            reported = progress;
+            lastCallbackTime = now;
+            return progress;
+        }
+        return -1;
+    }
+
+    /**
+     * Calls the callback without the lock of the model, dropping a value
+     * which arrives after a higher one.
+     */
+    private void deliver(int value) {
+        if (value < 0) {
+            return;
+        }
+        synchronized (callbackLock) {
+            if (value <= delivered) {
+                return;
+            }
+            delivered = value;
+            try {
+                callback.printProgress(value);
+            } catch (RuntimeException e) {
+                logger.warn("progress callback failed: {}", e.getMessage());
+            }
+        }
+    }
+}
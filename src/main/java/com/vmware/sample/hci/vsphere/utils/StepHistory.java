@@ -0,0 +1,166 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.sample.hci.vsphere.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How long the steps of a configuration took and how many vSphere tasks
+ * they ran, averaged over the previous runs.
+ * <p>
+ * The averages are exponential moving ones, so that a few runs are enough
+ * to follow a change of environment. The default history is kept in the
+ * file named by the {@value #FILE_PROPERTY} system property, or only in
+ * memory when it is not set.
+ */
+public class StepHistory {
+    private static final Logger logger =
+            LoggerFactory.getLogger(StepHistory.class);
+
+    /**
+     * System property naming the file of the default history.
+     */
+    public static final String FILE_PROPERTY = "hci.progress.history";
+
+    private static final double WEIGHT_OF_LAST_RUN = 0.3;
+
+    private static StepHistory defaultHistory;
+
+    private final File file;
+    private final Map<String, double[]> steps = new HashMap<String, double[]>();
+
+    public StepHistory(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized StepHistory getDefault() {
+        if (defaultHistory == null) {
+            String path = System.getProperty(FILE_PROPERTY);
+            defaultHistory = new StepHistory(path == null || path.trim().isEmpty()
+                    ? null : new File(path.trim()));
+        }
+        return defaultHistory;
+    }
+
+    public static synchronized void setDefault(StepHistory history) {
+        defaultHistory = history;
+    }
+
+    /**
+     * Average duration of the step in milliseconds, or the given default
+     * when the step never ran.
+     */
+    public synchronized long getMillis(String step, long defaultMillis) {
+        double[] stats = steps.get(step);
+        return stats == null ? defaultMillis : Math.max(1, Math.round(stats[0]));
+    }
+
+    /**
+     * Average number of tasks the step ran, 0 when the step never ran.
+     */
+    public synchronized double getTasks(String step) {
+        double[] stats = steps.get(step);
+        return stats == null ? 0 : stats[1];
+    }
+
+    public synchronized void record(String step, long millis, int tasks) {
+        double[] stats = steps.get(step);
+        if (stats == null) {
+            steps.put(step, new double[]{millis, tasks});
+        } else {
+            stats[0] += WEIGHT_OF_LAST_RUN * (millis - stats[0]);
+            stats[1] += WEIGHT_OF_LAST_RUN * (tasks - stats[1]);
+        }
+    }
+
+    /**
+     * Writes the history to its file, if it has one.
+     */
+    public void save() {
+        if (file == null) {
+            return;
+        }
+        Properties props = new Properties();
+        synchronized (this) {
+            for (Map.Entry<String, double[]> step : steps.entrySet()) {
+                props.setProperty(step.getKey() + ".millis", String.valueOf(Math.round(step.getValue()[0])));
+                props.setProperty(step.getKey() + ".tasks", String.valueOf(step.getValue()[1]));
+            }
+        }
+        try {
+            Path target = file.toPath().toAbsolutePath();
+            Files.createDirectories(target.getParent());
+            Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+            try {
+                OutputStream out = Files.newOutputStream(tmp);
+                try {
+                    props.store(out, "durations of the configuration steps");
+                } finally {
+                    out.close();
+                }
+                try {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            logger.warn("could not save the step history to {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        Properties props = new Properties();
+        try {
+            InputStream in = Files.newInputStream(file.toPath());
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            for (String key : props.stringPropertyNames()) {
+                if (!key.endsWith(".millis")) {
+                    continue;
+                }
+                String step = key.substring(0, key.length() - ".millis".length());
+                double millis = Double.parseDouble(props.getProperty(key));
+                double tasks = Double.parseDouble(props.getProperty(step + ".tasks", "0"));
+                steps.put(step, new double[]{millis, tasks});
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("could not read the step history {}: {}", file, e.getMessage());
+        }
+    }
+}
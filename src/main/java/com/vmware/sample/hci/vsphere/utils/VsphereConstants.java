@@ -49,6 +49,8 @@ public class VsphereConstants {
     public static final String VDVS_CONFIGINFO_PROPERTYNAME = "config";
     public static final String VIRTUAL_NIC_MANAGER_INFO = "info";
     public static final String NWSYSTEM_NWINFO = "networkInfo";
+    public static final String NWSYSTEM_NWCONFIG = "networkConfig";
+    public static final String HOST_NETWORKINFO_PROPERTYNAME = "config.network";
 
     public static final String DEFAULT_VDS_VERSTION_2015 = "6.0.0";
     public static final int MAX_RETRY = 3;
@@ -16,6 +16,7 @@ package com.vmware.sample.hci.vsphere.utils;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -33,7 +34,6 @@ import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.Session;
-import com.vmware.sample.hci.connection.helpers.GetMOREF;
 import com.vmware.sample.hci.vsphere.HostInfo;
 import com.vmware.sample.hci.vsphere.VsphereClient;
 import com.vmware.sample.hci.vsphere.exception.HciServerException;
@@ -88,12 +88,7 @@ public class VsphereUtil {
                                                           String dcName) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
 
         logger.debug("getDatacenterMor, {}", dcName);
-        ManagedObjectReference dcMor = null;
-        GetMOREF getMOREFs = new GetMOREF(vcClient.getVimPort(), vcClient.getServiceContent());
-        Map<String, ManagedObjectReference> dcResult =
-                getMOREFs.inFolderByType(vcClient.getServiceContent().getRootFolder(),
-                        VsphereConstants.DC_MOR_TYPE);
-        dcMor = dcResult.get(dcName);
+        ManagedObjectReference dcMor = vcClient.getInventoryIndex().getDatacenter(dcName);
         if (null != dcMor) {
             logger.info("Got datacenter MOR with name {} . Type: {}, Value {}",
                     dcName, dcMor.getType(), dcMor.getValue());
@@ -133,7 +128,7 @@ public class VsphereUtil {
      * Retrieve the host mor from the whole VC.
      *
      * @param vcClient host connection.
-     * @param hostName host name.
+     * @param hostName host name in any case, management IP, BIOS UUID or MOR value.
      * @return host mor
      * null
      * Name of host is unique in a VC instance.
@@ -144,12 +139,7 @@ public class VsphereUtil {
             InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
 
         logger.debug("getHostMor by hostname, {}", hostName);
-        String hn = hostName.toLowerCase();
-        GetMOREF getMOREFs = new GetMOREF(vcClient.getVimPort(), vcClient.getServiceContent());
-        Map<String, ManagedObjectReference> hostMap = getMOREFs.inFolderByType(vcClient.getServiceContent().getRootFolder(),
-                VsphereConstants.HOST_MOR_TYPE);
-
-        ManagedObjectReference hostMor = hostMap.get(hn);
+        ManagedObjectReference hostMor = vcClient.getInventoryIndex().findHost(hostName);
         if (null != hostMor) {
             logger.debug("Got host MOR with name {} on VC. Type: {}, Value {}",
                     hostName, hostMor.getType(), hostMor.getValue());
@@ -160,6 +150,25 @@ public class VsphereUtil {
         return hostMor;
     }
 
+    /**
+     * Retrieve the host mors of several hosts with one inventory catch-up.
+     *
+     * @param vcClient  host connection.
+     * @param hostNames host names, management IPs, BIOS UUIDs or MOR values.
+     * @return host mor by requested name, without the hosts not found
+     */
+    public static Map<String, ManagedObjectReference> getHostMors(VsphereClient vcClient,
+                                                                  Collection<String> hostNames) throws
+            InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+
+        logger.debug("getHostMors by hostname, {}", hostNames);
+        Map<String, ManagedObjectReference> hostMors = vcClient.getInventoryIndex().findHosts(hostNames);
+        if (hostMors.size() < hostNames.size()) {
+            logger.info("Found {} of {} hosts on VC", hostMors.size(), hostNames.size());
+        }
+        return hostMors;
+    }
+
     /**
      * Retrieve all the host mors from a cluster .
      *
@@ -173,14 +182,7 @@ public class VsphereUtil {
     public static List<ManagedObjectReference> getHostMorsInCluster(VsphereClient vcClient,
                                                                     ManagedObjectReference clusterMor) throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg {
         logger.debug("getHostMorsInCluster, {}", clusterMor.getValue());
-        GetMOREF getMOREFs = new GetMOREF(vcClient.getVimPort(), vcClient.getServiceContent());
-        Map<String, ManagedObjectReference> hostMap = getMOREFs.inFolderByType(clusterMor,
-                VsphereConstants.HOST_MOR_TYPE);
-
-        List<ManagedObjectReference> lstHostMor = new ArrayList<ManagedObjectReference>();
-        for (ManagedObjectReference mor : hostMap.values()) {
-            lstHostMor.add(mor);
-        }
+        List<ManagedObjectReference> lstHostMor = vcClient.getInventoryIndex().getHostsInCluster(clusterMor);
         logger.debug("Get {} hosts in cluster", lstHostMor.size(), clusterMor.getValue());
         return lstHostMor;
     }
@@ -202,10 +204,7 @@ public class VsphereUtil {
 
         if (null != dcMor) {
             logger.debug("getClusterMor by dcMor, {}, {}", dcMor.getValue(), clusterName);
-            GetMOREF getMOREFs = new GetMOREF(vcClient.getVimPort(), vcClient.getServiceContent());
-            Map<String, ManagedObjectReference> clusterResult = getMOREFs.inFolderByType(dcMor,
-                    VsphereConstants.CLUSTER_COMPRES_MOR_TYPE);
-            ManagedObjectReference clusterMor = clusterResult.get(clusterName);
+            ManagedObjectReference clusterMor = vcClient.getInventoryIndex().getCluster(dcMor, clusterName);
             if (null != clusterMor) {
                 logger.debug("Got cluster MOR with name {} on datacenter {}. Type: {}, Value {}",
                         clusterName, dcMor.getValue(), clusterMor.getType(), clusterMor.getValue());
@@ -235,12 +234,7 @@ public class VsphereUtil {
             InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
 
         logger.debug("getVdsMor, {}", vdsName);
-        ManagedObjectReference vdsMor = null;
-        GetMOREF getMOREFs = new GetMOREF(vcClient.getVimPort(), vcClient.getServiceContent());
-        Map<String, ManagedObjectReference> vdsMap =
-                getMOREFs.inFolderByType(vcClient.getServiceContent().getRootFolder(),
-                        VsphereConstants.DVS_MOR_TYPE);
-        vdsMor = vdsMap.get(vdsName);
+        ManagedObjectReference vdsMor = vcClient.getInventoryIndex().getDvs(vdsName);
         if (null != vdsMor) {
             logger.info("Got vds MOR with name {}. Type: {}, Value {}",
                     vdsName, vdsMor.getType(), vdsMor.getValue());
@@ -293,10 +287,7 @@ public class VsphereUtil {
 
         if (null != dcMor) {
             logger.debug("getPorggroupMor by dcMor, {}, {}", dcMor.getValue(), portgroupName);
-            GetMOREF getMOREFs = new GetMOREF(vcClient.getVimPort(), vcClient.getServiceContent());
-            Map<String, ManagedObjectReference> portgroupMap = getMOREFs.inFolderByType(dcMor,
-                    VsphereConstants.DV_PORT_GROUP_MOR_TYPE);
-            ManagedObjectReference pgMor = portgroupMap.get(portgroupName);
+            ManagedObjectReference pgMor = vcClient.getInventoryIndex().getPortgroup(dcMor, portgroupName);
             if (null != pgMor) {
                 logger.debug("Got portgroup MOR with name {} on datacenter {}. Type: {}, Value {}",
                         portgroupName, dcMor.getValue(), pgMor.getType(), pgMor.getValue());
@@ -0,0 +1,134 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static com.vmware.vsphere.FakeVimPort.serviceContent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.sample.hci.vsphere.AsyncVsphereClient;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.VirtualMachineConfigSpec;
+
+/**
+ * This class is used to test AsyncVsphereClient.java against fake ports.
+ */
+public class AsyncVsphereClientTest {
+
+    private final FakeVimPort fake = new FakeVimPort();
+    private AsyncVsphereClient async;
+
+    @After
+    public void close() {
+        if (async != null) {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testCompletion() throws Exception {
+        final RetrieveResult result = new RetrieveResult();
+        fake.on("retrievePropertiesEx", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                assertEquals("propertyCollector", ((ManagedObjectReference) args[0]).getValue());
+                return result;
+            }
+        });
+        async = new AsyncVsphereClient(Arrays.asList(fake.port(), fake.port()), serviceContent(), "fake");
+
+        CompletableFuture<RetrieveResult> future = async.retrievePropertiesEx(
+                Collections.<PropertyFilterSpec>emptyList(), new RetrieveOptions());
+        assertSame(result, future.get(5, TimeUnit.SECONDS));
+        assertEquals(1, fake.count("retrievePropertiesEx"));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        fake.on("reconfigVMTask", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) throws RuntimeFaultFaultMsg {
+                throw new RuntimeFaultFaultMsg("busy", new RuntimeFault());
+            }
+        });
+        async = new AsyncVsphereClient(Collections.singletonList(fake.port()), serviceContent(), "fake");
+
+        CompletableFuture<ManagedObjectReference> future =
+                async.reconfigVMTask(mor("VirtualMachine", "vm-1"), new VirtualMachineConfigSpec());
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("the fault of the port must fail the future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RuntimeFaultFaultMsg);
+        }
+        // the port went back to the pool
+        fake.on("reconfigVMTask", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                return mor("Task", "task-1");
+            }
+        });
+        assertEquals("task-1", async.reconfigVMTask(mor("VirtualMachine", "vm-1"),
+                new VirtualMachineConfigSpec()).get(5, TimeUnit.SECONDS).getValue());
+    }
+
+    @Test
+    public void testCancellation() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        fake.on("reconfigVMTask", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) throws InterruptedException {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return mor("Task", "task-" + ((ManagedObjectReference) args[0]).getValue());
+            }
+        });
+        async = new AsyncVsphereClient(Collections.singletonList(fake.port()), serviceContent(), "fake");
+
+        CompletableFuture<ManagedObjectReference> running =
+                async.reconfigVMTask(mor("VirtualMachine", "vm-1"), new VirtualMachineConfigSpec());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // queued behind the running call on the only port
+        CompletableFuture<ManagedObjectReference> queued =
+                async.reconfigVMTask(mor("VirtualMachine", "vm-2"), new VirtualMachineConfigSpec());
+        assertTrue(queued.cancel(false));
+        release.countDown();
+
+        assertEquals("task-vm-1", running.get(5, TimeUnit.SECONDS).getValue());
+        CompletableFuture<ManagedObjectReference> next =
+                async.reconfigVMTask(mor("VirtualMachine", "vm-3"), new VirtualMachineConfigSpec());
+        assertEquals("task-vm-3", next.get(5, TimeUnit.SECONDS).getValue());
+        // the cancelled call never reached the server
+        assertEquals(2, fake.count("reconfigVMTask"));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.ws.WebServiceException;
+
+import org.junit.Test;
+
+import com.vmware.sample.hci.connection.AdaptiveLimiter;
+import com.vmware.sample.hci.connection.CircuitBreaker;
+import com.vmware.sample.hci.connection.EndpointGovernor;
+import com.vmware.sample.hci.connection.FaultClassifier;
+
+/**
+ * This class is used to test the endpoint governor without any server.
+ */
+public class EndpointGovernorTest {
+
+    @Test
+    public void testLimiterIncreasesAndHalves() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 16);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(limiter.acquire(10));
+            limiter.release(1000000L, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        int grown = limiter.getLimit();
+        assertTrue("limit should grow on fast successes: " + grown, grown > 4);
+
+        assertTrue(limiter.acquire(10));
+        limiter.release(1000000L, AdaptiveLimiter.Outcome.OVERLOAD);
+        assertEquals(grown / 2, limiter.getLimit(), 1);
+    }
+
+    @Test
+    public void testLimiterDecreasesOnSlowCalls() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 16);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire(10));
+            limiter.release(1000000L, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        int before = limiter.getLimit();
+        assertTrue(limiter.acquire(10));
+        limiter.release(50000000L, AdaptiveLimiter.Outcome.SUCCESS);
+        assertTrue(limiter.getLimit() < before);
+    }
+
+    @Test
+    public void testLimiterBlocksAtLimit() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 2);
+        assertTrue(limiter.acquire(10));
+        assertTrue(limiter.acquire(10));
+        assertFalse(limiter.acquire(50));
+        assertEquals(2, limiter.getInFlight());
+        limiter.release(1000L, AdaptiveLimiter.Outcome.IGNORE);
+        assertTrue(limiter.acquire(10));
+    }
+
+    @Test
+    public void testBreakerOpensAndProbes() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 100);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(150);
+        assertTrue(breaker.allowRequest());
+        assertFalse("only one probe while half open", breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testProbeReleasedWhenNoSlot() throws Throwable {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1);
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        EndpointGovernor governor = new EndpointGovernor("fake", limiter, breaker, 0, 50);
+        breaker.recordFailure();
+        Thread.sleep(80);
+        assertTrue(limiter.acquire(10));
+        try {
+            governor.execute("currentTime", new EndpointGovernor.Call<Object>() {
+                @Override
+                public Object call() {
+                    return null;
+                }
+            });
+            fail("no slot is free");
+        } catch (EndpointGovernor.EndpointUnavailableException e) {
+            assertTrue(e.getMessage().contains("free slot"));
+        }
+        // the probe was never sent, so another caller may probe
+        assertEquals(CircuitBreaker.Permission.PROBE, breaker.acquirePermission());
+    }
+
+    @Test
+    public void testLatencyComparedPerMethod() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 16);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire(10));
+            limiter.release("currentTime", 1000000L, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        int before = limiter.getLimit();
+        // a large retrieval is slower than a cheap call without any overload
+        assertTrue(limiter.acquire(10));
+        limiter.release("retrievePropertiesEx", 200000000L, AdaptiveLimiter.Outcome.SUCCESS);
+        assertTrue(limiter.getLimit() >= before);
+        assertEquals(1000000L, limiter.getSmoothedLatencyNanos("currentTime"));
+    }
+
+    @Test
+    public void testClassifier() {
+        assertEquals(FaultClassifier.FaultClass.RETRYABLE,
+                FaultClassifier.classify(new WebServiceException(new SocketTimeoutException("read timed out"))));
+        assertEquals(FaultClassifier.FaultClass.RETRYABLE,
+                FaultClassifier.classify(new WebServiceException(
+                        "The server sent HTTP status code 503: Service Unavailable")));
+        assertEquals(FaultClassifier.FaultClass.FATAL,
+                FaultClassifier.classify(new WebServiceException(
+                        "The server sent HTTP status code 404: Not Found")));
+        assertEquals(FaultClassifier.FaultClass.FATAL,
+                FaultClassifier.classify(new IllegalArgumentException("bad spec")));
+    }
+
+    @Test
+    public void testGovernorRetriesReadOnlyCallsOnly() throws Throwable {
+        EndpointGovernor governor = new EndpointGovernor("test",
+                new AdaptiveLimiter(2, 1, 4), new CircuitBreaker(10, 1000), 2, 1000);
+        final AtomicInteger attempts = new AtomicInteger();
+        String result = governor.execute("retrievePropertiesEx", new EndpointGovernor.Call<String>() {
+            @Override
+            public String call() throws Throwable {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new IOException("connection reset");
+                }
+                return "ok";
+            }
+        });
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        try {
+            governor.execute("addHostTask", new EndpointGovernor.Call<String>() {
+                @Override
+                public String call() throws Throwable {
+                    attempts.incrementAndGet();
+                    throw new IOException("connection reset");
+                }
+            });
+            fail("task creation must not be retried");
+        } catch (IOException e) {
+            assertEquals(1, attempts.get());
+        }
+        assertEquals(0, governor.getLimiter().getInFlight());
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.xml.ws.BindingProvider;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Fake vim25 port shared by the tests which do not talk to a server.
+ * <p>
+ * Every call is recorded by name. A method answers only once told how with
+ * {@link #on(String, Answer)} and throws UnsupportedOperationException
+ * otherwise, except {@code waitForUpdatesEx}, which hands out what was
+ * pushed with {@link #push(List)} and returns null after 100 ms without
+ * updates, as a server would at the end of its wait.
+ */
+public final class FakeVimPort {
+
+    /**
+     * What a method of the port returns or throws.
+     */
+    public interface Answer {
+        Object answer(Object[] args) throws Throwable;
+    }
+
+    private static final Answer NULL = new Answer() {
+        @Override
+        public Object answer(Object[] args) {
+            return null;
+        }
+    };
+
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, Answer> answers = new ConcurrentHashMap<String, Answer>();
+    private final BlockingQueue<UpdateSet> updates = new LinkedBlockingQueue<UpdateSet>();
+    private int version;
+
+    public FakeVimPort() {
+        on("waitForUpdatesEx", new Answer() {
+            @Override
+            public Object answer(Object[] args) throws InterruptedException {
+                return updates.poll(100, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    public FakeVimPort on(String method, Answer answer) {
+        answers.put(method, answer);
+        return this;
+    }
+
+    /**
+     * The current answer of the method, so that a test can wrap it.
+     */
+    public Answer answer(String method) {
+        return answers.get(method);
+    }
+
+    /**
+     * Lets the methods be called, returning null.
+     */
+    public FakeVimPort returnNull(String... methods) {
+        for (String method : methods) {
+            answers.put(method, NULL);
+        }
+        return this;
+    }
+
+    /**
+     * A new port over the answers and updates of this fake, as
+     * {@code newSessionPort} gives another port on the same session.
+     */
+    public VimPortType port() {
+        final Map<String, Object> requestContext = new HashMap<String, Object>();
+        final Map<String, Object> responseContext = new HashMap<String, Object>();
+        return (VimPortType) Proxy.newProxyInstance(FakeVimPort.class.getClassLoader(),
+                new Class<?>[]{VimPortType.class, BindingProvider.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("getRequestContext".equals(name)) {
+                            return requestContext;
+                        }
+                        if ("getResponseContext".equals(name)) {
+                            return responseContext;
+                        }
+                        calls.add(name);
+                        Answer answer = answers.get(name);
+                        if (answer == null) {
+                            throw new UnsupportedOperationException(name);
+                        }
+                        return answer.answer(args);
+                    }
+                });
+    }
+
+    public int count(String method) {
+        synchronized (calls) {
+            return Collections.frequency(calls, method);
+        }
+    }
+
+    /**
+     * Queues the updates as one UpdateSet for {@code waitForUpdatesEx}.
+     */
+    public void push(ObjectUpdate... objectUpdates) {
+        push(Arrays.asList(objectUpdates));
+    }
+
+    public synchronized void push(List<ObjectUpdate> objectUpdates) {
+        updates.add(updateSet(objectUpdates));
+    }
+
+    /**
+     * An UpdateSet of one filter, with a version above all the previous ones.
+     */
+    public synchronized UpdateSet updateSet(List<ObjectUpdate> objectUpdates) {
+        PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+        filterUpdate.getObjectSet().addAll(objectUpdates);
+        UpdateSet set = new UpdateSet();
+        set.getFilterSet().add(filterUpdate);
+        set.setVersion(String.valueOf(++version));
+        return set;
+    }
+
+    public static ManagedObjectReference mor(String type, String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(type);
+        mor.setValue(value);
+        return mor;
+    }
+
+    public static PropertyChange propertyChange(String path, Object value) {
+        PropertyChange change = new PropertyChange();
+        change.setName(path);
+        change.setOp(PropertyChangeOp.ASSIGN);
+        change.setVal(value);
+        return change;
+    }
+
+    /**
+     * Service content with the managers the tests use.
+     */
+    public static ServiceContent serviceContent() {
+        ServiceContent content = new ServiceContent();
+        content.setRootFolder(mor("Folder", "group-d1"));
+        content.setSessionManager(mor("SessionManager", "SessionManager"));
+        content.setPropertyCollector(mor("PropertyCollector", "propertyCollector"));
+        content.setViewManager(mor("ViewManager", "ViewManager"));
+        return content;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static com.vmware.vsphere.FakeVimPort.propertyChange;
+import static com.vmware.vsphere.FakeVimPort.serviceContent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.sample.hci.vsphere.inventory.InventoryIndex;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.UserSession;
+
+/**
+ * This class is used to test InventoryIndex.java without a vCenter.
+ */
+public class InventoryIndexTest {
+    private static final String IP = "10.0.0.1";
+
+    private final FakeVimPort fake = fake();
+    private final VsphereClient client = new VsphereClient(IP, "administrator@vsphere.local",
+            new BasicConnection(VsphereClient.sdkUrl(IP), "administrator@vsphere.local", "secret",
+                    fake.port()));
+    private final InventoryIndex index = new InventoryIndex(client);
+
+    @After
+    public void close() {
+        index.close();
+    }
+
+    @Test
+    public void testRepeatedLookupsStayInMemory() throws Exception {
+        fake.push(enter(mor("Datacenter", "datacenter-1"), "dc1"),
+                enter(mor("HostSystem", "host-10"), "esx-01.example.com"));
+        assertEquals("datacenter-1", index.getDatacenter("dc1").getValue());
+        int waits = fake.count("waitForUpdatesEx");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("datacenter-1", index.getDatacenter("dc1").getValue());
+            assertEquals("host-10", index.findHost("ESX-01.example.com.").getValue());
+        }
+        assertEquals("lookups within the staleness bound call nobody", waits,
+                fake.count("waitForUpdatesEx"));
+        assertEquals(1, fake.count("createPropertyCollector"));
+    }
+
+    @Test
+    public void testMissCatchesUp() throws Exception {
+        fake.push(enter(mor("Datacenter", "datacenter-1"), "dc1"));
+        index.getDatacenter("dc1");
+
+        // a host added after the last catch-up is found by its first lookup
+        fake.push(enter(mor("HostSystem", "host-11"), "esx-02.example.com"));
+        assertEquals("host-11", index.findHost("esx-02.example.com").getValue());
+        int waits = fake.count("waitForUpdatesEx");
+
+        assertNull(index.findHost("esx-03.example.com"));
+        assertEquals("a miss catches up only once", waits + 1, fake.count("waitForUpdatesEx"));
+    }
+
+    @Test
+    public void testHostKey() {
+        assertEquals("esx-01.example.com", InventoryIndex.hostKey(" ESX-01.Example.COM. "));
+        assertEquals("4c4c4544-0042-3510-8052-b4c04f4d3232",
+                InventoryIndex.hostKey("4C4C4544-0042-3510-8052-B4C04F4D3232"));
+        assertEquals("fe80::1", InventoryIndex.hostKey("FE80::1"));
+    }
+
+    private static ObjectUpdate enter(ManagedObjectReference mor, String name) {
+        ObjectUpdate update = new ObjectUpdate();
+        update.setObj(mor);
+        update.setKind(ObjectUpdateKind.ENTER);
+        update.getChangeSet().add(propertyChange("name", name));
+        return update;
+    }
+
+    private static FakeVimPort fake() {
+        return new FakeVimPort()
+                .on("retrieveServiceContent", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return serviceContent();
+                    }
+                })
+                .on("login", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return new UserSession();
+                    }
+                })
+                .on("createPropertyCollector", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("PropertyCollector", "session[1]1");
+                    }
+                })
+                .on("createContainerView", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("ContainerView", "session[1]2");
+                    }
+                })
+                .on("createFilter", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("PropertyFilter", "session[1]3");
+                    }
+                })
+                .returnNull("destroyPropertyCollector", "destroyView", "logout");
+    }
+}
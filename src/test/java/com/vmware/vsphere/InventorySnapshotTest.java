@@ -0,0 +1,158 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.vsphere.inventory.InventorySnapshot;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * This class is used to test the binary inventory snapshot.
+ */
+public class InventorySnapshotTest {
+    private static final Logger logger = LoggerFactory.getLogger(InventorySnapshotTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, Object> hostProps = new HashMap<String, Object>();
+        hostProps.put("name", "esx-01.example.com");
+        hostProps.put("parent", mor("ClusterComputeResource", "domain-c7"));
+        hostProps.put("hardware.systemInfo.uuid", "4c4c4544-0042-3510-8052-b4c04f4d3232");
+        hostProps.put("inMaintenanceMode", Boolean.TRUE);
+        // not a scalar, left out of the snapshot
+        hostProps.put("config.network.vnic", new Object());
+        Map<String, Object> dcProps = new HashMap<String, Object>();
+        dcProps.put("name", "Datacenter");
+        dcProps.put("parent", mor("Folder", "group-d1"));
+
+        List<InventorySnapshot.Record> records = new ArrayList<InventorySnapshot.Record>();
+        records.add(new InventorySnapshot.Record(mor("HostSystem", "host-42"), hostProps,
+                Arrays.asList("10.0.0.42", "fe80::42")));
+        records.add(new InventorySnapshot.Record(mor("Datacenter", "datacenter-2"), dcProps,
+                Collections.<String>emptyList()));
+
+        File file = new File(folder.getRoot(), "inventory");
+        new InventorySnapshot("52a4f0d1", mor("PropertyCollector", "session[52a4]1"),
+                mor("ContainerView", "session[52a4]2"), "17", 1234L, records).write(file);
+        InventorySnapshot read = InventorySnapshot.read(file);
+
+        assertEquals("52a4f0d1", read.getSessionKey());
+        assertEquals("session[52a4]1", read.getCollector().getValue());
+        assertEquals("ContainerView", read.getView().getType());
+        assertEquals("17", read.getVersion());
+        assertEquals(1234L, read.getSavedTime());
+        assertEquals(2, read.getRecords().size());
+
+        InventorySnapshot.Record host = read.getRecords().get(0);
+        assertEquals("host-42", host.getMor().getValue());
+        assertEquals("esx-01.example.com", host.getProps().get("name"));
+        assertEquals("domain-c7", ((ManagedObjectReference) host.getProps().get("parent")).getValue());
+        assertEquals(Boolean.TRUE, host.getProps().get("inMaintenanceMode"));
+        assertFalse(host.getProps().containsKey("config.network.vnic"));
+        assertEquals(Arrays.asList("10.0.0.42", "fe80::42"), host.getAddresses());
+        assertTrue(read.getRecords().get(1).getAddresses().isEmpty());
+    }
+
+    @Test
+    public void testNullFields() throws IOException {
+        File file = new File(folder.getRoot(), "empty");
+        new InventorySnapshot(null, null, null, null, 0L,
+                Collections.<InventorySnapshot.Record>emptyList()).write(file);
+        InventorySnapshot read = InventorySnapshot.read(file);
+        assertNull(read.getSessionKey());
+        assertNull(read.getCollector());
+        assertNull(read.getVersion());
+        assertTrue(read.getRecords().isEmpty());
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("name", "Datacenter");
+        File file = new File(folder.getRoot(), "truncated");
+        new InventorySnapshot("key", null, null, "1", 0L, Collections.singletonList(
+                new InventorySnapshot.Record(mor("Datacenter", "datacenter-2"), props,
+                        Collections.<String>emptyList()))).write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 4);
+        } finally {
+            raf.close();
+        }
+        try {
+            InventorySnapshot.read(file);
+            fail("a truncated snapshot must not be read");
+        } catch (IOException e) {
+            logger.info("truncated snapshot rejected: {}", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNotASnapshot() throws IOException {
+        File file = folder.newFile("session");
+        Files.write(file.toPath(), "url=https://10.0.0.1/sdk\n".getBytes("UTF-8"));
+        try {
+            InventorySnapshot.read(file);
+            fail("a file of another kind must not be read");
+        } catch (IOException e) {
+            assertEquals("not an inventory snapshot", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLoadTime() throws IOException {
+        List<InventorySnapshot.Record> records = new ArrayList<InventorySnapshot.Record>();
+        for (int i = 0; i < 100000; i++) {
+            Map<String, Object> props = new HashMap<String, Object>();
+            props.put("name", "vm-" + i);
+            props.put("parent", mor("Folder", "group-v" + (i % 100)));
+            records.add(new InventorySnapshot.Record(mor("VirtualMachine", "vm-" + i), props,
+                    Collections.<String>emptyList()));
+        }
+        File file = new File(folder.getRoot(), "large");
+        new InventorySnapshot("key", null, null, "1", 0L, records).write(file);
+        long start = System.nanoTime();
+        InventorySnapshot read = InventorySnapshot.read(file);
+        logger.info("read {} objects from {} bytes in {} ms", read.getRecords().size(), file.length(),
+                (System.nanoTime() - start) / 1000000);
+        assertEquals(records.size(), read.getRecords().size());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.vmware.sample.hci.connection.helpers.ObjectContentIterator;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * This class is used to test the paged walk over a retrieve result.
+ */
+public class ObjectContentIteratorTest {
+
+    private final List<String> calls = new ArrayList<String>();
+
+    @Test
+    public void testPagesFetchedLazily() {
+        ObjectContentIterator objects = new ObjectContentIterator(port(3), null, page(0, "1"));
+        int count = 0;
+        while (objects.hasNext()) {
+            assertEquals("vm-" + count, objects.next().getObj().getValue());
+            count++;
+            // the next page is only asked for once the current one is read
+            assertEquals((count - 1) / 2, calls.size());
+        }
+        assertEquals(6, count);
+        assertEquals(3, objects.getPages());
+        objects.close();
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testEarlyStopCancelsRest() {
+        ObjectContentIterator objects = new ObjectContentIterator(port(3), null, page(0, "1"));
+        ObjectContent third;
+        try (Stream<ObjectContent> stream = objects.stream()) {
+            third = stream.skip(2).findFirst().orElse(null);
+        }
+        assertEquals("vm-2", third.getObj().getValue());
+        assertEquals("continue 1", calls.get(0));
+        assertEquals("cancel 2", calls.get(1));
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testFirstPageLeftToCaller() {
+        RetrieveResult first = page(0, null);
+        ObjectContentIterator objects = new ObjectContentIterator(port(1), null, first);
+        while (objects.hasNext()) {
+            objects.next();
+        }
+        assertEquals("vm-0", first.getObjects().get(0).getObj().getValue());
+        assertEquals("vm-1", first.getObjects().get(1).getObj().getValue());
+    }
+
+    @Test
+    public void testEmptyResult() {
+        ObjectContentIterator objects = new ObjectContentIterator(port(1), null, null);
+        assertFalse(objects.hasNext());
+        objects.close();
+        assertEquals(0, calls.size());
+    }
+
+    // two objects per page, the token names the next page
+    private static RetrieveResult page(int index, String token) {
+        RetrieveResult result = new RetrieveResult();
+        for (int i = 0; i < 2; i++) {
+            ManagedObjectReference mor = new ManagedObjectReference();
+            mor.setType("VirtualMachine");
+            mor.setValue("vm-" + (index * 2 + i));
+            ObjectContent content = new ObjectContent();
+            content.setObj(mor);
+            result.getObjects().add(content);
+        }
+        result.setToken(token);
+        return result;
+    }
+
+    private VimPortType port(final int pages) {
+        return (VimPortType) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{VimPortType.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String token = (String) args[1];
+                        if (method.getName().equals("continueRetrievePropertiesEx")) {
+                            calls.add("continue " + token);
+                            int index = Integer.parseInt(token);
+                            return page(index, index + 1 < pages ? String.valueOf(index + 1) : null);
+                        }
+                        if (method.getName().equals("cancelRetrievePropertiesEx")) {
+                            calls.add("cancel " + token);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vmware.sample.hci.vsphere.journal.JournalAnalyzer;
+import com.vmware.sample.hci.vsphere.journal.OperationJournal;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * This class is used to test OperationJournal.java and JournalAnalyzer.java
+ */
+public class OperationJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ManagedObjectReference task(String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("Task");
+        mor.setValue(value);
+        return mor;
+    }
+
+    @Test
+    public void testRunWrittenInOneBatch() throws Exception {
+        File file = new File(folder.getRoot(), "journal/hci.journal");
+        OperationJournal journal = new OperationJournal(file, 1000, 60 * 1000L);
+        journal.beginRun("addHosts");
+        journal.begin("datacenter", "dc1");
+        journal.begin("cluster", "cl1");
+        OperationJournal.noteTask(task("task-1"));
+        journal.end();
+        journal.begin("host.migrateVms", "10.0.0.1");
+        for (int i = 0; i < 6; i++) {
+            OperationJournal.noteTask(task("task-" + (10 + i)));
+        }
+        journal.fail(new IllegalStateException("boom"));
+        journal.begin("host.add", "10.0.0.2");
+        // nothing reaches the disk before the batch is written
+        assertFalse(file.exists());
+        journal.endRun();
+        journal.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(6, lines.size());
+        assertTrue(lines.get(0).startsWith("#"));
+        JournalAnalyzer.Record cluster = JournalAnalyzer.Record.parse(lines.get(2));
+        assertEquals("cluster", cluster.getStep());
+        assertEquals("cl1", cluster.getTarget());
+        assertEquals("task-1", cluster.getTasks());
+        assertTrue(cluster.isSuccess());
+        JournalAnalyzer.Record migrate = JournalAnalyzer.Record.parse(lines.get(3));
+        assertEquals("task-10,task-11,task-12,task-13,+2", migrate.getTasks());
+        assertEquals("FAILED:IllegalStateException", migrate.getOutcome());
+        // left open by an exception
+        assertEquals("FAILED", JournalAnalyzer.Record.parse(lines.get(4)).getOutcome());
+        JournalAnalyzer.Record run = JournalAnalyzer.Record.parse(lines.get(5));
+        assertTrue(run.isRun());
+        assertEquals("addHosts", run.getTarget());
+        assertEquals("FAILED:host.add", run.getOutcome());
+
+        // a second process appends without a second header
+        OperationJournal next = new OperationJournal(file);
+        next.beginRun("initializeVcenter");
+        next.begin("datacenter", "dc2");
+        next.endRun();
+        next.close();
+        JournalAnalyzer analyzer = JournalAnalyzer.read(file);
+        assertEquals(2, analyzer.getRuns().size());
+        assertEquals(OperationJournal.OK, analyzer.getRun(analyzer.getRuns().get(1)).getOutcome());
+    }
+
+    @Test
+    public void testDisabledWithoutFile() {
+        OperationJournal journal = new OperationJournal(null);
+        assertFalse(journal.isEnabled());
+        journal.beginRun("addHosts");
+        journal.begin("datacenter", "dc1");
+        journal.endRun();
+        journal.close();
+    }
+
+    @Test
+    public void testCriticalPathAndSlowestSteps() {
+        JournalAnalyzer analyzer = new JournalAnalyzer();
+        analyzer.add(record("r1", "datacenter", 0, 100, "OK"));
+        analyzer.add(record("r1", "host.add", 100, 1100, "OK"));
+        // overlapping step ending earlier stays off the path
+        analyzer.add(record("r1", "host.vds", 150, 900, "OK"));
+        analyzer.add(record("r1", "ha.enable", 1300, 1500, "OK"));
+        analyzer.add(record("r1", "run", 0, 1500, "OK"));
+        analyzer.add(record("r2", "host.add", 0, 3000, "FAILED:TaskFailedException"));
+        analyzer.add(record("r2", "run", 0, 3000, "FAILED:host.add"));
+
+        List<JournalAnalyzer.Record> path = analyzer.criticalPath("r1");
+        assertEquals(3, path.size());
+        assertEquals("datacenter", path.get(0).getStep());
+        assertEquals("host.add", path.get(1).getStep());
+        assertEquals("ha.enable", path.get(2).getStep());
+
+        List<JournalAnalyzer.StepStats> slowest = analyzer.slowestSteps(2);
+        assertEquals(2, slowest.size());
+        assertEquals("host.add", slowest.get(0).getStep());
+        assertEquals(4000, slowest.get(0).getTotalMillis());
+        assertEquals(1, slowest.get(0).getFailures());
+        assertEquals(2000.0, slowest.get(0).getMeanMillis(), 1e-9);
+        assertEquals(3000, analyzer.slowestRecords(1).get(0).getDurationMillis());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer.print(new PrintStream(out), 5);
+        String report = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(report.contains("(untracked)"));
+        assertTrue(report.contains("slowest steps across 2 runs"));
+    }
+
+    @Test
+    public void testParse() {
+        assertNull(JournalAnalyzer.Record.parse("# run\tstep"));
+        assertNull(JournalAnalyzer.Record.parse("r1\tstep\ttarget\tx\t1\t-\t0\tOK"));
+        assertNull(JournalAnalyzer.Record.parse("r1\tstep\ttruncated"));
+    }
+
+    private static JournalAnalyzer.Record record(String run, String step, long start, long end, String outcome) {
+        return new JournalAnalyzer.Record(run, step, "-", start, end, "-", 3, outcome);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vmware.sample.hci.vsphere.utils.ProgressCallback;
+import com.vmware.sample.hci.vsphere.utils.ProgressModel;
+import com.vmware.sample.hci.vsphere.utils.StepHistory;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * This class is used to test ProgressModel.java and StepHistory.java
+ */
+public class ProgressModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Integer> reported = Collections.synchronizedList(new ArrayList<Integer>());
+
+    private final ProgressCallback callback = new ProgressCallback() {
+        @Override
+        public void printProgress(int progress) {
+            reported.add(progress);
+        }
+    };
+
+    private static ManagedObjectReference task(String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("Task");
+        mor.setValue(value);
+        return mor;
+    }
+
+    @Test
+    public void testStepsWeighedByHistory() {
+        StepHistory history = new StepHistory(null);
+        history.record("short", 1000, 0);
+        history.record("long", 3000, 0);
+        ProgressModel progress = new ProgressModel(0, 100, callback, history).plan("short", "long");
+
+        progress.begin("short");
+        assertEquals(0, progress.getProgress());
+        progress.end();
+        assertEquals(25, progress.getProgress());
+        progress.begin("long");
+        progress.end();
+        assertEquals(100, progress.getProgress());
+        progress.finish();
+        assertEquals(100, (int) reported.get(reported.size() - 1));
+    }
+
+    @Test
+    public void testTaskPercentages() {
+        StepHistory history = new StepHistory(null);
+        history.record("hosts", 1000, 2);
+        ProgressModel progress = new ProgressModel(0, 100, callback, history).plan("hosts");
+        progress.setMinIntervalMillis(0);
+
+        ProgressModel.Step step = progress.begin("hosts");
+        assertSame(step, ProgressModel.currentStep());
+        step.onProgress(task("task-1"), 50);
+        assertEquals(25, progress.getProgress());
+        step.onProgress(task("task-1"), 100);
+        assertEquals(50, progress.getProgress());
+        step.onProgress(task("task-2"), 80);
+        assertEquals(90, progress.getProgress());
+        // a running step stops short of its end
+        step.onProgress(task("task-3"), 99);
+        assertTrue(progress.getProgress() <= 95);
+        progress.end();
+        assertNull(ProgressModel.currentStep());
+        assertEquals(100, progress.getProgress());
+        // only the task which completed in the step counts
+        assertEquals(1.7, history.getTasks("hosts"), 1e-9);
+    }
+
+    @Test
+    public void testNeverGoesBack() {
+        ProgressModel progress = new ProgressModel(10, 90, callback, new StepHistory(null))
+                .plan("a", "b", "c");
+        progress.setMinIntervalMillis(0);
+
+        ProgressModel.Step step = progress.begin("a");
+        step.setFraction(0.8);
+        int before = progress.getProgress();
+        step.setFraction(0.2);
+        assertEquals(before, progress.getProgress());
+        // skipping a step takes it as done
+        progress.begin("c");
+        assertTrue(progress.getProgress() >= 10 + 2 * 80 / 3);
+        progress.finish();
+        for (int i = 1; i < reported.size(); i++) {
+            assertTrue(reported.get(i) > reported.get(i - 1));
+        }
+        assertEquals(90, (int) reported.get(reported.size() - 1));
+    }
+
+    @Test
+    public void testCallbackThrottled() {
+        ProgressModel progress = new ProgressModel(0, 100, callback, new StepHistory(null)).plan("a");
+        progress.setMinIntervalMillis(60 * 1000L);
+
+        ProgressModel.Step step = progress.begin("a");
+        int calls = reported.size();
+        for (int i = 1; i <= 90; i++) {
+            step.setFraction(i / 100.0);
+        }
+        assertEquals(calls, reported.size());
+        assertTrue(progress.getProgress() > 0);
+        progress.end();
+        assertEquals(calls + 1, reported.size());
+    }
+
+    @Test
+    public void testCloseAfterFailure() {
+        ProgressModel progress = new ProgressModel(0, 100, callback, new StepHistory(null)).plan("a", "b");
+        progress.setMinIntervalMillis(60 * 1000L);
+
+        ProgressModel.Step step = progress.begin("a");
+        step.setFraction(0.5);
+        int calls = reported.size();
+        // the run fails here and never ends the step
+        progress.close();
+        assertNull(ProgressModel.currentStep());
+        // the value held back by the throttle is flushed
+        assertEquals(calls + 1, reported.size());
+        int last = progress.getProgress();
+        step.onProgress(task("task-1"), 50);
+        assertEquals(last, progress.getProgress());
+        assertEquals(calls + 1, reported.size());
+    }
+
+    @Test
+    public void testTaskProgressReportedOffTrackerThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch called = new CountDownLatch(1);
+        final AtomicBoolean sameThread = new AtomicBoolean();
+        ProgressCallback slow = new ProgressCallback() {
+            @Override
+            public void printProgress(int progress) {
+                if (progress > 0) {
+                    sameThread.set(Thread.currentThread() == caller);
+                    called.countDown();
+                }
+            }
+        };
+        ProgressModel progress = new ProgressModel(0, 100, slow, new StepHistory(null)).plan("a");
+        progress.setMinIntervalMillis(0);
+
+        ProgressModel.Step step = progress.begin("a");
+        step.onProgress(task("task-1"), 50);
+        assertTrue(called.await(10, TimeUnit.SECONDS));
+        assertFalse(sameThread.get());
+        progress.close();
+    }
+
+    @Test
+    public void testHistorySaved() throws Exception {
+        File file = new File(folder.getRoot(), "history.properties");
+        StepHistory history = new StepHistory(file);
+        history.record("a", 1000, 1);
+        history.record("a", 2000, 1);
+        history.save();
+
+        StepHistory loaded = new StepHistory(file);
+        assertEquals(1300, loaded.getMillis("a", 0));
+        assertEquals(1.0, loaded.getTasks("a"), 1e-9);
+        assertEquals(42, loaded.getMillis("b", 42));
+    }
+}
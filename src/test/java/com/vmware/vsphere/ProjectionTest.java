@@ -0,0 +1,133 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.vmware.sample.hci.connection.helpers.projection.Projected;
+import com.vmware.sample.hci.connection.helpers.projection.Projection;
+import com.vmware.sample.hci.connection.helpers.projection.PropertyPath;
+import com.vmware.sample.hci.vsphere.HostManager;
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.HostSystemConnectionState;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * This class is used to test how property values are projected onto interfaces.
+ */
+public class ProjectionTest {
+
+    public interface HostVms extends Projected {
+        @PropertyPath("vm")
+        List<ManagedObjectReference> getVms();
+
+        @PropertyPath("vm")
+        ManagedObjectReference[] getVmArray();
+
+        @PropertyPath("summary.quickStats.uptime")
+        int getUptime();
+    }
+
+    public interface NotAProjection {
+        String getName();
+    }
+
+    public interface WithDefault extends Projected {
+        @PropertyPath("name")
+        String getName();
+
+        default String getShortName() {
+            return getName().split("\\.")[0];
+        }
+    }
+
+    @Test
+    public void testSummaryProjection() throws Exception {
+        ManagedObjectReference host = mor("HostSystem", "host-1");
+        List<DynamicProperty> props = new ArrayList<DynamicProperty>();
+        props.add(property("name", "esx-01"));
+        props.add(property("runtime.connectionState", enumElement("connected")));
+        props.add(property("config.product.version", "6.7.0"));
+
+        Projection<HostManager.HostSummary> projection = Projection.of(HostManager.HostSummary.class);
+        assertSame(projection, Projection.of(HostManager.HostSummary.class));
+        assertEquals(3, projection.getPaths().length);
+
+        HostManager.HostSummary summary = projection.project(host, props);
+        assertEquals("esx-01", summary.getName());
+        assertEquals(HostSystemConnectionState.CONNECTED, summary.getConnectionState());
+        assertEquals("6.7.0", summary.getVersion());
+        assertSame(host, summary.getMor());
+    }
+
+    @Test
+    public void testArraysAndDefaults() {
+        ManagedObjectReference vm = mor("VirtualMachine", "vm-1");
+        ArrayOfManagedObjectReference vms = new ArrayOfManagedObjectReference();
+        vms.getManagedObjectReference().add(vm);
+        List<DynamicProperty> props = new ArrayList<DynamicProperty>();
+        props.add(property("vm", vms));
+        props.add(property("unrequested", "ignored"));
+
+        Projection<HostVms> projection = Projection.of(HostVms.class);
+        // both getters of "vm" share one path
+        assertEquals(2, projection.getPaths().length);
+        HostVms hostVms = projection.project(mor("HostSystem", "host-1"), props);
+        assertEquals(1, hostVms.getVms().size());
+        assertArrayEquals(new ManagedObjectReference[]{vm}, hostVms.getVmArray());
+        assertEquals(0, hostVms.getUptime());
+
+        HostVms empty = projection.project(mor("HostSystem", "host-2"), null);
+        assertNull(empty.getVms());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetterWithoutPath() {
+        Projection.of(NotAProjection.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDefaultMethodRejected() {
+        Projection.of(WithDefault.class);
+    }
+
+    private static DynamicProperty property(String name, Object val) {
+        DynamicProperty dp = new DynamicProperty();
+        dp.setName(name);
+        dp.setVal(val);
+        return dp;
+    }
+
+    // enums arrive from JAX-WS as DOM elements
+    private static Element enumElement(String value) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element element = doc.createElement("val");
+        element.appendChild(doc.createTextNode(value));
+        return element;
+    }
+}
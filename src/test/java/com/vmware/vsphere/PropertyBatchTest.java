@@ -0,0 +1,102 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vmware.sample.hci.vsphere.operation.PropertyBatch;
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PropertyFilterSpec;
+
+/**
+ * This class is used to test how property requests are batched.
+ */
+public class PropertyBatchTest {
+
+    @Test
+    public void testRequestsGroupedByTypeAndPaths() {
+        ManagedObjectReference host1 = mor("HostSystem", "host-1");
+        ManagedObjectReference host2 = mor("HostSystem", "host-2");
+        ManagedObjectReference pg = mor("DistributedVirtualPortgroup", "dvportgroup-1");
+
+        PropertyBatch batch = new PropertyBatch(null)
+                .add(host1, "configManager")
+                .add(host2, "configManager")
+                .add(pg, "key")
+                .add(host1, "config.network");
+        List<PropertyFilterSpec> specs = batch.filterSpecs();
+
+        // host-1 asks for more than host-2, so they can not share a spec
+        assertEquals(3, specs.size());
+        assertEquals("host-1", specs.get(0).getObjectSet().get(0).getObj().getValue());
+        assertEquals(2, specs.get(0).getPropSet().get(0).getPathSet().size());
+        assertEquals("host-2", specs.get(1).getObjectSet().get(0).getObj().getValue());
+        assertEquals("DistributedVirtualPortgroup", specs.get(2).getPropSet().get(0).getType());
+
+        batch.add(host2, "config.network");
+        specs = batch.filterSpecs();
+        assertEquals(2, specs.size());
+        assertEquals(2, specs.get(0).getObjectSet().size());
+    }
+
+    @Test
+    public void testResultValues() {
+        ManagedObjectReference host = mor("HostSystem", "host-1");
+        ManagedObjectReference vm = mor("VirtualMachine", "vm-1");
+        ArrayOfManagedObjectReference vms = new ArrayOfManagedObjectReference();
+        vms.getManagedObjectReference().add(vm);
+
+        PropertyBatch.Result result = new PropertyBatch.Result();
+        result.add(content(host, "vm", vms));
+        result.add(content(host, "name", "esx-01"));
+
+        assertTrue(result.contains(mor("HostSystem", "host-1")));
+        assertArrayEquals(new ManagedObjectReference[]{vm},
+                result.get(host, "vm", ManagedObjectReference[].class));
+        assertEquals("esx-01", result.get(host, "name", String.class));
+        assertEquals(2, result.getProperties(host).size());
+        assertNull(result.get(vm, "name"));
+        assertTrue(result.getProperties(vm).isEmpty());
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testResultWrongType() {
+        ManagedObjectReference host = mor("HostSystem", "host-1");
+        PropertyBatch.Result result = new PropertyBatch.Result();
+        result.add(content(host, "name", "esx-01"));
+        result.get(host, "name", Integer.class);
+    }
+
+    private static ObjectContent content(ManagedObjectReference mor, String name, Object val) {
+        DynamicProperty dp = new DynamicProperty();
+        dp.setName(name);
+        dp.setVal(val);
+        ObjectContent content = new ObjectContent();
+        content.setObj(mor);
+        content.getPropSet().add(dp);
+        return content;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.serviceContent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.sample.hci.connection.SessionState;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.sample.hci.vsphere.session.SessionKeepAlive;
+import com.vmware.sample.hci.vsphere.session.SessionPool;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.UserSession;
+
+/**
+ * This class is used to test SessionKeepAlive.java against a pool of
+ * sessions on a fake port.
+ */
+public class SessionKeepAliveTest {
+    private static final String IP = "10.0.0.1";
+
+    private final FakeVimPort fake = new FakeVimPort();
+    private SessionPool pool;
+    private VsphereClient client;
+
+    @Before
+    public void setUp() {
+        fake.on("retrieveServiceContent", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                return serviceContent();
+            }
+        }).on("login", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                return new UserSession();
+            }
+        }).returnNull("currentTime", "logout");
+
+        pool = new SessionPool() {
+            @Override
+            protected VsphereClient newClient(String ipAddress, String userName, String password) {
+                return new VsphereClient(ipAddress, userName, new BasicConnection(
+                        VsphereClient.sdkUrl(ipAddress), userName, password, fake.port()));
+            }
+        };
+        client = pool.borrow(IP, "root", "secret");
+        pool.release(client);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testIdleSessionPinged() throws InterruptedException {
+        SessionKeepAlive keepAlive = new SessionKeepAlive(pool, 50, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+
+        assertEquals(1, keepAlive.pingQuietSessions());
+        assertEquals(1, fake.count("currentTime"));
+        assertEquals(1, fake.count("login"));
+        assertEquals(SessionState.ALIVE, client.getState());
+    }
+
+    @Test
+    public void testRecentSessionNotPinged() {
+        SessionKeepAlive keepAlive = new SessionKeepAlive(pool, 1, TimeUnit.HOURS);
+
+        assertEquals(0, keepAlive.pingQuietSessions());
+        assertEquals(0, fake.count("currentTime"));
+    }
+
+    @Test
+    public void testExpiredSessionRenewed() throws InterruptedException {
+        fake.on("currentTime", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) throws RuntimeFaultFaultMsg {
+                throw new RuntimeFaultFaultMsg("session expired", new NotAuthenticated());
+            }
+        });
+        SessionKeepAlive keepAlive = new SessionKeepAlive(pool, 50, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+
+        assertEquals(1, keepAlive.pingQuietSessions());
+        assertEquals(1, fake.count("currentTime"));
+        assertEquals(2, fake.count("login"));
+        assertEquals(2, client.getConnection().getLoginCount());
+        assertTrue(client.isConnected());
+    }
+}
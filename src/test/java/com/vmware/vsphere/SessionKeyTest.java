@@ -0,0 +1,39 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vmware.sample.hci.vsphere.session.SessionKey;
+
+/**
+ * This class is used to test SessionKey.java
+ */
+public class SessionKeyTest {
+
+    @Test
+    public void testPasswordIsPartOfTheKey() {
+        SessionKey key = new SessionKey("10.0.0.1", "root", "secret");
+        assertEquals(key, new SessionKey(" 10.0.0.1 ", "root", "secret"));
+        assertEquals(key.hashCode(), new SessionKey("10.0.0.1", "root", "secret").hashCode());
+        assertFalse(key.equals(new SessionKey("10.0.0.1", "root", "guess")));
+        assertTrue(key.isSameUser(new SessionKey("10.0.0.1", "root", "guess")));
+        assertFalse(key.isSameUser(new SessionKey("10.0.0.1", "admin", "secret")));
+        assertFalse(key.toString().contains("secret"));
+    }
+}
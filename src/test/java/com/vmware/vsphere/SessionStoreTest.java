@@ -0,0 +1,158 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.serviceContent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vmware.sample.hci.connection.BasicConnection;
+import com.vmware.sample.hci.connection.SessionStore;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.UserSession;
+
+/**
+ * This class is used to test the local session store.
+ */
+public class SessionStoreTest {
+    private static final String URL = "https://10.0.0.1/sdk/vimService/";
+    private static final String USER = "administrator@vsphere.local";
+    private static final String PASSWORD = "secret";
+    private static final String COOKIE = "vmware_soap_session=\"52a4f0d1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        SessionStore store = new SessionStore(new File(folder.getRoot(), "sessions"));
+        assertNull(store.load(URL, USER, PASSWORD));
+
+        store.save(URL, USER, PASSWORD, COOKIE, serviceContent());
+        SessionStore.StoredSession stored = store.load(URL, USER, PASSWORD);
+        assertNotNull(stored);
+        assertEquals(COOKIE, stored.getCookie());
+        assertEquals("SessionManager", stored.getServiceContent().getSessionManager().getValue());
+        assertEquals("propertyCollector", stored.getServiceContent().getPropertyCollector().getValue());
+        assertNull("other users have their own entry", store.load(URL, "root", PASSWORD));
+
+        store.delete(URL, USER);
+        assertNull(store.load(URL, USER, PASSWORD));
+    }
+
+    @Test
+    public void testFilesAreOwnerOnly() throws Exception {
+        File dir = new File(folder.getRoot(), "sessions");
+        SessionStore store = new SessionStore(dir);
+        store.save(URL, USER, PASSWORD, COOKIE, serviceContent());
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        if (!System.getProperty("os.name").startsWith("Windows")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(files[0].toPath())));
+
+            Files.setPosixFilePermissions(files[0].toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+            assertNull("a readable file is not trusted", store.load(URL, USER, PASSWORD));
+        }
+    }
+
+    @Test
+    public void testClaimIsExclusive() {
+        SessionStore store = new SessionStore(folder.getRoot());
+        assertTrue(store.claim(URL, USER));
+        assertFalse(store.claim(URL.toUpperCase().replace("HTTPS", "https"), USER));
+        store.unclaim(URL, USER);
+        assertTrue(store.claim(URL, USER));
+    }
+
+    @Test
+    public void testWrongPasswordNotLoaded() {
+        SessionStore store = new SessionStore(folder.getRoot());
+        store.save(URL, USER, PASSWORD, COOKIE, serviceContent());
+
+        assertNull(store.load(URL, USER, "rotated"));
+        assertNull(store.load(URL, USER, null));
+        assertNotNull(store.load(URL, USER, PASSWORD));
+    }
+
+    @Test
+    public void testResumeWithSamePassword() {
+        SessionStore store = new SessionStore(folder.getRoot());
+        store.save(URL, USER, PASSWORD, COOKIE, serviceContent());
+        FakeVimPort fake = fakeServer();
+
+        BasicConnection connection = new BasicConnection(URL, USER, PASSWORD, fake.port());
+        connection.setSessionStore(store);
+        connection.connect();
+
+        assertEquals(1, fake.count("retrievePropertiesEx"));
+        assertEquals(0, fake.count("login"));
+        assertEquals(COOKIE, connection.getSessionCookie());
+    }
+
+    @Test
+    public void testWrongPasswordNotResumed() {
+        SessionStore store = new SessionStore(folder.getRoot());
+        store.save(URL, USER, PASSWORD, COOKIE, serviceContent());
+        FakeVimPort fake = fakeServer();
+
+        BasicConnection connection = new BasicConnection(URL, USER, "rotated", fake.port());
+        connection.setSessionStore(store);
+        connection.connect();
+
+        assertEquals("the stored session is not even checked", 0, fake.count("retrievePropertiesEx"));
+        assertEquals(1, fake.count("login"));
+        assertNull("the entry is dropped", store.load(URL, USER, PASSWORD));
+    }
+
+    // a server which knows the stored session and lets anybody log in
+    private static FakeVimPort fakeServer() {
+        return new FakeVimPort().on("retrievePropertiesEx", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                DynamicProperty property = new DynamicProperty();
+                property.setName("currentSession");
+                property.setVal(new UserSession());
+                ObjectContent content = new ObjectContent();
+                content.getPropSet().add(property);
+                RetrieveResult result = new RetrieveResult();
+                result.getObjects().add(content);
+                return result;
+            }
+        }).on("retrieveServiceContent", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                return serviceContent();
+            }
+        }).on("login", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                return new UserSession();
+            }
+        });
+    }
+}
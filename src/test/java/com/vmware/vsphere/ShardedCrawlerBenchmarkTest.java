@@ -0,0 +1,137 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static com.vmware.vsphere.FakeVimPort.serviceContent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.helpers.GetMOREF;
+import com.vmware.sample.hci.connection.helpers.ShardedCrawler;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Crawls a fake inventory of 100k VMs in 20 datacenters, first on one
+ * session and then on one session per core, and checks the speedup. Every
+ * page costs a fixed round trip, as it would against a vCenter.
+ */
+public class ShardedCrawlerBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedCrawlerBenchmarkTest.class);
+
+    private static final int DATACENTERS = 20;
+    private static final int VMS_PER_DATACENTER = 5000;
+    private static final int PAGE_SIZE = 500;
+    private static final long ROUND_TRIP_MS = 2;
+
+    private final ServiceContent serviceContent = serviceContent();
+
+    @Test
+    public void testCrawlSpeedup() {
+        int cores = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        long serial = run(1);
+        long parallel = run(cores);
+        logger.info("serial {} ms, {} sessions {} ms, speedup {}", serial / 1000000,
+                cores, parallel / 1000000, String.format("%.1f", (double) serial / parallel));
+        // the round trips overlap, whatever the number of cores
+        assertTrue("crawling on " + cores + " sessions must be faster than on one", parallel < serial);
+    }
+
+    private long run(int sessions) {
+        List<GetMOREF> workers = new ArrayList<GetMOREF>();
+        for (int i = 0; i < sessions; i++) {
+            workers.add(new GetMOREF(fakePort(), serviceContent));
+        }
+        ShardedCrawler crawler = new ShardedCrawler(new GetMOREF(fakePort(), serviceContent), workers)
+                .setPageSize(PAGE_SIZE);
+        long start = System.nanoTime();
+        Map<ManagedObjectReference, Map<String, Object>> vms =
+                crawler.crawl(ShardedCrawler.Shard.DATACENTER, "VirtualMachine", "name");
+        long elapsed = System.nanoTime() - start;
+        assertEquals(DATACENTERS * VMS_PER_DATACENTER, vms.size());
+        return elapsed;
+    }
+
+    // a view is named after its container, a token after the container and offset
+    private static RetrieveResult page(String container, int offset, int pageSize) {
+        RetrieveResult result = new RetrieveResult();
+        boolean root = container.equals("group-d1");
+        int total = root ? DATACENTERS : VMS_PER_DATACENTER;
+        int end = Math.min(total, offset + pageSize);
+        for (int i = offset; i < end; i++) {
+            ObjectContent content = new ObjectContent();
+            content.setObj(root ? mor("Datacenter", "datacenter-" + i)
+                    : mor("VirtualMachine", "vm-" + container + "-" + i));
+            DynamicProperty name = new DynamicProperty();
+            name.setName("name");
+            name.setVal(content.getObj().getValue());
+            content.getPropSet().add(name);
+            result.getObjects().add(content);
+        }
+        if (end < total) {
+            result.setToken(container + "/" + end + "/" + pageSize);
+        }
+        try {
+            Thread.sleep(ROUND_TRIP_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    private VimPortType fakePort() {
+        return new FakeVimPort()
+                .on("createContainerView", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("ContainerView", ((ManagedObjectReference) args[1]).getValue());
+                    }
+                })
+                .on("retrievePropertiesEx", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        @SuppressWarnings("unchecked")
+                        PropertyFilterSpec spec = ((List<PropertyFilterSpec>) args[1]).get(0);
+                        Integer max = ((RetrieveOptions) args[2]).getMaxObjects();
+                        return page(spec.getObjectSet().get(0).getObj().getValue(), 0,
+                                max == null ? Integer.MAX_VALUE : max);
+                    }
+                })
+                .on("continueRetrievePropertiesEx", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        String[] token = ((String) args[1]).split("/");
+                        return page(token[0], Integer.parseInt(token[1]), Integer.parseInt(token[2]));
+                    }
+                })
+                .returnNull("cancelRetrievePropertiesEx")
+                .port();
+    }
+}
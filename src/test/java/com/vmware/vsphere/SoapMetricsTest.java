@@ -0,0 +1,128 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+
+import org.junit.Test;
+
+import com.vmware.sample.hci.connection.metrics.CallSnapshot;
+import com.vmware.sample.hci.connection.metrics.LatencyHistogram;
+import com.vmware.sample.hci.connection.metrics.SoapMetrics;
+import com.vmware.sample.hci.connection.metrics.SoapMetricsHandler;
+
+/**
+ * This class is used to test the SOAP call statistics.
+ */
+public class SoapMetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.recordMicros(micros);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMaxMicros());
+        assertWithin(5000, histogram.getPercentileMicros(50), 0.04);
+        assertWithin(9900, histogram.getPercentileMicros(99), 0.04);
+        assertEquals(10000, histogram.getPercentileMicros(100));
+        assertEquals(5000.5, histogram.getMeanMicros(), 0.001);
+    }
+
+    @Test
+    public void testHistogramSmallAndLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(3);
+        histogram.recordMicros(3L * 60 * 60 * 1000000);
+        assertEquals(3, histogram.getPercentileMicros(50));
+        assertWithin(3L * 60 * 60 * 1000000, histogram.getPercentileMicros(100), 0.04);
+    }
+
+    @Test
+    public void testMetricsAggregation() {
+        SoapMetrics metrics = new SoapMetrics();
+        metrics.record("RetrievePropertiesEx", "vc", 2000000L, 500, 20000, false);
+        metrics.record("RetrievePropertiesEx", "vc", 4000000L, 500, 30000, false);
+        metrics.record("ReconfigureDvs_Task", "vc", 1000000L, 800, 300, true);
+
+        CallSnapshot retrieve = metrics.get("RetrievePropertiesEx", "vc");
+        assertEquals(2, retrieve.getCount());
+        assertEquals(0, retrieve.getFaults());
+        assertEquals(1000, retrieve.getRequestBytes());
+        assertEquals(50000, retrieve.getResponseBytes());
+        assertEquals(3.0, retrieve.getMeanMillis(), 0.01);
+        assertNull(metrics.get("RetrievePropertiesEx", "esx"));
+
+        List<CallSnapshot> calls = metrics.getCalls();
+        assertEquals("most expensive first", "RetrievePropertiesEx", calls.get(0).getMethod());
+        assertEquals(3, metrics.getTotalCalls());
+        assertEquals(1, metrics.getTotalFaults());
+        assertEquals(2, metrics.getCount("RetrievePropertiesEx"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getTotalCalls());
+    }
+
+    @Test
+    public void testHandlerNamesOperationWithoutParsing() {
+        SoapMetrics metrics = new SoapMetrics();
+        SoapMetricsHandler handler = new SoapMetricsHandler(metrics, false);
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(MessageContext.WSDL_OPERATION, new QName("urn:vim25", "RetrievePropertiesEx"));
+        properties.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, "https://vc.example.com/sdk");
+        SOAPMessageContext context = context(properties);
+
+        properties.put(MessageContext.MESSAGE_OUTBOUND_PROPERTY, Boolean.TRUE);
+        handler.handleMessage(context);
+        properties.put(MessageContext.MESSAGE_OUTBOUND_PROPERTY, Boolean.FALSE);
+        handler.handleMessage(context);
+
+        CallSnapshot call = metrics.get("RetrievePropertiesEx", "vc.example.com");
+        assertEquals(1, call.getCount());
+        assertEquals(0, call.getFaults());
+    }
+
+    // a context whose message must not be read
+    private static SOAPMessageContext context(final Map<String, Object> properties) {
+        return (SOAPMessageContext) Proxy.newProxyInstance(SoapMetricsTest.class.getClassLoader(),
+                new Class<?>[]{SOAPMessageContext.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("get".equals(method.getName())) {
+                            return properties.get(args[0]);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static void assertWithin(long expected, long actual, double ratio) {
+        assertTrue(String.format("expected %d within %.0f%%, got %d", expected, ratio * 100, actual),
+                Math.abs(actual - expected) <= expected * ratio);
+    }
+}
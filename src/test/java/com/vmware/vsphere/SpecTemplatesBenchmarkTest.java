@@ -0,0 +1,132 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.helpers.builders.ObjectSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertyFilterSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.PropertySpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.SelectionSpecBuilder;
+import com.vmware.sample.hci.connection.helpers.builders.SpecTemplates;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PropertyFilterSpec;
+
+/**
+ * Compares building the VM lookup spec on every call with binding its
+ * template, in bytes allocated and CPU time per call of the current thread.
+ */
+public class SpecTemplatesBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(SpecTemplatesBenchmarkTest.class);
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 200000;
+
+    private final ManagedObjectReference rootFolder = rootFolder();
+    private Object sink;
+
+    @Test
+    public void testTemplateBinding() {
+        PropertyFilterSpec spec = bind();
+        assertSame(rootFolder, spec.getObjectSet().get(0).getObj());
+        assertTrue(spec.getObjectSet().get(0).isSkip());
+        assertEquals("name", spec.getPropSet().get(0).getPathSet().get(0));
+        assertSame(spec.getPropSet().get(0), bind().getPropSet().get(0));
+    }
+
+    @Test
+    public void testBoundListsMutable() {
+        PropertyFilterSpec spec = bind();
+        spec.getPropSet().add(new PropertySpecBuilder().type("Folder").pathSet("name"));
+        spec.getObjectSet().get(0).getSelectSet().add(new SelectionSpecBuilder().name("extra"));
+        spec.getObjectSet().add(new ObjectSpecBuilder().obj(rootFolder));
+
+        PropertyFilterSpec next = bind();
+        assertEquals(1, next.getPropSet().size());
+        assertEquals(1, next.getObjectSet().size());
+        assertEquals(1, next.getObjectSet().get(0).getSelectSet().size());
+    }
+
+    @Test
+    public void testAllocationPerLookup() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported()
+                && threads.isCurrentThreadCpuTimeSupported());
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink = build();
+            sink = bind();
+        }
+        long id = Thread.currentThread().getId();
+
+        long bytes = threads.getThreadAllocatedBytes(id);
+        long cpu = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = build();
+        }
+        long builtBytes = threads.getThreadAllocatedBytes(id) - bytes;
+        long builtCpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        bytes = threads.getThreadAllocatedBytes(id);
+        cpu = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = bind();
+        }
+        long boundBytes = threads.getThreadAllocatedBytes(id) - bytes;
+        long boundCpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        logger.info("built: {} bytes {} ns per lookup, template: {} bytes {} ns per lookup",
+                builtBytes / ITERATIONS, builtCpu / ITERATIONS,
+                boundBytes / ITERATIONS, boundCpu / ITERATIONS);
+        assertTrue(boundBytes < builtBytes);
+    }
+
+    // what vmByVMname did on every call
+    private PropertyFilterSpec build() {
+        return new PropertyFilterSpecBuilder()
+                .propSet(new PropertySpecBuilder()
+                        .all(Boolean.FALSE)
+                        .pathSet("name")
+                        .type("VirtualMachine"))
+                .objectSet(new ObjectSpecBuilder()
+                        .obj(rootFolder)
+                        .skip(Boolean.TRUE)
+                        .selectSet(SpecTemplates.vmTraversalSpec()));
+    }
+
+    private PropertyFilterSpec bind() {
+        return SpecTemplates.get("VirtualMachine", SpecTemplates.Traversal.VM_INVENTORY, "name")
+                .bind(rootFolder);
+    }
+
+    private static ManagedObjectReference rootFolder() {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("Folder");
+        mor.setValue("group-d1");
+        return mor;
+    }
+}
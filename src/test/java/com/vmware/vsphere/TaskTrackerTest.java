@@ -0,0 +1,354 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static com.vmware.vsphere.FakeVimPort.propertyChange;
+import static com.vmware.vsphere.FakeVimPort.serviceContent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.sample.hci.vsphere.operation.TaskTracker;
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+
+/**
+ * This class is used to test the task tracker against a fake collector.
+ */
+public class TaskTrackerTest {
+
+    private final Map<String, TaskInfoState> states = new HashMap<String, TaskInfoState>();
+    private final List<String> view = Collections.synchronizedList(new ArrayList<String>());
+    private final FakeVimPort fake = fake();
+    private final TaskTracker tracker = new TaskTracker(fake.port(), fake.port(), serviceContent(), "fake");
+
+    @After
+    public void close() {
+        tracker.close();
+    }
+
+    @Test
+    public void testCompletesOnStateChange() throws Exception {
+        states.put("task-1", TaskInfoState.RUNNING);
+        states.put("task-2", TaskInfoState.QUEUED);
+        CompletableFuture<TaskInfo> first = tracker.track(task("task-1"));
+        CompletableFuture<TaskInfo> second = tracker.track(task("task-2"));
+        assertSame(first, tracker.track(task("task-1")));
+
+        push("task-1", "info", info("task-1", TaskInfoState.SUCCESS));
+        assertEquals(TaskInfoState.SUCCESS, first.get(5, TimeUnit.SECONDS).getState());
+        assertFalse(second.isDone());
+
+        // a change of one field of the info
+        push("task-2", "info.state", TaskInfoState.ERROR);
+        assertEquals(TaskInfoState.ERROR, second.get(5, TimeUnit.SECONDS).getState());
+
+        assertEquals(1, fake.count("createPropertyCollector"));
+        assertEquals(1, fake.count("createFilter"));
+        waitForEmptyView();
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void testTaskFinishedBeforeTracking() throws Exception {
+        states.put("task-3", TaskInfoState.SUCCESS);
+        TaskInfo info = tracker.track(task("task-3")).get(5, TimeUnit.SECONDS);
+        assertEquals("task-3", info.getKey());
+        assertEquals(TaskInfoState.SUCCESS, info.getState());
+    }
+
+    @Test
+    public void testCloseFailsPendingTasks() throws Exception {
+        states.put("task-4", TaskInfoState.RUNNING);
+        CompletableFuture<TaskInfo> future = tracker.track(task("task-4"));
+        tracker.close();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("a task still running when the tracker is closed must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("closed"));
+        }
+        // the collector may still be being set up by the thread of the tracker
+        for (int i = 0; i < 100 && fake.count("destroyPropertyCollector") == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, fake.count("destroyPropertyCollector"));
+    }
+
+    @Test
+    public void testTrackOutsideLock() throws Exception {
+        states.put("task-13", TaskInfoState.RUNNING);
+        states.put("task-14", TaskInfoState.RUNNING);
+        tracker.track(task("task-13"));
+        waitForView("task-13");
+        // a tracker call from another thread must not wait for a slow server
+        fake.on("modifyListView", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) throws InterruptedException {
+                Thread.sleep(2000);
+                return Collections.emptyList();
+            }
+        });
+        Thread slow = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tracker.track(task("task-14"));
+            }
+        });
+        slow.start();
+        while (fake.count("modifyListView") == 0) {
+            Thread.sleep(10);
+        }
+        long start = System.nanoTime();
+        assertEquals(2, tracker.size());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        slow.join();
+    }
+
+    @Test
+    public void testStaleViewKeepsTask() throws Exception {
+        states.put("task-15", TaskInfoState.RUNNING);
+        states.put("task-16", TaskInfoState.RUNNING);
+        tracker.track(task("task-15"));
+        waitForView("task-15");
+        // the view went away with the session, the next change of it fails
+        final FakeVimPort.Answer modify = fake.answer("modifyListView");
+        final AtomicBoolean gone = new AtomicBoolean(true);
+        fake.on("modifyListView", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) throws Throwable {
+                if (gone.getAndSet(false)) {
+                    throw new RuntimeFaultFaultMsg("view is gone", new ManagedObjectNotFound());
+                }
+                return modify.answer(args);
+            }
+        });
+
+        CompletableFuture<TaskInfo> future = tracker.track(task("task-16"));
+        assertFalse("a live task must not fail", future.isDone());
+        for (int i = 0; i < 100 && fake.count("createListView") < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, fake.count("createListView"));
+        assertEquals(1, fake.count("destroyPropertyCollector"));
+
+        push("task-16", "info.state", TaskInfoState.SUCCESS);
+        assertEquals(TaskInfoState.SUCCESS, future.get(5, TimeUnit.SECONDS).getState());
+        assertEquals(1, tracker.size());
+    }
+
+    @Test
+    public void testFatalWaitDestroysCollector() throws Exception {
+        states.put("task-17", TaskInfoState.RUNNING);
+        CompletableFuture<TaskInfo> future = tracker.track(task("task-17"));
+        waitForView("task-17");
+        fake.on("waitForUpdatesEx", new FakeVimPort.Answer() {
+            @Override
+            public Object answer(Object[] args) {
+                throw new IllegalStateException("unexpected answer");
+            }
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("a task which can no longer be followed must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("could not monitor"));
+        }
+        for (int i = 0; i < 100 && fake.count("destroyView") == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, fake.count("destroyPropertyCollector"));
+        assertEquals(1, fake.count("destroyView"));
+    }
+
+    @Test
+    public void testCancelStopsTracking() throws Exception {
+        states.put("task-5", TaskInfoState.RUNNING);
+        CompletableFuture<TaskInfo> future = tracker.track(task("task-5"));
+        future.cancel(false);
+        assertEquals(0, tracker.size());
+        waitForEmptyView();
+    }
+
+    @Test
+    public void testWaitAllWithDeadline() {
+        states.put("task-6", TaskInfoState.SUCCESS);
+        states.put("task-7", TaskInfoState.RUNNING);
+        List<TaskTracker.Result> results = tracker.waitAll(
+                Arrays.asList(task("task-6"), task("task-7")), 300, false);
+        assertEquals(TaskTracker.Result.Outcome.SUCCESS, results.get(0).getOutcome());
+        assertEquals(TaskTracker.Result.Outcome.TIMED_OUT, results.get(1).getOutcome());
+        assertEquals(1, fake.count("cancelTask"));
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void testWaitAllFailFast() {
+        states.put("task-8", TaskInfoState.ERROR);
+        states.put("task-9", TaskInfoState.RUNNING);
+        states.put("task-10", TaskInfoState.SUCCESS);
+        List<TaskTracker.Result> results = tracker.waitAll(
+                Arrays.asList(task("task-8"), task("task-9"), task("task-10")), 0, true);
+        assertEquals(TaskTracker.Result.Outcome.ERROR, results.get(0).getOutcome());
+        assertEquals(TaskTracker.Result.Outcome.CANCELLED, results.get(1).getOutcome());
+        assertFalse(results.get(1).isSuccess());
+    }
+
+    @Test
+    public void testWaitAllTwentyTasks() throws Exception {
+        List<ManagedObjectReference> tasks = new ArrayList<ManagedObjectReference>();
+        for (int i = 0; i < 20; i++) {
+            states.put("vm-task-" + i, TaskInfoState.RUNNING);
+            tasks.add(task("vm-task-" + i));
+        }
+        Thread finisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // updates of tasks not tracked yet would be dropped
+                while (tracker.size() < 20) {
+                    Thread.yield();
+                }
+                for (int i = 19; i >= 0; i--) {
+                    push("vm-task-" + i, "info.state", TaskInfoState.SUCCESS);
+                }
+            }
+        });
+        finisher.start();
+        List<TaskTracker.Result> results = tracker.waitAll(tasks, 5000, false);
+        finisher.join();
+        for (TaskTracker.Result result : results) {
+            assertTrue(result.isSuccess());
+        }
+        assertEquals(1, fake.count("createFilter"));
+    }
+
+    @Test
+    public void testWaitAny() {
+        states.put("task-11", TaskInfoState.RUNNING);
+        states.put("task-12", TaskInfoState.SUCCESS);
+        TaskTracker.Result first = tracker.waitAny(Arrays.asList(task("task-11"), task("task-12")), 5000);
+        assertEquals("task-12", first.getTask().getValue());
+        assertEquals(1, tracker.size());
+        assertNull(tracker.waitAny(Collections.singletonList(task("task-11")), 200));
+        assertEquals(0, fake.count("cancelTask"));
+    }
+
+    private void waitForView(String task) throws InterruptedException {
+        for (int i = 0; i < 100 && !view.contains(task); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(view.contains(task));
+    }
+
+    private void waitForEmptyView() throws InterruptedException {
+        for (int i = 0; i < 100 && !view.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(view.isEmpty());
+    }
+
+    private void push(String task, String path, Object value) {
+        ObjectUpdate update = new ObjectUpdate();
+        update.setObj(task(task));
+        update.setKind(ObjectUpdateKind.MODIFY);
+        update.getChangeSet().add(propertyChange(path, value));
+        fake.push(update);
+    }
+
+    private void enter(String task) {
+        ObjectUpdate update = new ObjectUpdate();
+        update.setObj(task(task));
+        update.setKind(ObjectUpdateKind.ENTER);
+        update.getChangeSet().add(propertyChange("info", info(task, states.get(task))));
+        fake.push(update);
+    }
+
+    private static TaskInfo info(String task, TaskInfoState state) {
+        TaskInfo info = new TaskInfo();
+        info.setKey(task);
+        info.setTask(task(task));
+        info.setName("ReconfigureDvs_Task");
+        info.setState(state);
+        return info;
+    }
+
+    private static ManagedObjectReference task(String value) {
+        return mor("Task", value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private FakeVimPort fake() {
+        return new FakeVimPort()
+                .on("createPropertyCollector", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("PropertyCollector", "session[1]1");
+                    }
+                })
+                .on("createListView", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        for (ManagedObjectReference task : (List<ManagedObjectReference>) args[1]) {
+                            view.add(task.getValue());
+                            enter(task.getValue());
+                        }
+                        return mor("ListView", "session[1]2");
+                    }
+                })
+                .on("modifyListView", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        for (ManagedObjectReference task : (List<ManagedObjectReference>) args[1]) {
+                            view.add(task.getValue());
+                            enter(task.getValue());
+                        }
+                        for (ManagedObjectReference task : (List<ManagedObjectReference>) args[2]) {
+                            view.remove(task.getValue());
+                        }
+                        return Collections.emptyList();
+                    }
+                })
+                .on("createFilter", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("PropertyFilter", "session[1]3");
+                    }
+                })
+                .returnNull("cancelTask", "cancelWaitForUpdates", "destroyPropertyCollector", "destroyView");
+    }
+}
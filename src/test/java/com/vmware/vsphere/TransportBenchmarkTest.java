@@ -0,0 +1,87 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.TransportConfig;
+import com.vmware.sample.hci.vsphere.HostInfo;
+import com.vmware.sample.hci.vsphere.HostManager;
+import com.vmware.sample.hci.vsphere.VsphereClient;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * Compares the plain and the compressed transport on the large host
+ * {@code config} payload. Needs a live host.
+ */
+public class TransportBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(TransportBenchmarkTest.class);
+
+    private static final int ITERATIONS = 20;
+
+    private final HostInfo hostInfo =
+            new HostInfo("YOUR_HOST_IP_ADDRESS", "YOUR_HOST_HOSTNAME", "YOUR_USER_NAME", "YOUR_PASS_WORD");
+
+    @Ignore
+    @Test
+    public void testGzipTransport() {
+        try {
+            run("plain", new TransportConfig().setGzip(false));
+            run("gzip", new TransportConfig().setGzip(true));
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            fail(e.getMessage());
+        }
+    }
+
+    private void run(String name, TransportConfig config) throws Exception {
+        VsphereClient client = new VsphereClient(hostInfo.getIpAddress(),
+                hostInfo.getUserName(), hostInfo.getPassword(), config);
+        try {
+            HostManager hostManager = new HostManager(hostInfo, client);
+            ManagedObjectReference hostMor = hostManager.getHostMor();
+            long total = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                hostManager.getGetMOREFs().entityProps(hostMor, new String[]{"config"});
+                total += System.nanoTime() - start;
+            }
+            Map<?, ?> headers = client.getConnection().getHeaders();
+            logger.info("{}: {} ms per call, Content-Encoding {}, Content-Length {}", name,
+                    total / ITERATIONS / 1e6, header(headers, "Content-Encoding"),
+                    header(headers, "Content-Length"));
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private static Object header(Map<?, ?> headers, String name) {
+        for (Map.Entry<?, ?> entry : headers.entrySet()) {
+            if (entry.getKey() != null && name.equalsIgnoreCase(entry.getKey().toString())) {
+                Object value = entry.getValue();
+                return value instanceof List && !((List<?>) value).isEmpty()
+                        ? ((List<?>) value).get(0) : value;
+            }
+        }
+        return "n/a";
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vmware.sample.hci.connection.VimServiceBootstrap;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.VimService;
+
+/**
+ * Startup benchmark of the client creation path. No server is needed, the
+ * ports are created but never used.
+ */
+public class VimServiceBootstrapTest {
+    private static final Logger logger = LoggerFactory.getLogger(VimServiceBootstrapTest.class);
+
+    private static final int PORT_COUNT = 50;
+    private static final String URL = "https://127.0.0.1/sdk/vimService/";
+
+    public static void main(String[] args) {
+        new VimServiceBootstrapTest().testStartup();
+    }
+
+    @Test
+    public void testStartup() {
+        long start = System.nanoTime();
+        VimPortType first = VimServiceBootstrap.newPort(URL);
+        long firstNanos = System.nanoTime() - start;
+
+        long total = 0;
+        long last = 0;
+        VimPortType port = null;
+        for (int i = 1; i < PORT_COUNT; i++) {
+            start = System.nanoTime();
+            port = VimServiceBootstrap.newPort(URL);
+            last = System.nanoTime() - start;
+            total += last;
+        }
+        logger.info("first client {} ms (service bootstrap {} ms), client #{} {} ms, average {} ms",
+                firstNanos / 1e6, VimServiceBootstrap.getBootstrapNanos() / 1e6,
+                PORT_COUNT, last / 1e6, total / (PORT_COUNT - 1) / 1e6);
+
+        assertNotSame(first, port);
+        assertTrue("Nth client should not pay for the WSDL again",
+                last < VimServiceBootstrap.getBootstrapNanos());
+    }
+
+    @Test
+    public void testServiceShared() {
+        VimService service = VimServiceBootstrap.getService();
+        assertSame(service, VimServiceBootstrap.getService());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *  ******************************************************
+ *  Copyright VMware, Inc. 2019-2020.  All Rights Reserved.
+ *  ******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS # OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY # DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY # QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ */
+
+package com.vmware.vsphere;
+
+import static com.vmware.vsphere.FakeVimPort.mor;
+import static com.vmware.vsphere.FakeVimPort.propertyChange;
+import static com.vmware.vsphere.FakeVimPort.serviceContent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vmware.sample.hci.vsphere.operation.TaskTracker;
+import com.vmware.sample.hci.vsphere.operation.VsanUpdateWaiter;
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+
+/**
+ * This class is used to test the vSAN update waiter against a fake collector.
+ */
+public class VsanUpdateWaiterTest {
+
+    // sent as the initial state when the filter is created, then in order
+    private final List<ObjectUpdate> initial = new ArrayList<ObjectUpdate>();
+    private final List<List<ObjectUpdate>> later = new ArrayList<List<ObjectUpdate>>();
+    private final FakeVimPort fake = fake();
+    private int filterFailures;
+
+    @Test
+    public void testWaitsForAllHostsWithOneFilter() {
+        initial.add(host("host-1", "esx-1", "task-1", "task-2"));
+        initial.add(host("host-2", "esx-2", "task-3"));
+        initial.add(host("host-3", "esx-3"));
+        initial.add(task("task-1", VsanUpdateWaiter.VSAN_UPDATE_DESCRIPTION, TaskInfoState.RUNNING));
+        initial.add(task("task-2", "Datastore.refresh", TaskInfoState.RUNNING));
+        initial.add(task("task-3", VsanUpdateWaiter.VSAN_UPDATE_DESCRIPTION, TaskInfoState.SUCCESS));
+        // a task appearing on host-3 while host-1 is still updating
+        later.add(Arrays.asList(host("host-3", null, "task-4"),
+                task("task-4", VsanUpdateWaiter.VSAN_UPDATE_DESCRIPTION, TaskInfoState.QUEUED)));
+        later.add(Collections.singletonList(change("task-1", "info.progress", 50)));
+        later.add(Collections.singletonList(change("task-1", "info.state", TaskInfoState.SUCCESS)));
+        later.add(Collections.singletonList(change("task-4", "info.state", TaskInfoState.ERROR)));
+
+        final List<String> progress = Collections.synchronizedList(new ArrayList<String>());
+        VsanUpdateWaiter waiter = new VsanUpdateWaiter(fake.port(), fake.port(), serviceContent(), "fake",
+                Arrays.asList(mor("HostSystem", "host-1"), mor("HostSystem", "host-2"),
+                        mor("HostSystem", "host-3")));
+        waiter.setListener(new TaskTracker.Listener() {
+            @Override
+            public void onProgress(ManagedObjectReference task, int percent) {
+                progress.add(task.getValue() + ":" + percent);
+            }
+        });
+        List<VsanUpdateWaiter.HostResult> results = waiter.waitForUpdates(5000);
+        waiter.close();
+
+        assertEquals(3, results.size());
+        assertEquals("esx-1", results.get(0).getHostName());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(1, results.get(0).getTasks().size());
+        assertTrue(results.get(1).isSuccess());
+        assertTrue(results.get(2).isFinished());
+        assertFalse(results.get(2).isSuccess());
+        assertTrue(progress.contains("task-1:50"));
+        assertTrue(progress.contains("task-1:100"));
+        assertFalse(progress.contains("task-2:100"));
+
+        assertEquals(1, fake.count("createFilter"));
+        assertEquals(1, fake.count("destroyPropertyCollector"));
+        assertEquals(0, fake.count("retrievePropertiesEx"));
+    }
+
+    @Test
+    public void testNoVsanTask() {
+        initial.add(host("host-1", "esx-1", "task-1"));
+        initial.add(task("task-1", "Datastore.refresh", TaskInfoState.RUNNING));
+        VsanUpdateWaiter waiter = new VsanUpdateWaiter(fake.port(), fake.port(), serviceContent(), "fake",
+                Collections.singletonList(mor("HostSystem", "host-1")));
+        List<VsanUpdateWaiter.HostResult> results = waiter.waitForUpdates(0);
+        waiter.close();
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(0).getTasks().isEmpty());
+        assertEquals(1, fake.count("waitForUpdatesEx"));
+    }
+
+    @Test
+    public void testDeadline() {
+        initial.add(host("host-1", "esx-1", "task-1"));
+        initial.add(task("task-1", VsanUpdateWaiter.VSAN_UPDATE_DESCRIPTION, TaskInfoState.RUNNING));
+        VsanUpdateWaiter waiter = new VsanUpdateWaiter(fake.port(), fake.port(), serviceContent(), "fake",
+                Collections.singletonList(mor("HostSystem", "host-1")));
+        long start = System.currentTimeMillis();
+        List<VsanUpdateWaiter.HostResult> results = waiter.waitForUpdates(300);
+        waiter.close();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertFalse(results.get(0).isFinished());
+        assertFalse(results.get(0).isSuccess());
+    }
+
+    @Test
+    public void testPartialSetUpDestroyed() {
+        initial.add(host("host-1", "esx-1"));
+        filterFailures = 1;
+        VsanUpdateWaiter waiter = new VsanUpdateWaiter(fake.port(), fake.port(), serviceContent(), "fake",
+                Collections.singletonList(mor("HostSystem", "host-1")));
+        List<VsanUpdateWaiter.HostResult> results = waiter.waitForUpdates(5000);
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(2, fake.count("createPropertyCollector"));
+        // the collector and the view of the failed attempt are not left behind
+        assertEquals(1, fake.count("destroyPropertyCollector"));
+        assertEquals(1, fake.count("destroyView"));
+        waiter.close();
+        assertEquals(2, fake.count("destroyPropertyCollector"));
+        assertEquals(2, fake.count("destroyView"));
+    }
+
+    private static ObjectUpdate host(String host, String name, String... recentTasks) {
+        ObjectUpdate update = new ObjectUpdate();
+        update.setObj(mor("HostSystem", host));
+        update.setKind(name == null ? ObjectUpdateKind.MODIFY : ObjectUpdateKind.ENTER);
+        if (name != null) {
+            update.getChangeSet().add(propertyChange("name", name));
+        }
+        ArrayOfManagedObjectReference tasks = new ArrayOfManagedObjectReference();
+        for (String task : recentTasks) {
+            tasks.getManagedObjectReference().add(mor("Task", task));
+        }
+        update.getChangeSet().add(propertyChange("recentTask", tasks));
+        return update;
+    }
+
+    private static ObjectUpdate task(String task, String descriptionId, TaskInfoState state) {
+        TaskInfo info = new TaskInfo();
+        info.setKey(task);
+        info.setTask(mor("Task", task));
+        info.setDescriptionId(descriptionId);
+        info.setState(state);
+        ObjectUpdate update = new ObjectUpdate();
+        update.setObj(mor("Task", task));
+        update.setKind(ObjectUpdateKind.ENTER);
+        update.getChangeSet().add(propertyChange("info", info));
+        return update;
+    }
+
+    private static ObjectUpdate change(String task, String path, Object value) {
+        ObjectUpdate update = new ObjectUpdate();
+        update.setObj(mor("Task", task));
+        update.setKind(ObjectUpdateKind.MODIFY);
+        update.getChangeSet().add(propertyChange(path, value));
+        return update;
+    }
+
+    private FakeVimPort fake() {
+        return new FakeVimPort()
+                .on("createPropertyCollector", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("PropertyCollector", "session[1]1");
+                    }
+                })
+                .on("createListView", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return mor("ListView", "session[1]2");
+                    }
+                })
+                .on("createFilter", new FakeVimPort.Answer() {
+                    @Override
+                    public Object answer(Object[] args) throws RuntimeFaultFaultMsg {
+                        if (filterFailures > 0) {
+                            filterFailures--;
+                            throw new RuntimeFaultFaultMsg("busy", new RuntimeFault());
+                        }
+                        fake.push(initial);
+                        for (List<ObjectUpdate> objectUpdates : later) {
+                            fake.push(objectUpdates);
+                        }
+                        return mor("PropertyFilter", "session[1]3");
+                    }
+                })
+                .returnNull("destroyPropertyCollector", "destroyView");
+    }
+}
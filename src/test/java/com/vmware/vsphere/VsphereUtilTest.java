@@ -13,11 +13,14 @@
 
 package com.vmware.vsphere;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
@@ -136,6 +139,29 @@ public class VsphereUtilTest {
         }
     }
 
+    @Test
+    @Ignore
+    public void testGetHostMorByKey() {
+        try {
+            ManagedObjectReference byName = VsphereUtil.getHostMor(this.vcManager.getVsphereClient(),
+                    "YOUR_HOST_NAME".toUpperCase() + ".");
+            assertNotNull(byName);
+            ManagedObjectReference byIp = VsphereUtil.getHostMor(this.vcManager.getVsphereClient(),
+                    "YOUR_HOST_IP");
+            assertEquals(byName.getValue(), byIp.getValue());
+            ManagedObjectReference byValue = VsphereUtil.getHostMor(this.vcManager.getVsphereClient(),
+                    byName.getValue());
+            assertEquals(byName.getValue(), byValue.getValue());
+            Map<String, ManagedObjectReference> hostMors = VsphereUtil.getHostMors(
+                    this.vcManager.getVsphereClient(), Arrays.asList("YOUR_HOST_IP", "no-such-host"));
+            assertEquals(1, hostMors.size());
+            logger.info("Test completed");
+        } catch (Exception e) {
+            fail(e.getMessage());
+            logger.error(e.getMessage(), e);
+        }
+    }
+
     @Test
     public void testParseVlanId() {
         try {